@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.examples.ch05.encryption.CipherAlgorithms;
+import org.jboss.ejb3.examples.ch05.encryption.CipherEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of each built-in cipher algorithm and of a range
+ * of digest algorithms.  Throughput in MB/s is the reported ops/s multiplied
+ * by the payload size in MB.  Algorithms the running JVM does not support
+ * fail in setup, ie. ChaCha20-Poly1305 prior to Java 11 and SHA3 prior to Java 9.
+ *
+ * Whether AES uses the instructions of the CPU may be checked by comparing
+ * against a run with them disabled, ie.
+ * <code>java -jar target/benchmarks.jar AlgorithmThroughput -jvmArgsAppend -XX:-UseAESIntrinsics</code>
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AlgorithmThroughputBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private static final String PASSPHRASE = "LocalTestingPassphrase";
+
+   private static final byte[] SALT =
+   {(byte) 0xB4, (byte) 0xA2, (byte) 0x43, (byte) 0x89, 0x3E, (byte) 0xC5, (byte) 0x78, (byte) 0x53};
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Name of the cipher algorithm
+    */
+   @Param(
+   {"PBEWithMD5AndDES", "AES-GCM", "ChaCha20-Poly1305"})
+   String cipherAlgorithm;
+
+   /**
+    * Name of the digest algorithm
+    */
+   @Param(
+   {"MD5", "SHA-256", "SHA-512", "SHA3-256"})
+   String digestAlgorithm;
+
+   /**
+    * Size of the payload in bytes
+    */
+   @Param(
+   {"64", "16384", "1048576"})
+   int payloadSize;
+
+   CipherEngine engine;
+
+   byte[] payload;
+
+   byte[] ciphertext;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      engine = CipherEngine.newInstance(CipherAlgorithms.forName(cipherAlgorithm), PASSPHRASE, SALT,
+            digestAlgorithm);
+      payload = new byte[payloadSize];
+      Arrays.fill(payload, (byte) 'a');
+      ciphertext = engine.encrypt(payload);
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      engine.close();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   @Benchmark
+   public byte[] encrypt() throws Exception
+   {
+      return engine.encrypt(payload);
+   }
+
+   @Benchmark
+   public byte[] decrypt() throws Exception
+   {
+      return engine.decrypt(ciphertext);
+   }
+
+   @Benchmark
+   public byte[] digest() throws Exception
+   {
+      return engine.digest(payload);
+   }
+}
@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption.benchmark;
+
+import java.security.MessageDigest;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.KeySpec;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+
+import org.jboss.ejb3.examples.ch05.encryption.CipherAlgorithms;
+import org.jboss.ejb3.examples.ch05.encryption.CipherEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures throughput under contention of the shared {@link CipherEngine}
+ * against the previous model, in which each bean instance held its own
+ * ciphers and digest and callers had to wait for a free instance from a
+ * container pool of fixed size.
+ *
+ * Run with varying Thread counts to observe scaling, ie.
+ * <code>java -jar target/benchmarks.jar CipherContention -t 1,4,16</code>
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class CipherContentionBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /*
+    * Mirror the original configuration of the EncryptionEJB
+    */
+
+   private static final String ALGORITHM_CIPHER = "PBEWithMD5AndDES";
+
+   private static final String ALGORITHM_DIGEST = "MD5";
+
+   private static final String PASSPHRASE = "LocalTestingPassphrase";
+
+   private static final byte[] SALT =
+   {(byte) 0xB4, (byte) 0xA2, (byte) 0x43, (byte) 0x89, 0x3E, (byte) 0xC5, (byte) 0x78, (byte) 0x53};
+
+   private static final int ITERATION_COUNT = 20;
+
+   /**
+    * Payload run through each operation
+    */
+   private static final byte[] PAYLOAD = "EJB 3.1 Examples Benchmark Payload".getBytes();
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * The shared engine now backing all bean instances
+    */
+   @State(Scope.Benchmark)
+   public static class SharedEngine
+   {
+      CipherEngine engine;
+
+      @Setup
+      public void setup() throws Exception
+      {
+         engine = CipherEngine.newInstance(CipherAlgorithms.forName(ALGORITHM_CIPHER), PASSPHRASE, SALT,
+               ALGORITHM_DIGEST);
+      }
+
+      @TearDown
+      public void tearDown()
+      {
+         engine.close();
+      }
+   }
+
+   /**
+    * A fixed-size pool of instances, each with its own key, ciphers
+    * and digest; models the container's SLSB pool prior to {@link CipherEngine}
+    */
+   @State(Scope.Benchmark)
+   public static class PerInstancePool
+   {
+      /**
+       * Size of the container pool
+       */
+      @Param(
+      {"1", "4"})
+      int poolSize;
+
+      BlockingQueue<Instance> instances;
+
+      @Setup
+      public void setup() throws Exception
+      {
+         instances = new ArrayBlockingQueue<Instance>(poolSize);
+         for (int i = 0; i < poolSize; i++)
+         {
+            instances.add(new Instance());
+         }
+      }
+   }
+
+   /**
+    * One bean instance as initialized prior to {@link CipherEngine}
+    */
+   static final class Instance
+   {
+      final Cipher encryptionCipher;
+
+      final MessageDigest messageDigest;
+
+      Instance() throws Exception
+      {
+         final KeySpec keySpec = new PBEKeySpec(PASSPHRASE.toCharArray(), SALT, ITERATION_COUNT);
+         final SecretKey key = SecretKeyFactory.getInstance(ALGORITHM_CIPHER).generateSecret(keySpec);
+         final AlgorithmParameterSpec paramSpec = new PBEParameterSpec(SALT, ITERATION_COUNT);
+         encryptionCipher = Cipher.getInstance(key.getAlgorithm());
+         encryptionCipher.init(Cipher.ENCRYPT_MODE, key, paramSpec);
+         messageDigest = MessageDigest.getInstance(ALGORITHM_DIGEST);
+      }
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   @Benchmark
+   public byte[] engineEncrypt(final SharedEngine state) throws Exception
+   {
+      return state.engine.encrypt(PAYLOAD);
+   }
+
+   @Benchmark
+   public byte[] engineHash(final SharedEngine state) throws Exception
+   {
+      return state.engine.digest(PAYLOAD);
+   }
+
+   @Benchmark
+   public byte[] perInstanceEncrypt(final PerInstancePool state) throws Exception
+   {
+      final Instance instance = state.instances.take();
+      try
+      {
+         return instance.encryptionCipher.doFinal(PAYLOAD);
+      }
+      finally
+      {
+         state.instances.put(instance);
+      }
+   }
+
+   @Benchmark
+   public byte[] perInstanceHash(final PerInstancePool state) throws Exception
+   {
+      final Instance instance = state.instances.take();
+      try
+      {
+         return instance.messageDigest.digest(PAYLOAD);
+      }
+      finally
+      {
+         state.instances.put(instance);
+      }
+   }
+}
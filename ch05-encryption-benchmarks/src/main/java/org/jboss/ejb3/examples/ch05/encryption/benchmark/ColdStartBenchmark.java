@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption.benchmark;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.examples.ch05.encryption.CipherAlgorithm;
+import org.jboss.ejb3.examples.ch05.encryption.CipherAlgorithms;
+import org.jboss.ejb3.examples.ch05.encryption.CipherEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cold-start latency of the EncryptionEJB: the cost of 
+ * deriving the keys and creating ciphers when the key holder starts, 
+ * and the latency seen by a burst of concurrent first requests upon 
+ * an engine which has (or has not) been pre-warmed.
+ *
+ * Each iteration creates a new engine with a fresh salt, so no derived
+ * key is reused from previous iterations; results are single-shot times, ie.
+ * <code>java -jar target/benchmarks.jar ColdStart -p prewarmedCiphers=0,8</code>
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(3)
+@State(Scope.Benchmark)
+public class ColdStartBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private static final String PASSPHRASE = "LocalTestingPassphrase";
+
+   private static final String ALGORITHM_DIGEST = "SHA-256";
+
+   private static final int SALT_LENGTH = 8;
+
+   /**
+    * Number of concurrent first requests in {@link ColdStartBenchmark#firstRequests(DeployedEngine)}
+    */
+   private static final int BURST_SIZE = 8;
+
+   /**
+    * Payload run through each request
+    */
+   private static final byte[] PAYLOAD = "EJB 3.1 Examples Benchmark Payload".getBytes();
+
+   /**
+    * Source of fresh salts
+    */
+   private static final SecureRandom random = new SecureRandom();
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Name of the {@link CipherAlgorithm} under test
+    */
+   @Param(
+   {"AES-GCM", "PBEWithMD5AndDES"})
+   String cipherAlgorithm;
+
+   /**
+    * Number of ciphers created in each mode at startup
+    */
+   @Param(
+   {"0", "8"})
+   int prewarmedCiphers;
+
+   CipherAlgorithm algorithm;
+
+   byte[] salt;
+
+   /**
+    * Engine started by {@link ColdStartBenchmark#startup()}, closed after each iteration
+    */
+   CipherEngine started;
+
+   @Setup(Level.Trial)
+   public void resolveAlgorithm()
+   {
+      algorithm = CipherAlgorithms.forName(cipherAlgorithm);
+   }
+
+   @Setup(Level.Iteration)
+   public void freshSalt()
+   {
+      salt = newSalt();
+   }
+
+   @TearDown(Level.Iteration)
+   public void shutdown()
+   {
+      if (started != null)
+      {
+         started.close();
+         started = null;
+      }
+   }
+
+   /**
+    * An engine started, and pre-warmed as configured, afresh for each iteration
+    */
+   @State(Scope.Benchmark)
+   public static class DeployedEngine
+   {
+      CipherEngine engine;
+
+      @Setup(Level.Iteration)
+      public void deploy(final ColdStartBenchmark benchmark) throws Exception
+      {
+         engine = startup(benchmark.algorithm, newSalt(), benchmark.prewarmedCiphers);
+      }
+
+      @TearDown(Level.Iteration)
+      public void undeploy()
+      {
+         engine.close();
+      }
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Time taken by the key holder to start
+    */
+   @Benchmark
+   public CipherEngine startup() throws Exception
+   {
+      started = startup(algorithm, salt, prewarmedCiphers);
+      return started;
+   }
+
+   /**
+    * Time taken by each of a burst of concurrent first requests
+    */
+   @Benchmark
+   @Threads(BURST_SIZE)
+   public byte[] firstRequests(final DeployedEngine deployed) throws Exception
+   {
+      return deployed.engine.encrypt(PAYLOAD);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private static CipherEngine startup(final CipherAlgorithm algorithm, final byte[] salt,
+         final int prewarmedCiphers) throws Exception
+   {
+      final CipherEngine engine = CipherEngine.newInstance(algorithm, PASSPHRASE, salt, ALGORITHM_DIGEST);
+      engine.prewarm(prewarmedCiphers);
+      return engine;
+   }
+
+   private static byte[] newSalt()
+   {
+      final byte[] salt = new byte[SALT_LENGTH];
+      random.nextBytes(salt);
+      return salt;
+   }
+}
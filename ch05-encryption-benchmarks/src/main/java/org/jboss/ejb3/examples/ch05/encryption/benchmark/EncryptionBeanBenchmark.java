@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.examples.ch05.encryption.EncryptionBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the business operations of the EncryptionEJB, run as a POJO with
+ * {@link EncryptionBean#initialize()} invoked directly, across payload sizes 
+ * and algorithms.  Each operation is run by a single Thread 
+ * ({@link SingleThreaded}) and by as many Threads as there are processors
+ * sharing one instance ({@link MultiThreaded}), as the container would
+ * share the engine behind its pooled instances.
+ *
+ * Intended to gate regressions between builds.  {@link EncryptionBeanBenchmark#main(String[])}
+ * runs the full matrix with the GC profiler, reporting allocation per operation 
+ * alongside throughput, and writes the results as JSON for comparison with 
+ * those of a previous build, ie.
+ * <code>java -cp target/benchmarks.jar org.jboss.ejb3.examples.ch05.encryption.benchmark.EncryptionBeanBenchmark</code>
+ * A subset may be run as usual, ie.
+ * <code>java -jar target/benchmarks.jar EncryptionBean.*SingleThreaded -p payloadSize=64 -prof gc</code>
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public abstract class EncryptionBeanBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * File to which {@link EncryptionBeanBenchmark#main(String[])} writes the results
+    */
+   private static final String RESULT_FILE = "target/encryption-benchmarks.json";
+
+   /**
+    * Seed of the payload, so that every run measures the same input
+    */
+   private static final long PAYLOAD_SEED = 0x5EEDL;
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Size of the payload in characters (and, being ASCII, in bytes)
+    */
+   @Param(
+   {"64", "16384", "1048576"})
+   int payloadSize;
+
+   /**
+    * Name of the cipher algorithm, applying to encrypt and decrypt
+    */
+   @Param(
+   {"AES-GCM", "ChaCha20-Poly1305"})
+   String cipherAlgorithm;
+
+   /**
+    * Name of the digest algorithm, applying to hash, compare and hashAsync
+    */
+   @Param(
+   {"SHA-256", "SHA-512"})
+   String digestAlgorithm;
+
+   /**
+    * Maximum number of cached hash results, 0 to disable the cache; as the
+    * payload is the same each time, all but the first hash are hits, so 
+    * comparison with 0 shows what the cache saves (or costs) per digest
+    */
+   @Param(
+   {"0", "10000"})
+   int hashCacheMaxSize;
+
+   /**
+    * The bean under test, used as a POJO
+    */
+   EncryptionBean bean;
+
+   String payload;
+
+   String ciphertext;
+
+   String hash;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      // Configure and initialize as the container would
+      bean = new EncryptionBean();
+      bean.setCipherAlgorithm(cipherAlgorithm);
+      bean.setMessageDigestAlgorithm(digestAlgorithm);
+      bean.setHashCacheMaxSize(hashCacheMaxSize);
+      bean.initialize();
+
+      // Printable ASCII, so the character and byte counts agree
+      final Random random = new Random(PAYLOAD_SEED);
+      final char[] chars = new char[payloadSize];
+      for (int i = 0; i < chars.length; i++)
+      {
+         chars[i] = (char) (' ' + random.nextInt('~' - ' '));
+      }
+      payload = new String(chars);
+      ciphertext = bean.encrypt(payload);
+      hash = bean.hash(payload);
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      bean.destroy();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   @Benchmark
+   public String encrypt() throws Exception
+   {
+      return bean.encrypt(payload);
+   }
+
+   @Benchmark
+   public String decrypt() throws Exception
+   {
+      return bean.decrypt(ciphertext);
+   }
+
+   @Benchmark
+   public String hash() throws Exception
+   {
+      return bean.hash(payload);
+   }
+
+   @Benchmark
+   public boolean compare() throws Exception
+   {
+      return bean.compare(hash, payload);
+   }
+
+   /**
+    * Dispatch of @Asynchronous invocations is provided by the container, so 
+    * upon a POJO this measures the round trip through the executor dedicated 
+    * to asynchronous hashing instead
+    */
+   @Benchmark
+   public String hashAsync() throws Exception
+   {
+      return bean.submitHash(payload).get();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Each operation called by a single Thread
+    */
+   @Threads(1)
+   public static class SingleThreaded extends EncryptionBeanBenchmark
+   {
+   }
+
+   /**
+    * Each operation called concurrently by one Thread per processor
+    */
+   @Threads(Threads.MAX)
+   public static class MultiThreaded extends EncryptionBeanBenchmark
+   {
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Main ----------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Runs all benchmarks of the EncryptionEJB with the GC profiler, writing 
+    * the results to {@link EncryptionBeanBenchmark#RESULT_FILE}
+    */
+   public static void main(final String[] args) throws RunnerException
+   {
+      final Options options = new OptionsBuilder().include(EncryptionBeanBenchmark.class.getSimpleName()).addProfiler(
+            GCProfiler.class).resultFormat(ResultFormatType.JSON).result(RESULT_FILE).build();
+      new Runner(options).run();
+   }
+}
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.examples.ch05.encryption.EncryptionBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the streaming operations of the EncryptionEJB against
+ * the String API for large payloads.  Throughput in MB/s is the reported
+ * ops/s multiplied by the payload size in MB; allocation per operation
+ * (and so the heap a single call requires) is reported when run with
+ * the GC profiler, ie.
+ * <code>java -jar target/benchmarks.jar StreamingEncryption -prof gc</code>
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class StreamingEncryptionBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Size of the payload in bytes
+    */
+   @Param(
+   {"1048576", "16777216"})
+   int payloadSize;
+
+   /**
+    * The bean under test, used as a POJO
+    */
+   EncryptionBean bean;
+
+   /**
+    * Plaintext, as bytes and as a String
+    */
+   byte[] payload;
+
+   String payloadString;
+
+   /**
+    * Ciphertext of the payload, as bytes and as a String
+    */
+   byte[] ciphertext;
+
+   String ciphertextString;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      bean = new EncryptionBean();
+      bean.initialize();
+
+      // Printable ASCII, so the String and byte forms are the same size
+      payload = new byte[payloadSize];
+      Arrays.fill(payload, (byte) 'a');
+      payloadString = new String(payload, "UTF-8");
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      bean.encrypt(new ByteArrayInputStream(payload), out);
+      ciphertext = out.toByteArray();
+      ciphertextString = new String(ciphertext, "UTF-8");
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      bean.destroy();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   @Benchmark
+   public String stringEncrypt() throws Exception
+   {
+      return bean.encrypt(payloadString);
+   }
+
+   @Benchmark
+   public void streamEncrypt() throws Exception
+   {
+      bean.encrypt(new ByteArrayInputStream(payload), NullOutputStream.INSTANCE);
+   }
+
+   @Benchmark
+   public String stringDecrypt() throws Exception
+   {
+      return bean.decrypt(ciphertextString);
+   }
+
+   @Benchmark
+   public void streamDecrypt() throws Exception
+   {
+      bean.decrypt(new ByteArrayInputStream(ciphertext), NullOutputStream.INSTANCE);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Discards all output, so only the cost of the operation itself is measured
+    */
+   static final class NullOutputStream extends OutputStream
+   {
+      static final NullOutputStream INSTANCE = new NullOutputStream();
+
+      @Override
+      public void write(final int b)
+      {
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len)
+      {
+      }
+   }
+}
@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.io.Serializable;
+
+/**
+ * Point-in-time snapshot of the executor dedicated to the asynchronous 
+ * hashing operations of the EncryptionEJB; used to observe backlog 
+ * (queue depth), saturation (rejections) and responsiveness (latency
+ * from submission to completion of each task).
+ *
+ * Immutable.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public final class AsyncHashingStatistics implements Serializable
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * To satisfy explicit serialization hints to the JVM
+    */
+   private static final long serialVersionUID = 1L;
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private final int queueDepth;
+
+   private final int activeCount;
+
+   private final long rejectedCount;
+
+   private final long completedCount;
+
+   private final long totalLatencyNanos;
+
+   private final long maxLatencyNanos;
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   AsyncHashingStatistics(final int queueDepth, final int activeCount, final long rejectedCount,
+         final long completedCount, final long totalLatencyNanos, final long maxLatencyNanos)
+   {
+      this.queueDepth = queueDepth;
+      this.activeCount = activeCount;
+      this.rejectedCount = rejectedCount;
+      this.completedCount = completedCount;
+      this.totalLatencyNanos = totalLatencyNanos;
+      this.maxLatencyNanos = maxLatencyNanos;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Accessors -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Number of tasks waiting for a worker
+    */
+   public int getQueueDepth()
+   {
+      return queueDepth;
+   }
+
+   /**
+    * Number of tasks being executed
+    */
+   public int getActiveCount()
+   {
+      return activeCount;
+   }
+
+   /**
+    * Number of submissions rejected because the executor was at capacity
+    */
+   public long getRejectedCount()
+   {
+      return rejectedCount;
+   }
+
+   /**
+    * Number of tasks completed, successfully or otherwise
+    */
+   public long getCompletedCount()
+   {
+      return completedCount;
+   }
+
+   /**
+    * Mean latency of completed tasks, from submission to completion, 
+    * in nanoseconds; 0 if none have completed
+    */
+   public long getMeanLatencyNanos()
+   {
+      return completedCount == 0 ? 0 : totalLatencyNanos / completedCount;
+   }
+
+   /**
+    * Greatest latency of any completed task, from submission to completion,
+    * in nanoseconds
+    */
+   public long getMaxLatencyNanos()
+   {
+      return maxLatencyNanos;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Overridden Implementations ------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncHashingStatistics [queueDepth=" + queueDepth + ", active=" + activeCount + ", rejected="
+            + rejectedCount + ", completed=" + completedCount + ", meanLatencyNanos=" + getMeanLatencyNanos()
+            + ", maxLatencyNanos=" + maxLatencyNanos + "]";
+   }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.SecretKey;
+
+/**
+ * SPI of a symmetric cipher algorithm usable by the EncryptionEJB.
+ * The algorithm to use for encryption is selected by {@link CipherAlgorithm#getName()}
+ * via the "cipherAlgorithm" env-entry; see {@link CipherAlgorithms} for those
+ * built in.  Additional algorithms may be plugged in by listing their implementation 
+ * classes in <code>META-INF/services/org.jboss.ejb3.examples.ch05.encryption.CipherAlgorithm</code>.
+ * 
+ * Ciphertext records the {@link CipherAlgorithm#getVersion()} of the algorithm
+ * which produced it in its header, so that data remains decryptable after the
+ * configured algorithm has changed.  Implementations must therefore never reuse 
+ * the version of another algorithm, nor change their own key derivation.
+ *
+ * Implementations must be thread-safe.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public interface CipherAlgorithm
+{
+   // ---------------------------------------------------------------------------||
+   // Contracts -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the name by which this algorithm is configured
+    * 
+    * @return
+    */
+   String getName();
+
+   /**
+    * Obtains the version written to the header of ciphertext produced by this 
+    * algorithm.  Version 0 denotes ciphertext without header, as written by
+    * the EncryptionEJB before headers were introduced; built-in algorithms use
+    * versions below 64.
+    * 
+    * @return
+    */
+   byte getVersion();
+
+   /**
+    * Obtains the transformation passed to {@link javax.crypto.Cipher#getInstance(String)}
+    * 
+    * @return
+    */
+   String getTransformation();
+
+   /**
+    * Obtains the number of bytes of the random nonce generated for each 
+    * encryption and carried in the header, or 0 if none is used
+    * 
+    * @return
+    */
+   int getNonceLength();
+
+   /**
+    * Derives the key from the specified passphrase and salt.  Called
+    * once per engine, so may be deliberately expensive.
+    * 
+    * @param passphrase
+    * @param salt
+    * @return
+    * @throws GeneralSecurityException If the key could not be derived
+    */
+   SecretKey deriveKey(String passphrase, byte[] salt) throws GeneralSecurityException;
+
+   /**
+    * Obtains the parameters with which to initialize a cipher
+    * 
+    * @param salt The salt from which the key was derived
+    * @param nonce The nonce of this message, empty if {@link CipherAlgorithm#getNonceLength()} is 0
+    * @return
+    */
+   AlgorithmParameterSpec getParameterSpec(byte[] salt, byte[] nonce);
+}
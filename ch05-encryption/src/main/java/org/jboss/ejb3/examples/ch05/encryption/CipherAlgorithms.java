@@ -0,0 +1,401 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.WeakHashMap;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The {@link CipherAlgorithm}s built into the EncryptionEJB, and lookup
+ * of those plugged in via {@link ServiceLoader}.
+ *
+ * The authenticated (AEAD) algorithms derive a 256-bit key via PBKDF2 and
+ * encrypt each message under a fresh random nonce.  Which is fastest depends upon 
+ * the hardware: AES-GCM where the JVM uses the AES and carry-less multiply 
+ * instructions of the CPU, ChaCha20-Poly1305 where it does not.  Each
+ * requires a runtime whose providers support it (AES-GCM Java 8, 
+ * ChaCha20-Poly1305 Java 11); this is checked when an engine is created.
+ * Neither is the default, as the EJB itself targets Java 6.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public final class CipherAlgorithms
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Iteration count of the key derivation of {@link CipherAlgorithms#PBE_WITH_MD5_AND_DES}
+    */
+   private static final int PBE_ITERATION_COUNT = 20;
+
+   /**
+    * Iteration count of the key derivation of the AEAD algorithms; paid once per engine
+    */
+   private static final int PBKDF2_ITERATION_COUNT = 65536;
+
+   /**
+    * Key derivation function of the AEAD algorithms
+    */
+   private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+   /**
+    * Length of the keys of the AEAD algorithms
+    */
+   private static final int AEAD_KEY_LENGTH_BITS = 256;
+
+   /**
+    * Length of the nonces of the AEAD algorithms
+    */
+   private static final int AEAD_NONCE_LENGTH = 12;
+
+   /**
+    * Length of the authentication tag of AES-GCM
+    */
+   private static final int GCM_TAG_LENGTH_BITS = 128;
+
+   /**
+    * Parameters of AES-GCM, named rather than referenced as they're absent
+    * from the Java 6 runtime this EJB targets
+    */
+   private static final String GCM_PARAMETER_SPEC_CLASS_NAME = "javax.crypto.spec.GCMParameterSpec";
+
+   /**
+    * The original algorithm of the EncryptionEJB: password-based DES, keyed by
+    * an MD5 hash iterated 20 times.  Weak, and retained so that ciphertext 
+    * written without header may still be decrypted.
+    */
+   public static final CipherAlgorithm PBE_WITH_MD5_AND_DES = new CipherAlgorithm()
+   {
+      @Override
+      public String getName()
+      {
+         return "PBEWithMD5AndDES";
+      }
+
+      @Override
+      public byte getVersion()
+      {
+         return 0;
+      }
+
+      @Override
+      public String getTransformation()
+      {
+         return this.getName();
+      }
+
+      @Override
+      public int getNonceLength()
+      {
+         return 0;
+      }
+
+      @Override
+      public SecretKey deriveKey(final String passphrase, final byte[] salt) throws GeneralSecurityException
+      {
+         return SecretKeyFactory.getInstance(this.getName()).generateSecret(
+               new PBEKeySpec(passphrase.toCharArray(), salt, PBE_ITERATION_COUNT));
+      }
+
+      @Override
+      public AlgorithmParameterSpec getParameterSpec(final byte[] salt, final byte[] nonce)
+      {
+         return new PBEParameterSpec(salt, PBE_ITERATION_COUNT);
+      }
+   };
+
+   /**
+    * AES in Galois/Counter Mode
+    */
+   public static final CipherAlgorithm AES_GCM = new AeadAlgorithm("AES-GCM", (byte) 1, "AES/GCM/NoPadding", "AES")
+   {
+      @Override
+      public AlgorithmParameterSpec getParameterSpec(final byte[] salt, final byte[] nonce)
+      {
+         return newGcmParameterSpec(nonce);
+      }
+   };
+
+   /**
+    * ChaCha20 stream cipher with Poly1305 authenticator
+    */
+   public static final CipherAlgorithm CHACHA20_POLY1305 = new AeadAlgorithm("ChaCha20-Poly1305", (byte) 2,
+         "ChaCha20-Poly1305", "ChaCha20")
+   {
+      @Override
+      public AlgorithmParameterSpec getParameterSpec(final byte[] salt, final byte[] nonce)
+      {
+         return new IvParameterSpec(nonce);
+      }
+   };
+
+   /**
+    * All built-in algorithms
+    */
+   private static final List<CipherAlgorithm> BUILT_IN = Collections.unmodifiableList(Arrays.asList(
+         PBE_WITH_MD5_AND_DES, AES_GCM, CHACHA20_POLY1305));
+
+   /**
+    * All algorithms visible to each ClassLoader, so META-INF/services is 
+    * scanned once per deployment rather than upon each lookup.  Neither 
+    * the loaders nor (under memory pressure) the plugged-in algorithms, 
+    * which reference their loaders, are kept from collection upon undeploy.
+    */
+   private static final Map<ClassLoader, SoftReference<List<CipherAlgorithm>>> ALL_BY_LOADER = Collections
+         .synchronizedMap(new WeakHashMap<ClassLoader, SoftReference<List<CipherAlgorithm>>>());
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * No instances
+    */
+   private CipherAlgorithms()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Utility Methods -----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the algorithm with the specified name, built in or plugged in
+    * 
+    * @param name
+    * @return The algorithm, or null if none has the specified name
+    * @throws IllegalArgumentException If the name is not specified
+    */
+   public static CipherAlgorithm forName(final String name) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (name == null)
+      {
+         throw new IllegalArgumentException("name is required.");
+      }
+
+      for (final CipherAlgorithm algorithm : all())
+      {
+         if (algorithm.getName().equals(name))
+         {
+            return algorithm;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Obtains the algorithm which writes the specified version into ciphertext
+    * headers, built in or plugged in
+    * 
+    * @param version
+    * @return The algorithm, or null if none has the specified version
+    */
+   public static CipherAlgorithm forVersion(final byte version)
+   {
+      for (final CipherAlgorithm algorithm : all())
+      {
+         if (algorithm.getVersion() == version)
+         {
+            return algorithm;
+         }
+      }
+      return null;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the built-in algorithms followed by those plugged in, visible
+    * to the current deployment; resolved once per ClassLoader
+    */
+   private static Iterable<CipherAlgorithm> all()
+   {
+      ClassLoader cl = Thread.currentThread().getContextClassLoader();
+      if (cl == null)
+      {
+         cl = CipherAlgorithm.class.getClassLoader();
+      }
+
+      // Resolved already?
+      final SoftReference<List<CipherAlgorithm>> cached = ALL_BY_LOADER.get(cl);
+      List<CipherAlgorithm> algorithms = cached == null ? null : cached.get();
+      if (algorithms != null)
+      {
+         return algorithms;
+      }
+
+      // Resolve; a concurrent resolution for the same loader finds the same
+      algorithms = new ArrayList<CipherAlgorithm>(BUILT_IN);
+      for (final CipherAlgorithm algorithm : ServiceLoader.load(CipherAlgorithm.class, cl))
+      {
+         algorithms.add(algorithm);
+      }
+      algorithms = Collections.unmodifiableList(algorithms);
+      ALL_BY_LOADER.put(cl, new SoftReference<List<CipherAlgorithm>>(algorithms));
+      return algorithms;
+   }
+
+   /**
+    * Creates the parameters of AES-GCM with the specified nonce, loading their
+    * class only once needed so this class remains usable upon Java 6
+    * 
+    * @param nonce
+    * @return
+    * @throws IllegalStateException If the runtime has no such parameters
+    */
+   private static AlgorithmParameterSpec newGcmParameterSpec(final byte[] nonce) throws IllegalStateException
+   {
+      final Constructor<?> constructor = GcmParameterSpecConstructor.INSTANCE;
+      if (constructor == null)
+      {
+         throw new IllegalStateException("AES-GCM is not supported by this runtime");
+      }
+      try
+      {
+         return (AlgorithmParameterSpec) constructor.newInstance(GCM_TAG_LENGTH_BITS, nonce);
+      }
+      catch (final Exception e)
+      {
+         throw new IllegalStateException("Could not create the parameters of AES-GCM", e);
+      }
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Holds the constructor of the parameters of AES-GCM, looked up once
+    * upon first use of the algorithm
+    */
+   private static final class GcmParameterSpecConstructor
+   {
+      /**
+       * The constructor taking the tag length and nonce, or null if the
+       * runtime has no such parameters
+       */
+      static final Constructor<?> INSTANCE = lookup();
+
+      private static Constructor<?> lookup()
+      {
+         try
+         {
+            return Class.forName(GCM_PARAMETER_SPEC_CLASS_NAME).getConstructor(int.class, byte[].class);
+         }
+         catch (final Exception e)
+         {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Authenticated algorithm keyed via PBKDF2, using a random nonce per message
+    */
+   private abstract static class AeadAlgorithm implements CipherAlgorithm
+   {
+      private final String name;
+
+      private final byte version;
+
+      private final String transformation;
+
+      private final String keyAlgorithm;
+
+      AeadAlgorithm(final String name, final byte version, final String transformation, final String keyAlgorithm)
+      {
+         this.name = name;
+         this.version = version;
+         this.transformation = transformation;
+         this.keyAlgorithm = keyAlgorithm;
+      }
+
+      @Override
+      public String getName()
+      {
+         return name;
+      }
+
+      @Override
+      public byte getVersion()
+      {
+         return version;
+      }
+
+      @Override
+      public String getTransformation()
+      {
+         return transformation;
+      }
+
+      @Override
+      public int getNonceLength()
+      {
+         return AEAD_NONCE_LENGTH;
+      }
+
+      @Override
+      public SecretKey deriveKey(final String passphrase, final byte[] salt) throws GeneralSecurityException
+      {
+         final PBEKeySpec keySpec = new PBEKeySpec(passphrase.toCharArray(), salt, PBKDF2_ITERATION_COUNT,
+               AEAD_KEY_LENGTH_BITS);
+         try
+         {
+            final byte[] keyBytes = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(keySpec)
+                  .getEncoded();
+            return new SecretKeySpec(keyBytes, keyAlgorithm);
+         }
+         finally
+         {
+            keySpec.clearPassword();
+         }
+      }
+
+      @Override
+      public String toString()
+      {
+         return name;
+      }
+   }
+}
@@ -0,0 +1,1145 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Thread-safe engine backing the cipher and digest operations of the
+ * EncryptionEJB.  The {@link SecretKey} is derived exactly once
+ * per engine, and {@link Cipher} and {@link MessageDigest} instances 
+ * are handed out from bounded pools, so throughput is no longer tied 
+ * to the number of bean instances the container elects to keep.
+ *
+ * Each engine is owned by whoever created it (in the container, the 
+ * EncryptionKeyHolderEJB, once per deployment), who must {@link CipherEngine#close()}
+ * it when done, so that neither the keys nor the passphrase outlive it.
+ *
+ * Encryption uses the configured {@link CipherAlgorithm}.  Unless that is the 
+ * original {@link CipherAlgorithms#PBE_WITH_MD5_AND_DES}, ciphertext begins with
+ * a header of {@link CipherEngine#HEADER_MAGIC}, the version of the algorithm and
+ * the nonce of the message.  Decryption selects the algorithm from the header,
+ * so ciphertext remains decryptable after the configured algorithm changes; 
+ * ciphertext without header is decrypted with the original algorithm.
+ *
+ * Optionally, results of one-way hashing of byte arrays are cached in a 
+ * bounded {@link HashCache}.
+ *
+ * {@link Cipher} and {@link MessageDigest} are not themselves thread-safe;
+ * each instance is only ever used by one Thread between borrow and release.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public final class CipherEngine
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(CipherEngine.class.getName());
+
+   /**
+    * Default upper bound on the number of idle instances retained in each pool
+    */
+   static final int DEFAULT_MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+   /**
+    * Size of the direct buffers used in streaming operations; memory use
+    * of a streaming operation is bounded by this regardless of payload size, 
+    * except in authenticated decryption, where no output may be released 
+    * before the whole message has been verified
+    */
+   static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Headroom in the output buffer of streaming operations to accommodate
+    * data buffered inside the cipher plus padding, at least one cipher block,
+    * or the header along with the authentication tag
+    */
+   private static final int STREAM_BUFFER_HEADROOM = 64;
+
+   /**
+    * First byte of the header of ciphertext
+    */
+   static final byte HEADER_MAGIC = (byte) 0xEC;
+
+   /**
+    * Length of the header preceding the nonce: magic and version
+    */
+   private static final int HEADER_PREFIX_LENGTH = 2;
+
+   /**
+    * Header and nonce of algorithms which use neither
+    */
+   private static final byte[] EMPTY = new byte[0];
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Configuration from which this engine was created
+    */
+   private final Configuration configuration;
+
+   /**
+    * Upper bound of idle instances retained in each pool
+    */
+   private final int maxIdle;
+
+   /**
+    * Key and ciphers of the configured algorithm, or null once closed
+    */
+   private volatile Suite encryptionSuite;
+
+   /**
+    * Keys and ciphers of each algorithm encountered in decryption, by version;
+    * created as needed
+    */
+   private final ConcurrentMap<Byte, Suite> decryptionSuites = new ConcurrentHashMap<Byte, Suite>();
+
+   /**
+    * Source of nonces
+    */
+   private final SecureRandom random = new SecureRandom();
+
+   /**
+    * Pool of digests used for one-way hashing
+    */
+   private final Pool<MessageDigest> messageDigests;
+
+   /**
+    * Pool of direct buffers used in streaming operations
+    */
+   private final Pool<StreamBuffers> streamBuffers;
+
+   /**
+    * Cache of one-way hash results, or null if not enabled
+    */
+   private final HashCache hashCache;
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Creates a new engine, deriving the key and ensuring that all configured
+    * algorithms are available
+    *
+    * @param configuration
+    * @param maxIdle Upper bound of idle instances retained in each pool
+    * @throws GeneralSecurityException If the key could not be derived or an algorithm
+    *   is not supported
+    */
+   private CipherEngine(final Configuration configuration, final int maxIdle) throws GeneralSecurityException
+   {
+      this.configuration = configuration;
+      this.maxIdle = maxIdle;
+
+      // Derive the key for the configured algorithm, once
+      final Suite encryptionSuite = new Suite(configuration.cipherAlgorithm);
+      this.encryptionSuite = encryptionSuite;
+      decryptionSuites.put(encryptionSuite.algorithm.getVersion(), encryptionSuite);
+
+      // Create the pools
+      this.messageDigests = new Pool<MessageDigest>(maxIdle)
+      {
+         @Override
+         MessageDigest create() throws GeneralSecurityException
+         {
+            return MessageDigest.getInstance(CipherEngine.this.configuration.digestAlgorithm);
+         }
+      };
+
+      this.streamBuffers = new Pool<StreamBuffers>(maxIdle)
+      {
+         @Override
+         StreamBuffers create()
+         {
+            return new StreamBuffers();
+         }
+      };
+
+      // Create the cache, if enabled
+      this.hashCache = configuration.hashCacheMaxSize > 0 ? new HashCache(configuration.hashCacheMaxSize,
+            configuration.hashCacheTimeToLiveMillis, maxIdle) : null;
+
+      // Fail fast upon an unsupported digest algorithm
+      messageDigests.release(messageDigests.borrow());
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Factory -------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Creates a new engine for the specified configuration, deriving its key;
+    * the caller must {@link CipherEngine#close()} it when done
+    *
+    * @param cipherAlgorithm Algorithm used for encryption
+    * @param passphrase Passphrase from which the key is derived
+    * @param salt Salt used in deriving the key
+    * @param digestAlgorithm Algorithm used for one-way hashing
+    * @return
+    * @throws IllegalArgumentException If any argument is not specified
+    * @throws GeneralSecurityException If the key could not be derived or an algorithm
+    *   is not supported
+    */
+   public static CipherEngine newInstance(final CipherAlgorithm cipherAlgorithm, final String passphrase,
+         final byte[] salt, final String digestAlgorithm) throws IllegalArgumentException, GeneralSecurityException
+   {
+      return newInstance(cipherAlgorithm, passphrase, salt, digestAlgorithm, 0, 0);
+   }
+
+   /**
+    * Creates a new engine for the specified configuration, deriving its key;
+    * the caller must {@link CipherEngine#close()} it when done.  If the 
+    * specified cache size is positive, results of {@link CipherEngine#digest(byte[])}
+    * are cached.
+    *
+    * @param cipherAlgorithm Algorithm used for encryption
+    * @param passphrase Passphrase from which the key is derived
+    * @param salt Salt used in deriving the key
+    * @param digestAlgorithm Algorithm used for one-way hashing
+    * @param hashCacheMaxSize Maximum number of cached hash results, or 0 to disable caching
+    * @param hashCacheTimeToLiveMillis Time after which a cached hash result expires
+    * @return
+    * @throws IllegalArgumentException If any argument is not specified, or the cache
+    *   is enabled with a non-positive time-to-live
+    * @throws GeneralSecurityException If the key could not be derived or an algorithm
+    *   is not supported
+    */
+   public static CipherEngine newInstance(final CipherAlgorithm cipherAlgorithm, final String passphrase,
+         final byte[] salt, final String digestAlgorithm, final int hashCacheMaxSize,
+         final long hashCacheTimeToLiveMillis) throws IllegalArgumentException, GeneralSecurityException
+   {
+      // Precondition checks
+      if (cipherAlgorithm == null || passphrase == null || salt == null || digestAlgorithm == null)
+      {
+         throw new IllegalArgumentException("Cipher algorithm, passphrase, salt and digest algorithm are required");
+      }
+
+      // Create
+      final Configuration configuration = new Configuration(cipherAlgorithm, passphrase, salt, digestAlgorithm,
+            hashCacheMaxSize, hashCacheTimeToLiveMillis);
+      final CipherEngine created = new CipherEngine(configuration, DEFAULT_MAX_IDLE);
+      log.info("Created " + CipherEngine.class.getSimpleName() + " for cipher " + cipherAlgorithm.getName()
+            + " and digest " + digestAlgorithm);
+      return created;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Functional Methods --------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Encrypts the specified bytes, prefixing the header of the configured algorithm
+    *
+    * @param input
+    * @return
+    * @throws GeneralSecurityException If an error occurred in encryption
+    */
+   public byte[] encrypt(final byte[] input) throws GeneralSecurityException
+   {
+      final Suite suite = this.getEncryptionSuite();
+      final byte[] header = suite.newHeader();
+      final Cipher cipher = suite.borrow(Cipher.ENCRYPT_MODE, header);
+      final byte[] output = new byte[header.length + cipher.getOutputSize(input.length)];
+      System.arraycopy(header, 0, output, 0, header.length);
+      final int written = cipher.doFinal(input, 0, input.length, output, header.length);
+      suite.release(Cipher.ENCRYPT_MODE, cipher);
+      final int length = header.length + written;
+      return length == output.length ? output : Arrays.copyOf(output, length);
+   }
+
+   /**
+    * Decrypts the specified bytes, with the algorithm named by their header
+    *
+    * @param input
+    * @return
+    * @throws GeneralSecurityException If an error occurred in decryption, for instance
+    *   if the input was not produced by {@link CipherEngine#encrypt(byte[])}
+    */
+   public byte[] decrypt(final byte[] input) throws GeneralSecurityException
+   {
+      final Suite suite = this.getDecryptionSuite(ByteBuffer.wrap(input));
+      try
+      {
+         return this.decrypt(suite, input);
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         // Ciphertext without header may begin with the bytes of one by chance
+         if (suite.isLegacy())
+         {
+            throw gse;
+         }
+         try
+         {
+            return this.decrypt(this.getDecryptionSuite(CipherAlgorithms.PBE_WITH_MD5_AND_DES), input);
+         }
+         catch (final GeneralSecurityException legacyFailure)
+         {
+            throw gse;
+         }
+      }
+   }
+
+   /**
+    * Returns the one-way hash of the specified bytes, from the cache if enabled
+    *
+    * @param input
+    * @return
+    * @throws GeneralSecurityException If no digest could be obtained
+    */
+   public byte[] digest(final byte[] input) throws GeneralSecurityException
+   {
+      // No cache
+      final HashCache hashCache = this.hashCache;
+      if (hashCache == null)
+      {
+         return this.computeDigest(input);
+      }
+
+      // Look in the cache; callers may modify what we return, so hand out copies
+      final HashCache.Fingerprint fingerprint = hashCache.fingerprint(input);
+      final byte[] cached = hashCache.get(fingerprint);
+      if (cached != null)
+      {
+         return cached.clone();
+      }
+      final byte[] result = this.computeDigest(input);
+      hashCache.put(fingerprint, result.clone());
+      return result;
+   }
+
+   /**
+    * Returns the one-way hash of the specified bytes made with the specified
+    * algorithm; used to check hashes tagged with their algorithm.  Only
+    * the algorithm of this engine is cached and pooled, others use a
+    * {@link MessageDigest} of their own.
+    *
+    * @param algorithm
+    * @param input
+    * @return
+    * @throws GeneralSecurityException If the algorithm is not supported
+    */
+   public byte[] digest(final String algorithm, final byte[] input) throws GeneralSecurityException
+   {
+      if (algorithm.equals(configuration.digestAlgorithm))
+      {
+         return this.digest(input);
+      }
+      return MessageDigest.getInstance(algorithm).digest(input);
+   }
+
+   /**
+    * Returns the one-way hash of the specified bytes, bypassing the cache
+    *
+    * @param input
+    * @return
+    * @throws GeneralSecurityException If no digest could be obtained
+    */
+   private byte[] computeDigest(final byte[] input) throws GeneralSecurityException
+   {
+      final MessageDigest digest = messageDigests.borrow();
+      final byte[] result;
+      try
+      {
+         result = digest.digest(input);
+      }
+      finally
+      {
+         // digest() resets the instance, so it's always safe to return
+         messageDigests.release(digest);
+      }
+      return result;
+   }
+
+   /**
+    * Encrypts the remaining bytes of the input buffer into the output buffer,
+    * prefixing the header of the configured algorithm and advancing the 
+    * position of both
+    *
+    * @param input
+    * @param output
+    * @return The number of bytes written to the output buffer
+    * @throws GeneralSecurityException If an error occurred in encryption, or
+    *   {@link javax.crypto.ShortBufferException} if the output buffer has insufficient space
+    */
+   public int encrypt(final ByteBuffer input, final ByteBuffer output) throws GeneralSecurityException
+   {
+      final Suite suite = this.getEncryptionSuite();
+      final byte[] header = suite.newHeader();
+      final Cipher cipher = suite.borrow(Cipher.ENCRYPT_MODE, header);
+
+      // Check for space before writing the header
+      final int required = header.length + cipher.getOutputSize(input.remaining());
+      if (output.remaining() < required)
+      {
+         suite.release(Cipher.ENCRYPT_MODE, cipher);
+         throw new ShortBufferException("Output buffer requires " + required + " bytes remaining, has "
+               + output.remaining());
+      }
+      output.put(header);
+      final int written = cipher.doFinal(input, output);
+      suite.release(Cipher.ENCRYPT_MODE, cipher);
+      return header.length + written;
+   }
+
+   /**
+    * Decrypts the remaining bytes of the input buffer into the output buffer,
+    * with the algorithm named by their header, advancing the position of both
+    *
+    * @param input
+    * @param output
+    * @return The number of bytes written to the output buffer
+    * @throws GeneralSecurityException If an error occurred in decryption, or
+    *   {@link javax.crypto.ShortBufferException} if the output buffer has insufficient space
+    */
+   public int decrypt(final ByteBuffer input, final ByteBuffer output) throws GeneralSecurityException
+   {
+      final int start = input.position();
+      final Suite suite = this.getDecryptionSuite(input);
+      try
+      {
+         return this.decrypt(suite, input, output);
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         // Ciphertext without header may begin with the bytes of one by chance; 
+         // authenticated decryption has written nothing if it's failed
+         input.position(start);
+         if (suite.isLegacy())
+         {
+            throw gse;
+         }
+         try
+         {
+            return this.decrypt(this.getDecryptionSuite(CipherAlgorithms.PBE_WITH_MD5_AND_DES), input, output);
+         }
+         catch (final GeneralSecurityException legacyFailure)
+         {
+            input.position(start);
+            throw gse;
+         }
+      }
+   }
+
+   /**
+    * Writes the one-way hash of the remaining bytes of the input buffer into 
+    * the output buffer, advancing the position of both
+    *
+    * @param input
+    * @param output
+    * @return The number of bytes written to the output buffer
+    * @throws GeneralSecurityException If no digest could be obtained, or
+    *   {@link javax.crypto.ShortBufferException} if the output buffer has insufficient space
+    */
+   public int digest(final ByteBuffer input, final ByteBuffer output) throws GeneralSecurityException
+   {
+      final MessageDigest digest = messageDigests.borrow();
+      final byte[] result;
+      try
+      {
+         // Check for space before consuming the input
+         if (output.remaining() < digest.getDigestLength())
+         {
+            throw new ShortBufferException("Output buffer requires " + digest.getDigestLength()
+                  + " bytes remaining, has " + output.remaining());
+         }
+         digest.update(input);
+         result = digest.digest();
+      }
+      finally
+      {
+         // digest() resets the instance, and we've not updated if we've thrown
+         messageDigests.release(digest);
+      }
+      output.put(result);
+      return result.length;
+   }
+
+   /**
+    * Encrypts all bytes read from the specified channel until end-of-stream, 
+    * writing the header of the configured algorithm and then the result to the 
+    * output channel.  Data is passed through the cipher in fixed-size chunks, 
+    * so memory use is constant regardless of payload size.  Neither channel is closed.
+    *
+    * @param in
+    * @param out
+    * @return The number of bytes read
+    * @throws IOException If an error occurred reading or writing
+    * @throws GeneralSecurityException If an error occurred in encryption
+    */
+   public long encrypt(final ReadableByteChannel in, final WritableByteChannel out) throws IOException,
+         GeneralSecurityException
+   {
+      final Suite suite = this.getEncryptionSuite();
+      final byte[] header = suite.newHeader();
+      final Cipher cipher = suite.borrow(Cipher.ENCRYPT_MODE, header);
+      final StreamBuffers buffers = streamBuffers.borrow();
+      try
+      {
+         buffers.output.put(header);
+         final long read = this.transform(cipher, buffers, in, out);
+         suite.release(Cipher.ENCRYPT_MODE, cipher);
+         return read;
+      }
+      finally
+      {
+         buffers.clear();
+         streamBuffers.release(buffers);
+      }
+   }
+
+   /**
+    * Decrypts all bytes read from the specified channel until end-of-stream, 
+    * with the algorithm named by their header, writing the result to the output
+    * channel.  Data is passed through the cipher in fixed-size chunks; memory use 
+    * is constant regardless of payload size, except for authenticated algorithms,
+    * which withhold all output until the whole message has been verified.
+    * Neither channel is closed.
+    *
+    * @param in
+    * @param out
+    * @return The number of bytes read
+    * @throws IOException If an error occurred reading or writing
+    * @throws GeneralSecurityException If an error occurred in decryption
+    */
+   public long decrypt(final ReadableByteChannel in, final WritableByteChannel out) throws IOException,
+         GeneralSecurityException
+   {
+      final StreamBuffers buffers = streamBuffers.borrow();
+      final ByteBuffer input = buffers.input;
+      try
+      {
+         // Read as much as could be a header: the prefix, then the nonce of the algorithm it names
+         long read = readAtLeast(in, input, HEADER_PREFIX_LENGTH);
+         final ByteBuffer prefix = input.duplicate();
+         prefix.flip();
+         final CipherAlgorithm algorithm = this.getHeaderAlgorithm(prefix);
+         if (algorithm != null)
+         {
+            read += readAtLeast(in, input, HEADER_PREFIX_LENGTH + algorithm.getNonceLength());
+         }
+
+         // Consume the header, if any, leaving the rest of the input for the cipher
+         input.flip();
+         final Suite suite = this.getDecryptionSuite(input);
+         final byte[] header = new byte[suite.getHeaderLength()];
+         input.get(header);
+         input.compact();
+         final Cipher cipher = suite.borrow(Cipher.DECRYPT_MODE, header);
+         read += this.transform(cipher, buffers, in, out);
+         suite.release(Cipher.DECRYPT_MODE, cipher);
+         return read;
+      }
+      finally
+      {
+         buffers.clear();
+         streamBuffers.release(buffers);
+      }
+   }
+
+   /**
+    * Returns the one-way hash of all bytes read from the specified channel
+    * until end-of-stream.  The channel is not closed.
+    *
+    * @param in
+    * @return
+    * @throws IOException If an error occurred reading
+    * @throws GeneralSecurityException If no digest could be obtained
+    */
+   public byte[] digest(final ReadableByteChannel in) throws IOException, GeneralSecurityException
+   {
+      final MessageDigest digest = messageDigests.borrow();
+      final StreamBuffers buffers = streamBuffers.borrow();
+      final ByteBuffer input = buffers.input;
+      final byte[] result;
+      try
+      {
+         while (in.read(input) != -1)
+         {
+            input.flip();
+            digest.update(input);
+            input.clear();
+         }
+         result = digest.digest();
+      }
+      finally
+      {
+         // Leave the digest reset if we've failed partway
+         digest.reset();
+         input.clear();
+         messageDigests.release(digest);
+         streamBuffers.release(buffers);
+      }
+      return result;
+   }
+
+   /**
+    * Creates up to the specified number of ciphers of the configured algorithm
+    * in each mode, and as many digests, ahead of demand, so that a burst of 
+    * requests upon a newly-deployed service need not wait upon their creation.
+    * The number retained is bounded by {@link CipherEngine#DEFAULT_MAX_IDLE}.
+    *
+    * @param count
+    * @return The number of instances now idle in each pool
+    * @throws IllegalArgumentException If the count is negative
+    * @throws GeneralSecurityException If an instance could not be created
+    */
+   public int prewarm(final int count) throws IllegalArgumentException, GeneralSecurityException
+   {
+      // Precondition check
+      if (count < 0)
+      {
+         throw new IllegalArgumentException("count must not be negative: " + count);
+      }
+
+      final int target = Math.min(count, maxIdle);
+      this.getEncryptionSuite().prewarm(target);
+      messageDigests.prewarm(target);
+      return target;
+   }
+
+   /**
+    * Releases the keys, pooled ciphers and digests, and cached hash results
+    * of this engine, and forgets the passphrase; no further operations may
+    * be made upon it.  Operations already under way may complete.
+    */
+   public void close()
+   {
+      encryptionSuite = null;
+      decryptionSuites.clear();
+      configuration.passphrase = null;
+      messageDigests.clear();
+      streamBuffers.clear();
+      if (hashCache != null)
+      {
+         hashCache.clear();
+      }
+      log.info("Closed: " + this);
+   }
+
+   /**
+    * Obtains the algorithm used by this engine for encryption
+    *
+    * @return
+    */
+   public CipherAlgorithm getCipherAlgorithm()
+   {
+      return configuration.cipherAlgorithm;
+   }
+
+   /**
+    * Obtains the algorithm used by this engine for one-way hashing
+    *
+    * @return
+    */
+   public String getDigestAlgorithm()
+   {
+      return configuration.digestAlgorithm;
+   }
+
+   /**
+    * Obtains a snapshot of the counters of the hash cache
+    *
+    * @return
+    */
+   public HashCacheStatistics getHashCacheStatistics()
+   {
+      final HashCache hashCache = this.hashCache;
+      return hashCache == null ? HashCacheStatistics.DISABLED : hashCache.getStatistics();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Overridden Implementations ------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return CipherEngine.class.getSimpleName() + " [cipherAlgorithm=" + configuration.cipherAlgorithm.getName()
+            + ", digestAlgorithm=" + configuration.digestAlgorithm + "]";
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Decrypts the input with the specified suite.  As throughout, the cipher 
+    * is only returned to the pool if the operation succeeded.
+    *
+    * @param suite
+    * @param input
+    * @return
+    * @throws GeneralSecurityException
+    */
+   private byte[] decrypt(final Suite suite, final byte[] input) throws GeneralSecurityException
+   {
+      final int headerLength = suite.getHeaderLength();
+      final Cipher cipher = suite.borrow(Cipher.DECRYPT_MODE, Arrays.copyOf(input, headerLength));
+      final byte[] result = cipher.doFinal(input, headerLength, input.length - headerLength);
+      suite.release(Cipher.DECRYPT_MODE, cipher);
+      return result;
+   }
+
+   /**
+    * Decrypts the remaining input into the output buffer with the specified suite.
+    * As throughout, the cipher is only returned to the pool if the operation succeeded.
+    *
+    * @param suite
+    * @param input
+    * @param output
+    * @return The number of bytes written
+    * @throws GeneralSecurityException
+    */
+   private int decrypt(final Suite suite, final ByteBuffer input, final ByteBuffer output)
+         throws GeneralSecurityException
+   {
+      final byte[] header = new byte[suite.getHeaderLength()];
+      input.get(header);
+      final Cipher cipher = suite.borrow(Cipher.DECRYPT_MODE, header);
+      final int written = cipher.doFinal(input, output);
+      suite.release(Cipher.DECRYPT_MODE, cipher);
+      return written;
+   }
+
+   /**
+    * Streams the input through the specified cipher using the borrowed buffers.
+    * Any data already in the buffers is processed first.  The caller returns 
+    * the cipher to its pool only if this completes.
+    *
+    * @param cipher
+    * @param buffers
+    * @param in
+    * @param out
+    * @return The number of bytes read
+    * @throws IOException
+    * @throws GeneralSecurityException
+    */
+   private long transform(final Cipher cipher, final StreamBuffers buffers, final ReadableByteChannel in,
+         final WritableByteChannel out) throws IOException, GeneralSecurityException
+   {
+      final ByteBuffer input = buffers.input;
+      final ByteBuffer output = buffers.output;
+      long total = 0;
+
+      // Flush anything already written, ie. the header
+      writeFully(output, out);
+
+      // Update in chunks
+      int read;
+      while ((read = in.read(input)) != -1)
+      {
+         total += read;
+         input.flip();
+         process(cipher, input, output, out, false);
+         input.clear();
+      }
+
+      // Finish, flushing any data buffered in the cipher along with padding or tag
+      input.flip();
+      process(cipher, input, output, out, true);
+      return total;
+   }
+
+   /**
+    * Passes the remaining input through the cipher, writing the result to the 
+    * channel via the output buffer.  Authenticated decryption withholds output 
+    * until the whole message has been verified, so may require more than the
+    * buffer holds; such results are written from the heap instead.
+    *
+    * @param cipher
+    * @param input
+    * @param output
+    * @param out
+    * @param last Whether this is the final part of the message
+    * @throws IOException
+    * @throws GeneralSecurityException
+    */
+   private static void process(final Cipher cipher, final ByteBuffer input, final ByteBuffer output,
+         final WritableByteChannel out, final boolean last) throws IOException, GeneralSecurityException
+   {
+      if (cipher.getOutputSize(input.remaining()) <= output.remaining())
+      {
+         if (last)
+         {
+            cipher.doFinal(input, output);
+         }
+         else
+         {
+            cipher.update(input, output);
+         }
+         writeFully(output, out);
+         return;
+      }
+
+      final byte[] chunk = new byte[input.remaining()];
+      input.get(chunk);
+      final byte[] result = last ? cipher.doFinal(chunk) : cipher.update(chunk);
+      if (result != null)
+      {
+         final ByteBuffer buffer = ByteBuffer.wrap(result);
+         while (buffer.hasRemaining())
+         {
+            out.write(buffer);
+         }
+      }
+   }
+
+   /**
+    * Reads from the channel into the buffer until it holds at least the specified
+    * number of bytes, or end-of-stream is reached
+    *
+    * @param in
+    * @param buffer
+    * @param length
+    * @return The number of bytes read
+    * @throws IOException
+    */
+   private static long readAtLeast(final ReadableByteChannel in, final ByteBuffer buffer, final int length)
+         throws IOException
+   {
+      long total = 0;
+      while (buffer.position() < length)
+      {
+         final int read = in.read(buffer);
+         if (read == -1)
+         {
+            break;
+         }
+         total += read;
+      }
+      return total;
+   }
+
+   /**
+    * Writes the contents of the buffer to the channel, leaving the buffer cleared
+    *
+    * @param buffer
+    * @param out
+    * @throws IOException
+    */
+   private static void writeFully(final ByteBuffer buffer, final WritableByteChannel out) throws IOException
+   {
+      buffer.flip();
+      while (buffer.hasRemaining())
+      {
+         out.write(buffer);
+      }
+      buffer.clear();
+   }
+
+   /**
+    * Obtains the algorithm named by the header at the position of the specified
+    * buffer, without consuming it
+    *
+    * @param input
+    * @return The algorithm, or null if the input has no complete header
+    */
+   private CipherAlgorithm getHeaderAlgorithm(final ByteBuffer input)
+   {
+      final int position = input.position();
+      if (input.remaining() < HEADER_PREFIX_LENGTH || input.get(position) != HEADER_MAGIC)
+      {
+         return null;
+      }
+      final CipherAlgorithm algorithm = CipherAlgorithms.forVersion(input.get(position + 1));
+      if (algorithm == null || algorithm.getVersion() == 0)
+      {
+         return null;
+      }
+      return algorithm;
+   }
+
+   /**
+    * Obtains the suite with which to decrypt the input at the position of 
+    * the specified buffer, without consuming it
+    *
+    * @param input
+    * @return
+    * @throws GeneralSecurityException If the algorithm named by the header is not supported
+    */
+   private Suite getDecryptionSuite(final ByteBuffer input) throws GeneralSecurityException
+   {
+      final CipherAlgorithm algorithm = this.getHeaderAlgorithm(input);
+      if (algorithm == null || input.remaining() < HEADER_PREFIX_LENGTH + algorithm.getNonceLength())
+      {
+         return this.getDecryptionSuite(CipherAlgorithms.PBE_WITH_MD5_AND_DES);
+      }
+      return this.getDecryptionSuite(algorithm);
+   }
+
+   /**
+    * Obtains the suite of the configured algorithm
+    *
+    * @return
+    * @throws IllegalStateException If this engine has been closed
+    */
+   private Suite getEncryptionSuite() throws IllegalStateException
+   {
+      final Suite suite = encryptionSuite;
+      if (suite == null)
+      {
+         throw new IllegalStateException(CipherEngine.class.getSimpleName() + " has been closed");
+      }
+      return suite;
+   }
+
+   /**
+    * Obtains the suite of the specified algorithm, deriving its key if this is 
+    * the first time it's been encountered
+    *
+    * @param algorithm
+    * @return
+    * @throws GeneralSecurityException If the algorithm is not supported
+    */
+   private Suite getDecryptionSuite(final CipherAlgorithm algorithm) throws GeneralSecurityException
+   {
+      // Keys are no longer derived once closed
+      this.getEncryptionSuite();
+
+      final Byte version = algorithm.getVersion();
+      final Suite existing = decryptionSuites.get(version);
+      if (existing != null)
+      {
+         return existing;
+      }
+      final Suite created = new Suite(algorithm);
+      final Suite raced = decryptionSuites.putIfAbsent(version, created);
+      return raced != null ? raced : created;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Key and pooled ciphers of one algorithm.  Ciphers of algorithms without 
+    * nonce are initialized once upon creation; others are initialized with
+    * the nonce of each message as they're borrowed.
+    */
+   private final class Suite
+   {
+      private final CipherAlgorithm algorithm;
+
+      private final SecretKey key;
+
+      private final Pool<Cipher> encryptionCiphers;
+
+      private final Pool<Cipher> decryptionCiphers;
+
+      Suite(final CipherAlgorithm algorithm) throws GeneralSecurityException
+      {
+         this.algorithm = algorithm;
+         this.key = algorithm.deriveKey(configuration.passphrase, configuration.salt);
+         this.encryptionCiphers = this.createPool(Cipher.ENCRYPT_MODE);
+         this.decryptionCiphers = this.createPool(Cipher.DECRYPT_MODE);
+
+         // Fail fast upon an unsupported algorithm by initializing one of each up front
+         final byte[] header = this.newHeader();
+         this.release(Cipher.ENCRYPT_MODE, this.borrow(Cipher.ENCRYPT_MODE, header));
+         this.release(Cipher.DECRYPT_MODE, this.borrow(Cipher.DECRYPT_MODE, header));
+      }
+
+      /**
+       * Creates ciphers in each mode until the specified number are idle
+       */
+      void prewarm(final int count) throws GeneralSecurityException
+      {
+         encryptionCiphers.prewarm(count);
+         decryptionCiphers.prewarm(count);
+      }
+
+      /**
+       * Whether this is the suite of ciphertext without header
+       */
+      boolean isLegacy()
+      {
+         return algorithm.getVersion() == 0;
+      }
+
+      /**
+       * Length of the header, including the nonce, of ciphertext of this algorithm
+       */
+      int getHeaderLength()
+      {
+         return this.isLegacy() ? 0 : HEADER_PREFIX_LENGTH + algorithm.getNonceLength();
+      }
+
+      /**
+       * Creates the header of a new message, with a fresh nonce
+       */
+      byte[] newHeader()
+      {
+         if (this.isLegacy())
+         {
+            return EMPTY;
+         }
+         final byte[] header = new byte[this.getHeaderLength()];
+         final byte[] nonce = new byte[algorithm.getNonceLength()];
+         random.nextBytes(nonce);
+         header[0] = HEADER_MAGIC;
+         header[1] = algorithm.getVersion();
+         System.arraycopy(nonce, 0, header, HEADER_PREFIX_LENGTH, nonce.length);
+         return header;
+      }
+
+      /**
+       * Borrows a cipher in the specified mode, initialized for the message of 
+       * the specified header
+       */
+      Cipher borrow(final int mode, final byte[] header) throws GeneralSecurityException
+      {
+         final Pool<Cipher> pool = this.getPool(mode);
+         final Cipher cipher = pool.borrow();
+         if (algorithm.getNonceLength() == 0)
+         {
+            return cipher;
+         }
+         final byte[] nonce = Arrays.copyOfRange(header, HEADER_PREFIX_LENGTH, header.length);
+         final AlgorithmParameterSpec paramSpec = algorithm.getParameterSpec(configuration.salt, nonce);
+         try
+         {
+            cipher.init(mode, key, paramSpec);
+            return cipher;
+         }
+         catch (final InvalidKeyException ike)
+         {
+            // Some ciphers refuse the key and nonce of their previous message,
+            // as when the same ciphertext is decrypted twice; a new instance won't
+            final Cipher fresh = pool.create();
+            fresh.init(mode, key, paramSpec);
+            return fresh;
+         }
+      }
+
+      /**
+       * Returns a cipher in the specified mode to its pool
+       */
+      void release(final int mode, final Cipher cipher)
+      {
+         this.getPool(mode).release(cipher);
+      }
+
+      private Pool<Cipher> getPool(final int mode)
+      {
+         return mode == Cipher.ENCRYPT_MODE ? encryptionCiphers : decryptionCiphers;
+      }
+
+      private Pool<Cipher> createPool(final int mode)
+      {
+         return new Pool<Cipher>(maxIdle)
+         {
+            @Override
+            Cipher create() throws GeneralSecurityException
+            {
+               final Cipher cipher = Cipher.getInstance(algorithm.getTransformation());
+               if (algorithm.getNonceLength() == 0)
+               {
+                  cipher.init(mode, key, algorithm.getParameterSpec(configuration.salt, EMPTY));
+               }
+               return cipher;
+            }
+         };
+      }
+   }
+
+   /**
+    * Pair of direct buffers used for one streaming operation.  The output
+    * buffer is large enough to hold the result of any single update, and
+    * of the final block.
+    */
+   private static final class StreamBuffers
+   {
+      private final ByteBuffer input = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+
+      private final ByteBuffer output = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE + STREAM_BUFFER_HEADROOM);
+
+      /**
+       * Readies both buffers for the next operation
+       */
+      void clear()
+      {
+         input.clear();
+         output.clear();
+      }
+   }
+
+   /**
+    * Settings from which an engine is created
+    */
+   private static final class Configuration
+   {
+      private final CipherAlgorithm cipherAlgorithm;
+
+      /**
+       * Needed to derive keys of algorithms first encountered in decryption;
+       * cleared upon {@link CipherEngine#close()}
+       */
+      private volatile String passphrase;
+
+      private final byte[] salt;
+
+      private final String digestAlgorithm;
+
+      private final int hashCacheMaxSize;
+
+      private final long hashCacheTimeToLiveMillis;
+
+      Configuration(final CipherAlgorithm cipherAlgorithm, final String passphrase, final byte[] salt,
+            final String digestAlgorithm, final int hashCacheMaxSize, final long hashCacheTimeToLiveMillis)
+      {
+         this.cipherAlgorithm = cipherAlgorithm;
+         this.passphrase = passphrase;
+         this.salt = salt.clone();
+         this.digestAlgorithm = digestAlgorithm;
+         this.hashCacheMaxSize = hashCacheMaxSize;
+         this.hashCacheTimeToLiveMillis = hashCacheTimeToLiveMillis;
+      }
+   }
+}
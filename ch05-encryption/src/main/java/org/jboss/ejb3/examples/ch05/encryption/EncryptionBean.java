@@ -21,35 +21,45 @@
  */
 package org.jboss.ejb3.examples.ch05.encryption;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.AlgorithmParameterSpec;
-import java.security.spec.KeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
-import javax.annotation.Resource;
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.PBEParameterSpec;
+import javax.annotation.PreDestroy;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
+import javax.ejb.EJB;
 import javax.ejb.Local;
 import javax.ejb.Remote;
-import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.jboss.ejb3.examples.ch05.encryption.OperationStatistics.Operation;
 
 /**
  * Bean implementation class of the EncryptionEJB.  Shows
  * how lifecycle callbacks are implemented (@PostConstruct),
- * and two ways of obtaining externalized environment
- * entries. 
+ * and how another EJB is injected (@EJB); the externalized
+ * configuration and the keys derived from it are held by the
+ * EncryptionKeyHolderEJB, so are shared by all instances. 
  *
  * @author <a href="mailto:alr@jboss.org">ALR</a>
  */
@@ -68,27 +78,15 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
    private static final Logger log = Logger.getLogger(EncryptionBean.class.getName());
 
    /**
-    * Name we'll assign to this EJB, will be referenced in the corresponding 
-    * META-INF/ejb-jar.xml file
-    */
-   static final String EJB_NAME = "EncryptionEJB";
-
-   /**
-    * Name of the environment entry representing the ciphers' passphrase supplied
-    * in ejb-jar.xml
-    */
-   private static final String ENV_ENTRY_NAME_CIPHERS_PASSPHRASE = "ciphersPassphrase";
-
-   /**
-    * Name of the environment entry representing the message digest algorithm supplied
-    * in ejb-jar.xml
+    * Counters of calls upon each operation, shared by all instances
     */
-   private static final String ENV_ENTRY_NAME_MESSAGE_DIGEST_ALGORITHM = "messageDigestAlgorithm";
+   private static final EncryptionMetrics metrics = EncryptionMetrics.getInstance();
 
    /**
-    * Default Algorithm used by the Digest for one-way hashing
+    * Name we'll assign to this EJB, will be referenced in the corresponding 
+    * META-INF/ejb-jar.xml file
     */
-   private static final String DEFAULT_ALGORITHM_MESSAGE_DIGEST = "MD5";
+   static final String EJB_NAME = "EncryptionEJB";
 
    /**
     * Charset used for encoding/decoding Strings to/from byte representation
@@ -96,25 +94,21 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
    private static final String CHARSET = "UTF-8";
 
    /**
-    * Default Algorithm used by the Cipher Key for symmetric encryption
+    * Line length passed to the streaming Base64 codec to disable chunking, so 
+    * streamed output matches that of {@link Base64#encodeBase64(byte[])}
     */
-   private static final String DEFAULT_ALGORITHM_CIPHER = "PBEWithMD5AndDES";
+   private static final int BASE64_NO_CHUNKING = 0;
 
    /**
-    * The default passphrase for symmetric encryption/decryption
+    * Opens the algorithm tag prefixed to hashes of a preferred message digest, 
+    * ie. "{SHA-512}"; neither delimiter is in the Base64 alphabet
     */
-   private static final String DEFAULT_PASSPHRASE = "LocalTestingPassphrase";
+   private static final char DIGEST_TAG_START = '{';
 
    /**
-    * The salt used in symmetric encryption/decryption
+    * Closes the algorithm tag prefixed to hashes of a preferred message digest
     */
-   private static final byte[] DEFAULT_SALT_CIPHERS =
-   {(byte) 0xB4, (byte) 0xA2, (byte) 0x43, (byte) 0x89, 0x3E, (byte) 0xC5, (byte) 0x78, (byte) 0x53};
-
-   /**
-    * Iteration count used for symmetric encryption/decryption
-    */
-   private static final int DEFAULT_ITERATION_COUNT_CIPHERS = 20;
+   private static final char DIGEST_TAG_END = '}';
 
    // ---------------------------------------------------------------------------||
    // Instance Members ----------------------------------------------------------||
@@ -128,39 +122,58 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
     */
 
    /**
-    * SessionContext of this EJB; this will be injected by the EJB 
-    * Container because it's marked w/ @Resource
+    * Holder of the configuration and keys shared by all instances; this will 
+    * be injected by the EJB Container because it's marked w/ @EJB.  Outside
+    * the container, one is created upon initialization.
     */
-   @Resource
-   private SessionContext context;
+   @EJB
+   private EncryptionKeyHolderLocalBusiness keyHolder;
 
    /**
-    * Passphrase to use  for the key in cipher operations; lazily initialized
-    * and loaded via SessionContext.lookup
+    * Holder created upon initialization outside the container, owned by this 
+    * instance alone and so destroyed along with it; null if injected
     */
-   private String ciphersPassphrase;
+   private EncryptionKeyHolderBean ownKeyHolder;
 
    /**
-    * Algorithm to use in message digest (hash) operations, injected
-    * via @Resource annotation with name property equal to env-entry name
+    * Name of the algorithm used in symmetric encryption, for use outside the container
+    */
+   private String cipherAlgorithm;
+
+   /**
+    * Algorithm used in message digest (hash) operations, for use outside the container
     */
-   @Resource(name = ENV_ENTRY_NAME_MESSAGE_DIGEST_ALGORITHM)
    private String messageDigestAlgorithm;
 
    /**
-    * Digest used for one-way hashing
+    * Algorithm preferred for new hashes, for use outside the container
+    */
+   private String preferredMessageDigestAlgorithm;
+
+   /**
+    * Maximum number of cached hash results, for use outside the container
+    */
+   private Integer hashCacheMaxSize;
+
+   /**
+    * Seconds for which a hash result is cached, for use outside the container
     */
-   private MessageDigest messageDigest;
+   private Integer hashCacheTimeToLiveSeconds;
 
    /**
-    * Cipher used for symmetric encryption
+    * Engine performing the symmetric encryption/decryption and one-way
+    * hashing, obtained from the key holder.  Shared by all instances, so
+    * the key is derived only once and ciphers/digests are pooled
+    * independently of the number of bean instances.
     */
-   private Cipher encryptionCipher;
+   private CipherEngine engine;
 
    /**
-    * Cipher used for symmetric decryption
+    * Tag prefixed to each new hash, naming its algorithm; empty when new
+    * hashes use the message digest algorithm, as did all hashes before it
+    * could be tagged, so that those remain comparable
     */
-   private Cipher decryptionCipher;
+   private String digestTag;
 
    // ---------------------------------------------------------------------------||
    // Lifecycle -----------------------------------------------------------------||
@@ -177,49 +190,44 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
       // Log that we're here
       log.info("Initializing, part of " + PostConstruct.class.getName() + " lifecycle");
 
-      /*
-       * Symmetric Encryption
-       */
-
-      // Obtain parameters used in initializing the ciphers
-      final String cipherAlgorithm = DEFAULT_ALGORITHM_CIPHER;
-      final byte[] ciphersSalt = DEFAULT_SALT_CIPHERS;
-      final int ciphersIterationCount = DEFAULT_ITERATION_COUNT_CIPHERS;
-      final String ciphersPassphrase = this.getCiphersPassphrase();
-
-      // Obtain key and param spec for the ciphers
-      final KeySpec ciphersKeySpec = new PBEKeySpec(ciphersPassphrase.toCharArray(), ciphersSalt, ciphersIterationCount);
-      final SecretKey ciphersKey = SecretKeyFactory.getInstance(cipherAlgorithm).generateSecret(ciphersKeySpec);
-      final AlgorithmParameterSpec paramSpec = new PBEParameterSpec(ciphersSalt, ciphersIterationCount);
-
-      // Create and init the ciphers
-      this.encryptionCipher = Cipher.getInstance(ciphersKey.getAlgorithm());
-      this.decryptionCipher = Cipher.getInstance(ciphersKey.getAlgorithm());
-      encryptionCipher.init(Cipher.ENCRYPT_MODE, ciphersKey, paramSpec);
-      decryptionCipher.init(Cipher.DECRYPT_MODE, ciphersKey, paramSpec);
-
-      // Log
-      log.info("Initialized encryption cipher: " + this.encryptionCipher);
-      log.info("Initialized decryption cipher: " + this.decryptionCipher);
-
-      /*
-       * One-way Hashing
-       */
-
-      // Get the algorithm for the MessageDigest
-      final String messageDigestAlgorithm = this.getMessageDigestAlgorithm();
-
-      // Create the MessageDigest
-      try
+      // Outside the container, create (and initialize) a holder of our own
+      EncryptionKeyHolderLocalBusiness keyHolder = this.keyHolder;
+      if (keyHolder == null)
       {
-         this.messageDigest = MessageDigest.getInstance(messageDigestAlgorithm);
+         final EncryptionKeyHolderBean pojo = new EncryptionKeyHolderBean();
+         pojo.setCipherAlgorithm(this.cipherAlgorithm);
+         pojo.setMessageDigestAlgorithm(this.messageDigestAlgorithm);
+         pojo.setPreferredMessageDigestAlgorithm(this.preferredMessageDigestAlgorithm);
+         pojo.setHashCacheMaxSize(this.hashCacheMaxSize);
+         pojo.setHashCacheTimeToLiveSeconds(this.hashCacheTimeToLiveSeconds);
+         pojo.initialize();
+         keyHolder = pojo;
+         this.keyHolder = keyHolder;
+         this.ownKeyHolder = pojo;
       }
-      catch (NoSuchAlgorithmException e)
+
+      // Obtain the shared engine, whose keys have already been derived
+      this.engine = keyHolder.getEngine();
+      final String digestAlgorithm = this.engine.getDigestAlgorithm();
+      this.digestTag = digestAlgorithm.equals(keyHolder.getMessageDigestAlgorithm()) ? "" : DIGEST_TAG_START
+            + digestAlgorithm + DIGEST_TAG_END;
+      log.info("Initialized with engine: " + this.engine);
+   }
+
+   /**
+    * Destroys the key holder this instance created for itself, if any, closing
+    * its engine; one injected by the container is left to the container
+    */
+   @PreDestroy
+   public void destroy()
+   {
+      final EncryptionKeyHolderBean ownKeyHolder = this.ownKeyHolder;
+      this.ownKeyHolder = null;
+      if (ownKeyHolder != null)
       {
-         throw new RuntimeException("Could not obtain the " + MessageDigest.class.getSimpleName() + " for algorithm: "
-               + messageDigestAlgorithm, e);
+         ownKeyHolder.destroy();
       }
-      log.info("Initialized MessageDigest for one-way hashing: " + this.messageDigest);
+      log.info("Destroyed, part of " + PreDestroy.class.getName() + " lifecycle");
    }
 
    // ---------------------------------------------------------------------------||
@@ -243,11 +251,38 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
          throw new IllegalArgumentException("Input is required.");
       }
 
-      // Get the hash of the supplied input
-      final String hashOfInput = this.hash(input);
+      // Untagged hashes are of the message digest algorithm, others name their own
+      String algorithm = this.keyHolder.getMessageDigestAlgorithm();
+      String encoded = hash;
+      if (hash.length() > 0 && hash.charAt(0) == DIGEST_TAG_START)
+      {
+         final int end = hash.indexOf(DIGEST_TAG_END);
+         if (end < 2)
+         {
+            throw new IllegalArgumentException("Malformed algorithm tag in hash: " + hash);
+         }
+         algorithm = hash.substring(1, end);
+         encoded = hash.substring(end + 1);
+      }
+
+      // Get the raw hash of the supplied input
+      final long start = System.nanoTime();
+      final byte[] inputBytes = this.stringToByteArray(input);
+      final byte[] hashOfInput;
+      try
+      {
+         hashOfInput = this.getEngine().digest(algorithm, inputBytes);
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.COMPARE, start);
+         throw new EncryptionException("Error in hashing", gse);
+      }
 
-      // Determine whether equal
-      final boolean equal = hash.equals(hashOfInput);
+      // Determine whether equal, in time independent of where the digests first differ
+      final byte[] expected = Base64.decodeBase64(this.stringToByteArray(encoded));
+      final boolean equal = MessageDigest.isEqual(expected, hashOfInput);
+      metrics.succeeded(Operation.COMPARE, inputBytes.length, start);
 
       // Return
       return equal;
@@ -261,28 +296,14 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
    public String decrypt(final String input) throws IllegalArgumentException, IllegalStateException,
          EncryptionException
    {
-      // Get the cipher
-      final Cipher cipher = this.decryptionCipher;
-      if (cipher == null)
-      {
-         throw new IllegalStateException("Decyrption cipher not available, has this service been initialized?");
-      }
+      // Decrypt
+      final String result = this.doDecrypt(input);
 
-      // Run the cipher
-      byte[] resultBytes = null;;
-      try
-      {
-         final byte[] inputBytes = this.stringToByteArray(input);
-         resultBytes = cipher.doFinal(Base64.decodeBase64(inputBytes));
-      }
-      catch (final Throwable t)
+      // Log, never the plaintext, and only if enabled
+      if (log.isLoggable(Level.FINE))
       {
-         throw new EncryptionException("Error in decryption", t);
+         log.fine("Decryption of " + input.length() + " characters");
       }
-      final String result = this.byteArrayToString(resultBytes);
-
-      // Log
-      log.info("Decryption on \"" + input + "\": " + result);
 
       // Return
       return result;
@@ -295,32 +316,16 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
    @Override
    public String encrypt(final String input) throws IllegalArgumentException, EncryptionException
    {
-      // Get the cipher
-      final Cipher cipher = this.encryptionCipher;
-      if (cipher == null)
-      {
-         throw new IllegalStateException("Encyrption cipher not available, has this service been initialized?");
-      }
+      // Encrypt
+      final String result = this.doEncrypt(input);
 
-      // Get bytes from the String
-      byte[] inputBytes = this.stringToByteArray(input);
-
-      // Run the cipher
-      byte[] resultBytes = null;
-      try
-      {
-         resultBytes = Base64.encodeBase64(cipher.doFinal(inputBytes));
-      }
-      catch (final Throwable t)
+      // Log, never the plaintext, and only if enabled
+      if (log.isLoggable(Level.FINE))
       {
-         throw new EncryptionException("Error in encryption of: " + input, t);
+         log.fine("Encryption of " + input.length() + " characters");
       }
 
-      // Log
-      log.info("Encryption on \"" + input + "\": " + this.byteArrayToString(resultBytes));
-
       // Return
-      final String result = this.byteArrayToString(resultBytes);
       return result;
    }
 
@@ -338,6 +343,149 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
     */
    @Override
    public String hash(final String input) throws IllegalArgumentException, EncryptionException
+   {
+      // Hash
+      final String hash = this.doHash(input);
+
+      // Log, never the input, and only if enabled
+      if (log.isLoggable(Level.FINE))
+      {
+         log.fine("One-way hash of " + input.length() + " characters");
+      }
+
+      // Return
+      return hash;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#encrypt(java.io.InputStream, java.io.OutputStream)
+    */
+   @Override
+   public void encrypt(final InputStream input, final OutputStream output) throws IllegalArgumentException,
+         EncryptionException
+   {
+      // Precondition checks
+      if (input == null || output == null)
+      {
+         throw new IllegalArgumentException("Input and output streams are required.");
+      }
+
+      // Encode the ciphertext on its way out, without closing the caller's stream
+      final OutputStream encodingOutput = new Base64OutputStream(new UncloseableOutputStream(output), true,
+            BASE64_NO_CHUNKING, null);
+      final long start = System.nanoTime();
+      long bytes = 0;
+      try
+      {
+         bytes = this.getEngine().encrypt(Channels.newChannel(input), Channels.newChannel(encodingOutput));
+
+         // Flush the final quantum of the encoding
+         encodingOutput.close();
+      }
+      catch (final IOException ioe)
+      {
+         metrics.failed(Operation.ENCRYPT, start);
+         throw new EncryptionException("Error in streaming encryption", ioe);
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.ENCRYPT, start);
+         throw new EncryptionException("Error in streaming encryption", gse);
+      }
+      metrics.succeeded(Operation.ENCRYPT, bytes, start);
+
+      // Log, only if enabled
+      if (log.isLoggable(Level.FINE))
+      {
+         log.fine("Streaming encryption of " + bytes + " bytes");
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#decrypt(java.io.InputStream, java.io.OutputStream)
+    */
+   @Override
+   public void decrypt(final InputStream input, final OutputStream output) throws IllegalArgumentException,
+         EncryptionException
+   {
+      // Precondition checks
+      if (input == null || output == null)
+      {
+         throw new IllegalArgumentException("Input and output streams are required.");
+      }
+
+      // Decode the ciphertext on its way in
+      final InputStream decodingInput = new Base64InputStream(input);
+      final long start = System.nanoTime();
+      long bytes = 0;
+      try
+      {
+         bytes = this.getEngine().decrypt(Channels.newChannel(decodingInput), Channels.newChannel(output));
+      }
+      catch (final IOException ioe)
+      {
+         metrics.failed(Operation.DECRYPT, start);
+         throw new EncryptionException("Error in streaming decryption", ioe);
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.DECRYPT, start);
+         throw new EncryptionException("Error in streaming decryption", gse);
+      }
+      metrics.succeeded(Operation.DECRYPT, bytes, start);
+
+      // Log, only if enabled
+      if (log.isLoggable(Level.FINE))
+      {
+         log.fine("Streaming decryption of " + bytes + " bytes");
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#hash(java.nio.channels.ReadableByteChannel)
+    */
+   @Override
+   public String hash(final ReadableByteChannel input) throws IllegalArgumentException, EncryptionException
+   {
+      // Precondition check
+      if (input == null)
+      {
+         throw new IllegalArgumentException("Input channel is required.");
+      }
+
+      // Digest the stream
+      final long start = System.nanoTime();
+      final CountingChannel countingInput = new CountingChannel(input);
+      byte[] hashBytes = null;
+      try
+      {
+         hashBytes = this.getEngine().digest(countingInput);
+      }
+      catch (final IOException ioe)
+      {
+         metrics.failed(Operation.HASH, start);
+         throw new EncryptionException("Error in streaming hashing", ioe);
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.HASH, start);
+         throw new EncryptionException("Error in streaming hashing", gse);
+      }
+      metrics.succeeded(Operation.HASH, countingInput.count, start);
+
+      // Return in readable format, tagged w/ the algorithm if not the message digest
+      return this.digestTag + this.byteArrayToString(Base64.encodeBase64(hashBytes));
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#encrypt(byte[])
+    */
+   @Override
+   public byte[] encrypt(final byte[] input) throws IllegalArgumentException, EncryptionException
    {
       // Precondition check
       if (input == null)
@@ -345,23 +493,195 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
          throw new IllegalArgumentException("Input is required.");
       }
 
-      // Get bytes from the input
-      byte[] inputBytes = this.stringToByteArray(input);
+      // Encrypt
+      final long start = System.nanoTime();
+      try
+      {
+         final byte[] result = this.getEngine().encrypt(input);
+         metrics.succeeded(Operation.ENCRYPT, input.length, start);
+         return result;
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.ENCRYPT, start);
+         throw new EncryptionException("Error in encryption", gse);
+      }
+   }
 
-      // Obtain the MessageDigest
-      final MessageDigest digest = this.messageDigest;
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#decrypt(byte[])
+    */
+   @Override
+   public byte[] decrypt(final byte[] input) throws IllegalArgumentException, EncryptionException
+   {
+      // Precondition check
+      if (input == null)
+      {
+         throw new IllegalArgumentException("Input is required.");
+      }
 
-      // Update with our input, and obtain the hash, resetting the messageDigest
-      digest.update(inputBytes, 0, inputBytes.length);
-      final byte[] hashBytes = digest.digest();
-      final byte[] encodedBytes = Base64.encodeBase64(hashBytes);
+      // Decrypt
+      final long start = System.nanoTime();
+      try
+      {
+         final byte[] result = this.getEngine().decrypt(input);
+         metrics.succeeded(Operation.DECRYPT, input.length, start);
+         return result;
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.DECRYPT, start);
+         throw new EncryptionException("Error in decryption", gse);
+      }
+   }
 
-      // Get the input back in some readable format
-      final String hash = this.byteArrayToString(encodedBytes);
-      log.info("One-way hash of \"" + input + "\": " + hash);
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#hash(byte[])
+    */
+   @Override
+   public byte[] hash(final byte[] input) throws IllegalArgumentException, EncryptionException
+   {
+      // Precondition check
+      if (input == null)
+      {
+         throw new IllegalArgumentException("Input is required.");
+      }
 
-      // Return
-      return hash;
+      // Hash
+      final long start = System.nanoTime();
+      try
+      {
+         final byte[] result = this.getEngine().digest(input);
+         metrics.succeeded(Operation.HASH, input.length, start);
+         return result;
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.HASH, start);
+         throw new EncryptionException("Error in hashing", gse);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#encrypt(java.nio.ByteBuffer, java.nio.ByteBuffer)
+    */
+   @Override
+   public int encrypt(final ByteBuffer input, final ByteBuffer output) throws IllegalArgumentException,
+         EncryptionException
+   {
+      // Precondition checks
+      if (input == null || output == null)
+      {
+         throw new IllegalArgumentException("Input and output buffers are required.");
+      }
+
+      // Encrypt
+      final long start = System.nanoTime();
+      final int bytes = input.remaining();
+      try
+      {
+         final int written = this.getEngine().encrypt(input, output);
+         metrics.succeeded(Operation.ENCRYPT, bytes, start);
+         return written;
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.ENCRYPT, start);
+         throw new EncryptionException("Error in encryption", gse);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#decrypt(java.nio.ByteBuffer, java.nio.ByteBuffer)
+    */
+   @Override
+   public int decrypt(final ByteBuffer input, final ByteBuffer output) throws IllegalArgumentException,
+         EncryptionException
+   {
+      // Precondition checks
+      if (input == null || output == null)
+      {
+         throw new IllegalArgumentException("Input and output buffers are required.");
+      }
+
+      // Decrypt
+      final long start = System.nanoTime();
+      final int bytes = input.remaining();
+      try
+      {
+         final int written = this.getEngine().decrypt(input, output);
+         metrics.succeeded(Operation.DECRYPT, bytes, start);
+         return written;
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.DECRYPT, start);
+         throw new EncryptionException("Error in decryption", gse);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#hash(java.nio.ByteBuffer, java.nio.ByteBuffer)
+    */
+   @Override
+   public int hash(final ByteBuffer input, final ByteBuffer output) throws IllegalArgumentException,
+         EncryptionException
+   {
+      // Precondition checks
+      if (input == null || output == null)
+      {
+         throw new IllegalArgumentException("Input and output buffers are required.");
+      }
+
+      // Hash
+      final long start = System.nanoTime();
+      final int bytes = input.remaining();
+      try
+      {
+         final int written = this.getEngine().digest(input, output);
+         metrics.succeeded(Operation.HASH, bytes, start);
+         return written;
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.HASH, start);
+         throw new EncryptionException("Error in hashing", gse);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionCommonBusiness#encryptAll(java.util.List)
+    */
+   @Override
+   public List<EncryptionResult> encryptAll(final List<String> inputs) throws IllegalArgumentException
+   {
+      return this.processAll(inputs, BulkOperation.ENCRYPT);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionCommonBusiness#decryptAll(java.util.List)
+    */
+   @Override
+   public List<EncryptionResult> decryptAll(final List<String> inputs) throws IllegalArgumentException
+   {
+      return this.processAll(inputs, BulkOperation.DECRYPT);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionCommonBusiness#hashAll(java.util.List)
+    */
+   @Override
+   public List<EncryptionResult> hashAll(final List<String> inputs) throws IllegalArgumentException
+   {
+      return this.processAll(inputs, BulkOperation.HASH);
    }
 
    /**
@@ -380,82 +700,186 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
    }
 
    /**
-    * Override the way we get the ciphers' passphrase so that we may 
-    * define it in a secure location on the server.  Now our production
-    * systems will use a different key for encoding than our development
-    * servers, and we may limit the likelihood of a security breach 
-    * while still allowing our programmer to use the default passphrase
-    * transparently during development.  
-    * 
-    * If not provided as an env-entry, fall back upon the default.
-    * 
-    * Note that a real system won't expose this method in the public API, ever.  We
-    * do here for testing and to illustrate the example.
-    * 
-    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionBeanBase#getCiphersPassphrase()
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#submitHash(java.lang.String)
     */
    @Override
-   public String getCiphersPassphrase()
+   public Future<String> submitHash(final String input) throws IllegalArgumentException, EncryptionException
    {
-      // Obtain current
-      String passphrase = this.ciphersPassphrase;
+      // Precondition check
+      if (input == null)
+      {
+         throw new IllegalArgumentException("Input is required.");
+      }
 
-      // If not set
-      if (passphrase == null)
+      // Hash upon the dedicated executor; safe as this instance is not mutated after initialization
+      return HashingExecutor.getInstance().submit(new Callable<String>()
       {
+         @Override
+         public String call() throws EncryptionException
+         {
+            return doHash(input);
+         }
+      });
+   }
 
-         // Do a lookup via SessionContext
-         passphrase = this.getEnvironmentEntryAsString(ENV_ENTRY_NAME_CIPHERS_PASSPHRASE);
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#hashAllAsync(java.util.Collection)
+    */
+   @Override
+   public Future<List<EncryptionResult>> hashAllAsync(final Collection<String> inputs)
+         throws IllegalArgumentException, EncryptionException
+   {
+      // Precondition check
+      if (inputs == null)
+      {
+         throw new IllegalArgumentException("Inputs are required.");
+      }
 
-         // See if provided
-         if (passphrase == null)
+      // Split into one contiguous part per worker
+      final List<String> elements = new ArrayList<String>(inputs);
+      final int numParts = Math.min(HashingExecutor.NUM_THREADS, elements.size());
+      final List<Callable<List<EncryptionResult>>> parts = new ArrayList<Callable<List<EncryptionResult>>>(numParts);
+      for (int i = 0; i < numParts; i++)
+      {
+         final int from = elements.size() * i / numParts;
+         final int to = elements.size() * (i + 1) / numParts;
+         final List<String> part = elements.subList(from, to);
+         parts.add(new Callable<List<EncryptionResult>>()
          {
+            @Override
+            public List<EncryptionResult> call()
+            {
+               return applyEach(part, BulkOperation.HASH);
+            }
+         });
+      }
 
-            // Log a warning
-            log.warning("No encryption passphrase has been supplied explicitly via "
-                  + "an env-entry, falling back on the default...");
+      // Hash the parts in parallel upon the dedicated executor
+      return HashingExecutor.getInstance().submitAll(parts);
+   }
 
-            // Set
-            passphrase = DEFAULT_PASSPHRASE;
-         }
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#getAsyncHashingStatistics()
+    */
+   @Override
+   public AsyncHashingStatistics getAsyncHashingStatistics()
+   {
+      return HashingExecutor.getInstance().getStatistics();
+   }
 
-         // Set the passphrase to be used so we don't have to do this lazy init again
-         this.ciphersPassphrase = passphrase;
-      }
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#getHashCacheStatistics()
+    */
+   @Override
+   public HashCacheStatistics getHashCacheStatistics()
+   {
+      return this.getEngine().getHashCacheStatistics();
+   }
 
-      // In a secure system, we don't log this. ;)
-      log.info("Using encryption passphrase for ciphers keys: " + passphrase);
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionLocalBusiness#getOperationStatistics()
+    */
+   @Override
+   public Map<Operation, OperationStatistics> getOperationStatistics()
+   {
+      return metrics.getStatistics();
+   }
 
-      // Return 
-      return passphrase;
+   /**
+    * Obtains the ciphers' passphrase from the key holder, which looks it up
+    * from the env-entries so that we may define it in a secure location on 
+    * the server.  It's no longer logged upon every call.
+    * 
+    * Note that a real system won't expose this method in the public API, ever.  We
+    * do here for testing and to illustrate the example.
+    * 
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionCommonBusiness#getCiphersPassphrase()
+    */
+   @Override
+   public String getCiphersPassphrase()
+   {
+      return this.getKeyHolder().getCiphersPassphrase();
    }
 
    /**
-    * Obtains the message digest algorithm as injected from the env-entry element
-    * defined in ejb-jar.xml.  If not specified, fall back onto the default, logging a warn 
-    * message
+    * Obtains the message digest algorithm from the key holder, as injected from 
+    * the env-entry element defined in ejb-jar.xml
     * 
-    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionRemoteBusiness#getMessageDigestAlgorithm()
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionCommonBusiness#getMessageDigestAlgorithm()
     */
    @Override
    public String getMessageDigestAlgorithm()
    {
-      // First see if this has been injected/set
-      if (this.messageDigestAlgorithm == null)
-      {
-         // Log a warning
-         log.warning("No message digest algorithm has been supplied explicitly via "
-               + "an env-entry, falling back on the default...");
+      return this.getKeyHolder().getMessageDigestAlgorithm();
+   }
 
-         // Set
-         this.messageDigestAlgorithm = DEFAULT_ALGORITHM_MESSAGE_DIGEST;
-      }
+   // ---------------------------------------------------------------------------||
+   // Accessors / Mutators ------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
 
-      // Log
-      log.info("Configured MessageDigest one-way hash algorithm is: " + this.messageDigestAlgorithm);
+   /**
+    * Sets the name of the {@link CipherAlgorithm} used in symmetric encryption, 
+    * for use outside the container (ie. in tests and benchmarks) where no key 
+    * holder may be injected.  Takes effect upon {@link EncryptionBean#initialize()}.
+    * 
+    * @param cipherAlgorithm
+    */
+   public void setCipherAlgorithm(final String cipherAlgorithm)
+   {
+      this.cipherAlgorithm = cipherAlgorithm;
+   }
 
-      // Return
-      return this.messageDigestAlgorithm;
+   /**
+    * Sets the algorithm used in one-way hashing, for use outside the container 
+    * (ie. in tests and benchmarks) where no key holder may be injected.  Takes
+    * effect upon {@link EncryptionBean#initialize()}.
+    * 
+    * @param messageDigestAlgorithm
+    */
+   public void setMessageDigestAlgorithm(final String messageDigestAlgorithm)
+   {
+      this.messageDigestAlgorithm = messageDigestAlgorithm;
+   }
+
+   /**
+    * Sets the algorithm preferred for new hashes, which are then tagged with
+    * its name, for use outside the container where no key holder may be
+    * injected.  Takes effect upon {@link EncryptionBean#initialize()}.
+    * 
+    * @param preferredMessageDigestAlgorithm
+    */
+   void setPreferredMessageDigestAlgorithm(final String preferredMessageDigestAlgorithm)
+   {
+      this.preferredMessageDigestAlgorithm = preferredMessageDigestAlgorithm;
+   }
+
+   /**
+    * Sets the maximum number of cached hash results, 0 to disable caching,
+    * for use outside the container (ie. in tests and benchmarks) where no 
+    * key holder may be injected.  Takes effect upon {@link EncryptionBean#initialize()}.
+    * 
+    * @param hashCacheMaxSize
+    */
+   public void setHashCacheMaxSize(final Integer hashCacheMaxSize)
+   {
+      this.hashCacheMaxSize = hashCacheMaxSize;
+   }
+
+   /**
+    * Sets the number of seconds for which a hash result is cached, for use
+    * outside the container where no key holder may be injected.  Takes effect 
+    * upon {@link EncryptionBean#initialize()}.
+    * 
+    * @param hashCacheTimeToLiveSeconds
+    */
+   void setHashCacheTimeToLiveSeconds(final Integer hashCacheTimeToLiveSeconds)
+   {
+      this.hashCacheTimeToLiveSeconds = hashCacheTimeToLiveSeconds;
    }
 
    // ---------------------------------------------------------------------------||
@@ -463,55 +887,210 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
    // ---------------------------------------------------------------------------||
 
    /**
-    * Obtains the environment entry with the specified name, casting to a String,
-    * and returning the result.  If the entry is not assignable 
-    * to a String, an {@link IllegalStateException} will be raised.  In the event that the 
-    * specified environment entry cannot be found, a warning message will be logged
-    * and we'll return null.
+    * Decrypts the specified Base64-encoded input without logging
     * 
-    * @param envEntryName
+    * @param input
     * @return
-    * @throws IllegalStateException
+    * @throws EncryptionException
     */
-   private String getEnvironmentEntryAsString(final String envEntryName) throws IllegalStateException
+   private String doDecrypt(final String input) throws EncryptionException
    {
-      // See if we have a SessionContext
-      final SessionContext context = this.context;
-      if (context == null)
+      // Get the engine
+      final CipherEngine engine = this.getEngine();
+
+      // Run the cipher
+      final long start = System.nanoTime();
+      byte[] resultBytes = null;
+      try
+      {
+         final byte[] inputBytes = Base64.decodeBase64(this.stringToByteArray(input));
+         resultBytes = engine.decrypt(inputBytes);
+         metrics.succeeded(Operation.DECRYPT, inputBytes.length, start);
+      }
+      catch (final Throwable t)
       {
-         log.warning("No SessionContext, bypassing request to obtain environment entry: " + envEntryName);
-         return null;
+         metrics.failed(Operation.DECRYPT, start);
+         throw new EncryptionException("Error in decryption", t);
       }
 
-      // Lookup in the Private JNDI ENC via the injected SessionContext
-      Object lookupValue = null;
+      // Return
+      return this.byteArrayToString(resultBytes);
+   }
+
+   /**
+    * Encrypts the specified input without logging, returning the 
+    * Base64-encoded result
+    * 
+    * @param input
+    * @return
+    * @throws IllegalArgumentException If no input was provided (null)
+    * @throws EncryptionException
+    */
+   private String doEncrypt(final String input) throws IllegalArgumentException, EncryptionException
+   {
+      // Get the engine
+      final CipherEngine engine = this.getEngine();
+
+      // Get bytes from the String
+      byte[] inputBytes = this.stringToByteArray(input);
+
+      // Run the cipher
+      final long start = System.nanoTime();
+      byte[] resultBytes = null;
       try
       {
-         lookupValue = context.lookup(envEntryName);
-         log.fine("Obtained environment entry \"" + envEntryName + "\": " + lookupValue);
+         resultBytes = Base64.encodeBase64(engine.encrypt(inputBytes));
+         metrics.succeeded(Operation.ENCRYPT, inputBytes.length, start);
       }
-      catch (final IllegalArgumentException iae)
+      catch (final Throwable t)
       {
-         // Not found defined within this EJB's Component Environment, 
-         // so return null and let the caller handle it
-         log.warning("Could not find environment entry with name: " + envEntryName);
-         return null;
+         metrics.failed(Operation.ENCRYPT, start);
+         throw new EncryptionException("Error in encryption", t);
       }
 
-      // Cast
-      String returnValue = null;
+      // Return
+      return this.byteArrayToString(resultBytes);
+   }
+
+   /**
+    * Returns the Base64-encoded one-way hash of the specified input without logging
+    * 
+    * @param input
+    * @return
+    * @throws IllegalArgumentException If no input was provided (null)
+    * @throws EncryptionException
+    */
+   private String doHash(final String input) throws IllegalArgumentException, EncryptionException
+   {
+      // Precondition check
+      if (input == null)
+      {
+         throw new IllegalArgumentException("Input is required.");
+      }
+
+      // Get bytes from the input
+      byte[] inputBytes = this.stringToByteArray(input);
+
+      // Obtain the hash from a pooled MessageDigest
+      final long start = System.nanoTime();
+      byte[] hashBytes = null;
       try
       {
-         returnValue = String.class.cast(lookupValue);
+         hashBytes = this.getEngine().digest(inputBytes);
+      }
+      catch (final GeneralSecurityException gse)
+      {
+         metrics.failed(Operation.HASH, start);
+         throw new EncryptionException("Error in hashing", gse);
+      }
+      metrics.succeeded(Operation.HASH, inputBytes.length, start);
+      final byte[] encodedBytes = Base64.encodeBase64(hashBytes);
+
+      // Get the input back in some readable format, tagged w/ the algorithm if not the message digest
+      return this.digestTag + this.byteArrayToString(encodedBytes);
+   }
+
+   /**
+    * Applies the specified operation to each of the inputs in order, within 
+    * this single invocation.  A failure upon any one element is recorded in 
+    * its {@link EncryptionResult} and does not stop processing of the rest.
+    * 
+    * @param inputs
+    * @param operation
+    * @return
+    * @throws IllegalArgumentException If the inputs were not specified
+    */
+   private List<EncryptionResult> processAll(final List<String> inputs, final BulkOperation operation)
+         throws IllegalArgumentException
+   {
+      // Precondition check
+      if (inputs == null)
+      {
+         throw new IllegalArgumentException("Inputs are required.");
       }
-      catch (final ClassCastException cce)
+
+      // Process each element
+      final List<EncryptionResult> results = this.applyEach(inputs, operation);
+
+      // Log once for the whole batch, only if enabled
+      if (log.isLoggable(Level.FINE))
       {
-         throw new IllegalStateException("The specified environment entry, " + lookupValue
-               + ", was not able to be represented as a " + String.class.getName(), cce);
+         int failures = 0;
+         for (final EncryptionResult result : results)
+         {
+            if (!result.isSuccess())
+            {
+               failures++;
+            }
+         }
+         log.fine("Bulk " + operation + " of " + inputs.size() + " elements, " + failures + " failed");
       }
 
       // Return
-      return returnValue;
+      return results;
+   }
+
+   /**
+    * Applies the specified operation to each of the inputs in order, recording
+    * a failure upon any one element in its {@link EncryptionResult}
+    * 
+    * @param inputs
+    * @param operation
+    * @return
+    */
+   private List<EncryptionResult> applyEach(final List<String> inputs, final BulkOperation operation)
+   {
+      final List<EncryptionResult> results = new ArrayList<EncryptionResult>(inputs.size());
+      for (final String input : inputs)
+      {
+         EncryptionResult result = null;
+         try
+         {
+            result = EncryptionResult.success(operation.apply(this, input));
+         }
+         catch (final EncryptionException ee)
+         {
+            result = EncryptionResult.failure(ee);
+         }
+         catch (final IllegalArgumentException iae)
+         {
+            result = EncryptionResult.failure(new EncryptionException(iae.getMessage(), iae));
+         }
+         results.add(result);
+      }
+      return results;
+   }
+
+   /**
+    * Obtains the engine used for cipher and digest operations
+    * 
+    * @return
+    * @throws IllegalStateException If this service has not been initialized
+    */
+   private CipherEngine getEngine() throws IllegalStateException
+   {
+      final CipherEngine engine = this.engine;
+      if (engine == null)
+      {
+         throw new IllegalStateException("Cipher engine not available, has this service been initialized?");
+      }
+      return engine;
+   }
+
+   /**
+    * Obtains the holder of the configuration and keys
+    * 
+    * @return
+    * @throws IllegalStateException If this service has not been initialized
+    */
+   private EncryptionKeyHolderLocalBusiness getKeyHolder() throws IllegalStateException
+   {
+      final EncryptionKeyHolderLocalBusiness keyHolder = this.keyHolder;
+      if (keyHolder == null)
+      {
+         throw new IllegalStateException("Key holder not available, has this service been initialized?");
+      }
+      return keyHolder;
    }
 
    /**
@@ -595,4 +1174,108 @@ public class EncryptionBean implements EncryptionLocalBusiness, EncryptionRemote
       return CHARSET;
    }
 
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Shields the caller's stream from being closed when the streaming 
+    * Base64 codec wrapping it is closed to flush its final bytes
+    */
+   private static final class UncloseableOutputStream extends FilterOutputStream
+   {
+      UncloseableOutputStream(final OutputStream out)
+      {
+         super(out);
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException
+      {
+         // Bypass the byte-at-a-time default of FilterOutputStream
+         out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         this.flush();
+      }
+   }
+
+   /**
+    * Counts the bytes read through the underlying channel
+    */
+   private static final class CountingChannel implements ReadableByteChannel
+   {
+      private final ReadableByteChannel delegate;
+
+      private long count;
+
+      CountingChannel(final ReadableByteChannel delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      @Override
+      public int read(final ByteBuffer dst) throws IOException
+      {
+         final int read = delegate.read(dst);
+         if (read > 0)
+         {
+            count += read;
+         }
+         return read;
+      }
+
+      @Override
+      public boolean isOpen()
+      {
+         return delegate.isOpen();
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         delegate.close();
+      }
+   }
+
+   /**
+    * Operations which may be applied in bulk via 
+    * {@link EncryptionBean#processAll(List, BulkOperation)}
+    */
+   private enum BulkOperation
+   {
+      ENCRYPT
+      {
+         @Override
+         String apply(final EncryptionBean bean, final String input) throws EncryptionException
+         {
+            return bean.doEncrypt(input);
+         }
+      },
+      DECRYPT
+      {
+         @Override
+         String apply(final EncryptionBean bean, final String input) throws EncryptionException
+         {
+            return bean.doDecrypt(input);
+         }
+      },
+      HASH
+      {
+         @Override
+         String apply(final EncryptionBean bean, final String input) throws EncryptionException
+         {
+            return bean.doHash(input);
+         }
+      };
+
+      /**
+       * Applies this operation to the specified input
+       */
+      abstract String apply(EncryptionBean bean, String input) throws EncryptionException;
+   }
+
 }
@@ -21,6 +21,7 @@
  */
 package org.jboss.ejb3.examples.ch05.encryption;
 
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -60,7 +61,9 @@ public interface EncryptionCommonBusiness
 
    /**
     * Returns a one-way hash of the specified argument.  Useful
-    * for safely storing passwords.
+    * for safely storing passwords.  Hashes made with a preferred
+    * algorithm other than the configured message digest are prefixed
+    * with its name, ie. "{SHA-512}", so they may later be compared.
     * 
     * @param input
     * @return
@@ -83,16 +86,56 @@ public interface EncryptionCommonBusiness
    /**
     * Returns whether or not the specified input matches the specified 
     * hash.  Useful for validating passwords against a 
-    * securely-stored hash. 
+    * securely-stored hash.  The digests are compared in time 
+    * independent of how much of them matches.  A hash prefixed with
+    * the name of its algorithm is checked using that algorithm, others
+    * using the configured message digest.
     * 
     * @param hash
     * @param input
     * @return
-    * @throws IllegalArgumentException If either the hash or input is not provided (null)
+    * @throws IllegalArgumentException If either the hash or input is not provided (null),
+    *   or the hash has a malformed algorithm tag
     * @throws EncryptionException If some problem occurred making the hash
     */
    boolean compare(String hash, String input) throws IllegalArgumentException, EncryptionException;
 
+   /**
+    * Encrypts each of the specified Strings within a single invocation, 
+    * returning the results in the same order as the inputs.  A failure
+    * to encrypt any one element is reported in its corresponding 
+    * {@link EncryptionResult} and does not fail the batch.
+    * 
+    * @param inputs
+    * @return
+    * @throws IllegalArgumentException If no inputs were provided (null)
+    */
+   List<EncryptionResult> encryptAll(List<String> inputs) throws IllegalArgumentException;
+
+   /**
+    * Decrypts each of the specified Strings within a single invocation, 
+    * returning the results in the same order as the inputs.  A failure
+    * to decrypt any one element is reported in its corresponding 
+    * {@link EncryptionResult} and does not fail the batch.
+    * 
+    * @param inputs
+    * @return
+    * @throws IllegalArgumentException If no inputs were provided (null)
+    */
+   List<EncryptionResult> decryptAll(List<String> inputs) throws IllegalArgumentException;
+
+   /**
+    * Returns one-way hashes of each of the specified Strings, calculated 
+    * within a single invocation and in the same order as the inputs.  A failure
+    * to hash any one element is reported in its corresponding 
+    * {@link EncryptionResult} and does not fail the batch.
+    * 
+    * @param inputs
+    * @return
+    * @throws IllegalArgumentException If no inputs were provided (null)
+    */
+   List<EncryptionResult> hashAll(List<String> inputs) throws IllegalArgumentException;
+
    /*
     * This comment applies to all below this marker.
     * 
@@ -0,0 +1,569 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Local;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Bean implementation class of the EncryptionKeyHolderEJB.  Reads the
+ * externalized configuration of the EncryptionEJB once, at deployment,
+ * and derives the keys of its ciphers ahead of the first request
+ * (@Startup).  Optionally, a number of ciphers are created up front
+ * as well, so that a burst of requests upon a newly-deployed service 
+ * does not stall upon their creation.
+ * 
+ * Shows two ways of obtaining externalized environment entries.  As
+ * all state is set in initialization and the {@link CipherEngine} is 
+ * itself thread-safe, concurrent access is not serialized by the container.
+ * The engine, along with its keys, lives exactly as long as this holder:
+ * it is created upon initialization and closed upon destruction, so 
+ * redeploying with another passphrase or algorithm leaves nothing behind.
+ * 
+ * May also be used as a POJO, in which case the defaults (overridden by 
+ * the package-private mutators) apply.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+@Singleton(name = EncryptionKeyHolderBean.EJB_NAME)
+@Startup
+@Local(EncryptionKeyHolderLocalBusiness.class)
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class EncryptionKeyHolderBean implements EncryptionKeyHolderLocalBusiness
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(EncryptionKeyHolderBean.class.getName());
+
+   /**
+    * Name we'll assign to this EJB, will be referenced in the corresponding 
+    * META-INF/ejb-jar.xml file
+    */
+   static final String EJB_NAME = "EncryptionKeyHolderEJB";
+
+   /**
+    * Name of the environment entry representing the ciphers' passphrase supplied
+    * in ejb-jar.xml
+    */
+   private static final String ENV_ENTRY_NAME_CIPHERS_PASSPHRASE = "ciphersPassphrase";
+
+   /**
+    * Name of the environment entry representing the message digest algorithm supplied
+    * in ejb-jar.xml
+    */
+   private static final String ENV_ENTRY_NAME_MESSAGE_DIGEST_ALGORITHM = "messageDigestAlgorithm";
+
+   /**
+    * Name of the environment entry representing the message digest algorithm
+    * with which new hashes are made instead, tagged with its name, supplied
+    * in ejb-jar.xml; if not supplied, hashes are made untagged with that of
+    * {@link EncryptionKeyHolderBean#ENV_ENTRY_NAME_MESSAGE_DIGEST_ALGORITHM}
+    */
+   private static final String ENV_ENTRY_NAME_PREFERRED_MESSAGE_DIGEST_ALGORITHM = "preferredMessageDigestAlgorithm";
+
+   /**
+    * Name of the environment entry representing the name of the {@link CipherAlgorithm}
+    * used for symmetric encryption supplied in ejb-jar.xml
+    */
+   private static final String ENV_ENTRY_NAME_CIPHER_ALGORITHM = "cipherAlgorithm";
+
+   /**
+    * Name of the environment entry representing the maximum number of cached
+    * hash results supplied in ejb-jar.xml; if not supplied, hash results are not cached
+    */
+   private static final String ENV_ENTRY_NAME_HASH_CACHE_MAX_SIZE = "hashCacheMaxSize";
+
+   /**
+    * Name of the environment entry representing the number of seconds for which 
+    * a hash result is cached supplied in ejb-jar.xml
+    */
+   private static final String ENV_ENTRY_NAME_HASH_CACHE_TIME_TO_LIVE_SECONDS = "hashCacheTimeToLiveSeconds";
+
+   /**
+    * Name of the environment entry representing the number of ciphers created
+    * in each mode at deployment supplied in ejb-jar.xml; if not supplied, 
+    * ciphers are created upon demand
+    */
+   private static final String ENV_ENTRY_NAME_PREWARMED_CIPHERS = "prewarmedCiphers";
+
+   /**
+    * Default number of seconds for which a hash result is cached
+    */
+   private static final int DEFAULT_HASH_CACHE_TIME_TO_LIVE_SECONDS = 300;
+
+   /**
+    * Default Algorithm used by the Digest for one-way hashing
+    */
+   private static final String DEFAULT_ALGORITHM_MESSAGE_DIGEST = "MD5";
+
+   /**
+    * Default Algorithm used for symmetric encryption; the others built in 
+    * require a newer runtime than this EJB (Java 6)
+    */
+   private static final CipherAlgorithm DEFAULT_ALGORITHM_CIPHER = CipherAlgorithms.PBE_WITH_MD5_AND_DES;
+
+   /**
+    * The default passphrase for symmetric encryption/decryption
+    */
+   private static final String DEFAULT_PASSPHRASE = "LocalTestingPassphrase";
+
+   /**
+    * The salt used in symmetric encryption/decryption
+    */
+   private static final byte[] DEFAULT_SALT_CIPHERS =
+   {(byte) 0xB4, (byte) 0xA2, (byte) 0x43, (byte) 0x89, 0x3E, (byte) 0xC5, (byte) 0x78, (byte) 0x53};
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * SessionContext of this EJB; this will be injected by the EJB 
+    * Container because it's marked w/ @Resource
+    */
+   @Resource
+   private SessionContext context;
+
+   /**
+    * Passphrase to use for the key in cipher operations; loaded via 
+    * SessionContext.lookup upon initialization
+    */
+   private volatile String ciphersPassphrase;
+
+   /**
+    * Algorithm to use in message digest (hash) operations, injected
+    * via @Resource annotation with name property equal to env-entry name
+    */
+   @Resource(name = ENV_ENTRY_NAME_MESSAGE_DIGEST_ALGORITHM)
+   private volatile String messageDigestAlgorithm;
+
+   /**
+    * Algorithm with which new hashes are made instead, if any, injected
+    * via @Resource annotation with name property equal to env-entry name
+    */
+   @Resource(name = ENV_ENTRY_NAME_PREFERRED_MESSAGE_DIGEST_ALGORITHM)
+   private String preferredMessageDigestAlgorithm;
+
+   /**
+    * Name of the algorithm to use in symmetric encryption, injected
+    * via @Resource annotation with name property equal to env-entry name
+    */
+   @Resource(name = ENV_ENTRY_NAME_CIPHER_ALGORITHM)
+   private String cipherAlgorithm;
+
+   /**
+    * Maximum number of cached hash results, injected via @Resource
+    * annotation with name property equal to env-entry name; 
+    * caching is disabled if not supplied
+    */
+   @Resource(name = ENV_ENTRY_NAME_HASH_CACHE_MAX_SIZE)
+   private Integer hashCacheMaxSize;
+
+   /**
+    * Seconds for which a hash result is cached, injected via @Resource
+    * annotation with name property equal to env-entry name
+    */
+   @Resource(name = ENV_ENTRY_NAME_HASH_CACHE_TIME_TO_LIVE_SECONDS)
+   private Integer hashCacheTimeToLiveSeconds;
+
+   /**
+    * Number of ciphers created in each mode at deployment, injected via
+    * @Resource annotation with name property equal to env-entry name
+    */
+   @Resource(name = ENV_ENTRY_NAME_PREWARMED_CIPHERS)
+   private Integer prewarmedCiphers;
+
+   /**
+    * Engine performing the symmetric encryption/decryption and one-way
+    * hashing, created upon initialization
+    */
+   private volatile CipherEngine engine;
+
+   // ---------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Derives the keys, and creates any requested ciphers, before the 
+    * EncryptionEJB may handle requests
+    * 
+    * @throws Exception If some unexpected error occurred
+    */
+   @PostConstruct
+   public void initialize() throws Exception
+   {
+      // Log that we're here
+      log.info("Initializing, part of " + PostConstruct.class.getName() + " lifecycle");
+
+      /*
+       * Symmetric Encryption
+       */
+
+      // Obtain parameters used in initializing the ciphers
+      final CipherAlgorithm cipherAlgorithm = this.resolveCipherAlgorithm();
+      final byte[] ciphersSalt = DEFAULT_SALT_CIPHERS;
+      final String ciphersPassphrase = this.resolveCiphersPassphrase();
+
+      /*
+       * One-way Hashing
+       */
+
+      // Get the algorithm for the MessageDigest, and that of new hashes if preferred otherwise
+      final String messageDigestAlgorithm = this.resolveMessageDigestAlgorithm();
+      final String hashAlgorithm = this.preferredMessageDigestAlgorithm == null
+            ? messageDigestAlgorithm
+            : this.preferredMessageDigestAlgorithm;
+      if (!hashAlgorithm.equals(messageDigestAlgorithm))
+      {
+         log.info("New hashes are made with " + hashAlgorithm + ", tagged with its name");
+      }
+
+      // Get the bounds of the hash cache, if enabled
+      final int hashCacheMaxSize = this.hashCacheMaxSize == null ? 0 : this.hashCacheMaxSize;
+      final int hashCacheTimeToLiveSeconds = this.hashCacheTimeToLiveSeconds == null
+            ? DEFAULT_HASH_CACHE_TIME_TO_LIVE_SECONDS
+            : this.hashCacheTimeToLiveSeconds;
+
+      // Derive the keys
+      final CipherEngine engine;
+      try
+      {
+         engine = CipherEngine.newInstance(cipherAlgorithm, ciphersPassphrase, ciphersSalt,
+               hashAlgorithm, hashCacheMaxSize, TimeUnit.SECONDS.toMillis(hashCacheTimeToLiveSeconds));
+      }
+      catch (final GeneralSecurityException e)
+      {
+         throw new RuntimeException("Could not initialize the " + cipherAlgorithm.getName() + " ciphers and "
+               + hashAlgorithm + " digest for this service", e);
+      }
+
+      // Create ciphers ahead of demand, if requested
+      final int prewarmedCiphers = this.prewarmedCiphers == null ? 0 : this.prewarmedCiphers;
+      if (prewarmedCiphers > 0)
+      {
+         final int created = engine.prewarm(prewarmedCiphers);
+         log.info("Pre-warmed " + created + " ciphers in each mode");
+      }
+
+      // Publish
+      this.engine = engine;
+      log.info("Initialized with engine: " + engine);
+   }
+
+   /**
+    * Closes the engine, releasing its keys, before this holder is discarded
+    */
+   @PreDestroy
+   public void destroy()
+   {
+      final CipherEngine engine = this.engine;
+      this.engine = null;
+      if (engine != null)
+      {
+         engine.close();
+      }
+      log.info("Destroyed, part of " + PreDestroy.class.getName() + " lifecycle");
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Required Implementations --------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionKeyHolderLocalBusiness#getEngine()
+    */
+   @Override
+   public CipherEngine getEngine() throws IllegalStateException
+   {
+      final CipherEngine engine = this.engine;
+      if (engine == null)
+      {
+         throw new IllegalStateException("Cipher engine not available, has this service been initialized?");
+      }
+      return engine;
+   }
+
+   /**
+    * Obtains the passphrase resolved upon initialization, which is
+    * never logged.
+    * 
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionKeyHolderLocalBusiness#getCiphersPassphrase()
+    */
+   @Override
+   public String getCiphersPassphrase()
+   {
+      return this.ciphersPassphrase;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.examples.ch05.encryption.EncryptionKeyHolderLocalBusiness#getMessageDigestAlgorithm()
+    */
+   @Override
+   public String getMessageDigestAlgorithm()
+   {
+      return this.messageDigestAlgorithm;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Accessors / Mutators ------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Sets the name of the {@link CipherAlgorithm} used in symmetric encryption, 
+    * for use outside the container where no env-entry may be injected.  Takes 
+    * effect upon {@link EncryptionKeyHolderBean#initialize()}.
+    * 
+    * @param cipherAlgorithm
+    */
+   void setCipherAlgorithm(final String cipherAlgorithm)
+   {
+      this.cipherAlgorithm = cipherAlgorithm;
+   }
+
+   /**
+    * Sets the algorithm used in one-way hashing, for use outside the container 
+    * where no env-entry may be injected.  Takes effect upon 
+    * {@link EncryptionKeyHolderBean#initialize()}.
+    * 
+    * @param messageDigestAlgorithm
+    */
+   void setMessageDigestAlgorithm(final String messageDigestAlgorithm)
+   {
+      this.messageDigestAlgorithm = messageDigestAlgorithm;
+   }
+
+   /**
+    * Sets the algorithm with which new hashes are made instead, tagged with its
+    * name, for use outside the container where no env-entry may be injected.  
+    * Takes effect upon {@link EncryptionKeyHolderBean#initialize()}.
+    * 
+    * @param preferredMessageDigestAlgorithm
+    */
+   void setPreferredMessageDigestAlgorithm(final String preferredMessageDigestAlgorithm)
+   {
+      this.preferredMessageDigestAlgorithm = preferredMessageDigestAlgorithm;
+   }
+
+   /**
+    * Sets the maximum number of cached hash results, for use outside the
+    * container where no env-entry may be injected.  Takes effect upon
+    * {@link EncryptionKeyHolderBean#initialize()}.
+    * 
+    * @param hashCacheMaxSize
+    */
+   void setHashCacheMaxSize(final Integer hashCacheMaxSize)
+   {
+      this.hashCacheMaxSize = hashCacheMaxSize;
+   }
+
+   /**
+    * Sets the number of seconds for which a hash result is cached, for use
+    * outside the container where no env-entry may be injected.  Takes effect 
+    * upon {@link EncryptionKeyHolderBean#initialize()}.
+    * 
+    * @param hashCacheTimeToLiveSeconds
+    */
+   void setHashCacheTimeToLiveSeconds(final Integer hashCacheTimeToLiveSeconds)
+   {
+      this.hashCacheTimeToLiveSeconds = hashCacheTimeToLiveSeconds;
+   }
+
+   /**
+    * Sets the number of ciphers created in each mode upon initialization, for 
+    * use outside the container where no env-entry may be injected.  Takes effect 
+    * upon {@link EncryptionKeyHolderBean#initialize()}.
+    * 
+    * @param prewarmedCiphers
+    */
+   void setPrewarmedCiphers(final Integer prewarmedCiphers)
+   {
+      this.prewarmedCiphers = prewarmedCiphers;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the ciphers' passphrase via lookup in the env-entries, so that we may 
+    * define it in a secure location on the server.  Now our production
+    * systems will use a different key for encoding than our development
+    * servers, and we may limit the likelihood of a security breach 
+    * while still allowing our programmer to use the default passphrase
+    * transparently during development.  
+    * 
+    * If not provided as an env-entry, fall back upon the default.
+    * 
+    * @return
+    */
+   private String resolveCiphersPassphrase()
+   {
+      // Do a lookup via SessionContext
+      String passphrase = this.getEnvironmentEntryAsString(ENV_ENTRY_NAME_CIPHERS_PASSPHRASE);
+
+      // See if provided
+      if (passphrase == null)
+      {
+         // Log a warning
+         log.warning("No encryption passphrase has been supplied explicitly via "
+               + "an env-entry, falling back on the default...");
+
+         // Set
+         passphrase = DEFAULT_PASSPHRASE;
+      }
+
+      // Set the passphrase to be used; note that we never log it
+      this.ciphersPassphrase = passphrase;
+      return passphrase;
+   }
+
+   /**
+    * Obtains the message digest algorithm as injected from the env-entry element
+    * defined in ejb-jar.xml.  If not specified, fall back onto the default, logging a warn 
+    * message
+    * 
+    * @return
+    */
+   private String resolveMessageDigestAlgorithm()
+   {
+      // First see if this has been injected/set
+      if (this.messageDigestAlgorithm == null)
+      {
+         // Log a warning
+         log.warning("No message digest algorithm has been supplied explicitly via "
+               + "an env-entry, falling back on the default...");
+
+         // Set
+         this.messageDigestAlgorithm = DEFAULT_ALGORITHM_MESSAGE_DIGEST;
+      }
+
+      // Log
+      log.info("Configured MessageDigest one-way hash algorithm is: " + this.messageDigestAlgorithm);
+
+      // Return
+      return this.messageDigestAlgorithm;
+   }
+
+   /**
+    * Obtains the algorithm used for symmetric encryption, named by the env-entry
+    * defined in ejb-jar.xml.  If not specified, fall back onto the default, logging a warn 
+    * message
+    * 
+    * @return
+    * @throws IllegalStateException If no algorithm has the specified name
+    */
+   private CipherAlgorithm resolveCipherAlgorithm() throws IllegalStateException
+   {
+      // First see if this has been injected/set
+      if (this.cipherAlgorithm == null)
+      {
+         // Log a warning
+         log.warning("No cipher algorithm has been supplied explicitly via "
+               + "an env-entry, falling back on the default...");
+
+         // Set
+         this.cipherAlgorithm = DEFAULT_ALGORITHM_CIPHER.getName();
+      }
+
+      // Look up, including those plugged in
+      final CipherAlgorithm algorithm = CipherAlgorithms.forName(this.cipherAlgorithm);
+      if (algorithm == null)
+      {
+         throw new IllegalStateException("No " + CipherAlgorithm.class.getSimpleName() + " is named: "
+               + this.cipherAlgorithm);
+      }
+
+      // Return
+      return algorithm;
+   }
+
+   /**
+    * Obtains the environment entry with the specified name, casting to a String,
+    * and returning the result.  If the entry is not assignable 
+    * to a String, an {@link IllegalStateException} will be raised.  In the event that the 
+    * specified environment entry cannot be found, a warning message will be logged
+    * and we'll return null.
+    * 
+    * @param envEntryName
+    * @return
+    * @throws IllegalStateException
+    */
+   private String getEnvironmentEntryAsString(final String envEntryName) throws IllegalStateException
+   {
+      // See if we have a SessionContext
+      final SessionContext context = this.context;
+      if (context == null)
+      {
+         log.warning("No SessionContext, bypassing request to obtain environment entry: " + envEntryName);
+         return null;
+      }
+
+      // Lookup in the Private JNDI ENC via the injected SessionContext
+      Object lookupValue = null;
+      try
+      {
+         lookupValue = context.lookup(envEntryName);
+         // Log the name only, as some values (ie. the passphrase) are secret
+         log.fine("Obtained environment entry \"" + envEntryName + "\"");
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         // Not found defined within this EJB's Component Environment, 
+         // so return null and let the caller handle it
+         log.warning("Could not find environment entry with name: " + envEntryName);
+         return null;
+      }
+
+      // Cast
+      String returnValue = null;
+      try
+      {
+         returnValue = String.class.cast(lookupValue);
+      }
+      catch (final ClassCastException cce)
+      {
+         throw new IllegalStateException("The specified environment entry, " + envEntryName
+               + ", was not able to be represented as a " + String.class.getName(), cce);
+      }
+
+      // Return
+      return returnValue;
+   }
+}
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+/**
+ * EJB 3.x Local Business View of the EncryptionKeyHolderEJB, 
+ * which holds the configuration and derived keys shared by
+ * all instances of the EncryptionEJB within a deployment.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public interface EncryptionKeyHolderLocalBusiness
+{
+   // ---------------------------------------------------------------------------||
+   // Contracts -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the engine performing symmetric encryption/decryption and one-way
+    * hashing, whose keys were derived when this service was started
+    * 
+    * @return
+    * @throws IllegalStateException If this service has not been initialized
+    */
+   CipherEngine getEngine() throws IllegalStateException;
+
+   /*
+    * As in EncryptionCommonBusiness, it's a security risk in real life to expose
+    * these internals; they're in place here for testing and to show 
+    * functionality described by the examples.
+    */
+
+   /**
+    * Obtains the passphrase used in the key for
+    * the symmetric encryption/decryption ciphers
+    * 
+    * @return
+    */
+   String getCiphersPassphrase();
+
+   /**
+    * Obtains the algorithm used in performing
+    * one-way hashing.  Hashes without tag were made with this algorithm;
+    * if the engine hashes with another, its hashes are tagged with its name.
+    * 
+    * @return
+    */
+   String getMessageDigestAlgorithm();
+}
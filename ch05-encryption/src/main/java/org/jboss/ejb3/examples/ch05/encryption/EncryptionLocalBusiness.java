@@ -21,12 +21,216 @@
  */
 package org.jboss.ejb3.examples.ch05.encryption;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.jboss.ejb3.examples.ch05.encryption.OperationStatistics.Operation;
+
 /**
- * EJB 3.x Local Business View of the EncryptionEJB
+ * EJB 3.x Local Business View of the EncryptionEJB.
+ * 
+ * In addition to the contracts in hierarchy, exposes streaming 
+ * operations for large payloads and binary operations which skip
+ * the String and Base64 conversions.  These accept streams, channels
+ * and buffers, which may only be passed by reference, or are 
+ * intended for in-VM pipelines, so they're offered on the local view alone.
+ * 
+ * Also exposes asynchronous hashing upon an executor dedicated to this
+ * EJB, whose {@link Future}s are not valid outside of this VM.
  *
  * @author <a href="mailto:alr@jboss.org">ALR</a>
  */
 public interface EncryptionLocalBusiness extends EncryptionCommonBusiness
 {
-   // Contracts in hierarchy
+   // ---------------------------------------------------------------------------||
+   // Contracts -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Encrypts all bytes read from the specified stream until end-of-stream, 
+    * writing the Base64-encoded result to the output stream.  For the same 
+    * bytes, the output is equal to that of {@link EncryptionCommonBusiness#encrypt(String)}.
+    * Memory use is constant regardless of the size of the payload.
+    * Neither stream is closed; this remains the responsibility of the caller.
+    * 
+    * @param input
+    * @param output
+    * @throws IllegalArgumentException If either stream is not provided (null)
+    * @throws EncryptionException If some problem occurred with reading, writing or encryption
+    */
+   void encrypt(InputStream input, OutputStream output) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Decrypts the Base64-encoded ciphertext read from the specified stream 
+    * until end-of-stream, writing the plain bytes to the output stream.  The general
+    * contract is that decrypting the output of {@link EncryptionLocalBusiness#encrypt(InputStream, OutputStream)}
+    * yields the original bytes (round trip).  Memory use is constant regardless 
+    * of the size of the payload.  Neither stream is closed; this remains the 
+    * responsibility of the caller.
+    * 
+    * @param input
+    * @param output
+    * @throws IllegalArgumentException If either stream is not provided (null)
+    * @throws EncryptionException If some problem occurred with reading, writing or decryption
+    */
+   void decrypt(InputStream input, OutputStream output) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Returns a one-way hash of all bytes read from the specified channel until 
+    * end-of-stream.  Memory use is constant regardless of the size of the 
+    * payload.  The channel is not closed.  Tagged with its algorithm as is
+    * {@link EncryptionCommonBusiness#hash(String)}.
+    * 
+    * @param input
+    * @return
+    * @throws IllegalArgumentException If no channel was provided (null)
+    * @throws EncryptionException If some problem occurred reading or making the hash
+    */
+   String hash(ReadableByteChannel input) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Encrypts the specified bytes, returning the raw ciphertext.  Unlike
+    * {@link EncryptionCommonBusiness#encrypt(String)}, the result is 
+    * not Base64-encoded, making it suitable for binary storage.
+    * 
+    * @param input
+    * @return
+    * @throws IllegalArgumentException If no input was provided (null)
+    * @throws EncryptionException If some problem occurred with encryption
+    */
+   byte[] encrypt(byte[] input) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Decrypts the specified raw ciphertext, as returned by
+    * {@link EncryptionLocalBusiness#encrypt(byte[])}, returning the plain bytes
+    * 
+    * @param input
+    * @return
+    * @throws IllegalArgumentException If no input was provided (null)
+    * @throws EncryptionException If some problem occurred with decryption
+    */
+   byte[] decrypt(byte[] input) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Returns the raw (not Base64-encoded) one-way hash of the specified bytes,
+    * made with the preferred algorithm if configured and never tagged
+    * 
+    * @param input
+    * @return
+    * @throws IllegalArgumentException If no input was provided (null)
+    * @throws EncryptionException If some problem occurred making the hash
+    */
+   byte[] hash(byte[] input) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Encrypts the remaining bytes of the input buffer, writing the raw ciphertext 
+    * into the caller-supplied output buffer.  The positions of both buffers 
+    * are advanced.  The output buffer must have room for the input plus 
+    * the header, padding and authentication tag of the configured algorithm;
+    * 64 bytes suffice for those built in.
+    * 
+    * @param input
+    * @param output
+    * @return The number of bytes written to the output buffer
+    * @throws IllegalArgumentException If either buffer is not provided (null)
+    * @throws EncryptionException If some problem occurred with encryption, including
+    *   insufficient space in the output buffer
+    */
+   int encrypt(ByteBuffer input, ByteBuffer output) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Decrypts the remaining raw ciphertext of the input buffer, writing the plain
+    * bytes into the caller-supplied output buffer.  The positions of both buffers 
+    * are advanced.  The output buffer must have room for at least as many bytes
+    * as the input.
+    * 
+    * @param input
+    * @param output
+    * @return The number of bytes written to the output buffer
+    * @throws IllegalArgumentException If either buffer is not provided (null)
+    * @throws EncryptionException If some problem occurred with decryption, including
+    *   insufficient space in the output buffer
+    */
+   int decrypt(ByteBuffer input, ByteBuffer output) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Writes the raw one-way hash of the remaining bytes of the input buffer
+    * into the caller-supplied output buffer.  The positions of both buffers 
+    * are advanced.  As for {@link EncryptionLocalBusiness#hash(byte[])}, 
+    * the hash is never tagged with its algorithm.
+    * 
+    * @param input
+    * @param output
+    * @return The number of bytes written to the output buffer
+    * @throws IllegalArgumentException If either buffer is not provided (null)
+    * @throws EncryptionException If some problem occurred making the hash, including
+    *   insufficient space in the output buffer
+    */
+   int hash(ByteBuffer input, ByteBuffer output) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Asynchronously returns a one-way hash of the specified argument.  Unlike
+    * {@link EncryptionCommonBusiness#hashAsync(String)}, the work is executed upon 
+    * a bounded executor dedicated to this EJB, sized to the number of processors,
+    * rather than the container's pool shared by all @Asynchronous invocations.
+    * The result is a plain {@link Future}, as this EJB runs upon Java 6 
+    * (the baseline of the build and of the target container), which has no
+    * CompletableFuture; callers block upon {@link Future#get()} to join.
+    * 
+    * @param input
+    * @return
+    * @throws IllegalArgumentException If no input was provided (null)
+    * @throws EncryptionException If the dedicated executor is at capacity; problems
+    *   making the hash itself are reported by the {@link Future}
+    */
+   Future<String> submitHash(String input) throws IllegalArgumentException, EncryptionException;
+
+   /**
+    * Asynchronously returns the one-way hashes of the specified inputs, in their
+    * iteration order.  The inputs are split into contiguous parts hashed in 
+    * parallel upon the dedicated executor, one part per processor.  As with 
+    * {@link EncryptionCommonBusiness#hashAll(List)}, a failure upon any one element 
+    * is recorded in its {@link EncryptionResult}.  As with 
+    * {@link EncryptionLocalBusiness#submitHash(String)}, the result is a plain
+    * {@link Future}, completed once every part has been hashed.
+    * 
+    * @param inputs
+    * @return
+    * @throws IllegalArgumentException If the inputs were not specified
+    * @throws EncryptionException If the dedicated executor is at capacity
+    */
+   Future<List<EncryptionResult>> hashAllAsync(Collection<String> inputs) throws IllegalArgumentException,
+         EncryptionException;
+
+   /**
+    * Obtains a snapshot of the queue depth, rejections and task latency of the 
+    * executor dedicated to {@link EncryptionLocalBusiness#submitHash(String)} and 
+    * {@link EncryptionLocalBusiness#hashAllAsync(Collection)}
+    * 
+    * @return
+    */
+   AsyncHashingStatistics getAsyncHashingStatistics();
+
+   /**
+    * Obtains a snapshot of the hit, miss and eviction counters of the cache
+    * of one-way hash results.  All are zero if caching is not enabled.
+    * 
+    * @return
+    */
+   HashCacheStatistics getHashCacheStatistics();
+
+   /**
+    * Obtains a snapshot of the number of calls, failures, bytes of input processed 
+    * and the latency histogram of each operation, across all views and all 
+    * instances of this EJB
+    * 
+    * @return
+    */
+   Map<Operation, OperationStatistics> getOperationStatistics();
 }
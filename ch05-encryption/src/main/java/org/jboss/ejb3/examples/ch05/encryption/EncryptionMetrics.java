@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jboss.ejb3.examples.ch05.encryption.OperationStatistics.Operation;
+
+/**
+ * Counters of the calls upon each {@link Operation} of the EncryptionEJB,
+ * shared by all instances.  Recording costs a handful of uncontended 
+ * atomic additions and no allocation: counters are striped by Thread, 
+ * so concurrent callers seldom update the same ones, and are only 
+ * summed when a snapshot is taken.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+final class EncryptionMetrics
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Number of stripes of each counter; a power of two at least the number of processors
+    */
+   private static final int NUM_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+   /**
+    * Shared instance
+    */
+   private static final EncryptionMetrics INSTANCE = new EncryptionMetrics();
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Stripes of counters of each operation; never modified after construction
+    */
+   private final Map<Operation, Counters[]> counters = new EnumMap<Operation, Counters[]>(Operation.class);
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private EncryptionMetrics()
+   {
+      for (final Operation operation : Operation.values())
+      {
+         final Counters[] stripes = new Counters[NUM_STRIPES];
+         for (int i = 0; i < stripes.length; i++)
+         {
+            stripes[i] = new Counters();
+         }
+         counters.put(operation, stripes);
+      }
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Factory -------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the shared instance
+    */
+   static EncryptionMetrics getInstance()
+   {
+      return INSTANCE;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Functional Methods --------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Records a successful call upon the specified operation
+    *
+    * @param operation
+    * @param bytes Number of bytes of input processed
+    * @param startNanos Value of {@link System#nanoTime()} when the call began
+    */
+   void succeeded(final Operation operation, final long bytes, final long startNanos)
+   {
+      final Counters stripe = this.getStripe(operation);
+      stripe.bytes.addAndGet(bytes);
+      stripe.record(System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Records a failed call upon the specified operation
+    *
+    * @param operation
+    * @param startNanos Value of {@link System#nanoTime()} when the call began
+    */
+   void failed(final Operation operation, final long startNanos)
+   {
+      final Counters stripe = this.getStripe(operation);
+      stripe.failureCount.incrementAndGet();
+      stripe.record(System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Obtains a snapshot of the statistics of each operation
+    */
+   Map<Operation, OperationStatistics> getStatistics()
+   {
+      final Map<Operation, OperationStatistics> statistics = new EnumMap<Operation, OperationStatistics>(
+            Operation.class);
+      for (final Map.Entry<Operation, Counters[]> entry : counters.entrySet())
+      {
+         long count = 0;
+         long failureCount = 0;
+         long bytes = 0;
+         long totalLatencyNanos = 0;
+         long maxLatencyNanos = 0;
+         final long[] latencyHistogram = new long[OperationStatistics.NUM_BUCKETS];
+         for (final Counters stripe : entry.getValue())
+         {
+            count += stripe.count.get();
+            failureCount += stripe.failureCount.get();
+            bytes += stripe.bytes.get();
+            totalLatencyNanos += stripe.totalLatencyNanos.get();
+            maxLatencyNanos = Math.max(maxLatencyNanos, stripe.maxLatencyNanos.get());
+            for (int i = 0; i < latencyHistogram.length; i++)
+            {
+               latencyHistogram[i] += stripe.latencyHistogram.get(i);
+            }
+         }
+         statistics.put(entry.getKey(), new OperationStatistics(entry.getKey(), count, failureCount, bytes,
+               totalLatencyNanos, maxLatencyNanos, latencyHistogram));
+      }
+      return Collections.unmodifiableMap(statistics);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the stripe of counters of the specified operation for the current Thread
+    */
+   private Counters getStripe(final Operation operation)
+   {
+      final int index = (int) Thread.currentThread().getId() & (NUM_STRIPES - 1);
+      return counters.get(operation)[index];
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * One stripe of the counters of an operation
+    */
+   private static final class Counters
+   {
+      private final AtomicLong count = new AtomicLong();
+
+      private final AtomicLong failureCount = new AtomicLong();
+
+      private final AtomicLong bytes = new AtomicLong();
+
+      private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+      private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+      private final AtomicLongArray latencyHistogram = new AtomicLongArray(OperationStatistics.NUM_BUCKETS);
+
+      /**
+       * Records the latency of a call
+       */
+      void record(final long latencyNanos)
+      {
+         count.incrementAndGet();
+         totalLatencyNanos.addAndGet(latencyNanos);
+         latencyHistogram.incrementAndGet(OperationStatistics.getBucket(latencyNanos));
+         long max = maxLatencyNanos.get();
+         while (latencyNanos > max && !maxLatencyNanos.compareAndSet(max, latencyNanos))
+         {
+            max = maxLatencyNanos.get();
+         }
+      }
+   }
+}
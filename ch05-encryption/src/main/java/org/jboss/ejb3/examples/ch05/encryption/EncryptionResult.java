@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of processing a single element of a bulk operation
+ * upon the EncryptionEJB.  Holds either the result of the
+ * operation or the {@link EncryptionException} describing why
+ * that element alone could not be processed, so that one bad
+ * element does not fail the whole batch.
+ *
+ * Immutable, and {@link Serializable} so it may be returned from
+ * the remote business view.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public final class EncryptionResult implements Serializable
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * To satisfy explicit serialization hints to the JVM
+    */
+   private static final long serialVersionUID = 1L;
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * The result of the operation, or null if it failed
+    */
+   private final String value;
+
+   /**
+    * The reason the operation failed, or null if it succeeded
+    */
+   private final EncryptionException failure;
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Internal constructor; use the static factory methods
+    */
+   private EncryptionResult(final String value, final EncryptionException failure)
+   {
+      this.value = value;
+      this.failure = failure;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Factory Methods -----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Creates a result denoting that the operation succeeded
+    *
+    * @param value
+    * @return
+    */
+   static EncryptionResult success(final String value)
+   {
+      return new EncryptionResult(value, null);
+   }
+
+   /**
+    * Creates a result denoting that the operation failed
+    *
+    * @param failure
+    * @return
+    * @throws IllegalArgumentException If the failure is not specified
+    */
+   static EncryptionResult failure(final EncryptionException failure) throws IllegalArgumentException
+   {
+      if (failure == null)
+      {
+         throw new IllegalArgumentException("failure is required.");
+      }
+      return new EncryptionResult(null, failure);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Accessors -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Returns whether or not the operation upon this element succeeded
+    *
+    * @return
+    */
+   public boolean isSuccess()
+   {
+      return failure == null;
+   }
+
+   /**
+    * Obtains the result of the operation
+    *
+    * @return
+    * @throws EncryptionException If the operation upon this element failed
+    */
+   public String getValue() throws EncryptionException
+   {
+      if (failure != null)
+      {
+         throw failure;
+      }
+      return value;
+   }
+
+   /**
+    * Obtains the reason the operation failed, or null if it succeeded
+    *
+    * @return
+    */
+   public EncryptionException getFailure()
+   {
+      return failure;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Overridden Implementations ------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return isSuccess() ? "Success [" + value + "]" : "Failure [" + failure.getMessage() + "]";
+   }
+}
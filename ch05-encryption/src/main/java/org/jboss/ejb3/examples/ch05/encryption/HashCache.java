@@ -0,0 +1,345 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * Bounded cache of one-way hash results, for callers which repeatedly
+ * hash (or compare against) the same inputs.  Entries expire after a 
+ * fixed time-to-live, and once the maximum size is reached the oldest
+ * entries are evicted first.
+ *
+ * Fingerprinting an input costs about as much as hashing it with a 
+ * common digest (ie. MD5, SHA), so the cache pays only where the 
+ * configured digest costs more than HMAC-SHA256 of the same input.
+ *
+ * Inputs are never retained: entries are keyed by an HMAC of the input 
+ * under a random key generated for, and held only by, this cache.  A 
+ * dump of the heap therefore yields neither the inputs nor fingerprints
+ * which could be checked offline against guessed inputs.
+ *
+ * Thread-safe; lookups do not lock.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+final class HashCache
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Algorithm used to fingerprint inputs
+    */
+   private static final String ALGORITHM_FINGERPRINT = "HmacSHA256";
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of entries
+    */
+   private final int maxSize;
+
+   /**
+    * Time after insertion at which an entry expires
+    */
+   private final long timeToLiveNanos;
+
+   /**
+    * Cached hashes, keyed by fingerprint
+    */
+   private final ConcurrentMap<Fingerprint, Entry> entries = new ConcurrentHashMap<Fingerprint, Entry>();
+
+   /**
+    * Entries in order of insertion, for eviction; may also hold entries 
+    * already removed or replaced upon expiry, which being expired are 
+    * at the head, and are discarded once reached
+    */
+   private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<Entry>();
+
+   /**
+    * Number of entries in {@link HashCache#entries}, against which the maximum
+    * size is enforced, as {@link ConcurrentHashMap#size()} is not a constant-time operation
+    */
+   private final AtomicInteger size = new AtomicInteger();
+
+   /**
+    * Pool of MACs producing fingerprints
+    */
+   private final Pool<Mac> macs;
+
+   /*
+    * Counters
+    */
+
+   private final AtomicLong hits = new AtomicLong();
+
+   private final AtomicLong misses = new AtomicLong();
+
+   private final AtomicLong evictions = new AtomicLong();
+
+   private final AtomicLong expirations = new AtomicLong();
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Creates a new cache
+    *
+    * @param maxSize Maximum number of entries
+    * @param timeToLiveMillis Time after insertion at which an entry expires
+    * @param maxIdle Upper bound of idle MACs retained
+    * @throws IllegalArgumentException If the size or time-to-live is not positive
+    * @throws GeneralSecurityException If no fingerprint key or MAC could be created
+    */
+   HashCache(final int maxSize, final long timeToLiveMillis, final int maxIdle) throws IllegalArgumentException,
+         GeneralSecurityException
+   {
+      // Precondition checks
+      if (maxSize <= 0 || timeToLiveMillis <= 0)
+      {
+         throw new IllegalArgumentException("Size and time-to-live of the hash cache must be positive");
+      }
+
+      this.maxSize = maxSize;
+      this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+
+      // The key lives only as long as this cache
+      final SecretKey fingerprintKey = KeyGenerator.getInstance(ALGORITHM_FINGERPRINT).generateKey();
+      this.macs = new Pool<Mac>(maxIdle)
+      {
+         @Override
+         Mac create() throws GeneralSecurityException
+         {
+            final Mac mac = Mac.getInstance(ALGORITHM_FINGERPRINT);
+            mac.init(fingerprintKey);
+            return mac;
+         }
+      };
+
+      // Fail fast
+      macs.release(macs.borrow());
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Functional Methods --------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the fingerprint under which the hash of the specified input is cached
+    *
+    * @param input
+    * @return
+    * @throws GeneralSecurityException If no MAC could be obtained
+    */
+   Fingerprint fingerprint(final byte[] input) throws GeneralSecurityException
+   {
+      final Mac mac = macs.borrow();
+      final byte[] result;
+      try
+      {
+         result = mac.doFinal(input);
+      }
+      finally
+      {
+         // doFinal() resets the instance
+         macs.release(mac);
+      }
+      return new Fingerprint(result);
+   }
+
+   /**
+    * Obtains the cached hash for the specified fingerprint, or null if 
+    * none is cached or it has expired
+    *
+    * @param fingerprint
+    * @return
+    */
+   byte[] get(final Fingerprint fingerprint)
+   {
+      final Entry entry = entries.get(fingerprint);
+      if (entry == null)
+      {
+         misses.incrementAndGet();
+         return null;
+      }
+      if (System.nanoTime() - entry.insertedNanos >= timeToLiveNanos)
+      {
+         if (entries.remove(fingerprint, entry))
+         {
+            size.decrementAndGet();
+            expirations.incrementAndGet();
+         }
+         misses.incrementAndGet();
+         return null;
+      }
+      hits.incrementAndGet();
+      return entry.hash;
+   }
+
+   /**
+    * Caches the specified hash under the fingerprint, evicting the oldest 
+    * entries if the cache is full.  If the fingerprint was cached meanwhile
+    * (ie. by a concurrent miss) and has not expired, that entry is kept.
+    *
+    * @param fingerprint
+    * @param hash
+    */
+   void put(final Fingerprint fingerprint, final byte[] hash)
+   {
+      // Add, or replace only an expired entry, so each live entry is queued once
+      final long now = System.nanoTime();
+      final Entry entry = new Entry(fingerprint, hash, now);
+      final Entry previous = entries.putIfAbsent(fingerprint, entry);
+      if (previous == null)
+      {
+         size.incrementAndGet();
+      }
+      else if (now - previous.insertedNanos < timeToLiveNanos || !entries.replace(fingerprint, previous, entry))
+      {
+         return;
+      }
+      insertionOrder.offer(entry);
+
+      // Discard the expired from the head, then evict the oldest until within bounds
+      Entry oldest;
+      while ((oldest = insertionOrder.peek()) != null
+            && (size.get() > maxSize || now - oldest.insertedNanos >= timeToLiveNanos))
+      {
+         if (!insertionOrder.remove(oldest))
+         {
+            // Taken by another
+            continue;
+         }
+         if (entries.remove(oldest.fingerprint, oldest))
+         {
+            size.decrementAndGet();
+            if (now - oldest.insertedNanos >= timeToLiveNanos)
+            {
+               expirations.incrementAndGet();
+            }
+            else
+            {
+               evictions.incrementAndGet();
+            }
+         }
+      }
+   }
+
+   /**
+    * Discards all cached hashes
+    */
+   void clear()
+   {
+      Entry entry;
+      while ((entry = insertionOrder.poll()) != null)
+      {
+         if (entries.remove(entry.fingerprint, entry))
+         {
+            size.decrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * Obtains a snapshot of the counters of this cache
+    */
+   HashCacheStatistics getStatistics()
+   {
+      return new HashCacheStatistics(entries.size(), hits.get(), misses.get(), evictions.get(), expirations.get());
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Fingerprint of an input, usable as a key
+    */
+   static final class Fingerprint
+   {
+      private final byte[] bytes;
+
+      private final int hashCode;
+
+      private Fingerprint(final byte[] bytes)
+      {
+         this.bytes = bytes;
+         this.hashCode = Arrays.hashCode(bytes);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+
+      @Override
+      public boolean equals(final Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof Fingerprint))
+         {
+            return false;
+         }
+         return Arrays.equals(bytes, ((Fingerprint) obj).bytes);
+      }
+   }
+
+   /**
+    * Cached hash along with its time of insertion
+    */
+   private static final class Entry
+   {
+      private final Fingerprint fingerprint;
+
+      private final byte[] hash;
+
+      private final long insertedNanos;
+
+      Entry(final Fingerprint fingerprint, final byte[] hash, final long insertedNanos)
+      {
+         this.fingerprint = fingerprint;
+         this.hash = hash;
+         this.insertedNanos = insertedNanos;
+      }
+   }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.io.Serializable;
+
+/**
+ * Point-in-time snapshot of the counters of the cache of one-way
+ * hash results used by the EncryptionEJB.  All counters are zero 
+ * if the cache is not enabled.
+ *
+ * Immutable.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public final class HashCacheStatistics implements Serializable
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * To satisfy explicit serialization hints to the JVM
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Statistics of a cache which is not enabled
+    */
+   static final HashCacheStatistics DISABLED = new HashCacheStatistics(0, 0, 0, 0, 0);
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private final int size;
+
+   private final long hitCount;
+
+   private final long missCount;
+
+   private final long evictionCount;
+
+   private final long expirationCount;
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   HashCacheStatistics(final int size, final long hitCount, final long missCount, final long evictionCount,
+         final long expirationCount)
+   {
+      this.size = size;
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.expirationCount = expirationCount;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Accessors -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Number of entries currently cached
+    */
+   public int getSize()
+   {
+      return size;
+   }
+
+   /**
+    * Number of lookups answered from the cache
+    */
+   public long getHitCount()
+   {
+      return hitCount;
+   }
+
+   /**
+    * Number of lookups which required the hash to be computed
+    */
+   public long getMissCount()
+   {
+      return missCount;
+   }
+
+   /**
+    * Number of entries removed to keep the cache within its maximum size
+    */
+   public long getEvictionCount()
+   {
+      return evictionCount;
+   }
+
+   /**
+    * Number of entries removed because their time-to-live had elapsed
+    */
+   public long getExpirationCount()
+   {
+      return expirationCount;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Overridden Implementations ------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "HashCacheStatistics [size=" + size + ", hits=" + hitCount + ", misses=" + missCount + ", evictions="
+            + evictionCount + ", expirations=" + expirationCount + "]";
+   }
+}
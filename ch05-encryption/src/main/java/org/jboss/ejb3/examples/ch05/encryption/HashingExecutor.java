@@ -0,0 +1,341 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor dedicated to the asynchronous hashing operations of
+ * the EncryptionEJB, so that bursts of hashing work don't queue behind
+ * unrelated @Asynchronous invocations in the container's shared pool
+ * (and vice versa).  Sized to the number of available processors, with
+ * a bounded queue; work beyond that capacity is rejected rather than
+ * allowed to grow without bound.
+ *
+ * Worker Threads are daemons and time out when idle, so an undeployed
+ * application does not leave Threads (and its ClassLoader) behind.
+ *
+ * Written against Java 6, the runtime baseline of this EJB, so results are
+ * {@link Future}s and parts are joined in order rather than by fork/join.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+final class HashingExecutor
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Number of worker Threads
+    */
+   static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * Maximum number of tasks waiting for a worker
+    */
+   static final int QUEUE_CAPACITY = 1024;
+
+   /**
+    * Seconds an idle worker is retained before exiting
+    */
+   private static final long KEEP_ALIVE_SECONDS = 60;
+
+   /**
+    * Shared instance
+    */
+   private static final HashingExecutor INSTANCE = new HashingExecutor();
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Underlying executor
+    */
+   private final ThreadPoolExecutor executor;
+
+   /**
+    * Number of submissions rejected for want of capacity
+    */
+   private final AtomicLong rejectedCount = new AtomicLong();
+
+   /**
+    * Number of tasks completed, successfully or otherwise
+    */
+   private final AtomicLong completedCount = new AtomicLong();
+
+   /**
+    * Cumulative latency of completed tasks, from submission to completion
+    */
+   private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+   /**
+    * Greatest latency of any completed task, from submission to completion
+    */
+   private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private HashingExecutor()
+   {
+      final AtomicInteger threadCount = new AtomicInteger();
+      final ThreadFactory threadFactory = new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            final Thread thread = new Thread(r, "EncryptionEJB-Hashing-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+      executor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Factory -------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the shared instance
+    */
+   static HashingExecutor getInstance()
+   {
+      return INSTANCE;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Functional Methods --------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Submits the specified task for execution
+    *
+    * @param task
+    * @return
+    * @throws EncryptionException If the executor is at capacity
+    */
+   <T> Future<T> submit(final Callable<T> task) throws EncryptionException
+   {
+      final FutureTask<T> future = new TimedTask<T>(task, System.nanoTime());
+      try
+      {
+         executor.execute(future);
+      }
+      catch (final RejectedExecutionException ree)
+      {
+         rejectedCount.incrementAndGet();
+         throw new EncryptionException("Asynchronous hashing is at capacity, " + executor.getQueue().size()
+               + " tasks are queued", ree);
+      }
+      return future;
+   }
+
+   /**
+    * Submits each of the specified tasks, returning a single {@link Future} which
+    * completes when all have completed, and whose result is the concatenation of
+    * their results in order.  If any task cannot be submitted, those already
+    * submitted are cancelled.
+    *
+    * @param tasks
+    * @return
+    * @throws EncryptionException If the executor is at capacity
+    */
+   <T> Future<List<T>> submitAll(final List<Callable<List<T>>> tasks) throws EncryptionException
+   {
+      final List<Future<List<T>>> parts = new ArrayList<Future<List<T>>>(tasks.size());
+      try
+      {
+         for (final Callable<List<T>> task : tasks)
+         {
+            parts.add(this.submit(task));
+         }
+      }
+      catch (final EncryptionException ee)
+      {
+         for (final Future<List<T>> part : parts)
+         {
+            part.cancel(false);
+         }
+         throw ee;
+      }
+      return new JoinedFuture<T>(parts);
+   }
+
+   /**
+    * Obtains a snapshot of the statistics of this executor
+    */
+   AsyncHashingStatistics getStatistics()
+   {
+      return new AsyncHashingStatistics(executor.getQueue().size(), executor.getActiveCount(), rejectedCount.get(),
+            completedCount.get(), totalLatencyNanos.get(), maxLatencyNanos.get());
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Records the latency of a completed task
+    */
+   private void recordLatency(final long latencyNanos)
+   {
+      completedCount.incrementAndGet();
+      totalLatencyNanos.addAndGet(latencyNanos);
+      long max = maxLatencyNanos.get();
+      while (latencyNanos > max && !maxLatencyNanos.compareAndSet(max, latencyNanos))
+      {
+         max = maxLatencyNanos.get();
+      }
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Task recording its latency from submission to completion
+    */
+   private final class TimedTask<T> extends FutureTask<T>
+   {
+      private final long submittedNanos;
+
+      TimedTask(final Callable<T> callable, final long submittedNanos)
+      {
+         super(callable);
+         this.submittedNanos = submittedNanos;
+      }
+
+      /*
+       * Record before the outcome is published (rather than in done()), so 
+       * that callers returning from get() observe the updated statistics
+       */
+
+      @Override
+      protected void set(final T v)
+      {
+         recordLatency(System.nanoTime() - submittedNanos);
+         super.set(v);
+      }
+
+      @Override
+      protected void setException(final Throwable t)
+      {
+         recordLatency(System.nanoTime() - submittedNanos);
+         super.setException(t);
+      }
+   }
+
+   /**
+    * Future joining the results of many parts, in order, without
+    * occupying a Thread of its own while waiting
+    */
+   private static final class JoinedFuture<T> implements Future<List<T>>
+   {
+      private final List<Future<List<T>>> parts;
+
+      JoinedFuture(final List<Future<List<T>>> parts)
+      {
+         this.parts = parts;
+      }
+
+      @Override
+      public boolean cancel(final boolean mayInterruptIfRunning)
+      {
+         boolean cancelled = false;
+         for (final Future<List<T>> part : parts)
+         {
+            cancelled |= part.cancel(mayInterruptIfRunning);
+         }
+         return cancelled;
+      }
+
+      @Override
+      public boolean isCancelled()
+      {
+         for (final Future<List<T>> part : parts)
+         {
+            if (part.isCancelled())
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+
+      @Override
+      public boolean isDone()
+      {
+         for (final Future<List<T>> part : parts)
+         {
+            if (!part.isDone())
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      @Override
+      public List<T> get() throws InterruptedException, ExecutionException
+      {
+         final List<T> results = new ArrayList<T>();
+         for (final Future<List<T>> part : parts)
+         {
+            results.addAll(part.get());
+         }
+         return Collections.unmodifiableList(results);
+      }
+
+      @Override
+      public List<T> get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException
+      {
+         final long deadline = System.nanoTime() + unit.toNanos(timeout);
+         final List<T> results = new ArrayList<T>();
+         for (final Future<List<T>> part : parts)
+         {
+            results.addAll(part.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+         }
+         return Collections.unmodifiableList(results);
+      }
+   }
+}
@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Point-in-time snapshot of the calls upon one {@link Operation} of the 
+ * EncryptionEJB: how many, how many failed, how many bytes of input were
+ * processed, and the distribution of their latency.
+ *
+ * Latency is recorded in a histogram of power-of-two buckets of microseconds;
+ * bucket <code>i</code> counts calls which took less than 
+ * {@link OperationStatistics#getBucketUpperBoundMicros(int)} and at least that 
+ * of the bucket before it.  The last bucket is unbounded.
+ *
+ * Immutable.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+public final class OperationStatistics implements Serializable
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * To satisfy explicit serialization hints to the JVM
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Number of buckets in the latency histogram; the bounded buckets
+    * cover calls of up to about a minute
+    */
+   public static final int NUM_BUCKETS = 28;
+
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   private final Operation operation;
+
+   private final long count;
+
+   private final long failureCount;
+
+   private final long bytes;
+
+   private final long totalLatencyNanos;
+
+   private final long maxLatencyNanos;
+
+   private final long[] latencyHistogram;
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   OperationStatistics(final Operation operation, final long count, final long failureCount, final long bytes,
+         final long totalLatencyNanos, final long maxLatencyNanos, final long[] latencyHistogram)
+   {
+      this.operation = operation;
+      this.count = count;
+      this.failureCount = failureCount;
+      this.bytes = bytes;
+      this.totalLatencyNanos = totalLatencyNanos;
+      this.maxLatencyNanos = maxLatencyNanos;
+      this.latencyHistogram = latencyHistogram;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Utility Methods -----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains the exclusive upper bound, in microseconds, of the latencies counted 
+    * in the specified bucket of the histogram, or {@link Long#MAX_VALUE} for the last
+    *
+    * @param bucket
+    * @return
+    * @throws IllegalArgumentException If there is no such bucket
+    */
+   public static long getBucketUpperBoundMicros(final int bucket) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (bucket < 0 || bucket >= NUM_BUCKETS)
+      {
+         throw new IllegalArgumentException("No such bucket: " + bucket);
+      }
+      return bucket == NUM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+   }
+
+   /**
+    * Obtains the bucket of the histogram in which the specified latency is counted
+    */
+   static int getBucket(final long latencyNanos)
+   {
+      final long micros = latencyNanos / 1000;
+      return Math.min(Long.SIZE - Long.numberOfLeadingZeros(micros), NUM_BUCKETS - 1);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Accessors -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * The operation to which these statistics apply
+    */
+   public Operation getOperation()
+   {
+      return operation;
+   }
+
+   /**
+    * Number of calls, successful or otherwise
+    */
+   public long getCount()
+   {
+      return count;
+   }
+
+   /**
+    * Number of calls which failed
+    */
+   public long getFailureCount()
+   {
+      return failureCount;
+   }
+
+   /**
+    * Number of bytes of input processed by successful calls
+    */
+   public long getBytes()
+   {
+      return bytes;
+   }
+
+   /**
+    * Mean latency of all calls in nanoseconds; 0 if there have been none
+    */
+   public long getMeanLatencyNanos()
+   {
+      return count == 0 ? 0 : totalLatencyNanos / count;
+   }
+
+   /**
+    * Greatest latency of any call in nanoseconds
+    */
+   public long getMaxLatencyNanos()
+   {
+      return maxLatencyNanos;
+   }
+
+   /**
+    * Number of calls counted in each bucket of the latency histogram
+    */
+   public long[] getLatencyHistogram()
+   {
+      return latencyHistogram.clone();
+   }
+
+   /**
+    * Obtains an upper bound, in microseconds, of the specified percentile of latency;
+    * that of the bucket in which it falls.  0 if there have been no calls.
+    *
+    * @param percentile In the range (0, 100]
+    * @return
+    * @throws IllegalArgumentException If the percentile is out of range
+    */
+   public long getLatencyPercentileMicros(final double percentile) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (!(percentile > 0 && percentile <= 100))
+      {
+         throw new IllegalArgumentException("Percentile must be in (0, 100]: " + percentile);
+      }
+
+      // Walk the buckets until we've passed the requested rank
+      long total = 0;
+      for (final long bucketCount : latencyHistogram)
+      {
+         total += bucketCount;
+      }
+      final double rank = total * percentile / 100;
+      long seen = 0;
+      for (int i = 0; i < latencyHistogram.length; i++)
+      {
+         seen += latencyHistogram[i];
+         if (seen > 0 && seen >= rank)
+         {
+            return getBucketUpperBoundMicros(i);
+         }
+      }
+      return 0;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Overridden Implementations ------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "OperationStatistics [operation=" + operation + ", count=" + count + ", failures=" + failureCount
+            + ", bytes=" + bytes + ", meanLatencyNanos=" + getMeanLatencyNanos() + ", maxLatencyNanos="
+            + maxLatencyNanos + ", latencyHistogram=" + Arrays.toString(latencyHistogram) + "]";
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Operations of the EncryptionEJB for which statistics are kept; each
+    * covers all views (String, bulk, asynchronous, binary and streaming)
+    */
+   public enum Operation
+   {
+      ENCRYPT, DECRYPT, HASH, COMPARE
+   }
+}
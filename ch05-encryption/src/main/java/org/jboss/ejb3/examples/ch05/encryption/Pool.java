@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch05.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free pool of reusable, non-thread-safe instances.  Retains at most
+ * a bounded number of idle instances; when empty, new instances are created
+ * on demand so callers never block.
+ *
+ * @author <a href="mailto:alr@jboss.org">ALR</a>
+ */
+abstract class Pool<T>
+{
+   // ---------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Idle instances
+    */
+   private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+
+   /**
+    * Number of instances in {@link Pool#idle}; tracked separately because
+    * {@link ConcurrentLinkedQueue#size()} is not a constant-time operation
+    */
+   private final AtomicInteger idleCount = new AtomicInteger();
+
+   /**
+    * Maximum number of idle instances to retain
+    */
+   private final int maxIdle;
+
+   // ---------------------------------------------------------------------------||
+   // Constructor ---------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   Pool(final int maxIdle)
+   {
+      this.maxIdle = maxIdle;
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Contracts -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance for use in the pool
+    */
+   abstract T create() throws GeneralSecurityException;
+
+   // ---------------------------------------------------------------------------||
+   // Functional Methods --------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Obtains an idle instance, or creates a new one if none is available
+    */
+   T borrow() throws GeneralSecurityException
+   {
+      final T instance = idle.poll();
+      if (instance == null)
+      {
+         return this.create();
+      }
+      idleCount.decrementAndGet();
+      return instance;
+   }
+
+   /**
+    * Creates instances until at least the specified number, bounded by the
+    * maximum, are idle
+    */
+   void prewarm(final int count) throws GeneralSecurityException
+   {
+      final int target = Math.min(count, maxIdle);
+      while (idleCount.get() < target)
+      {
+         this.release(this.create());
+      }
+   }
+
+   /**
+    * Discards all idle instances
+    */
+   void clear()
+   {
+      while (idle.poll() != null)
+      {
+         idleCount.decrementAndGet();
+      }
+   }
+
+   /**
+    * Returns the instance to the pool, discarding it if the pool is full
+    */
+   void release(final T instance)
+   {
+      if (idleCount.incrementAndGet() > maxIdle)
+      {
+         idleCount.decrementAndGet();
+         return;
+      }
+      idle.offer(instance);
+   }
+}
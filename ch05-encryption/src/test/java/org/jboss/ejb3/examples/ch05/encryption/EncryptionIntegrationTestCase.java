@@ -80,8 +80,11 @@ public class EncryptionIntegrationTestCase extends EncryptionTestCaseSupport
    public static JavaArchive createDeployment() throws MalformedURLException
    {
       final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "slsb.jar").addClasses(EncryptionBean.class,
+            EncryptionKeyHolderBean.class, EncryptionKeyHolderLocalBusiness.class,
             EncryptionCommonBusiness.class, EncryptionLocalBusiness.class, EncryptionRemoteBusiness.class,
-            EncryptionException.class, EncryptionTestCaseSupport.class).addAsManifestResource(
+            EncryptionException.class, EncryptionResult.class, CipherEngine.class, HashingExecutor.class,
+            AsyncHashingStatistics.class, Pool.class, HashCache.class, HashCacheStatistics.class, OperationStatistics.class, EncryptionMetrics.class,
+            CipherAlgorithm.class, CipherAlgorithms.class, EncryptionTestCaseSupport.class).addAsManifestResource(
             new URL(EncryptionIntegrationTestCase.class.getProtectionDomain().getCodeSource().getLocation(),
                   "../classes/META-INF/ejb-jar.xml"), "ejb-jar.xml").addPackages(true,BinaryEncoder.class.getPackage());
       //TODO SHRINKWRAP-141 Make addition of the ejb-jar less verbose
@@ -138,6 +141,76 @@ public class EncryptionIntegrationTestCase extends EncryptionTestCaseSupport
       TestCase.assertTrue("The comparison of the input to its hashed result failed", equal);
    }
 
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertBulkOperations(EncryptionCommonBusiness)}
+    */
+   @Test
+   public void testBulkOperations() throws Throwable
+   {
+      // Log
+      log.info("testBulkOperations");
+
+      // Test via superclass
+      this.assertBulkOperations(encryptionLocalBusiness);
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertStreaming(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testStreaming() throws Throwable
+   {
+      // Log
+      log.info("testStreaming");
+
+      // Test via superclass
+      this.assertStreaming(encryptionLocalBusiness);
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertBinary(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testBinary() throws Throwable
+   {
+      // Log
+      log.info("testBinary");
+
+      // Test via superclass
+      this.assertBinary(encryptionLocalBusiness);
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertDedicatedExecutorHashing(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testDedicatedExecutorHashing() throws Throwable
+   {
+      // Log
+      log.info("testDedicatedExecutorHashing");
+
+      // Test via superclass
+      this.assertDedicatedExecutorHashing(encryptionLocalBusiness);
+   }
+
+   /**
+    * Ensures that hash results are not cached as deployed
+    */
+   @Test
+   public void testHashCaching() throws Throwable
+   {
+      // Log
+      log.info("testHashCaching");
+
+      // Caching is disabled by env-entry in ejb-jar.xml, as it doesn't pay for the SHA digest
+      final String input = "Uncached Input " + System.nanoTime();
+      encryptionLocalBusiness.hash(input);
+      encryptionLocalBusiness.hash(input);
+      final HashCacheStatistics statistics = encryptionLocalBusiness.getHashCacheStatistics();
+      TestCase.assertEquals("Caching should not be enabled", 0, statistics.getMissCount());
+      TestCase.assertEquals("Caching should not be enabled", 0, statistics.getHitCount());
+   }
+
    /**
     * @see {@link EncryptionTestCaseSupport#assertEncryption(EncryptionCommonBusiness)}
     */
@@ -193,4 +266,16 @@ public class EncryptionIntegrationTestCase extends EncryptionTestCaseSupport
             EXPECTED_CIPHERS_PASSPHRASE, passphrase);
    }
 
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertOperationStatistics(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testOperationStatistics() throws Throwable
+   {
+      // Log
+      log.info("testOperationStatistics");
+
+      // Test via superclass
+      this.assertOperationStatistics(encryptionLocalBusiness);
+   }
 }
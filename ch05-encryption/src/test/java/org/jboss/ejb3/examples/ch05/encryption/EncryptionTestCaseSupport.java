@@ -21,10 +21,22 @@
  */
 package org.jboss.ejb3.examples.ch05.encryption;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.codec.binary.Base64;
+import org.jboss.ejb3.examples.ch05.encryption.OperationStatistics.Operation;
+
 /**
  * Common base for centralizing test logic used
  * for the Encryption POJO and EncryptionEJB
@@ -47,6 +59,21 @@ public class EncryptionTestCaseSupport
     */
    private static final String TEST_STRING = "EJB 3.1 Examples Test String";
 
+   /**
+    * Size of the payload used in streaming tests; spans several internal buffers
+    */
+   private static final int STREAMING_PAYLOAD_SIZE = 1024 * 1024 + 13;
+
+   /**
+    * Number of inputs hashed in parallel upon the dedicated executor
+    */
+   private static final int NUM_ASYNC_INPUTS = 100;
+
+   /**
+    * Seconds to wait upon asynchronous results
+    */
+   private static final int ASYNC_TIMEOUT_SECONDS = 30;
+
    // ---------------------------------------------------------------------------||
    // Test Support --------------------------------------------------------------||
    // ---------------------------------------------------------------------------||
@@ -112,4 +139,277 @@ public class EncryptionTestCaseSupport
       // Test that the result matches the original input
       TestCase.assertEquals("The comparison of the input to its encrypted result failed", input, roundTrip);
    }
+
+   /**
+    * Ensures that the bulk functions are working as expected:
+    * 
+    * 1) Results are returned in the order of the inputs
+    * 2) Bulk results are equal to those of the single-element operations 
+    * 3) A failure upon one element is reported without failing the others
+    * 
+    * @param service The service to use (either POJO or EJB)
+    * @throws Throwable
+    */
+   protected void assertBulkOperations(final EncryptionCommonBusiness service) throws Throwable
+   {
+      // Log
+      log.info("assertBulkOperations");
+
+      // Declare the inputs
+      final List<String> inputs = Arrays.asList(TEST_STRING, TEST_STRING + " 2", TEST_STRING + " 3");
+
+      // Hash in bulk, and check against the single-element operation
+      final List<EncryptionResult> hashes = service.hashAll(inputs);
+      TestCase.assertEquals("Should have obtained one hash per input", inputs.size(), hashes.size());
+      for (int i = 0; i < inputs.size(); i++)
+      {
+         TestCase.assertEquals("Bulk hash differed from single hash", service.hash(inputs.get(i)), hashes.get(i)
+               .getValue());
+      }
+
+      // Round trip in bulk, including an element which can't be encrypted
+      final List<String> withNull = Arrays.asList(TEST_STRING, null, TEST_STRING + " 3");
+      final List<EncryptionResult> encrypted = service.encryptAll(withNull);
+      TestCase.assertTrue("First element should have been encrypted", encrypted.get(0).isSuccess());
+      TestCase.assertFalse("Null element should have been reported as failed", encrypted.get(1).isSuccess());
+      TestCase.assertNotNull("Failed element should report its cause", encrypted.get(1).getFailure());
+      TestCase.assertTrue("Last element should have been encrypted", encrypted.get(2).isSuccess());
+      final List<EncryptionResult> decrypted = service.decryptAll(Arrays.asList(encrypted.get(0).getValue(),
+            "Not Ciphertext", encrypted.get(2).getValue()));
+      TestCase.assertEquals("Bulk round trip failed", TEST_STRING, decrypted.get(0).getValue());
+      TestCase.assertFalse("Invalid ciphertext should have been reported as failed", decrypted.get(1).isSuccess());
+      TestCase.assertEquals("Bulk round trip failed", TEST_STRING + " 3", decrypted.get(2).getValue());
+   }
+
+   /**
+    * Ensures that the streaming functions are working as expected:
+    * 
+    * 1) Streaming encryption of a String's bytes may be decrypted by {@link EncryptionCommonBusiness#decrypt(String)}
+    * 2) Round-trip of a payload spanning many buffers through streaming decryption restores the original bytes
+    * 3) Streaming hash of a String's bytes yields the same result as {@link EncryptionCommonBusiness#hash(String)}
+    * 
+    * @param service The service to use (either POJO or EJB)
+    * @throws Throwable
+    */
+   protected void assertStreaming(final EncryptionLocalBusiness service) throws Throwable
+   {
+      // Log
+      log.info("assertStreaming");
+
+      // Streaming and String results should agree
+      final byte[] testBytes = TEST_STRING.getBytes("UTF-8");
+      final ByteArrayOutputStream encryptedTestString = new ByteArrayOutputStream();
+      service.encrypt(new ByteArrayInputStream(testBytes), encryptedTestString);
+      TestCase.assertEquals("Streaming encryption should be decryptable as a String", TEST_STRING, service
+            .decrypt(encryptedTestString.toString("UTF-8")));
+      TestCase.assertEquals("Streaming hash should match String hash", service.hash(TEST_STRING), service
+            .hash(Channels.newChannel(new ByteArrayInputStream(testBytes))));
+
+      // Round trip a larger payload
+      final byte[] payload = new byte[STREAMING_PAYLOAD_SIZE];
+      for (int i = 0; i < payload.length; i++)
+      {
+         payload[i] = (byte) i;
+      }
+      final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+      service.encrypt(new ByteArrayInputStream(payload), encrypted);
+      final ByteArrayOutputStream roundTrip = new ByteArrayOutputStream();
+      service.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), roundTrip);
+      TestCase.assertTrue("Streaming round trip did not restore the original payload", Arrays.equals(payload,
+            roundTrip.toByteArray()));
+   }
+
+   /**
+    * Ensures that the binary functions are working as expected:
+    * 
+    * 1) Binary encryption yields the raw form of ciphertext accepted by {@link EncryptionCommonBusiness#decrypt(String)}
+    * 2) Round-trip through binary decryption restores the original bytes, for arrays and buffers
+    * 3) Binary hash yields the raw form of the Base64 result of {@link EncryptionCommonBusiness#hash(String)}
+    * 
+    * @param service The service to use (either POJO or EJB)
+    * @throws Throwable
+    */
+   protected void assertBinary(final EncryptionLocalBusiness service) throws Throwable
+   {
+      // Log
+      log.info("assertBinary");
+
+      // Binary results should be the decoded String results
+      final byte[] testBytes = TEST_STRING.getBytes("UTF-8");
+      final byte[] encrypted = service.encrypt(testBytes);
+      TestCase.assertEquals("Binary encryption should be decryptable once encoded", TEST_STRING, service
+            .decrypt(new String(Base64.encodeBase64(encrypted), "UTF-8")));
+      TestCase.assertEquals("Binary encryption should be the size of the decoded String encryption", Base64
+            .decodeBase64(service.encrypt(TEST_STRING).getBytes("UTF-8")).length, encrypted.length);
+      TestCase.assertTrue("Binary hash should match decoded String hash", Arrays.equals(Base64.decodeBase64(service
+            .hash(TEST_STRING).getBytes("UTF-8")), service.hash(testBytes)));
+
+      // Round trip arrays
+      TestCase.assertTrue("Binary round trip failed", Arrays.equals(testBytes, service.decrypt(encrypted)));
+
+      // Round trip through caller-supplied (direct) buffers
+      final ByteBuffer plain = ByteBuffer.wrap(testBytes);
+      final ByteBuffer cipherText = ByteBuffer.allocateDirect(testBytes.length + 64);
+      final int encryptedLength = service.encrypt(plain, cipherText);
+      TestCase.assertEquals("Input buffer should have been consumed", 0, plain.remaining());
+      TestCase.assertEquals("Should have written the ciphertext", encrypted.length, encryptedLength);
+      cipherText.flip();
+      final ByteBuffer roundTrip = ByteBuffer.allocate(testBytes.length + 64);
+      service.decrypt(cipherText, roundTrip);
+      roundTrip.flip();
+      TestCase.assertEquals("Buffer round trip failed", ByteBuffer.wrap(testBytes), roundTrip);
+
+      // Hash into a buffer
+      final ByteBuffer hash = ByteBuffer.allocate(64);
+      final int hashLength = service.hash(ByteBuffer.wrap(testBytes), hash);
+      hash.flip();
+      TestCase.assertEquals("Buffer hash differed", ByteBuffer.wrap(service.hash(testBytes)), hash);
+      TestCase.assertEquals("Should have reported the hash length", hashLength, hash.remaining());
+   }
+
+   /**
+    * Ensures that the asynchronous hashing upon the dedicated executor works as expected:
+    * 
+    * 1) A single submitted hash matches that of {@link EncryptionCommonBusiness#hash(String)}
+    * 2) Parallel hashing of many inputs yields their hashes in order, isolating failures
+    * 3) Statistics account for the completed tasks
+    * 
+    * @param service The service to use (either POJO or EJB)
+    * @throws Throwable
+    */
+   protected void assertDedicatedExecutorHashing(final EncryptionLocalBusiness service) throws Throwable
+   {
+      // Log
+      log.info("assertDedicatedExecutorHashing");
+
+      // Single hash
+      TestCase.assertEquals("Asynchronous hash should match synchronous hash", service.hash(TEST_STRING), service
+            .submitHash(TEST_STRING).get(ASYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      // Many inputs, one of which is invalid
+      final List<String> inputs = new ArrayList<String>();
+      for (int i = 0; i < NUM_ASYNC_INPUTS; i++)
+      {
+         inputs.add(TEST_STRING + i);
+      }
+      inputs.set(NUM_ASYNC_INPUTS / 2, null);
+      final List<EncryptionResult> results = service.hashAllAsync(inputs).get(ASYNC_TIMEOUT_SECONDS,
+            TimeUnit.SECONDS);
+      TestCase.assertEquals("Should have one result per input", NUM_ASYNC_INPUTS, results.size());
+      for (int i = 0; i < NUM_ASYNC_INPUTS; i++)
+      {
+         final String input = inputs.get(i);
+         final EncryptionResult result = results.get(i);
+         if (input == null)
+         {
+            TestCase.assertFalse("Null input should have failed alone", result.isSuccess());
+         }
+         else
+         {
+            TestCase.assertEquals("Result out of order or incorrect", service.hash(input), result.getValue());
+         }
+      }
+
+      // Empty input completes immediately
+      TestCase.assertTrue("Empty input should yield no results", service.hashAllAsync(new ArrayList<String>())
+            .get().isEmpty());
+
+      // Statistics
+      final AsyncHashingStatistics statistics = service.getAsyncHashingStatistics();
+      log.info(statistics.toString());
+      TestCase.assertTrue("Completed tasks should have been counted", statistics.getCompletedCount() >= 2);
+      TestCase.assertTrue("Latency should have been recorded", statistics.getMaxLatencyNanos() > 0);
+      TestCase.assertEquals("Nothing should have been rejected", 0, statistics.getRejectedCount());
+   }
+
+   /**
+    * Ensures that the cache of hash results works as expected, given a service
+    * with caching enabled:
+    * 
+    * 1) Repeated hashing of the same input is answered from the cache
+    * 2) Cached results are equal to computed results
+    * 3) Comparison against cached hashes matches only the correct input
+    * 
+    * @param service The service to use (either POJO or EJB)
+    * @throws Throwable
+    */
+   protected void assertHashCaching(final EncryptionLocalBusiness service) throws Throwable
+   {
+      // Log
+      log.info("assertHashCaching");
+
+      // Hash twice; the second must be a hit
+      final String input = "Cached Input " + System.nanoTime();
+      final HashCacheStatistics before = service.getHashCacheStatistics();
+      final String hash = service.hash(input);
+      TestCase.assertEquals("Cached hash should equal the computed hash", hash, service.hash(input));
+      final HashCacheStatistics after = service.getHashCacheStatistics();
+      log.info(after.toString());
+      TestCase.assertTrue("Should have missed upon the first hash", after.getMissCount() > before.getMissCount());
+      TestCase.assertTrue("Should have hit upon the second hash", after.getHitCount() > before.getHitCount());
+      TestCase.assertTrue("Cache should hold the entry", after.getSize() > 0);
+
+      // Compare against the cached hash
+      TestCase.assertTrue("Comparison against the correct input failed", service.compare(hash, input));
+      TestCase.assertFalse("Comparison against the wrong input succeeded", service.compare(hash, input + "X"));
+      TestCase.assertFalse("Comparison against a truncated hash succeeded", service.compare(hash.substring(0, 8),
+            input));
+   }
+
+   /**
+    * Ensures that calls upon each operation, including failed ones, are counted
+    * along with the bytes they processed and their latency
+    * 
+    * @param service
+    * @throws Throwable
+    */
+   protected void assertOperationStatistics(final EncryptionLocalBusiness service) throws Throwable
+   {
+      // Log
+      log.info("assertOperationStatistics");
+
+      // Exercise each operation once, and decryption once more upon invalid input
+      final String input = "Measured Input " + System.nanoTime();
+      final int inputLength = input.getBytes("UTF-8").length;
+      final Map<Operation, OperationStatistics> before = service.getOperationStatistics();
+      final String hash = service.hash(input);
+      TestCase.assertTrue("Comparison failed", service.compare(hash, input));
+      final String ciphertext = service.encrypt(input);
+      TestCase.assertEquals("Round trip failed", input, service.decrypt(ciphertext));
+      try
+      {
+         service.decrypt("Not Ciphertext");
+         TestCase.fail("Decryption of invalid input should have failed");
+      }
+      catch (final EncryptionException expected)
+      {
+         // Good
+      }
+      final Map<Operation, OperationStatistics> after = service.getOperationStatistics();
+      log.info(after.toString());
+
+      // Ensure each was counted
+      for (final Operation operation : Operation.values())
+      {
+         final OperationStatistics was = before.get(operation);
+         final OperationStatistics now = after.get(operation);
+         TestCase.assertTrue(operation + " not counted", now.getCount() > was.getCount());
+         long histogramCount = 0;
+         for (final long bucketCount : now.getLatencyHistogram())
+         {
+            histogramCount += bucketCount;
+         }
+         TestCase.assertEquals(operation + " latencies not all in the histogram", now.getCount(), histogramCount);
+         TestCase.assertTrue(operation + " percentile exceeds the bound of the maximum", now
+               .getLatencyPercentileMicros(50) <= now.getLatencyPercentileMicros(100));
+      }
+      TestCase.assertTrue("Bytes hashed not counted", after.get(Operation.HASH).getBytes() >= before.get(
+            Operation.HASH).getBytes()
+            + inputLength);
+      TestCase.assertTrue("Bytes encrypted not counted", after.get(Operation.ENCRYPT).getBytes() >= before.get(
+            Operation.ENCRYPT).getBytes()
+            + inputLength);
+      TestCase.assertTrue("Failed decryption not counted", after.get(Operation.DECRYPT).getFailureCount() > before
+            .get(Operation.DECRYPT).getFailureCount());
+   }
 }
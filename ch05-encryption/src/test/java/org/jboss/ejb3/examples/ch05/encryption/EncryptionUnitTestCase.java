@@ -21,8 +21,25 @@
  */
 package org.jboss.ejb3.examples.ch05.encryption;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -48,6 +65,59 @@ public class EncryptionUnitTestCase extends EncryptionTestCaseSupport
     */
    private static EncryptionBean encryptionService;
 
+   /**
+    * Number of Threads concurrently sharing the POJO in {@link EncryptionUnitTestCase#testConcurrentUse()}
+    */
+   private static final int NUM_CONCURRENT_THREADS = 8;
+
+   /**
+    * Number of operations performed by each Thread in {@link EncryptionUnitTestCase#testConcurrentUse()}
+    */
+   private static final int NUM_OPERATIONS_PER_THREAD = 200;
+
+   /**
+    * Maximum size of the hash caches under test
+    */
+   private static final int HASH_CACHE_MAX_SIZE = 100;
+
+   /**
+    * Time-to-live of entries in {@link EncryptionUnitTestCase#testHashCacheBounds()}
+    */
+   private static final long HASH_CACHE_TIME_TO_LIVE_MILLIS = 200;
+
+   /*
+    * Configuration of the engines in {@link EncryptionUnitTestCase#testCipherAlgorithms()},
+    * mirroring the defaults of the EncryptionEJB
+    */
+
+   private static final String PASSPHRASE = "LocalTestingPassphrase";
+
+   private static final byte[] SALT =
+   {(byte) 0xB4, (byte) 0xA2, (byte) 0x43, (byte) 0x89, 0x3E, (byte) 0xC5, (byte) 0x78, (byte) 0x53};
+
+   private static final String DIGEST_ALGORITHM = "MD5";
+
+   /**
+    * Message digest deployed with the EncryptionEJB, whose hashes are untagged
+    */
+   private static final String DEPLOYED_DIGEST_ALGORITHM = "SHA";
+
+   /**
+    * Digest preferred for new hashes in {@link EncryptionUnitTestCase#testTaggedHashes()}
+    */
+   private static final String PREFERRED_DIGEST_ALGORITHM = "SHA-512";
+
+   /**
+    * Number of ciphers requested in {@link EncryptionUnitTestCase#testPrewarmedKeyHolder()}
+    */
+   private static final int PREWARMED_CIPHERS = 4;
+
+   /**
+    * Size of the payload in {@link EncryptionUnitTestCase#testCipherAlgorithms()}, 
+    * spanning many stream buffers
+    */
+   private static final int PAYLOAD_SIZE = CipherEngine.STREAM_BUFFER_SIZE * 3 + 7;
+
    // ---------------------------------------------------------------------------||
    // Lifecycle -----------------------------------------------------------------||
    // ---------------------------------------------------------------------------||
@@ -63,6 +133,15 @@ public class EncryptionUnitTestCase extends EncryptionTestCaseSupport
       encryptionService.initialize(); // We call init manually here
    }
 
+   /**
+    * Destroys the service, and with it the key holder it created, once all tests have run
+    */
+   @AfterClass
+   public static void destroy()
+   {
+      encryptionService.destroy();
+   }
+
    // ---------------------------------------------------------------------------||
    // Tests ---------------------------------------------------------------------||
    // ---------------------------------------------------------------------------||
@@ -84,6 +163,382 @@ public class EncryptionUnitTestCase extends EncryptionTestCaseSupport
       this.assertHashing(encryptionService);
    }
 
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertBulkOperations(EncryptionCommonBusiness)}
+    */
+   @Test
+   public void testBulkOperations() throws Throwable
+   {
+      // Log
+      log.info("testBulkOperations");
+
+      // Test via superclass
+      this.assertBulkOperations(encryptionService);
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertStreaming(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testStreaming() throws Throwable
+   {
+      // Log
+      log.info("testStreaming");
+
+      // Test via superclass
+      this.assertStreaming(encryptionService);
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertBinary(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testBinary() throws Throwable
+   {
+      // Log
+      log.info("testBinary");
+
+      // Test via superclass
+      this.assertBinary(encryptionService);
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertDedicatedExecutorHashing(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testDedicatedExecutorHashing() throws Throwable
+   {
+      // Log
+      log.info("testDedicatedExecutorHashing");
+
+      // Test via superclass
+      this.assertDedicatedExecutorHashing(encryptionService);
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertHashCaching(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testHashCaching() throws Throwable
+   {
+      // Log
+      log.info("testHashCaching");
+
+      // Caching is configured by env-entry in the container, so enable it explicitly upon a new POJO
+      final EncryptionBean cachingService = new EncryptionBean();
+      cachingService.setHashCacheMaxSize(HASH_CACHE_MAX_SIZE);
+      cachingService.initialize();
+
+      // Test via superclass
+      this.assertHashCaching(cachingService);
+
+      // The shared POJO does not cache
+      encryptionService.hash("Uncached Input");
+      TestCase.assertEquals("Caching should not be enabled by default", 0, encryptionService
+            .getHashCacheStatistics().getMissCount());
+
+      // Destroying the POJO closes the engine of the key holder it created
+      cachingService.destroy();
+      try
+      {
+         cachingService.encrypt("After Destruction");
+         TestCase.fail("Engine of a destroyed POJO should have been closed");
+      }
+      catch (final EncryptionException expected)
+      {
+         TestCase.assertTrue("Unexpected cause: " + expected.getCause(),
+               expected.getCause() instanceof IllegalStateException);
+      }
+   }
+
+   /**
+    * Ensures that the hash cache is bounded in size and time
+    */
+   @Test
+   public void testHashCacheBounds() throws Throwable
+   {
+      // Log
+      log.info("testHashCacheBounds");
+
+      // Fill beyond capacity; the oldest entries are evicted first
+      final HashCache cache = new HashCache(HASH_CACHE_MAX_SIZE, HASH_CACHE_TIME_TO_LIVE_MILLIS, 1);
+      final List<HashCache.Fingerprint> fingerprints = new ArrayList<HashCache.Fingerprint>();
+      for (int i = 0; i < HASH_CACHE_MAX_SIZE * 2; i++)
+      {
+         final HashCache.Fingerprint fingerprint = cache.fingerprint(("Input" + i).getBytes("UTF-8"));
+         fingerprints.add(fingerprint);
+         cache.put(fingerprint, new byte[]
+         {(byte) i});
+      }
+      HashCacheStatistics statistics = cache.getStatistics();
+      TestCase.assertEquals("Cache should be bounded in size", HASH_CACHE_MAX_SIZE, statistics.getSize());
+      TestCase.assertEquals("Overflow should have been evicted", HASH_CACHE_MAX_SIZE, statistics.getEvictionCount());
+      TestCase.assertNull("Oldest entry should have been evicted", cache.get(fingerprints.get(0)));
+      TestCase.assertNotNull("Newest entry should be cached", cache.get(fingerprints.get(fingerprints.size() - 1)));
+
+      // Fingerprints depend only upon the input
+      TestCase.assertEquals("Fingerprint of the same input should be equal", fingerprints.get(1), cache
+            .fingerprint("Input1".getBytes("UTF-8")));
+
+      // Entries expire
+      Thread.sleep(HASH_CACHE_TIME_TO_LIVE_MILLIS * 2);
+      TestCase.assertNull("Entry should have expired", cache.get(fingerprints.get(fingerprints.size() - 1)));
+      statistics = cache.getStatistics();
+      TestCase.assertEquals("Expiry should have been counted", 1, statistics.getExpirationCount());
+      TestCase.assertEquals("Hits should have been counted", 1, statistics.getHitCount());
+      TestCase.assertEquals("Misses should have been counted", 2, statistics.getMissCount());
+   }
+
+   /**
+    * Ensures that hashes of a preferred digest are tagged with its name, and
+    * that both these and the untagged hashes made before it was preferred
+    * may be compared
+    */
+   @Test
+   public void testTaggedHashes() throws Throwable
+   {
+      // Log
+      log.info("testTaggedHashes");
+
+      // Hashes made before the digest was preferred
+      final String input = "Tagged Input";
+      final EncryptionBean deployed = new EncryptionBean();
+      deployed.setMessageDigestAlgorithm(DEPLOYED_DIGEST_ALGORITHM);
+      deployed.initialize();
+      final String untagged = deployed.hash(input);
+      TestCase.assertFalse("Hash of the message digest should not be tagged", untagged.startsWith("{"));
+
+      // New hashes are tagged, and both are comparable
+      final EncryptionBean preferring = new EncryptionBean();
+      preferring.setMessageDigestAlgorithm(DEPLOYED_DIGEST_ALGORITHM);
+      preferring.setPreferredMessageDigestAlgorithm(PREFERRED_DIGEST_ALGORITHM);
+      preferring.initialize();
+      final String tagged = preferring.hash(input);
+      TestCase.assertTrue("Hash of the preferred digest should be tagged: " + tagged, tagged.startsWith("{"
+            + PREFERRED_DIGEST_ALGORITHM + "}"));
+      TestCase.assertTrue("Tagged hash should be comparable", preferring.compare(tagged, input));
+      TestCase.assertTrue("Untagged hash should remain comparable", preferring.compare(untagged, input));
+      TestCase.assertFalse("Tagged hash should not match other input", preferring.compare(tagged, "Other"));
+      TestCase.assertFalse("Untagged hash should not match other input", preferring.compare(untagged, "Other"));
+      TestCase.assertTrue("Tagged hash should be comparable without preference", deployed.compare(tagged, input));
+
+      // Malformed tags are rejected
+      try
+      {
+         preferring.compare("{" + untagged, input);
+         TestCase.fail("Malformed tag should be rejected");
+      }
+      catch (final IllegalArgumentException expected)
+      {
+         // Good
+      }
+      deployed.destroy();
+      preferring.destroy();
+   }
+
+   /**
+    * Ensures that caching the hash of an input already cached, as after 
+    * concurrent misses, takes no more of the capacity of the cache
+    */
+   @Test
+   public void testHashCacheRepeatedPut() throws Throwable
+   {
+      // Log
+      log.info("testHashCacheRepeatedPut");
+
+      // Cache the first, then another twice, then fill
+      final HashCache cache = new HashCache(HASH_CACHE_MAX_SIZE, TimeUnit.MINUTES.toMillis(1), 1);
+      final HashCache.Fingerprint first = cache.fingerprint("First".getBytes("UTF-8"));
+      cache.put(first, new byte[]
+      {0});
+      final HashCache.Fingerprint repeated = cache.fingerprint("Repeated".getBytes("UTF-8"));
+      cache.put(repeated, new byte[]
+      {1});
+      cache.put(repeated, new byte[]
+      {1});
+      for (int i = 2; i < HASH_CACHE_MAX_SIZE; i++)
+      {
+         cache.put(cache.fingerprint(("Input" + i).getBytes("UTF-8")), new byte[]
+         {(byte) i});
+      }
+
+      // All fit
+      final HashCacheStatistics statistics = cache.getStatistics();
+      TestCase.assertEquals("Cache should be full", HASH_CACHE_MAX_SIZE, statistics.getSize());
+      TestCase.assertEquals("Nothing should have been evicted", 0, statistics.getEvictionCount());
+      TestCase.assertNotNull("Oldest entry should not have been evicted", cache.get(first));
+   }
+
+   /**
+    * Ensures that each built-in algorithm round-trips arrays, buffers and 
+    * streams, and that ciphertext of any algorithm may be decrypted by an
+    * engine configured with another
+    */
+   @Test
+   public void testCipherAlgorithms() throws Throwable
+   {
+      // Log
+      log.info("testCipherAlgorithms");
+
+      // Payload
+      final byte[] payload = new byte[PAYLOAD_SIZE];
+      for (int i = 0; i < payload.length; i++)
+      {
+         payload[i] = (byte) i;
+      }
+
+      // Only those the runtime supports (AES-GCM needs Java 8, ChaCha20-Poly1305 Java 11)
+      final List<CipherEngine> engines = new ArrayList<CipherEngine>();
+      for (final CipherAlgorithm algorithm : new CipherAlgorithm[]
+      {CipherAlgorithms.PBE_WITH_MD5_AND_DES, CipherAlgorithms.AES_GCM, CipherAlgorithms.CHACHA20_POLY1305})
+      {
+         try
+         {
+            engines.add(CipherEngine.newInstance(algorithm, PASSPHRASE, SALT, DIGEST_ALGORITHM));
+         }
+         catch (final GeneralSecurityException gse)
+         {
+            log.warning("Skipping " + algorithm + ", not supported by this runtime: " + gse);
+         }
+      }
+
+      // Decrypt with the latest supported, authenticated if any
+      final CipherEngine current = engines.get(engines.size() > 1 ? 1 : 0);
+      for (final CipherEngine engine : engines)
+      {
+         final CipherAlgorithm algorithm = engine.getCipherAlgorithm();
+         TestCase.assertSame("Should be looked up by name", algorithm, CipherAlgorithms.forName(algorithm.getName()));
+
+         // Arrays, decrypted by both this engine and one configured otherwise
+         final byte[] encrypted = engine.encrypt(payload);
+         TestCase.assertTrue(algorithm + " round trip failed", Arrays.equals(payload, engine.decrypt(encrypted)));
+         TestCase.assertTrue(algorithm + " repeated decryption failed", Arrays.equals(payload, engine
+               .decrypt(encrypted)));
+         TestCase.assertTrue(algorithm + " ciphertext not decryptable under " + current.getCipherAlgorithm(), Arrays
+               .equals(payload, current.decrypt(encrypted)));
+
+         // Buffers
+         final ByteBuffer cipherText = ByteBuffer.allocate(PAYLOAD_SIZE + 64);
+         engine.encrypt(ByteBuffer.wrap(payload), cipherText);
+         cipherText.flip();
+         final ByteBuffer roundTrip = ByteBuffer.allocate(PAYLOAD_SIZE + 64);
+         current.decrypt(cipherText, roundTrip);
+         roundTrip.flip();
+         TestCase.assertEquals(algorithm + " buffer round trip failed", ByteBuffer.wrap(payload), roundTrip);
+
+         // Streams
+         final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+         engine.encrypt(Channels.newChannel(new ByteArrayInputStream(payload)), Channels.newChannel(streamed));
+         final ByteArrayOutputStream streamedRoundTrip = new ByteArrayOutputStream();
+         current.decrypt(Channels.newChannel(new ByteArrayInputStream(streamed.toByteArray())), Channels
+               .newChannel(streamedRoundTrip));
+         TestCase.assertTrue(algorithm + " stream round trip failed", Arrays.equals(payload, streamedRoundTrip
+               .toByteArray()));
+      }
+
+      // Authenticated ciphertext is tamper-evident
+      if (current.getCipherAlgorithm() == CipherAlgorithms.PBE_WITH_MD5_AND_DES)
+      {
+         return;
+      }
+      final byte[] tampered = current.encrypt(payload);
+      tampered[tampered.length / 2] ^= 1;
+      try
+      {
+         current.decrypt(tampered);
+         TestCase.fail("Tampered ciphertext should not have been decrypted");
+      }
+      catch (final GeneralSecurityException expected)
+      {
+         // Good
+      }
+   }
+
+   /**
+    * Ensures that Strings encrypted by the original algorithm, without header, 
+    * are still decrypted by the service now using another
+    */
+   @Test
+   public void testLegacyCiphertext() throws Throwable
+   {
+      // Log
+      log.info("testLegacyCiphertext");
+
+      // Encrypt as the EncryptionEJB did originally
+      final String input = "Legacy Input";
+      final CipherEngine legacy = CipherEngine.newInstance(CipherAlgorithms.PBE_WITH_MD5_AND_DES, PASSPHRASE, SALT,
+            DIGEST_ALGORITHM);
+      final String legacyCiphertext = new String(Base64.encodeBase64(legacy.encrypt(input.getBytes("UTF-8"))),
+            "UTF-8");
+
+      // Decrypt with the current default
+      TestCase.assertEquals("Legacy ciphertext not decrypted", input, encryptionService.decrypt(legacyCiphertext));
+   }
+
+   /**
+    * Ensures that the key holder, used as a POJO, creates the requested 
+    * ciphers upon initialization, and that its engine, along with its
+    * keys, is released upon destruction
+    */
+   @Test
+   public void testPrewarmedKeyHolder() throws Throwable
+   {
+      // Log
+      log.info("testPrewarmedKeyHolder");
+
+      // Initialize as would the container at deployment
+      final EncryptionKeyHolderBean keyHolder = new EncryptionKeyHolderBean();
+      keyHolder.setPrewarmedCiphers(PREWARMED_CIPHERS);
+      keyHolder.initialize();
+
+      // Ensure the defaults were resolved
+      TestCase.assertEquals("Unexpected passphrase", PASSPHRASE, keyHolder.getCiphersPassphrase());
+      TestCase.assertEquals("Unexpected digest algorithm", DIGEST_ALGORITHM, keyHolder.getMessageDigestAlgorithm());
+
+      // Ensure the engine is owned by this holder alone
+      final CipherEngine engine = keyHolder.getEngine();
+      final EncryptionKeyHolderBean another = new EncryptionKeyHolderBean();
+      another.initialize();
+      TestCase.assertNotSame("Engine shared beyond its holder", engine, another.getEngine());
+      another.destroy();
+
+      // Ensure pre-warming is bounded, and that the engine is usable
+      TestCase.assertEquals("Pre-warming not bounded", CipherEngine.DEFAULT_MAX_IDLE, engine
+            .prewarm(Integer.MAX_VALUE));
+      final byte[] payload = "Prewarmed Input".getBytes("UTF-8");
+      TestCase.assertTrue("Round trip failed", Arrays.equals(payload, engine.decrypt(engine.encrypt(payload))));
+      try
+      {
+         engine.prewarm(-1);
+         TestCase.fail("Negative count should not be accepted");
+      }
+      catch (final IllegalArgumentException expected)
+      {
+         // Good
+      }
+
+      // Ensure destruction closes the engine
+      keyHolder.destroy();
+      try
+      {
+         keyHolder.getEngine();
+         TestCase.fail("Engine should not be available once destroyed");
+      }
+      catch (final IllegalStateException expected)
+      {
+         // Good
+      }
+      try
+      {
+         engine.encrypt(payload);
+         TestCase.fail("Engine should not be usable once closed");
+      }
+      catch (final IllegalStateException expected)
+      {
+         // Good
+      }
+   }
+
    /**
     * @see {@link EncryptionTestCaseSupport#assertEncryption(EncryptionCommonBusiness)}
     */
@@ -96,4 +551,69 @@ public class EncryptionUnitTestCase extends EncryptionTestCaseSupport
       // Test via superclass
       this.assertEncryption(encryptionService);
    }
+
+   /**
+    * Ensures that a single instance may be safely shared by many Threads, 
+    * as the underlying ciphers and digests are no longer held per instance
+    */
+   @Test
+   public void testConcurrentUse() throws Throwable
+   {
+      // Log
+      log.info("testConcurrentUse");
+
+      // Expected hash, computed serially
+      final String input = "Concurrent Input";
+      final String expectedHash = encryptionService.hash(input);
+
+      // Share the one POJO among all Threads
+      final ExecutorService pool = Executors.newFixedThreadPool(NUM_CONCURRENT_THREADS);
+      try
+      {
+         final List<Future<Void>> results = new ArrayList<Future<Void>>();
+         for (int i = 0; i < NUM_CONCURRENT_THREADS; i++)
+         {
+            final int threadIndex = i;
+            results.add(pool.submit(new Callable<Void>()
+            {
+               @Override
+               public Void call() throws Exception
+               {
+                  for (int j = 0; j < NUM_OPERATIONS_PER_THREAD; j++)
+                  {
+                     final String plain = input + threadIndex + "-" + j;
+                     TestCase.assertEquals("Round trip failed under concurrent use", plain, encryptionService
+                           .decrypt(encryptionService.encrypt(plain)));
+                     TestCase.assertEquals("Hash differed under concurrent use", expectedHash, encryptionService
+                           .hash(input));
+                  }
+                  return null;
+               }
+            }));
+         }
+
+         // Surface any failures
+         for (final Future<Void> result : results)
+         {
+            result.get(60, TimeUnit.SECONDS);
+         }
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * @see {@link EncryptionTestCaseSupport#assertOperationStatistics(EncryptionLocalBusiness)}
+    */
+   @Test
+   public void testOperationStatistics() throws Throwable
+   {
+      // Log
+      log.info("testOperationStatistics");
+
+      // Test via superclass
+      this.assertOperationStatistics(encryptionService);
+   }
 }
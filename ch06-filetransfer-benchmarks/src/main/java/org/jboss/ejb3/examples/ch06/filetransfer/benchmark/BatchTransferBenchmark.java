@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.examples.ch06.filetransfer.BatchTransferStatistics;
+import org.jboss.ejb3.examples.ch06.filetransfer.FileTransferBean;
+import org.jboss.ejb3.examples.ch06.filetransfer.FtpServerPojo;
+import org.jboss.ejb3.examples.ch06.filetransfer.TransferRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the wall-clock time to upload and download a directory of many 
+ * small files as a batch over varying numbers of parallel connections, against
+ * the embedded FTP Server.  As the time for small files is dominated by the
+ * round trips of each transfer rather than the data itself, the time for 
+ * the batch should fall by roughly the parallelism.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchTransferBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Port to which the FTP Server binds, and the FileTransferEJB connects
+    */
+   private static final int FTP_SERVER_BIND_PORT = 12345;
+
+   /**
+    * Name of the users configuration file for the server
+    */
+   private static final String FILE_NAME_USERS_CONFIG = "ftpusers.properties";
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Number of files in the batch
+    */
+   @Param("64")
+   int fileCount;
+
+   /**
+    * Size of each file in bytes
+    */
+   @Param("4096")
+   int fileSize;
+
+   /**
+    * Maximum number of files in flight at once
+    */
+   @Param(
+   {"1", "4", "16"})
+   int parallelism;
+
+   /**
+    * The bean under test, used as a POJO
+    */
+   FileTransferBean bean;
+
+   FtpServerPojo server;
+
+   /**
+    * Directory in which the server stores files, and from which local files are read
+    */
+   File directory;
+
+   List<TransferRequest> uploads;
+
+   List<TransferRequest> downloads;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      // Start the server
+      server = new FtpServerPojo();
+      server.setBindPort(FTP_SERVER_BIND_PORT);
+      server.setUsersConfigFileName(FILE_NAME_USERS_CONFIG);
+      server.initializeServer();
+      server.startServer();
+
+      // Write the local files
+      directory = File.createTempFile("ejb31_ch06-benchmark", "");
+      directory.delete();
+      directory.mkdir();
+      final Random random = new Random(fileCount);
+      uploads = new ArrayList<TransferRequest>(fileCount);
+      downloads = new ArrayList<TransferRequest>(fileCount);
+      for (int i = 0; i < fileCount; i++)
+      {
+         final byte[] contents = new byte[fileSize];
+         random.nextBytes(contents);
+         final File local = new File(directory, "local" + i);
+         final OutputStream out = new FileOutputStream(local);
+         try
+         {
+            out.write(contents);
+         }
+         finally
+         {
+            out.close();
+         }
+         uploads.add(TransferRequest.upload(local, "remote" + i));
+         downloads.add(TransferRequest.download("remote" + i, new File(directory, "downloaded" + i)));
+      }
+
+      // Connect, and put the files to be downloaded in place
+      bean = new FileTransferBean();
+      bean.connect();
+      bean.cd(directory.getAbsolutePath());
+      this.upload();
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      bean.disconnect();
+      server.stopServer();
+      final File[] files = directory.listFiles();
+      if (files != null)
+      {
+         for (final File file : files)
+         {
+            file.delete();
+         }
+      }
+      directory.delete();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   @Benchmark
+   public BatchTransferStatistics upload() throws Exception
+   {
+      return check(bean.transfer(uploads, parallelism, null).awaitStatistics());
+   }
+
+   @Benchmark
+   public BatchTransferStatistics download() throws Exception
+   {
+      return check(bean.transfer(downloads, parallelism, null).awaitStatistics());
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Ensures no files failed, so failures aren't mistaken for speed
+    */
+   private static BatchTransferStatistics check(final BatchTransferStatistics statistics)
+   {
+      if (statistics.getFailedCount() > 0)
+      {
+         throw new IllegalStateException("Files failed to transfer: " + statistics);
+      }
+      return statistics;
+   }
+}
@@ -0,0 +1,361 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.examples.ch06.filetransfer.FileTransferBean;
+import org.jboss.ejb3.examples.ch06.filetransfer.FtpServerPojo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Load test of the FileTransferEJB: drives many concurrent sessions, each 
+ * a {@link FileTransferBean} used as a POJO by its own Thread, against a single
+ * embedded FTP Server through the scenarios:
+ * 
+ * <ul>
+ *   <li>{@link FileTransferLoadBenchmark#connectChurn(Server)}: a session
+ *   is opened, used once and closed, stressing the shared connection pool</li>
+ *   <li>{@link FileTransferLoadBenchmark#deepMkdir(Session)}: a new directory
+ *   tree of {@link FileTransferLoadBenchmark#mkdirDepth} levels is made</li>
+ *   <li>{@link FileTransferLoadBenchmark#bulkUpload(Session)} and
+ *   {@link FileTransferLoadBenchmark#bulkDownload(Session)}: a file of
+ *   {@link FileTransferLoadBenchmark#fileSize} bytes is transferred</li>
+ * </ul>
+ * 
+ * Each scenario is reported both as throughput and as a sampled latency 
+ * distribution, from which the p50 and p99 are read.  The number of sessions
+ * is the number of Threads, by default 8 and set with <code>-t</code>; note
+ * that past the maximum of the connection pool further sessions wait upon 
+ * a connection rather than adding load.  {@link FileTransferLoadBenchmark#main(String[])}
+ * adds the GC profiler, reporting the allocation rate, and writes the results
+ * as JSON, ie.
+ * <code>java -cp target/benchmarks.jar org.jboss.ejb3.examples.ch06.filetransfer.benchmark.FileTransferLoadBenchmark -t 16 -p fileSize=1048576</code>
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(
+{Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class FileTransferLoadBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Port to which the FTP Server binds, and the FileTransferEJB connects
+    */
+   private static final int FTP_SERVER_BIND_PORT = 12345;
+
+   /**
+    * Name of the users configuration file for the server
+    */
+   private static final String FILE_NAME_USERS_CONFIG = "ftpusers.properties";
+
+   /**
+    * File to which {@link FileTransferLoadBenchmark#main(String[])} writes the results
+    */
+   private static final String RESULT_FILE = "target/filetransfer-load.json";
+
+   /**
+    * Name of the remote file each session downloads
+    */
+   private static final String REMOTE_FILE_NAME_DOWNLOAD = "download.bin";
+
+   /**
+    * Name of the remote file each session uploads
+    */
+   private static final String REMOTE_FILE_NAME_UPLOAD = "upload.bin";
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Number of levels of the tree made by each {@link FileTransferLoadBenchmark#deepMkdir(Session)}
+    */
+   @Param("8")
+   int mkdirDepth;
+
+   /**
+    * Size in bytes of the file transferred by the bulk scenarios
+    */
+   @Param(
+   {"65536", "4194304"})
+   int fileSize;
+
+   /**
+    * The payload of the bulk scenarios, shared by all sessions
+    */
+   byte[] payload;
+
+   @Setup
+   public void setup()
+   {
+      payload = new byte[fileSize];
+      new Random(fileSize).nextBytes(payload);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Opens a session, asks its working directory, and closes it
+    */
+   @Benchmark
+   public String connectChurn(final Server server) throws Exception
+   {
+      final FileTransferBean bean = new FileTransferBean();
+      bean.connect();
+      try
+      {
+         return bean.pwd();
+      }
+      finally
+      {
+         bean.disconnect();
+      }
+   }
+
+   /**
+    * Makes a new directory tree of {@link FileTransferLoadBenchmark#mkdirDepth} levels
+    * beneath the session's directory
+    */
+   @Benchmark
+   public void deepMkdir(final Session session) throws Exception
+   {
+      final StringBuilder path = new StringBuilder("tree").append(session.nextTree++);
+      for (int i = 1; i < mkdirDepth; i++)
+      {
+         path.append("/level").append(i);
+      }
+      session.bean.mkdirs(path.toString());
+   }
+
+   /**
+    * Uploads {@link FileTransferLoadBenchmark#fileSize} bytes from memory
+    */
+   @Benchmark
+   public long bulkUpload(final Session session) throws Exception
+   {
+      return session.bean.upload(REMOTE_FILE_NAME_UPLOAD, new ByteArrayInputStream(payload));
+   }
+
+   /**
+    * Downloads {@link FileTransferLoadBenchmark#fileSize} bytes, discarding them
+    */
+   @Benchmark
+   public long bulkDownload(final Session session) throws Exception
+   {
+      return session.bean.download(REMOTE_FILE_NAME_DOWNLOAD, DiscardingOutputStream.INSTANCE);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * The embedded FTP Server, and the directory beneath which it stores 
+    * the files of all sessions
+    */
+   @State(Scope.Benchmark)
+   public static class Server
+   {
+      FtpServerPojo server;
+
+      File directory;
+
+      /**
+       * Number of sessions opened, so that each has its own directory
+       */
+      final AtomicInteger sessionCount = new AtomicInteger();
+
+      @Setup
+      public void setup() throws Exception
+      {
+         server = new FtpServerPojo();
+         server.setBindPort(FTP_SERVER_BIND_PORT);
+         server.setUsersConfigFileName(FILE_NAME_USERS_CONFIG);
+         server.initializeServer();
+         server.startServer();
+
+         directory = File.createTempFile("ejb31_ch06-load", "");
+         directory.delete();
+         directory.mkdir();
+      }
+
+      @TearDown
+      public void tearDown() throws Exception
+      {
+         server.stopServer();
+         delete(directory);
+      }
+   }
+
+   /**
+    * A long-lived session of one Thread, working within its own directory
+    */
+   @State(Scope.Thread)
+   public static class Session
+   {
+      FileTransferBean bean;
+
+      File directory;
+
+      /**
+       * Index of the next tree made by {@link FileTransferLoadBenchmark#deepMkdir(Session)}
+       */
+      int nextTree;
+
+      @Setup
+      public void setup(final FileTransferLoadBenchmark benchmark, final Server server) throws Exception
+      {
+         directory = new File(server.directory, "session" + server.sessionCount.incrementAndGet());
+         directory.mkdir();
+         bean = new FileTransferBean();
+         bean.connect();
+         bean.cd(directory.getAbsolutePath());
+         bean.upload(REMOTE_FILE_NAME_DOWNLOAD, new ByteArrayInputStream(benchmark.payload));
+      }
+
+      /**
+       * Removes the trees made during the iteration, so that the server's
+       * directories stay small from one iteration to the next
+       */
+      @TearDown(Level.Iteration)
+      public void removeTrees()
+      {
+         final File[] files = directory.listFiles();
+         if (files != null)
+         {
+            for (final File file : files)
+            {
+               if (file.isDirectory())
+               {
+                  delete(file);
+               }
+            }
+         }
+      }
+
+      @TearDown
+      public void tearDown()
+      {
+         bean.disconnect();
+      }
+   }
+
+   /**
+    * Sink of downloads, so that only the transfer is measured
+    */
+   private static final class DiscardingOutputStream extends OutputStream
+   {
+      static final DiscardingOutputStream INSTANCE = new DiscardingOutputStream();
+
+      /* (non-Javadoc)
+       * @see java.io.OutputStream#write(int)
+       */
+      @Override
+      public void write(final int b)
+      {
+      }
+
+      /* (non-Javadoc)
+       * @see java.io.OutputStream#write(byte[], int, int)
+       */
+      @Override
+      public void write(final byte[] b, final int off, final int len)
+      {
+      }
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Deletes the specified file or directory and all beneath it
+    */
+   private static void delete(final File file)
+   {
+      final File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (final File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Main ----------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Runs all scenarios with the GC profiler, writing the results to 
+    * {@link FileTransferLoadBenchmark#RESULT_FILE}; any further options, 
+    * such as the number of sessions with <code>-t</code>, are taken from
+    * the command line
+    */
+   public static void main(final String[] args) throws RunnerException, CommandLineOptionException
+   {
+      final Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).include(
+            FileTransferLoadBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).resultFormat(
+            ResultFormatType.JSON).result(RESULT_FILE).build();
+      new Runner(options).run();
+   }
+}
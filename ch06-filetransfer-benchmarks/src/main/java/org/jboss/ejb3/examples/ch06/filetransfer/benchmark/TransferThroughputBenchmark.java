@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.examples.ch06.filetransfer.FileTransferBean;
+import org.jboss.ejb3.examples.ch06.filetransfer.FtpServerPojo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the upload and download operations of the
+ * FileTransferEJB against the embedded FTP Server, to and from memory (through
+ * the transfer buffer) and local files (directly between channels).  Throughput
+ * in MB/s is the reported ops/s multiplied by the payload size in MB; that
+ * memory use does not grow with the payload size is shown when run with 
+ * the GC profiler, ie.
+ * <code>java -jar target/benchmarks.jar TransferThroughput -prof gc</code>
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@State(Scope.Benchmark)
+public class TransferThroughputBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Port to which the FTP Server binds, and the FileTransferEJB connects
+    */
+   private static final int FTP_SERVER_BIND_PORT = 12345;
+
+   /**
+    * Name of the users configuration file for the server
+    */
+   private static final String FILE_NAME_USERS_CONFIG = "ftpusers.properties";
+
+   /**
+    * Name of the remote file downloaded
+    */
+   private static final String REMOTE_FILE_NAME_DOWNLOAD = "download.bin";
+
+   /**
+    * Name of the remote file uploaded
+    */
+   private static final String REMOTE_FILE_NAME_UPLOAD = "upload.bin";
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Size of the payload in bytes
+    */
+   @Param(
+   {"1048576", "67108864"})
+   int payloadSize;
+
+   /**
+    * Size of the transfer buffer in bytes
+    */
+   @Param(
+   {"8192", "65536", "1048576"})
+   int transferBufferSize;
+
+   /**
+    * The bean under test, used as a POJO
+    */
+   FileTransferBean bean;
+
+   FtpServerPojo server;
+
+   /**
+    * Directory in which the server stores files, and from which local files are read
+    */
+   File directory;
+
+   /**
+    * The payload, in memory and as a local file
+    */
+   byte[] payload;
+
+   File payloadFile;
+
+   /**
+    * Local file to which downloads are written
+    */
+   File downloadFile;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      // Start the server
+      server = new FtpServerPojo();
+      server.setBindPort(FTP_SERVER_BIND_PORT);
+      server.setUsersConfigFileName(FILE_NAME_USERS_CONFIG);
+      server.initializeServer();
+      server.startServer();
+
+      // Make the payload
+      directory = File.createTempFile("ejb31_ch06-benchmark", "");
+      directory.delete();
+      directory.mkdir();
+      payload = new byte[payloadSize];
+      new Random(payloadSize).nextBytes(payload);
+      payloadFile = new File(directory, "payload.bin");
+      final OutputStream out = new FileOutputStream(payloadFile);
+      try
+      {
+         out.write(payload);
+      }
+      finally
+      {
+         out.close();
+      }
+      downloadFile = new File(directory, "downloaded.bin");
+
+      // Connect, and put the file to be downloaded in place
+      bean = new FileTransferBean();
+      bean.setTransferBufferSize(transferBufferSize);
+      bean.connect();
+      bean.cd(directory.getAbsolutePath());
+      bean.upload(REMOTE_FILE_NAME_DOWNLOAD, new ByteArrayInputStream(payload));
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      bean.disconnect();
+      server.stopServer();
+      final File[] files = directory.listFiles();
+      if (files != null)
+      {
+         for (final File file : files)
+         {
+            file.delete();
+         }
+      }
+      directory.delete();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   @Benchmark
+   public long uploadStream() throws Exception
+   {
+      return bean.upload(REMOTE_FILE_NAME_UPLOAD, new ByteArrayInputStream(payload));
+   }
+
+   @Benchmark
+   public long uploadFileChannel() throws Exception
+   {
+      final FileInputStream in = new FileInputStream(payloadFile);
+      try
+      {
+         return bean.upload(REMOTE_FILE_NAME_UPLOAD, in.getChannel());
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   @Benchmark
+   public long downloadStream() throws Exception
+   {
+      return bean.download(REMOTE_FILE_NAME_DOWNLOAD, NullOutputStream.INSTANCE);
+   }
+
+   @Benchmark
+   public long downloadFileChannel() throws Exception
+   {
+      final FileOutputStream out = new FileOutputStream(downloadFile);
+      try
+      {
+         return bean.download(REMOTE_FILE_NAME_DOWNLOAD, out.getChannel());
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Discards all output, so only the cost of the transfer itself is measured
+    */
+   static final class NullOutputStream extends OutputStream
+   {
+      static final NullOutputStream INSTANCE = new NullOutputStream();
+
+      @Override
+      public void write(final int b)
+      {
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len)
+      {
+      }
+   }
+}
@@ -0,0 +1,626 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.ejb3.examples.ch06.filetransfer.OperationStatistics.Operation;
+
+/**
+ * A running transfer of many files, spread over several connections
+ * from the shared {@link FtpConnectionPool}.  Each connection is worked by 
+ * its own Thread, taking the next file from the manifest as soon as its 
+ * last is done, so no more than {@link #getParallelism()} files are in 
+ * flight at once, and a connection is borrowed (and its working directory
+ * restored) once per worker rather than once per file.
+ * 
+ * Progress may be followed per file, through the {@link Future}s of 
+ * {@link #getTransfers()} or a {@link TransferListener}, or over the whole
+ * batch through {@link #getStatistics()}.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class BatchTransfer
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(BatchTransfer.class.getName());
+
+   /**
+    * Counters of the FTP traffic of the FileTransferEJB, to which each file is added
+    */
+   private static final FileTransferMetrics metrics = FileTransferMetrics.getInstance();
+
+   /**
+    * Runs the workers of all batches.  Sized to the maximum number of connections
+    * which may be borrowed at once (grown should a pool allow more), so no worker
+    * holds a Thread while waiting on a connection that can't be had; workers 
+    * beyond that are queued.  Threads
+    * are daemons and time out when idle, so an undeployed application does not 
+    * leave them (and its ClassLoader) behind.
+    */
+   private static final ThreadPoolExecutor WORKERS;
+   static
+   {
+      final AtomicInteger threadCount = new AtomicInteger();
+      WORKERS = new ThreadPoolExecutor(FtpConnectionPool.DEFAULT_MAX_ACTIVE, FtpConnectionPool.DEFAULT_MAX_ACTIVE,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+            {
+               @Override
+               public Thread newThread(final Runnable r)
+               {
+                  final Thread thread = new Thread(r, "FileTransferEJB-BatchTransfer-" + threadCount.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+      WORKERS.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * Denotes that not all files are done
+    */
+   private static final long NOT_DONE = Long.MIN_VALUE;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * One task per file, in manifest order
+    */
+   private final List<FileTransferTask> tasks;
+
+   /**
+    * Notified as each file is done; may be null
+    */
+   private final TransferListener listener;
+
+   /**
+    * Number of workers
+    */
+   private final int parallelism;
+
+   /**
+    * Index of the next task to be taken by a worker
+    */
+   private final AtomicInteger nextTask = new AtomicInteger();
+
+   /**
+    * Number of tasks not yet done
+    */
+   private final AtomicInteger remaining;
+
+   /**
+    * Number of workers not yet stopped
+    */
+   private final AtomicInteger liveWorkers = new AtomicInteger();
+
+   /**
+    * Released when all tasks are done
+    */
+   private final CountDownLatch doneLatch;
+
+   private final AtomicLong completedCount = new AtomicLong();
+
+   private final AtomicLong failedCount = new AtomicLong();
+
+   private final AtomicLong bytesTransferred = new AtomicLong();
+
+   private final long startNanos = System.nanoTime();
+
+   /**
+    * When the last task was done, or {@link #NOT_DONE}
+    */
+   private volatile long endNanos = NOT_DONE;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new batch of the specified files, to be transferred over no
+    * more than the specified number of connections once {@link #start(FtpConnectionPool, String, int)}ed
+    * 
+    * @throws IllegalArgumentException If the manifest is not specified or contains null entries,
+    *   or parallelism is not positive
+    */
+   BatchTransfer(final List<TransferRequest> manifest, final int parallelism, final TransferListener listener)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (manifest == null)
+      {
+         throw new IllegalArgumentException("Manifest must be specified");
+      }
+      if (parallelism <= 0)
+      {
+         throw new IllegalArgumentException("Parallelism must be positive");
+      }
+
+      final List<FileTransferTask> tasks = new ArrayList<FileTransferTask>(manifest.size());
+      for (final TransferRequest request : manifest)
+      {
+         if (request == null)
+         {
+            throw new IllegalArgumentException("Manifest must not contain null entries");
+         }
+         tasks.add(new FileTransferTask(new FileTransferCall(request)));
+      }
+      this.tasks = Collections.unmodifiableList(tasks);
+      this.listener = listener;
+      this.parallelism = Math.max(1, Math.min(parallelism, tasks.size()));
+      this.remaining = new AtomicInteger(tasks.size());
+      this.doneLatch = new CountDownLatch(tasks.size());
+      if (tasks.isEmpty())
+      {
+         endNanos = startNanos;
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Starts the workers, each borrowing a connection from the specified pool
+    * changed into the specified working directory
+    */
+   void start(final FtpConnectionPool pool, final String workingDirectory, final int bufferSize)
+   {
+      if (tasks.isEmpty())
+      {
+         return;
+      }
+      ensureWorkers(pool.getMaxActive());
+      liveWorkers.set(parallelism);
+      for (int i = 0; i < parallelism; i++)
+      {
+         WORKERS.execute(new Worker(pool, workingDirectory, bufferSize));
+      }
+      if (log.isLoggable(Level.FINE))
+      {
+         log.fine("Started batch of " + tasks.size() + " files over " + parallelism + " connections");
+      }
+   }
+
+   /**
+    * Obtains the {@link Future} of each file in the manifest, in order, whose 
+    * result is the number of bytes transferred.  Cancelling a file not yet 
+    * started means it will not be.
+    */
+   public List<Future<Long>> getTransfers()
+   {
+      return Collections.<Future<Long>> unmodifiableList(tasks);
+   }
+
+   /**
+    * @return the number of connections over which the files are transferred
+    */
+   public int getParallelism()
+   {
+      return parallelism;
+   }
+
+   /**
+    * Obtains a snapshot of the progress of this batch so far
+    */
+   public BatchTransferStatistics getStatistics()
+   {
+      final long end = endNanos;
+      final long elapsedNanos = (end != NOT_DONE ? end : System.nanoTime()) - startNanos;
+      return new BatchTransferStatistics(tasks.size(), parallelism, completedCount.get(), failedCount.get(),
+            bytesTransferred.get(), elapsedNanos);
+   }
+
+   /**
+    * Waits until every file has been transferred, failed, or been cancelled,
+    * and obtains the final statistics of this batch
+    * 
+    * @throws InterruptedException
+    */
+   public BatchTransferStatistics awaitStatistics() throws InterruptedException
+   {
+      doneLatch.await();
+      return this.getStatistics();
+   }
+
+   /**
+    * Waits up to the specified time until every file has been transferred, failed,
+    * or been cancelled, and obtains the final statistics of this batch
+    * 
+    * @throws InterruptedException
+    * @throws TimeoutException If files remain after the specified time
+    */
+   public BatchTransferStatistics awaitStatistics(final long timeout, final TimeUnit unit)
+         throws InterruptedException, TimeoutException
+   {
+      if (!doneLatch.await(timeout, unit))
+      {
+         throw new TimeoutException(remaining.get() + " of " + tasks.size() + " files remain");
+      }
+      return this.getStatistics();
+   }
+
+   /**
+    * Cancels all files not yet started; those in flight are allowed to finish
+    * 
+    * @return Whether any files were cancelled
+    */
+   public boolean cancel()
+   {
+      boolean cancelled = false;
+      for (final FileTransferTask task : tasks)
+      {
+         cancelled |= task.cancel(false);
+      }
+      return cancelled;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "BatchTransfer [" + this.getStatistics() + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the next task not yet started, or null if there are none
+    */
+   private FileTransferTask nextTask()
+   {
+      int index;
+      while ((index = nextTask.getAndIncrement()) < tasks.size())
+      {
+         final FileTransferTask task = tasks.get(index);
+         if (!task.isDone())
+         {
+            return task;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Grows the Threads running workers to the specified number, if fewer
+    */
+   private static synchronized void ensureWorkers(final int size)
+   {
+      if (WORKERS.getMaximumPoolSize() < size)
+      {
+         WORKERS.setMaximumPoolSize(size);
+         WORKERS.setCorePoolSize(size);
+      }
+   }
+
+   /**
+    * Whether any task may not yet have been taken by a worker
+    */
+   private boolean hasNextTask()
+   {
+      return nextTask.get() < tasks.size();
+   }
+
+   /**
+    * Records the outcome of the specified task, which is done
+    */
+   private void record(final FileTransferTask task)
+   {
+      final TransferRequest request = task.call.request;
+      try
+      {
+         final long bytes = task.get();
+         completedCount.incrementAndGet();
+         bytesTransferred.addAndGet(bytes);
+         if (listener != null)
+         {
+            try
+            {
+               listener.transferCompleted(request, bytes, task.call.elapsedNanos);
+            }
+            catch (final RuntimeException re)
+            {
+               log.log(Level.WARNING, "Exception encountered in notifying " + listener, re);
+            }
+         }
+      }
+      catch (final ExecutionException ee)
+      {
+         this.recordFailure(request, ee.getCause() instanceof FileTransferException ? (FileTransferException) ee
+               .getCause() : new FileTransferException("Could not transfer " + request, ee.getCause()));
+      }
+      catch (final CancellationException ce)
+      {
+         this.recordFailure(request, new FileTransferException("Transfer cancelled: " + request));
+      }
+      catch (final InterruptedException ie)
+      {
+         // Not possible, as the task is done
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         if (remaining.decrementAndGet() == 0)
+         {
+            endNanos = System.nanoTime();
+         }
+         doneLatch.countDown();
+      }
+   }
+
+   private void recordFailure(final TransferRequest request, final FileTransferException failure)
+   {
+      failedCount.incrementAndGet();
+      if (log.isLoggable(Level.FINE))
+      {
+         log.fine("Failed transfer " + request + ": " + failure.getMessage());
+      }
+      if (listener != null)
+      {
+         try
+         {
+            listener.transferFailed(request, failure);
+         }
+         catch (final RuntimeException re)
+         {
+            log.log(Level.WARNING, "Exception encountered in notifying " + listener, re);
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Works a single connection, transferring files until none remain.  A
+    * worker which can't borrow a connection stops, leaving its files to those
+    * which have; only the last worker standing fails the files left.
+    */
+   private final class Worker implements Runnable
+   {
+      private final FtpConnectionPool pool;
+
+      private final String workingDirectory;
+
+      private final int bufferSize;
+
+      Worker(final FtpConnectionPool pool, final String workingDirectory, final int bufferSize)
+      {
+         this.pool = pool;
+         this.workingDirectory = workingDirectory;
+         this.bufferSize = bufferSize;
+      }
+
+      @Override
+      public void run()
+      {
+         ChannelFtpClient client = null;
+         try
+         {
+            while (hasNextTask())
+            {
+               // Borrow, if we've not got a connection
+               if (client == null)
+               {
+                  try
+                  {
+                     client = pool.borrow(workingDirectory);
+                  }
+                  catch (final FileTransferException fte)
+                  {
+                     this.stop(fte);
+                     return;
+                  }
+               }
+
+               // Transfer
+               final FileTransferTask task = nextTask();
+               if (task == null)
+               {
+                  break;
+               }
+               task.runWith(client, bufferSize);
+
+               // Don't keep using a connection we've lost
+               if (!client.isConnected())
+               {
+                  pool.release(client);
+                  client = null;
+               }
+            }
+         }
+         finally
+         {
+            if (client != null)
+            {
+               pool.release(client);
+            }
+         }
+         liveWorkers.decrementAndGet();
+      }
+
+      /**
+       * Stops this worker, which could not borrow a connection, failing the
+       * files left if no other worker remains to take them
+       */
+      private void stop(final FileTransferException failure)
+      {
+         if (liveWorkers.decrementAndGet() > 0)
+         {
+            if (log.isLoggable(Level.FINE))
+            {
+               log.fine("Stopping worker without a connection: " + failure.getMessage());
+            }
+            return;
+         }
+         FileTransferTask task;
+         while ((task = nextTask()) != null)
+         {
+            task.fail(failure);
+         }
+      }
+   }
+
+   /**
+    * Transfers a single file over the connection it's given
+    */
+   private static final class FileTransferCall implements Callable<Long>
+   {
+      private final TransferRequest request;
+
+      private volatile ChannelFtpClient client;
+
+      private volatile int bufferSize;
+
+      private volatile long elapsedNanos;
+
+      FileTransferCall(final TransferRequest request)
+      {
+         this.request = request;
+      }
+
+      @Override
+      public Long call() throws FileTransferException
+      {
+         final long start = System.nanoTime();
+         final boolean upload = request.getDirection() == TransferRequest.Direction.UPLOAD;
+         long transferred = -1;
+         try
+         {
+            if (upload)
+            {
+               final FileInputStream in = new FileInputStream(request.getLocalFile());
+               try
+               {
+                  transferred = FtpTransfers.upload(client, request.getRemotePath(), in.getChannel(), bufferSize);
+               }
+               finally
+               {
+                  in.close();
+               }
+            }
+            else
+            {
+               final FileOutputStream out = new FileOutputStream(request.getLocalFile());
+               try
+               {
+                  transferred = FtpTransfers.download(client, request.getRemotePath(), out.getChannel(),
+                        bufferSize);
+               }
+               finally
+               {
+                  out.close();
+               }
+            }
+         }
+         catch (final IOException ioe)
+         {
+            throw new FileTransferException("Could not access local file of " + request, ioe);
+         }
+         finally
+         {
+            elapsedNanos = System.nanoTime() - start;
+            final Operation operation = upload ? Operation.UPLOAD : Operation.DOWNLOAD;
+            if (transferred >= 0)
+            {
+               metrics.succeeded(operation, transferred, start);
+            }
+            else
+            {
+               metrics.failed(operation, start);
+            }
+         }
+         return transferred;
+      }
+   }
+
+   /**
+    * The {@link Future} of a single file, recording its outcome when done
+    */
+   private final class FileTransferTask extends FutureTask<Long>
+   {
+      private final FileTransferCall call;
+
+      FileTransferTask(final FileTransferCall call)
+      {
+         super(call);
+         this.call = call;
+      }
+
+      void runWith(final ChannelFtpClient client, final int bufferSize)
+      {
+         call.client = client;
+         call.bufferSize = bufferSize;
+         this.run();
+      }
+
+      void fail(final FileTransferException failure)
+      {
+         this.setException(failure);
+      }
+
+      @Override
+      protected void done()
+      {
+         record(this);
+      }
+   }
+}
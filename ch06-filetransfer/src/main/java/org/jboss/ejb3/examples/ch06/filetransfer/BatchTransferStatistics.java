@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the progress of a {@link BatchTransfer}: the files 
+ * transferred or failed so far, the bytes moved, and the throughput
+ * over the wall-clock time elapsed.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class BatchTransferStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final int fileCount;
+
+   private final int parallelism;
+
+   private final long completedCount;
+
+   private final long failedCount;
+
+   private final long bytesTransferred;
+
+   private final long elapsedNanos;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   BatchTransferStatistics(final int fileCount, final int parallelism, final long completedCount,
+         final long failedCount, final long bytesTransferred, final long elapsedNanos)
+   {
+      this.fileCount = fileCount;
+      this.parallelism = parallelism;
+      this.completedCount = completedCount;
+      this.failedCount = failedCount;
+      this.bytesTransferred = bytesTransferred;
+      this.elapsedNanos = elapsedNanos;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the number of files in the manifest
+    */
+   public int getFileCount()
+   {
+      return fileCount;
+   }
+
+   /**
+    * @return the number of connections over which the files are transferred
+    */
+   public int getParallelism()
+   {
+      return parallelism;
+   }
+
+   /**
+    * @return the number of files transferred
+    */
+   public long getCompletedCount()
+   {
+      return completedCount;
+   }
+
+   /**
+    * @return the number of files which could not be transferred
+    */
+   public long getFailedCount()
+   {
+      return failedCount;
+   }
+
+   /**
+    * @return the number of bytes transferred, over all files
+    */
+   public long getBytesTransferred()
+   {
+      return bytesTransferred;
+   }
+
+   /**
+    * @return the wall-clock time from the start of the batch until its 
+    *   last file was done, or until now if files remain
+    */
+   public long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * @return whether every file has been transferred or has failed
+    */
+   public boolean isDone()
+   {
+      return completedCount + failedCount == fileCount;
+   }
+
+   /**
+    * @return bytes transferred per second of wall-clock time elapsed
+    */
+   public double getBytesPerSecond()
+   {
+      return elapsedNanos == 0 ? 0 : bytesTransferred * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+   }
+
+   /**
+    * @return files transferred per second of wall-clock time elapsed
+    */
+   public double getFilesPerSecond()
+   {
+      return elapsedNanos == 0 ? 0 : completedCount * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "BatchTransferStatistics [files=" + fileCount + ", parallelism=" + parallelism + ", completed="
+            + completedCount + ", failed=" + failedCount + ", bytes=" + bytesTransferred + ", elapsedMillis="
+            + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "]";
+   }
+}
@@ -0,0 +1,727 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.SocketFactory;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+
+/**
+ * {@link FTPClient} exposing its data connections as {@link Socket}s, so 
+ * that the FileTransferEJB may move data with its own buffers rather than
+ * those of commons-net.  Data connections opened in passive mode are backed
+ * by a {@link SocketChannel}, so local files may be sent and received with
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * and {@link java.nio.channels.FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)},
+ * without copying through the heap.  The control connection remains a plain
+ * {@link Socket}, so its timeouts are honored.
+ * 
+ * Also lists directories via <code>MLSD</code> (RFC 3659) where the server 
+ * supports it, sends batches of commands back to back, collecting 
+ * their replies afterwards, obtains checksums of remote files via
+ * <code>XCRC</code> or <code>HASH</code>, and switches into <code>MODE Z</code>,
+ * none of which commons-net does.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class ChannelFtpClient extends FTPClient
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of commands sent before their replies are read, so 
+    * that neither side's socket buffers may fill while the other waits
+    */
+   static final int PIPELINE_WINDOW = 64;
+
+   /**
+    * Time to wait for each reply to a pipelined command; bounds the wait 
+    * should the server have dropped commands it didn't expect
+    */
+   static final int PIPELINE_REPLY_TIMEOUT_MILLIS = 5 * 1000;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Whether the server supports <code>MLSD</code>, as advertised in its reply 
+    * to <code>FEAT</code>; null until asked
+    */
+   private Boolean machineListingSupported;
+
+   /**
+    * Whether the server answers commands sent back to back; null until 
+    * tried, upon the first batch sent over this connection
+    */
+   private Boolean pipeliningSupported;
+
+   /**
+    * Set once the server has been found not to answer commands sent back to
+    * back; shared by all connections to the server, so that those which 
+    * replace a connection lost in finding out don't try again
+    */
+   private final AtomicBoolean serverPipeliningUnsupported;
+
+   /**
+    * Checksum algorithms for which the server has not recognized the command
+    */
+   private final EnumSet<ChecksumAlgorithm> checksumsUnsupported = EnumSet.noneOf(ChecksumAlgorithm.class);
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new client, sharing with other connections to the same server
+    * whether the server has been found not to support pipelining
+    */
+   ChannelFtpClient(final AtomicBoolean serverPipeliningUnsupported)
+   {
+      super();
+      this.serverPipeliningUnsupported = serverPipeliningUnsupported;
+      this.setSocketFactory(new DataChannelSocketFactory());
+      this.addProtocolCommandListener(FileTransferMetrics.getInstance().getReplyListener());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the specified command (ie. {@link org.apache.commons.net.ftp.FTPCommand#STOR}) 
+    * for the specified path, and opens the data connection upon which it will 
+    * transfer.  The caller must close the returned Socket when done, then call 
+    * {@link #completePendingCommand()}.
+    * 
+    * @param command
+    * @param path
+    * @return The data connection, or null if the server refused the command
+    * @throws IOException
+    */
+   Socket openDataSocket(final int command, final String path) throws IOException
+   {
+      return this._openDataConnection_(command, path);
+   }
+
+   /**
+    * Obtains the size, in bytes, of the file at the specified path
+    * via the <code>SIZE</code> command (RFC 3659)
+    * 
+    * @param path
+    * @return The size, or -1 if the server did not report one
+    * @throws IOException
+    */
+   long size(final String path) throws IOException
+   {
+      if (!FTPReply.isPositiveCompletion(this.sendCommand("SIZE", path)))
+      {
+         return -1;
+      }
+
+      // Reply is "213 <size>"
+      final String reply = this.getReplyString().trim();
+      final int space = reply.indexOf(' ');
+      try
+      {
+         return space < 0 ? -1 : Long.parseLong(reply.substring(space + 1).trim());
+      }
+      catch (final NumberFormatException nfe)
+      {
+         return -1;
+      }
+   }
+
+   /**
+    * Lists the contents of the specified directory; via <code>MLSD</code> where
+    * the server supports it, as its format is standardized and carries exact 
+    * sizes and UTC times, otherwise via <code>LIST</code> as parsed by commons-net.
+    * 
+    * @param path
+    * @return The entries, not including the directory itself or its parent,
+    *   or null if the server refused
+    * @throws IOException
+    */
+   List<RemoteFile> list(final String path) throws IOException
+   {
+      return this.isMachineListingSupported() ? this.machineList(path) : this.parsedList(path);
+   }
+
+   /**
+    * Determines, once per connection, whether the server supports <code>MLSD</code>
+    * 
+    * @throws IOException
+    */
+   boolean isMachineListingSupported() throws IOException
+   {
+      if (machineListingSupported == null)
+      {
+         boolean supported = false;
+         if (FTPReply.isPositiveCompletion(this.sendCommand("FEAT")))
+         {
+            for (final String line : this.getReplyStrings())
+            {
+               final String feature = line.trim().toUpperCase(Locale.ENGLISH);
+               if (feature.equals("MLST") || feature.startsWith("MLST "))
+               {
+                  supported = true;
+               }
+            }
+         }
+         machineListingSupported = supported;
+      }
+      return machineListingSupported;
+   }
+
+   /**
+    * Sends the specified commands, and obtains their reply codes in the same
+    * order.  Where the server supports it, commands are pipelined: up to 
+    * {@link #PIPELINE_WINDOW} are written at once, and their replies read 
+    * afterwards, so a batch costs one round trip per window rather than 
+    * one per command.  Otherwise each is sent once the last has been answered.
+    * The reply text of the last command is available as usual via 
+    * {@link #getReplyString()}.
+    * 
+    * If any command could not be sent or its reply not read, replies may still
+    * be due upon the control connection, and would be taken for those of
+    * later commands; so this client is disconnected before the exception
+    * is thrown, and must not be pooled again.
+    * 
+    * @param commands
+    * @return The reply code of each command
+    * @throws PipeliningProbeTimeoutException If the server didn't answer the 
+    *   probe of {@link #isPipeliningSupported()}, in which case none of the
+    *   commands were sent, and they may be sent again over another connection
+    * @throws IOException
+    */
+   int[] sendCommands(final List<FtpCommand> commands) throws IOException
+   {
+      final int[] replies = new int[commands.size()];
+      int next = 0;
+      if (commands.size() > 1 && this.isPipeliningSupported())
+      {
+         while (next < commands.size())
+         {
+            next = this.pipeline(commands, next, Math.min(commands.size(), next + PIPELINE_WINDOW), replies);
+         }
+      }
+      boolean answered = false;
+      try
+      {
+         for (; next < commands.size(); next++)
+         {
+            final FtpCommand command = commands.get(next);
+            replies[next] = this.sendCommand(command.getName(), command.getArgument());
+         }
+         answered = true;
+      }
+      finally
+      {
+         if (!answered)
+         {
+            this.abandon();
+         }
+      }
+      return replies;
+   }
+
+   /**
+    * Determines, once per connection, whether the server answers commands 
+    * sent back to back, by pipelining two <code>NOOP</code>s.  Servers which
+    * read only one command per packet drop or mangle the second, so its reply 
+    * either doesn't come or is negative.  If it doesn't come in time, the 
+    * connection is disconnected, as it may yet, and the exception thrown.
+    * Either way, the server is not asked again by any connection sharing
+    * what's known of it.
+    * 
+    * @throws PipeliningProbeTimeoutException If the reply didn't come in time
+    * @throws IOException
+    */
+   boolean isPipeliningSupported() throws IOException
+   {
+      if (pipeliningSupported == null)
+      {
+         if (serverPipeliningUnsupported.get())
+         {
+            pipeliningSupported = Boolean.FALSE;
+            return false;
+         }
+         final List<FtpCommand> probe = new ArrayList<FtpCommand>(2);
+         probe.add(FtpCommand.of("NOOP", null));
+         probe.add(FtpCommand.of("NOOP", null));
+         final int[] replies = new int[2];
+         try
+         {
+            this.pipeline(probe, 0, 2, replies);
+         }
+         catch (final SocketTimeoutException ste)
+         {
+            serverPipeliningUnsupported.set(true);
+            throw new PipeliningProbeTimeoutException(ste);
+         }
+         pipeliningSupported = FTPReply.isPositiveCompletion(replies[0])
+               && FTPReply.isPositiveCompletion(replies[1]);
+         if (!pipeliningSupported)
+         {
+            serverPipeliningUnsupported.set(true);
+         }
+      }
+      return pipeliningSupported;
+   }
+
+   /**
+    * Sets whether the server is to be taken as answering commands sent
+    * back to back, rather than finding out; null to find out again
+    */
+   void setPipeliningSupported(final Boolean pipeliningSupported)
+   {
+      this.pipeliningSupported = pipeliningSupported;
+   }
+
+   /**
+    * Obtains the checksum of the file at the specified path, as computed by 
+    * the server with the specified algorithm: via <code>XCRC</code> for 
+    * CRC-32, otherwise via <code>HASH</code> (draft-bryan-ftp-hash) once
+    * the algorithm has been selected with <code>OPTS HASH</code>.  Once the
+    * server has not recognized the command for an algorithm, it is not 
+    * asked again over this connection.
+    * 
+    * @param algorithm
+    * @param path
+    * @return The checksum in lower case hexadecimal, or null if the server 
+    *   did not report one
+    * @throws IOException
+    */
+   String checksum(final ChecksumAlgorithm algorithm, final String path) throws IOException
+   {
+      if (algorithm == ChecksumAlgorithm.NONE || checksumsUnsupported.contains(algorithm))
+      {
+         return null;
+      }
+      final int reply;
+      if (algorithm == ChecksumAlgorithm.CRC32)
+      {
+         reply = this.sendCommand(algorithm.getServerName(), path);
+      }
+      else
+      {
+         final int selected = this.sendCommand("OPTS", "HASH " + algorithm.getServerName());
+         reply = FTPReply.isPositiveCompletion(selected) ? this.sendCommand("HASH", path) : selected;
+      }
+      if (!FTPReply.isPositiveCompletion(reply))
+      {
+         if (reply == FTPReply.UNRECOGNIZED_COMMAND || reply == FTPReply.COMMAND_NOT_IMPLEMENTED
+               || reply == FTPReply.SYNTAX_ERROR_IN_ARGUMENTS
+               || reply == FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER)
+         {
+            checksumsUnsupported.add(algorithm);
+         }
+         return null;
+      }
+      return parseChecksum(this.getReplyString(), algorithm.getHexLength());
+   }
+
+   /**
+    * Switches the transfer mode of subsequent data connections between
+    * <code>MODE Z</code>, in which data is deflated, and the default 
+    * <code>MODE S</code>
+    * 
+    * @param deflate
+    * @return Whether the server accepted the mode
+    * @throws IOException
+    */
+   boolean setDeflateMode(final boolean deflate) throws IOException
+   {
+      return FTPReply.isPositiveCompletion(this.sendCommand("MODE", deflate ? "Z" : "S"));
+   }
+
+   /* (non-Javadoc)
+    * @see org.apache.commons.net.ftp.FTPClient#disconnect()
+    */
+   @Override
+   public void disconnect() throws IOException
+   {
+      machineListingSupported = null;
+      pipeliningSupported = null;
+      checksumsUnsupported.clear();
+      super.disconnect();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Writes the commands in the specified range of the list at once, then 
+    * reads their replies into the same range of the specified array.  Upon
+    * any failure this client is disconnected, as the replies yet to be read 
+    * would otherwise be taken for those of later commands.
+    * 
+    * @return The index after the range
+    * @throws SocketTimeoutException If a reply didn't come in time
+    */
+   private int pipeline(final List<FtpCommand> commands, final int from, final int to, final int[] replies)
+         throws IOException
+   {
+      boolean answered = false;
+      try
+      {
+         // Send the window in one write
+         final StringBuilder window = new StringBuilder();
+         for (int i = from; i < to; i++)
+         {
+            window.append(commands.get(i)).append("\r\n");
+         }
+         _controlOutput_.write(window.toString());
+         _controlOutput_.flush();
+
+         // Collect the replies, bounded in time
+         final int soTimeout = this.getSoTimeout();
+         this.setSoTimeout(PIPELINE_REPLY_TIMEOUT_MILLIS);
+         try
+         {
+            for (int i = from; i < to; i++)
+            {
+               replies[i] = this.getReply();
+            }
+         }
+         finally
+         {
+            this.setSoTimeout(soTimeout);
+         }
+         answered = true;
+      }
+      finally
+      {
+         if (!answered)
+         {
+            this.abandon();
+         }
+      }
+      return to;
+   }
+
+   /**
+    * Disconnects after the control connection has lost track of which reply
+    * answers which command, so that the pool closes rather than reuses it
+    */
+   private void abandon()
+   {
+      try
+      {
+         this.disconnect();
+      }
+      catch (final IOException ioe)
+      {
+         // Already failing; the original exception is the one to report
+      }
+   }
+
+   /**
+    * Lists the specified directory via <code>MLSD</code>
+    */
+   private List<RemoteFile> machineList(final String path) throws IOException
+   {
+      final Socket socket = this.openPassiveDataSocket("MLSD", path);
+      if (socket == null)
+      {
+         return null;
+      }
+      final List<RemoteFile> files = new ArrayList<RemoteFile>();
+      try
+      {
+         final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+         final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ENGLISH);
+         String line;
+         while ((line = reader.readLine()) != null)
+         {
+            final RemoteFile file = parseMachineListing(line, calendar);
+            if (file != null)
+            {
+               files.add(file);
+            }
+         }
+      }
+      finally
+      {
+         socket.close();
+      }
+      return this.completePendingCommand() ? files : null;
+   }
+
+   /**
+    * Lists the specified directory via <code>LIST</code>
+    */
+   private List<RemoteFile> parsedList(final String path) throws IOException
+   {
+      final FTPFile[] entries = this.listFiles(path);
+      if (!FTPReply.isPositiveCompletion(this.getReplyCode()))
+      {
+         return null;
+      }
+      final List<RemoteFile> files = new ArrayList<RemoteFile>(entries.length);
+      for (final FTPFile entry : entries)
+      {
+         // Skip those which couldn't be parsed, and the directory and its parent
+         if (entry == null || entry.getName() == null || ".".equals(entry.getName())
+               || "..".equals(entry.getName()))
+         {
+            continue;
+         }
+         final Calendar timestamp = entry.getTimestamp();
+         files.add(new RemoteFile(entry.getName(), entry.isDirectory(), entry.getSize(), timestamp != null
+               ? timestamp.getTimeInMillis()
+               : RemoteFile.UNKNOWN));
+      }
+      return files;
+   }
+
+   /**
+    * Parses a line of <code>MLSD</code> output, "fact=value;fact=value; name"
+    * 
+    * @param line
+    * @param calendar Used to parse times; set to UTC
+    * @return The entry, or null if the line denotes the directory itself or 
+    *   its parent, or couldn't be parsed
+    */
+   static RemoteFile parseMachineListing(final String line, final Calendar calendar)
+   {
+      final int space = line.indexOf(' ');
+      if (space < 0 || space == line.length() - 1)
+      {
+         return null;
+      }
+      String type = null;
+      long size = RemoteFile.UNKNOWN;
+      long lastModified = RemoteFile.UNKNOWN;
+      for (final String fact : line.substring(0, space).split(";"))
+      {
+         final int equals = fact.indexOf('=');
+         if (equals < 0)
+         {
+            continue;
+         }
+         final String name = fact.substring(0, equals).toLowerCase(Locale.ENGLISH);
+         final String value = fact.substring(equals + 1);
+         try
+         {
+            if ("type".equals(name))
+            {
+               type = value.toLowerCase(Locale.ENGLISH);
+            }
+            else if ("size".equals(name))
+            {
+               size = Long.parseLong(value);
+            }
+            else if ("modify".equals(name))
+            {
+               lastModified = parseMachineTime(value, calendar);
+            }
+         }
+         catch (final NumberFormatException nfe)
+         {
+            // Leave the fact unknown
+         }
+      }
+      if ("cdir".equals(type) || "pdir".equals(type))
+      {
+         return null;
+      }
+      return new RemoteFile(line.substring(space + 1), "dir".equals(type), size, lastModified);
+   }
+
+   /**
+    * Finds a checksum in the specified reply, as the first word after the
+    * reply code made of the specified number of hexadecimal digits; replies 
+    * differ between servers (ie. "250 1A2B3C4D", "213 SHA-256 0-1023 1a2b... file")
+    * 
+    * @return The checksum in lower case, or null if none was found
+    */
+   static String parseChecksum(final String reply, final int hexLength)
+   {
+      final String[] words = reply.trim().split("\\s+");
+      for (int i = 1; i < words.length; i++)
+      {
+         final String word = words[i];
+         boolean hex = word.length() == hexLength;
+         for (int j = 0; hex && j < word.length(); j++)
+         {
+            hex = Character.digit(word.charAt(j), 16) >= 0;
+         }
+         if (hex)
+         {
+            return word.toLowerCase(Locale.ENGLISH);
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Parses a time of the form "YYYYMMDDHHMMSS[.sss]", in UTC
+    * 
+    * @throws NumberFormatException If not of that form
+    */
+   private static long parseMachineTime(final String value, final Calendar calendar) throws NumberFormatException
+   {
+      if (value.length() < 14)
+      {
+         throw new NumberFormatException("Not a time: " + value);
+      }
+      calendar.clear();
+      calendar.set(Integer.parseInt(value.substring(0, 4)), Integer.parseInt(value.substring(4, 6)) - 1, Integer
+            .parseInt(value.substring(6, 8)), Integer.parseInt(value.substring(8, 10)), Integer.parseInt(value
+            .substring(10, 12)), Integer.parseInt(value.substring(12, 14)));
+      if (value.length() > 15 && value.charAt(14) == '.')
+      {
+         final String fraction = (value.substring(15) + "00").substring(0, 3);
+         calendar.set(Calendar.MILLISECOND, Integer.parseInt(fraction));
+      }
+      return calendar.getTimeInMillis();
+   }
+
+   /**
+    * Sends <code>PASV</code>, connects to the port given in reply upon the host
+    * to which we're connected, then sends the specified command to transfer
+    * over it
+    * 
+    * @return The data connection, or null if the server refused
+    */
+   private Socket openPassiveDataSocket(final String command, final String arg) throws IOException
+   {
+      if (!FTPReply.isPositiveCompletion(this.sendCommand("PASV")))
+      {
+         return null;
+      }
+
+      // Reply is "227 Entering Passive Mode (h1,h2,h3,h4,p1,p2)"
+      final String reply = this.getReplyString();
+      final int open = reply.indexOf('(');
+      final int close = reply.indexOf(')', open + 1);
+      final String[] parts = open < 0 || close < 0 ? new String[0] : reply.substring(open + 1, close).split(",");
+      final int port;
+      try
+      {
+         if (parts.length != 6)
+         {
+            throw new NumberFormatException();
+         }
+         port = (Integer.parseInt(parts[4].trim()) << 8) | Integer.parseInt(parts[5].trim());
+      }
+      catch (final NumberFormatException nfe)
+      {
+         throw new IOException("Could not parse passive mode reply: " + reply.trim());
+      }
+
+      // Connect, then ask
+      final Socket socket = new Socket();
+      socket.connect(new InetSocketAddress(this.getRemoteAddress(), port));
+      if (!FTPReply.isPositivePreliminary(this.sendCommand(command, arg)))
+      {
+         socket.close();
+         return null;
+      }
+      return socket;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Thrown when the server didn't answer commands pipelined to find out 
+    * whether it could, before any commands of the batch were sent.  The
+    * connection has been disconnected.
+    */
+   static final class PipeliningProbeTimeoutException extends SocketTimeoutException
+   {
+      private static final long serialVersionUID = 1L;
+
+      PipeliningProbeTimeoutException(final SocketTimeoutException cause)
+      {
+         super("Server did not answer pipelined commands: " + cause.getMessage());
+         this.initCause(cause);
+      }
+   }
+
+   /**
+    * Creates Sockets backed by {@link SocketChannel}s when connecting 
+    * to a specified remote (as done for passive data connections), and 
+    * plain Sockets otherwise (as done for the control connection)
+    */
+   private static final class DataChannelSocketFactory extends SocketFactory
+   {
+      private final SocketFactory delegate = SocketFactory.getDefault();
+
+      @Override
+      public Socket createSocket() throws IOException
+      {
+         return delegate.createSocket();
+      }
+
+      @Override
+      public Socket createSocket(final String host, final int port) throws IOException
+      {
+         return SocketChannel.open(new InetSocketAddress(host, port)).socket();
+      }
+
+      @Override
+      public Socket createSocket(final InetAddress host, final int port) throws IOException
+      {
+         return SocketChannel.open(new InetSocketAddress(host, port)).socket();
+      }
+
+      @Override
+      public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort)
+            throws IOException
+      {
+         return delegate.createSocket(host, port, localHost, localPort);
+      }
+
+      @Override
+      public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress,
+            final int localPort) throws IOException
+      {
+         return delegate.createSocket(address, port, localAddress, localPort);
+      }
+   }
+}
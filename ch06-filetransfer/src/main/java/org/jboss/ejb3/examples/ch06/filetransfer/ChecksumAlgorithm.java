@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+/**
+ * Checksum computed over the data of a transfer as it moves, and compared
+ * with that reported by the server or recorded in a sidecar file beside 
+ * the remote file
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public enum ChecksumAlgorithm {
+
+   /**
+    * Transfers are not verified
+    */
+   NONE(null, null, 0),
+
+   /**
+    * CRC-32, as reported by the <code>XCRC</code> command
+    */
+   CRC32("XCRC", ".crc32", 8),
+
+   /**
+    * SHA-256, as reported by the <code>HASH</code> command
+    */
+   SHA_256("SHA-256", ".sha256", 64);
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Name by which the server knows the algorithm
+    */
+   private final String serverName;
+
+   /**
+    * Suffix of the name of the sidecar file
+    */
+   private final String sidecarSuffix;
+
+   /**
+    * Number of hexadecimal digits of a value
+    */
+   private final int hexLength;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private ChecksumAlgorithm(final String serverName, final String sidecarSuffix, final int hexLength)
+   {
+      this.serverName = serverName;
+      this.sidecarSuffix = sidecarSuffix;
+      this.hexLength = hexLength;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the command (for CRC-32) or <code>HASH</code> algorithm name 
+    *   (otherwise) by which the server knows the algorithm
+    */
+   String getServerName()
+   {
+      return serverName;
+   }
+
+   /**
+    * @return the suffix appended to the remote path to name its sidecar file
+    */
+   String getSidecarSuffix()
+   {
+      return sidecarSuffix;
+   }
+
+   /**
+    * @return the number of hexadecimal digits of a value
+    */
+   int getHexLength()
+   {
+      return hexLength;
+   }
+}
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listings of remote directories, keyed by absolute path, held for a
+ * fixed time after being obtained.  Bounded; the least-recently used
+ * listing is dropped to make room.  Entries should be invalidated as the 
+ * directories they describe are changed.
+ * 
+ * Not thread-safe; intended to be held by a single session.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class DirectoryListingCache
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Time for which a listing is held
+    */
+   private final long ttlNanos;
+
+   /**
+    * Listings by directory, in order of access
+    */
+   private final Map<String, Listing> listings;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new cache holding up to the specified number of listings, 
+    * each for the specified time
+    * 
+    * @throws IllegalArgumentException If the capacity is not positive or the time is negative
+    */
+   DirectoryListingCache(final int capacity, final long ttlMillis) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (capacity <= 0)
+      {
+         throw new IllegalArgumentException("Capacity must be positive");
+      }
+      if (ttlMillis < 0)
+      {
+         throw new IllegalArgumentException("Time to live must not be negative");
+      }
+
+      this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+      this.listings = new LinkedHashMap<String, Listing>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(final Map.Entry<String, Listing> eldest)
+         {
+            return this.size() > capacity;
+         }
+      };
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the listing of the specified directory, or null if 
+    * none is held or it has expired
+    */
+   List<RemoteFile> get(final String directory)
+   {
+      final Listing listing = listings.get(directory);
+      if (listing == null)
+      {
+         return null;
+      }
+      if (System.nanoTime() - listing.obtainedNanos >= ttlNanos)
+      {
+         listings.remove(directory);
+         return null;
+      }
+      return listing.files;
+   }
+
+   /**
+    * Holds the specified listing of the specified directory
+    */
+   void put(final String directory, final List<RemoteFile> files)
+   {
+      if (ttlNanos > 0)
+      {
+         listings.put(directory, new Listing(files));
+      }
+   }
+
+   /**
+    * Drops the listing of the specified directory, if held
+    */
+   void invalidate(final String directory)
+   {
+      listings.remove(directory);
+   }
+
+   /**
+    * Drops all listings
+    */
+   void clear()
+   {
+      listings.clear();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A listing and when it was obtained
+    */
+   private static final class Listing
+   {
+      private final List<RemoteFile> files;
+
+      private final long obtainedNanos = System.nanoTime();
+
+      Listing(final List<RemoteFile> files)
+      {
+         this.files = files;
+      }
+   }
+}
@@ -23,11 +23,24 @@ package org.jboss.ejb3.examples.ch06.filetransfer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
 import javax.ejb.Local;
 import javax.ejb.PostActivate;
 import javax.ejb.PrePassivate;
@@ -35,12 +48,25 @@ import javax.ejb.Remove;
 import javax.ejb.Stateful;
 
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPReply;
+import org.jboss.ejb3.examples.ch06.filetransfer.OperationStatistics.Operation;
 
 /**
  * Bean Implementation class of the FileTransferEJB, modeled
  * as a Stateful Session Bean
+ * 
+ * Each session holds a connection borrowed from the shared 
+ * {@link FtpConnectionPool} from {@link #connect()} until {@link #disconnect()},
+ * and keeps holding it while passivated if parked in the {@link ParkedConnections}
+ * of this node.  So no more sessions may be open at once than the pool allows
+ * connections (<code>connectionPoolMaxActive</code>, 32 by default), fewer
+ * any connections taken by batch transfers; beyond that, a new session waits
+ * up to <code>connectionPoolMaxWaitMillis</code> (10 seconds by default) for
+ * a connection to be given back, then fails with a {@link FileTransferException}.
+ * Passivated sessions hold their connections only up to 
+ * <code>maxParkedConnections</code> at once (16 by default), and for no longer
+ * than <code>parkTimeoutMillis</code> (60 seconds by default).  All four may
+ * be overridden by environment entry in ejb-jar.xml.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -63,6 +89,11 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
     */
    private static final Logger log = Logger.getLogger(FileTransferBean.class.getName());
 
+   /**
+    * Counters of the FTP traffic of all sessions, also exposed as an MXBean
+    */
+   private static final FileTransferMetrics metrics = FileTransferMetrics.getInstance();
+
    /**
     * Name of the EJB, used in Global JNDI addresses
     */
@@ -84,87 +115,270 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
     */
    private static int CONNECT_PORT = 12345;
 
+   /**
+    * The user as which we'll log in.
+    * In production systems would typically be externalized
+    * via configurable environment entry
+    */
+   private static final String CONNECT_USER = "user";
+
+   /**
+    * The password with which we'll log in.
+    * In production systems would typically be externalized
+    * via configurable environment entry
+    */
+   private static final String CONNECT_PASSWORD = "password";
+
+   /**
+    * Name of the environment entry representing the maximum number of 
+    * connections borrowed from the shared pool at once, and so of sessions open
+    */
+   private static final String ENV_ENTRY_NAME_CONNECTION_POOL_MAX_ACTIVE = "connectionPoolMaxActive";
+
+   /**
+    * Name of the environment entry representing the time, in milliseconds,
+    * a session will wait for a connection when all are in use
+    */
+   private static final String ENV_ENTRY_NAME_CONNECTION_POOL_MAX_WAIT_MILLIS = "connectionPoolMaxWaitMillis";
+
+   /**
+    * Name of the environment entry representing the maximum number of 
+    * connections of passivated sessions parked at once
+    */
+   private static final String ENV_ENTRY_NAME_MAX_PARKED_CONNECTIONS = "maxParkedConnections";
+
+   /**
+    * Name of the environment entry representing the time, in milliseconds, 
+    * a connection stays parked before being given back to the pool
+    */
+   private static final String ENV_ENTRY_NAME_PARK_TIMEOUT_MILLIS = "parkTimeoutMillis";
+
+   /**
+    * Default size, in bytes, of the buffers through which data is transferred
+    */
+   static final int DEFAULT_TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Default time, in milliseconds, for which a directory listing is cached
+    */
+   static final long DEFAULT_LISTING_CACHE_TTL_MILLIS = 5 * 1000;
+
+   /**
+    * Maximum number of directory listings cached by a session
+    */
+   private static final int LISTING_CACHE_CAPACITY = 64;
+
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * The underlying FTP Client.  We don't want its state
-    * getting Serialized during passivation.  We'll
-    * reinitialize this client and its connections
-    * upon activation.
+    * The underlying FTP Client, borrowed from the shared 
+    * {@link FtpConnectionPool}.  We don't want its state
+    * getting Serialized during passivation, so we give it back
+    * beforehand and borrow another upon activation.
+    */
+   private ChannelFtpClient client;
+
+   /**
+    * Maximum number of connections borrowed from the shared pool at once, 
+    * injected via @Resource annotation with name property equal to env-entry
+    * name; the pool's default if not supplied.  Applies when the pool is created.
+    */
+   @Resource(name = ENV_ENTRY_NAME_CONNECTION_POOL_MAX_ACTIVE)
+   private Integer connectionPoolMaxActive;
+
+   /**
+    * Time, in milliseconds, to wait for a connection when all are in use, 
+    * injected via @Resource annotation with name property equal to env-entry
+    * name; the pool's default if not supplied.  Applies when the pool is created.
+    */
+   @Resource(name = ENV_ENTRY_NAME_CONNECTION_POOL_MAX_WAIT_MILLIS)
+   private Long connectionPoolMaxWaitMillis;
+
+   /**
+    * Maximum number of connections of passivated sessions parked at once,
+    * injected via @Resource annotation with name property equal to env-entry
+    * name; the default of {@link ParkedConnections} if not supplied
+    */
+   @Resource(name = ENV_ENTRY_NAME_MAX_PARKED_CONNECTIONS)
+   private Integer maxParkedConnections;
+
+   /**
+    * Time, in milliseconds, a connection stays parked, injected via @Resource
+    * annotation with name property equal to env-entry name; the default of 
+    * {@link ParkedConnections} if not supplied
+    */
+   @Resource(name = ENV_ENTRY_NAME_PARK_TIMEOUT_MILLIS)
+   private Long parkTimeoutMillis;
+
+   /**
+    * Size, in bytes, of the buffers through which data is transferred
+    * when it can't be sent directly between channels
+    */
+   private int transferBufferSize = DEFAULT_TRANSFER_BUFFER_SIZE;
+
+   /**
+    * How data of single transfers is compressed
     */
-   private FTPClient client;
+   private TransferCompression transferCompression = TransferCompression.NONE;
 
    /**
-    * Name of the present working directory.  In cases where
+    * Checksum by which single transfers are verified
+    */
+   private ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.NONE;
+
+   /**
+    * Absolute path of the present working directory, as tracked through
+    * {@link #cd(String)}, or null if not yet known.  In cases where
     * we're passivated, if this is specified
     * we'll change into this directory upon activation.
     */
    private String presentWorkingDirectory;
 
+   /**
+    * Time, in milliseconds, for which a directory listing is cached
+    */
+   private long listingCacheTtlMillis = DEFAULT_LISTING_CACHE_TTL_MILLIS;
+
+   /**
+    * Directory listings obtained by this session; not worth carrying 
+    * across passivation, so created lazily
+    */
+   private transient DirectoryListingCache listingCache;
+
+   /**
+    * Resumable transfers not yet complete, in the order requested.  Carried
+    * across passivation along with their committed offsets, so they may be
+    * resumed upon activation.
+    */
+   private final List<ResumableTransfer> pendingTransfers = new ArrayList<ResumableTransfer>();
+
+   /**
+    * Identifies this session to the {@link ParkedConnections} of this node
+    */
+   private final String sessionId = UUID.randomUUID().toString();
+
+   /**
+    * What becomes of the connection upon passivation
+    */
+   private PassivationMode passivationMode = PassivationMode.PARK;
+
+   /**
+    * Whether this session is counted among those active, from 
+    * {@link #connect()} until {@link #disconnect()}
+    */
+   private boolean sessionOpen;
+
    //-------------------------------------------------------------------------------------||
    // Lifecycle Callbacks ----------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Called by the container when the instance is about to be passivated or brought
-    * out of service entirely.
+    * Called by the container when the instance is about to be passivated.  
+    * Parks the underlying connection in the {@link ParkedConnections} of this
+    * node, still in our working directory, to be reclaimed upon activation;
+    * if the passivation mode is {@link PassivationMode#RELEASE}, or the maximum 
+    * are already parked, gives it back to the shared pool instead.
+    */
+   @PrePassivate
+   public void passivate()
+   {
+      final long start = System.nanoTime();
+      final ParkedConnections parkedConnections = ParkedConnections.getInstance();
+      final ChannelFtpClient client = this.getClient();
+      if (client != null)
+      {
+         // Null out the client so it's not serialized
+         this.setClient(null);
+
+         // Park, or give back
+         final FtpConnectionPool pool = this.getConnectionPool();
+         if (this.getPassivationMode() == PassivationMode.PARK && parkedConnections.park(sessionId, client, pool))
+         {
+            log.fine("Parked: " + client);
+         }
+         else
+         {
+            pool.release(client);
+            log.fine("Released: " + client);
+         }
+      }
+      parkedConnections.recordPassivation(System.nanoTime() - start);
+   }
+
+   /**
+    * Called by the container when the instance has been re-activated (brought 
+    * out of passivated state).  Reclaims the connection parked upon passivation
+    * if it's still there, else {@link #connect()}s anew; then resumes any 
+    * transfers left pending.
+    */
+   @PostActivate
+   public void activate() throws FileTransferException
+   {
+      final long start = System.nanoTime();
+      final ParkedConnections parkedConnections = ParkedConnections.getInstance();
+      final ChannelFtpClient parked = parkedConnections.reclaim(sessionId);
+      if (parked != null && parked.isConnected())
+      {
+         log.fine("Reclaimed: " + parked);
+         this.setClient(parked);
+      }
+      else
+      {
+         if (parked != null)
+         {
+            this.getConnectionPool().release(parked);
+         }
+         this.borrow();
+      }
+      parkedConnections.recordActivation(System.nanoTime() - start);
+      this.resumeQuietly();
+   }
+
+   /**
+    * Called by the container when the instance is about to be brought
+    * out of service entirely.  Gives the underlying connection back to the
+    * shared pool, where it remains logged in for use by other sessions.
     *
     * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#disconnect()
     */
-   @PrePassivate
    @PreDestroy
    @Override
    public void disconnect()
    {
+      // Give back any connection left parked by a passivation we weren't activated from
+      ParkedConnections.getInstance().discard(sessionId);
+      if (sessionOpen)
+      {
+         sessionOpen = false;
+         metrics.sessionClosed();
+      }
+
       // Obtain FTP Client
       final FTPClient client = this.getClient();
 
       // If exists
       if (client != null)
       {
-         // If connected
-         if (client.isConnected())
-         {
-            // Logout
-            try
-            {
-               client.logout();
-               log.info("Logged out of: " + client);
-            }
-            catch (final IOException ioe)
-            {
-               log.warning("Exception encountered in logging out of the FTP client: " + ioe.getMessage());
-            }
-
-            // Disconnect
-            try
-            {
-               log.fine("Disconnecting: " + client);
-               client.disconnect();
-               log.info("Disconnected: " + client);
-            }
-            catch (final IOException ioe)
-            {
-               log.warning("Exception encountered in disconnecting the FTP client: " + ioe.getMessage());
-            }
+         // Null out the client so it's not serialized
+         this.setClient(null);
 
-            // Null out the client so it's not serialized
-            this.client = null;
-         }
+         // Give back
+         this.getConnectionPool().release(client);
+         log.fine("Released: " + client);
       }
    }
 
    /**
-    * Called by the container when the instance has been created or re-activated
-    * (brought out of passivated state).  Will construct the underlying FTP Client
-    * and open all appropriate connections.
+    * Called by the container when the instance has been created.  Borrows a 
+    * logged-in connection from the shared pool (opening one only if none are 
+    * idle), changed into the present working directory if one is defined, 
+    * then resumes any transfers left pending.
     *
     * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#connect()
     */
    @PostConstruct
-   @PostActivate
    @Override
    public void connect() throws IllegalStateException, FileTransferException
    {
@@ -177,50 +391,22 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
          throw new IllegalStateException("FTP Client is already initialized");
       }
 
-      // Get the connection properties
-      final String connectHost = this.getConnectHost();
-      final int connectPort = this.getConnectPort();
-
-      // Create the client
-      final FTPClient client = new FTPClient();
-      final String canonicalServerName = connectHost + ":" + connectPort;
-      log.fine("Connecting to FTP Server at " + canonicalServerName);
-      try
-      {
-         client.connect(connectHost, connectPort);
-      }
-      catch (final IOException ioe)
-      {
-         throw new FileTransferException("Error in connecting to " + canonicalServerName, ioe);
-      }
-
-      // Set
-      log.info("Connected to FTP Server at: " + canonicalServerName);
-      this.setClient(client);
-
-      // Check that the last operation succeeded
-      this.checkLastOperation();
-
-      try
-      {
-         // Login
-         client.login("user", "password");
-
-         // Check that the last operation succeeded
-         this.checkLastOperation();
-      }
-      catch (final Exception e)
+      // Park within the limits configured, if any
+      if (maxParkedConnections != null || parkTimeoutMillis != null)
       {
-         throw new FileTransferException("Could not log in", e);
+         ParkedConnections.getInstance().setLimits(
+               maxParkedConnections != null ? maxParkedConnections : ParkedConnections.DEFAULT_MAX_PARKED,
+               parkTimeoutMillis != null ? parkTimeoutMillis : ParkedConnections.DEFAULT_PARK_TIMEOUT_MILLIS);
       }
 
-      // If there's a pwd defined, cd into it.
-      final String pwd = this.getPresentWorkingDirectory();
-      if (pwd != null)
+      // Borrow, then pick up where any interrupted transfers left off
+      this.borrow();
+      if (!sessionOpen)
       {
-         this.cd(pwd);
+         sessionOpen = true;
+         metrics.sessionOpened();
       }
-
+      this.resumeQuietly();
    }
 
    //-------------------------------------------------------------------------------------||
@@ -233,9 +419,19 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
    @Override
    public void cd(final String directory)
    {
+      // Precondition checks
+      if (directory == null)
+      {
+         throw new IllegalArgumentException("Directory must be specified");
+      }
+
       // Get the client
       final FTPClient client = this.getClient();
 
+      // Work out where we're going, while we still know where we are
+      final long start = System.nanoTime();
+      final String resolved = this.resolve(directory);
+
       // Exec cd
       try
       {
@@ -247,12 +443,14 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
       }
       catch (final Exception e)
       {
+         metrics.failed(Operation.CD, start);
          throw new FileTransferException("Could not change working directory to \"" + directory + "\"", e);
       }
+      metrics.succeeded(Operation.CD, 0, start);
 
-      // Set the pwd (used upon activation)
+      // Set the pwd (used upon activation, and to answer pwd())
       log.info("cd > " + directory);
-      this.setPresentWorkingDirectory(directory);
+      this.setPresentWorkingDirectory(resolved);
    }
 
    /* (non-Javadoc)
@@ -265,6 +463,7 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
       final FTPClient client = this.getClient();
 
       // Exec cd
+      final long start = System.nanoTime();
       try
       {
          // Exec mkdir
@@ -275,111 +474,929 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
       }
       catch (final Exception e)
       {
+         metrics.failed(Operation.MKDIR, start);
          throw new FileTransferException("Could not make directory \"" + directory + "\"", e);
       }
+      metrics.succeeded(Operation.MKDIR, 0, start);
 
+      // The parent's listing has changed
+      this.invalidateListing(directory);
    }
 
    /* (non-Javadoc)
-    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#pwd()
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#mkdirs(java.lang.String)
     */
    @Override
-   public String pwd()
+   public void mkdirs(final String path) throws IllegalArgumentException, IllegalStateException,
+         FileTransferException
    {
-      // Get the client
-      final FTPClient client = this.getClient();
+      // Precondition checks
+      if (path == null || path.length() == 0)
+      {
+         throw new IllegalArgumentException("Path must be specified");
+      }
+      final ChannelFtpClient client = this.getClient();
+      if (client == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
 
-      // Exec pwd
+      // Make each level in turn, from the root down; those already there are refused
+      final long start = System.nanoTime();
+      final String target = this.resolve(path);
+      if ("/".equals(target))
+      {
+         metrics.succeeded(Operation.MKDIR, 0, start);
+         return;
+      }
+      final List<FtpCommand> commands = new ArrayList<FtpCommand>();
+      int separator = 0;
+      while ((separator = target.indexOf('/', separator + 1)) > 0)
+      {
+         commands.add(FtpCommand.mkdir(target.substring(0, separator)));
+      }
+      commands.add(FtpCommand.mkdir(target));
+      final int[] replies;
       try
       {
-         final FTPFile[] files = client.listFiles();
-         for (final FTPFile file : files)
+         replies = this.sendCommands(commands);
+
+         // If the last was refused, it may have been there already; look, then come back
+         final int lastReply = replies[replies.length - 1];
+         if (!FTPReply.isPositiveCompletion(lastReply))
          {
-            log.info(file.toString());
+            final List<FtpCommand> check = new ArrayList<FtpCommand>(2);
+            check.add(FtpCommand.cd(target));
+            check.add(FtpCommand.cd(this.getWorkingDirectory()));
+            final int[] checkReplies = this.sendCommands(check);
+            if (!FTPReply.isPositiveCompletion(checkReplies[1]))
+            {
+               metrics.failed(Operation.MKDIR, start);
+               throw new FileTransferException("Lost working directory while checking for \"" + target
+                     + "\", reply code was: " + checkReplies[1]);
+            }
+            if (!FTPReply.isPositiveCompletion(checkReplies[0]))
+            {
+               metrics.failed(Operation.MKDIR, start);
+               throw new FileTransferException("Could not make directory \"" + target + "\", reply code was: "
+                     + lastReply);
+            }
          }
-
-          // Exec pwd
-          String dir = client.printWorkingDirectory();
-          String separator = File.separator;
-
-          if ("\\".equals(separator)) {
-              // reformat to use for windows
-              if (dir.startsWith("/")) {
-                  dir = dir.substring(1);
-              }
-              dir = dir.replaceAll("/", "\\" + separator);
-          }
-
-          return dir;
-
       }
       catch (final IOException ioe)
       {
-         throw new FileTransferException("Could not print working directory", ioe);
+         // The client is dropped upon failure, lest a reply still due be taken for another's
+         metrics.failed(Operation.MKDIR, start);
+         this.reconnectIfLost();
+         throw new FileTransferException("Could not make directory \"" + target + "\"", ioe);
       }
-   }
+      metrics.succeeded(Operation.MKDIR, 0, start);
 
-   //-------------------------------------------------------------------------------------||
-   // Internal Helper Methods ------------------------------------------------------------||
-   //-------------------------------------------------------------------------------------||
+      // The listings of those parents we've added to have changed
+      for (int i = 0; i < replies.length; i++)
+      {
+         if (FTPReply.isPositiveCompletion(replies[i]))
+         {
+            this.invalidateListing(commands.get(i).getArgument());
+         }
+      }
+   }
 
-   /**
-    * Ensures that the last operation succeeded with a positive
-    * reply code.  Otherwise a {@link FileTransferException} 
-    * is raised, noting the reply code denoting the error.
-    * 
-    * @throws FileTransferException
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#execute(java.util.List)
     */
-   protected void checkLastOperation() throws FileTransferException
+   @Override
+   public int[] execute(final List<FtpCommand> commands) throws IllegalArgumentException, IllegalStateException,
+         FileTransferException
    {
-      // Get the client
-      final FTPClient client = this.getClient();
+      // Precondition checks
+      if (commands == null)
+      {
+         throw new IllegalArgumentException("Commands must be specified");
+      }
+      final ChannelFtpClient client = this.getClient();
+      if (client == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+      final List<FtpCommand> batch = new ArrayList<FtpCommand>(commands);
+      if (batch.contains(null))
+      {
+         throw new IllegalArgumentException("Commands must not contain null");
+      }
 
-      // Obtain and check the reply from the connection
-      final int connectReply = client.getReplyCode();
-      if (!FTPReply.isPositiveCompletion(connectReply))
+      // Send
+      final int[] replies;
+      try
       {
-         // Indicate the problem
-         throw new FileTransferException("Did not receive positive completion code from server, instead code was: "
-               + connectReply);
+         replies = this.sendCommands(batch);
+      }
+      catch (final IOException ioe)
+      {
+         // The client is dropped upon failure, lest a reply still due be taken for another's
+         this.reconnectIfLost();
+         throw new FileTransferException("Could not execute " + batch, ioe);
+      }
+
+      // Follow the server through any changes of directory, in the order made
+      boolean modified = false;
+      for (int i = 0; i < batch.size(); i++)
+      {
+         final FtpCommand command = batch.get(i);
+         final String name = command.getName();
+         if (!FTPReply.isPositiveCompletion(replies[i]))
+         {
+            continue;
+         }
+         if ("CWD".equals(name) && command.getArgument() != null)
+         {
+            this.setPresentWorkingDirectory(this.resolve(command.getArgument()));
+         }
+         else if ("CDUP".equals(name) || "XCUP".equals(name))
+         {
+            this.setPresentWorkingDirectory(this.resolve(".."));
+         }
+         else if (!"PWD".equals(name) && !"XPWD".equals(name) && !"NOOP".equals(name))
+         {
+            modified = true;
+         }
       }
 
+      // We can't tell which listings others may have changed
+      if (modified)
+      {
+         this.getListingCache().clear();
+      }
+      return replies;
    }
 
    /* (non-Javadoc)
-    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferRemoteBusiness#endSession()
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#pwd()
     */
-   @Remove
    @Override
-   public void endSession()
+   public String pwd()
    {
-      log.info("Session Ending...");
-   }
+      // Answer from the tracked directory; ask the server only if we don't yet know
+      final long start = System.nanoTime();
+      String dir;
+      try
+      {
+         dir = this.getWorkingDirectory();
+      }
+      catch (final FileTransferException fte)
+      {
+         metrics.failed(Operation.PWD, start);
+         throw fte;
+      }
+      metrics.succeeded(Operation.PWD, 0, start);
+      String separator = File.separator;
 
-   //-------------------------------------------------------------------------------------||
-   // Accessors / Mutators ---------------------------------------------------------------||
-   //-------------------------------------------------------------------------------------||
+      if ("\\".equals(separator)) {
+          // reformat to use for windows
+          if (dir.startsWith("/")) {
+              dir = dir.substring(1);
+          }
+          dir = dir.replaceAll("/", "\\" + separator);
+      }
 
-   /**
-    * @return the connectHost
-    */
-   public String getConnectHost()
-   {
-      return CONNECT_HOST;
+      return dir;
    }
 
-   /**
-    * @return the connectPort
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#list(java.lang.String)
     */
-   public int getConnectPort()
+   @Override
+   public List<RemoteFile> list(final String directory) throws IllegalStateException, FileTransferException
    {
-      return CONNECT_PORT;
+      // Precondition checks
+      final ChannelFtpClient client = this.getClient();
+      if (client == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+
+      // Answer from the cache if we can
+      final long start = System.nanoTime();
+      final String path = directory != null ? this.resolve(directory) : this.getWorkingDirectory();
+      final DirectoryListingCache cache = this.getListingCache();
+      final List<RemoteFile> cached = cache.get(path);
+      if (cached != null)
+      {
+         metrics.succeeded(Operation.LIST, 0, start);
+         return cached;
+      }
+
+      // Ask the server
+      final List<RemoteFile> files;
+      try
+      {
+         files = client.list(path);
+      }
+      catch (final IOException ioe)
+      {
+         metrics.failed(Operation.LIST, start);
+         throw new FileTransferException("Could not list \"" + path + "\"", ioe);
+      }
+      if (files == null)
+      {
+         metrics.failed(Operation.LIST, start);
+         throw new FileTransferException("Could not list \"" + path + "\", reply code was: "
+               + client.getReplyCode());
+      }
+      metrics.succeeded(Operation.LIST, 0, start);
+      final List<RemoteFile> listing = Collections.unmodifiableList(files);
+      cache.put(path, listing);
+      return listing;
    }
 
-   /**
-    * @return the client
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#upload(java.lang.String, java.io.InputStream)
     */
-   protected final FTPClient getClient()
+   @Override
+   public long upload(final String remotePath, final InputStream in) throws IllegalArgumentException,
+         IllegalStateException, FileTransferException
+   {
+      this.invalidateListing(remotePath);
+      final long start = System.nanoTime();
+      try
+      {
+         final long transferred = this.isEncoding()
+               ? FtpTransfers.upload(this.getClient(), remotePath, in, this.getTransferBufferSize(),
+                        this.getTransferCompression(), this.getChecksumAlgorithm())
+               : FtpTransfers.upload(this.getClient(), remotePath, in, this.getTransferBufferSize());
+         metrics.succeeded(Operation.UPLOAD, transferred, start);
+         return transferred;
+      }
+      catch (final FileTransferException fte)
+      {
+         metrics.failed(Operation.UPLOAD, start);
+         this.reconnectIfLost();
+         throw fte;
+      }
+      catch (final RuntimeException re)
+      {
+         metrics.failed(Operation.UPLOAD, start);
+         throw re;
+      }
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#upload(java.lang.String, java.nio.channels.ReadableByteChannel)
+    */
+   @Override
+   public long upload(final String remotePath, final ReadableByteChannel in) throws IllegalArgumentException,
+         IllegalStateException, FileTransferException
+   {
+      this.invalidateListing(remotePath);
+      final long start = System.nanoTime();
+      try
+      {
+         final long transferred = this.isEncoding()
+               ? FtpTransfers.upload(this.getClient(), remotePath, in != null ? Channels.newInputStream(in) : null,
+                        this.getTransferBufferSize(), this.getTransferCompression(), this.getChecksumAlgorithm())
+               : FtpTransfers.upload(this.getClient(), remotePath, in, this.getTransferBufferSize());
+         metrics.succeeded(Operation.UPLOAD, transferred, start);
+         return transferred;
+      }
+      catch (final FileTransferException fte)
+      {
+         metrics.failed(Operation.UPLOAD, start);
+         this.reconnectIfLost();
+         throw fte;
+      }
+      catch (final RuntimeException re)
+      {
+         metrics.failed(Operation.UPLOAD, start);
+         throw re;
+      }
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#download(java.lang.String, java.io.OutputStream)
+    */
+   @Override
+   public long download(final String remotePath, final OutputStream out) throws IllegalArgumentException,
+         IllegalStateException, FileTransferException
+   {
+      final long start = System.nanoTime();
+      try
+      {
+         final long transferred = this.isEncoding()
+               ? FtpTransfers.download(this.getClient(), remotePath, out, this.getTransferBufferSize(),
+                        this.getTransferCompression(), this.getChecksumAlgorithm())
+               : FtpTransfers.download(this.getClient(), remotePath, out, this.getTransferBufferSize());
+         metrics.succeeded(Operation.DOWNLOAD, transferred, start);
+         return transferred;
+      }
+      catch (final FileTransferException fte)
+      {
+         metrics.failed(Operation.DOWNLOAD, start);
+         this.reconnectIfLost();
+         throw fte;
+      }
+      catch (final RuntimeException re)
+      {
+         metrics.failed(Operation.DOWNLOAD, start);
+         throw re;
+      }
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#download(java.lang.String, java.nio.channels.WritableByteChannel)
+    */
+   @Override
+   public long download(final String remotePath, final WritableByteChannel out) throws IllegalArgumentException,
+         IllegalStateException, FileTransferException
+   {
+      final long start = System.nanoTime();
+      try
+      {
+         final long transferred = this.isEncoding()
+               ? FtpTransfers.download(this.getClient(), remotePath, out != null ? Channels.newOutputStream(out) : null,
+                        this.getTransferBufferSize(), this.getTransferCompression(), this.getChecksumAlgorithm())
+               : FtpTransfers.download(this.getClient(), remotePath, out, this.getTransferBufferSize());
+         metrics.succeeded(Operation.DOWNLOAD, transferred, start);
+         return transferred;
+      }
+      catch (final FileTransferException fte)
+      {
+         metrics.failed(Operation.DOWNLOAD, start);
+         this.reconnectIfLost();
+         throw fte;
+      }
+      catch (final RuntimeException re)
+      {
+         metrics.failed(Operation.DOWNLOAD, start);
+         throw re;
+      }
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#transfer(java.util.List, int, org.jboss.ejb3.examples.ch06.filetransfer.TransferListener)
+    */
+   @Override
+   public BatchTransfer transfer(final List<TransferRequest> manifest, final int parallelism,
+         final TransferListener listener) throws IllegalArgumentException, IllegalStateException
+   {
+      // Precondition checks
+      if (manifest == null)
+      {
+         throw new IllegalArgumentException("Manifest must be specified");
+      }
+      if (this.getClient() == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+
+      // Uploads will change listings as they go
+      for (final TransferRequest request : manifest)
+      {
+         if (request != null && request.getDirection() == TransferRequest.Direction.UPLOAD)
+         {
+            this.getListingCache().clear();
+            break;
+         }
+      }
+
+      // Start, in our pwd, over no more connections than the pool can presently spare; we hold one already
+      final FtpConnectionPool pool = this.getConnectionPool();
+      final int spare = Math.max(1, Math.min(pool.getMaxActive() - 1, pool.getAvailableCount()));
+      final BatchTransfer batch = new BatchTransfer(manifest, Math.min(parallelism, spare), listener);
+      batch.start(pool, this.getPresentWorkingDirectory(), this.getTransferBufferSize());
+      return batch;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#transferResumable(org.jboss.ejb3.examples.ch06.filetransfer.TransferRequest)
+    */
+   @Override
+   public long transferResumable(final TransferRequest request) throws IllegalArgumentException,
+         IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (request == null)
+      {
+         throw new IllegalArgumentException("Request must be specified");
+      }
+      if (this.getClient() == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+
+      // Fix the remote path against the pwd, so the transfer may be resumed from any other
+      final String remotePath = this.resolve(request.getRemotePath());
+      final TransferRequest resolved = request.getDirection() == TransferRequest.Direction.UPLOAD ? TransferRequest
+            .upload(request.getLocalFile(), remotePath) : TransferRequest.download(remotePath, request
+            .getLocalFile());
+
+      // Record, then transfer from the start
+      final ResumableTransfer transfer = new ResumableTransfer(resolved, 0);
+      this.pendingTransfers.add(transfer);
+      return this.resume(transfer);
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#resume()
+    */
+   @Override
+   public long resume() throws IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (this.getClient() == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+
+      // Resume in order, stopping at the first which fails
+      long transferred = 0;
+      while (!this.pendingTransfers.isEmpty())
+      {
+         transferred += this.resume(this.pendingTransfers.get(0));
+      }
+      return transferred;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferCommonBusiness#getPendingTransfers()
+    */
+   @Override
+   public List<ResumableTransfer> getPendingTransfers()
+   {
+      return Collections.unmodifiableList(new ArrayList<ResumableTransfer>(this.pendingTransfers));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Borrows a connection from the shared pool, restoring the pwd if there's one defined
+    */
+   private void borrow() throws FileTransferException
+   {
+      final String pwd = this.getPresentWorkingDirectory();
+      final ChannelFtpClient client = this.getConnectionPool().borrow(pwd);
+      log.fine("Borrowed: " + client + (pwd != null ? " in " + pwd : ""));
+      this.setClient(client);
+   }
+
+   /**
+    * Resumes any pending transfers, logging rather than raising a failure
+    */
+   private void resumeQuietly()
+   {
+      if (!this.pendingTransfers.isEmpty())
+      {
+         try
+         {
+            this.resume();
+         }
+         catch (final FileTransferException fte)
+         {
+            log.log(Level.WARNING, "Could not resume pending transfers, remaining: " + this.pendingTransfers, fte);
+         }
+      }
+   }
+
+   /**
+    * Transfers the specified pending transfer from its committed offset, 
+    * removing it from those pending once complete.  Should the transfer fail
+    * because the connection was lost, another is borrowed so the transfer
+    * may be resumed upon this session.
+    * 
+    * @throws FileTransferException If the transfer did not complete; it remains pending
+    */
+   private long resume(final ResumableTransfer transfer) throws FileTransferException
+   {
+      final TransferRequest request = transfer.getRequest();
+      if (request.getDirection() == TransferRequest.Direction.UPLOAD)
+      {
+         this.invalidateListing(request.getRemotePath());
+      }
+      final Operation operation = request.getDirection() == TransferRequest.Direction.UPLOAD
+            ? Operation.UPLOAD
+            : Operation.DOWNLOAD;
+      final long start = System.nanoTime();
+      try
+      {
+         final long transferred = FtpTransfers.resume(this.getClient(), transfer);
+         metrics.succeeded(operation, transferred, start);
+         this.pendingTransfers.remove(transfer);
+         return transferred;
+      }
+      catch (final FileTransferException fte)
+      {
+         metrics.failed(operation, start);
+         this.reconnectIfLost();
+         throw fte;
+      }
+   }
+
+   /**
+    * Sends the specified commands over our connection, via
+    * {@link ChannelFtpClient#sendCommands(List)}.  Should the server not answer
+    * the probe of whether it supports pipelining, none of the commands have 
+    * been sent, and the pool now knows not to pipeline to the server; so the
+    * lost connection is replaced, and the commands sent one at a time over 
+    * its replacement.
+    */
+   private int[] sendCommands(final List<FtpCommand> commands) throws IOException
+   {
+      try
+      {
+         return this.getClient().sendCommands(commands);
+      }
+      catch (final ChannelFtpClient.PipeliningProbeTimeoutException ppte)
+      {
+         log.info(ppte.getMessage() + "; sending commands one at a time");
+         this.reconnectIfLost();
+         final ChannelFtpClient replacement = this.getClient();
+         if (replacement == null)
+         {
+            throw ppte;
+         }
+         return replacement.sendCommands(commands);
+      }
+   }
+
+   /**
+    * Ensures the connection still responds, replacing it with another
+    * from the pool if not, or if there is none
+    */
+   private void reconnectIfLost()
+   {
+      // Still good?
+      final ChannelFtpClient client = this.getClient();
+      if (client != null)
+      {
+         try
+         {
+            if (client.isConnected() && client.sendNoOp())
+            {
+               return;
+            }
+         }
+         catch (final IOException ioe)
+         {
+            log.fine("Connection lost: " + ioe.getMessage());
+         }
+
+         // Close so it's not pooled, and give back
+         try
+         {
+            client.disconnect();
+         }
+         catch (final IOException ioe)
+         {
+            log.fine("Exception encountered in disconnecting lost connection: " + ioe.getMessage());
+         }
+         this.setClient(null);
+         this.getConnectionPool().release(client);
+      }
+
+      // Borrow another, without resuming as connect() would
+      try
+      {
+         this.setClient(this.getConnectionPool().borrow(this.getPresentWorkingDirectory()));
+         metrics.reconnected();
+      }
+      catch (final FileTransferException fte)
+      {
+         log.warning("Could not replace lost connection, must reconnect: " + fte.getMessage());
+      }
+   }
+
+   /**
+    * Obtains the specified remote path as absolute, resolved against the 
+    * present working directory if relative, with "." and ".." segments
+    * removed.  Backslashes are taken as separators, and Windows drive 
+    * letters as absolute.
+    */
+   private String resolve(final String remotePath)
+   {
+      // Relative to where?
+      String path = remotePath.replace('\\', '/');
+      if (path.length() > 1 && path.charAt(1) == ':')
+      {
+         path = "/" + path;
+      }
+      else if (!path.startsWith("/"))
+      {
+         path = this.getWorkingDirectory() + "/" + path;
+      }
+
+      // Normalize
+      final Deque<String> segments = new ArrayDeque<String>();
+      for (final String segment : path.split("/"))
+      {
+         if (segment.length() == 0 || ".".equals(segment))
+         {
+            continue;
+         }
+         if ("..".equals(segment))
+         {
+            segments.pollLast();
+         }
+         else
+         {
+            segments.addLast(segment);
+         }
+      }
+      final StringBuilder resolved = new StringBuilder();
+      for (final String segment : segments)
+      {
+         resolved.append('/').append(segment);
+      }
+      return resolved.length() > 0 ? resolved.toString() : "/";
+   }
+
+   /**
+    * Obtains the absolute path of the present working directory, 
+    * asking the server only if not yet known
+    * 
+    * @throws FileTransferException If the server could not say
+    */
+   private String getWorkingDirectory() throws FileTransferException
+   {
+      if (this.getPresentWorkingDirectory() == null)
+      {
+         final FTPClient client = this.getClient();
+         final String directory;
+         try
+         {
+            directory = client.printWorkingDirectory();
+         }
+         catch (final IOException ioe)
+         {
+            throw new FileTransferException("Could not print working directory", ioe);
+         }
+         if (directory == null)
+         {
+            throw new FileTransferException("Could not print working directory, reply code was: "
+                  + client.getReplyCode());
+         }
+         this.setPresentWorkingDirectory(directory);
+      }
+      return this.getPresentWorkingDirectory();
+   }
+
+   /**
+    * Whether single transfers are to be compressed or verified, and so 
+    * must pass through the heap
+    */
+   private boolean isEncoding()
+   {
+      return this.getTransferCompression() != TransferCompression.NONE
+            || this.getChecksumAlgorithm() != ChecksumAlgorithm.NONE;
+   }
+
+   /**
+    * Drops the cached listing of the directory containing the specified remote path
+    */
+   private void invalidateListing(final String remotePath)
+   {
+      // Leave bad arguments to be reported by the operation
+      if (remotePath == null || remotePath.length() == 0)
+      {
+         return;
+      }
+      final String path = this.resolve(remotePath);
+      final int lastSeparator = path.lastIndexOf('/');
+      this.getListingCache().invalidate(lastSeparator > 0 ? path.substring(0, lastSeparator) : "/");
+   }
+
+   /**
+    * Ensures that the last operation succeeded with a positive
+    * reply code.  Otherwise a {@link FileTransferException} 
+    * is raised, noting the reply code denoting the error.
+    * 
+    * @throws FileTransferException
+    */
+   protected void checkLastOperation() throws FileTransferException
+   {
+      // Get the client
+      final FTPClient client = this.getClient();
+
+      // Obtain and check the reply from the connection
+      final int connectReply = client.getReplyCode();
+      if (!FTPReply.isPositiveCompletion(connectReply))
+      {
+         // Indicate the problem
+         throw new FileTransferException("Did not receive positive completion code from server, instead code was: "
+               + connectReply);
+      }
+
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferRemoteBusiness#endSession()
+    */
+   @Remove
+   @Override
+   public void endSession()
+   {
+      log.info("Session Ending...");
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#getPassivationStatistics()
+    */
+   @Override
+   public PassivationStatistics getPassivationStatistics()
+   {
+      return ParkedConnections.getInstance().getStatistics();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferLocalBusiness#getTransferStatistics()
+    */
+   @Override
+   public FileTransferStatistics getTransferStatistics()
+   {
+      return metrics.getStatistics();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the connectHost
+    */
+   public String getConnectHost()
+   {
+      return CONNECT_HOST;
+   }
+
+   /**
+    * @return the connectPort
+    */
+   public int getConnectPort()
+   {
+      return CONNECT_PORT;
+   }
+
+   /**
+    * @return the size, in bytes, of the buffers through which data is transferred
+    */
+   public int getTransferBufferSize()
+   {
+      return transferBufferSize;
+   }
+
+   /**
+    * Sets the size, in bytes, of the buffers through which data is transferred
+    * when it can't be sent directly between channels.  Larger buffers mean fewer
+    * system calls per transfer; memory used is constant regardless of the size 
+    * of the data.
+    * 
+    * @param transferBufferSize
+    * @throws IllegalArgumentException If not positive
+    */
+   public void setTransferBufferSize(final int transferBufferSize) throws IllegalArgumentException
+   {
+      if (transferBufferSize <= 0)
+      {
+         throw new IllegalArgumentException("Transfer buffer size must be positive");
+      }
+      this.transferBufferSize = transferBufferSize;
+   }
+
+   /**
+    * @return how the data of single transfers is compressed
+    */
+   public TransferCompression getTransferCompression()
+   {
+      return transferCompression;
+   }
+
+   /**
+    * Sets how the data of single transfers (ie. {@link #upload(String, InputStream)},
+    * {@link #download(String, OutputStream)}) is compressed.  Compressed data 
+    * passes through the transfer buffer rather than directly between channels.
+    * Batch and resumable transfers are not compressed, as the offsets by
+    * which they restart are those of the stored file.
+    * 
+    * @param transferCompression
+    * @throws IllegalArgumentException If not specified
+    */
+   public void setTransferCompression(final TransferCompression transferCompression)
+         throws IllegalArgumentException
+   {
+      if (transferCompression == null)
+      {
+         throw new IllegalArgumentException("Transfer compression must be specified");
+      }
+      this.transferCompression = transferCompression;
+   }
+
+   /**
+    * @return the checksum by which single transfers are verified
+    */
+   public ChecksumAlgorithm getChecksumAlgorithm()
+   {
+      return checksumAlgorithm;
+   }
+
+   /**
+    * Sets the checksum by which single transfers are verified, computed as 
+    * data moves and compared with that reported by the server, or recorded
+    * in a sidecar file where the server can't report one.  Verified data
+    * passes through the transfer buffer rather than directly between channels.
+    * 
+    * @param checksumAlgorithm
+    * @throws IllegalArgumentException If not specified
+    */
+   public void setChecksumAlgorithm(final ChecksumAlgorithm checksumAlgorithm) throws IllegalArgumentException
+   {
+      if (checksumAlgorithm == null)
+      {
+         throw new IllegalArgumentException("Checksum algorithm must be specified");
+      }
+      this.checksumAlgorithm = checksumAlgorithm;
+   }
+
+   /**
+    * @return the time, in milliseconds, for which a directory listing is cached
+    */
+   public long getListingCacheTtlMillis()
+   {
+      return listingCacheTtlMillis;
+   }
+
+   /**
+    * Sets the time, in milliseconds, for which a directory listing is cached
+    * by {@link #list(String)}.  Changes made through this session drop the 
+    * affected listings; those made by others may be unseen for up to this long.
+    * Zero disables caching.  Drops all listings presently cached.
+    * 
+    * @param listingCacheTtlMillis
+    * @throws IllegalArgumentException If negative
+    */
+   public void setListingCacheTtlMillis(final long listingCacheTtlMillis) throws IllegalArgumentException
+   {
+      if (listingCacheTtlMillis < 0)
+      {
+         throw new IllegalArgumentException("Listing cache time to live must not be negative");
+      }
+      this.listingCacheTtlMillis = listingCacheTtlMillis;
+      this.listingCache = null;
+   }
+
+   /**
+    * @return the directory listings obtained by this session
+    */
+   private DirectoryListingCache getListingCache()
+   {
+      if (listingCache == null)
+      {
+         listingCache = new DirectoryListingCache(LISTING_CACHE_CAPACITY, this.getListingCacheTtlMillis());
+      }
+      return listingCache;
+   }
+
+   /**
+    * @return what becomes of the connection upon passivation
+    */
+   public PassivationMode getPassivationMode()
+   {
+      return passivationMode;
+   }
+
+   /**
+    * Sets what becomes of the connection upon passivation
+    * 
+    * @param passivationMode
+    * @throws IllegalArgumentException If not specified
+    */
+   public void setPassivationMode(final PassivationMode passivationMode) throws IllegalArgumentException
+   {
+      if (passivationMode == null)
+      {
+         throw new IllegalArgumentException("Passivation mode must be specified");
+      }
+      this.passivationMode = passivationMode;
+   }
+
+   /**
+    * @return the shared pool of connections to the configured server
+    */
+   FtpConnectionPool getConnectionPool()
+   {
+      final int maxActive = connectionPoolMaxActive != null
+            ? connectionPoolMaxActive
+            : FtpConnectionPool.DEFAULT_MAX_ACTIVE;
+      final long maxWaitMillis = connectionPoolMaxWaitMillis != null
+            ? connectionPoolMaxWaitMillis
+            : FtpConnectionPool.DEFAULT_MAX_WAIT_MILLIS;
+      return FtpConnectionPool.getInstance(this.getConnectHost(), this.getConnectPort(), CONNECT_USER,
+            CONNECT_PASSWORD, maxActive, maxWaitMillis);
+   }
+
+   /**
+    * @return the client
+    */
+   protected final ChannelFtpClient getClient()
    {
       return client;
    }
@@ -387,7 +1404,7 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
    /**
     * @param client the client to set
     */
-   private void setClient(final FTPClient client)
+   private void setClient(final ChannelFtpClient client)
    {
       this.client = client;
    }
@@ -408,4 +1425,23 @@ public class FileTransferBean implements FileTransferLocalBusiness, Serializable
       this.presentWorkingDirectory = presentWorkingDirectory;
    }
 
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * What becomes of the connection of a session upon passivation
+    */
+   public enum PassivationMode {
+      /**
+       * Parked upon this node, to be reclaimed as-is upon activation
+       */
+      PARK,
+
+      /**
+       * Given back to the shared pool; another is borrowed upon activation
+       */
+      RELEASE
+   }
+
 }
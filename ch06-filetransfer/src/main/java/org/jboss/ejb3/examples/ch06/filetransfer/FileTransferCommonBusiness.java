@@ -21,12 +21,20 @@
  */
 package org.jboss.ejb3.examples.ch06.filetransfer;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
 /**
  * Contains the contract for operations common to all
  * business interfaces of the FileTransferEJB.
  * 
  * Includes support for switching present working directories,
- * printing the current working directory, and making directories.
+ * printing the current working directory, making directories, and 
+ * transferring data to and from the server.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -43,22 +51,199 @@ public interface FileTransferCommonBusiness
     */
    void mkdir(String directory) throws IllegalStateException;
 
+   /**
+    * Makes the specified directory (relative to the present working directory
+    * unless absolute) along with any of its parents which don't yet exist.  
+    * The commands for all levels are sent back to back, so the whole path 
+    * costs about one round trip to the server rather than one per level.
+    * If the directory already exists, this is a no-op.
+    * 
+    * @param path
+    * @throws IllegalArgumentException If the path is not specified
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the directory could not be made
+    */
+   void mkdirs(String path) throws IllegalArgumentException, IllegalStateException, FileTransferException;
+
+   /**
+    * Sends the specified commands in order, back to back where the server 
+    * supports it, and collects their replies afterwards; servers which 
+    * don't answer pipelined commands are sent each once the last has been
+    * answered.  A failing command does not stop those after it, so 
+    * callers should check each reply code (ie. via 
+    * {@link org.apache.commons.net.ftp.FTPReply#isPositiveCompletion(int)}).
+    * Changes of directory are tracked as with {@link #cd(String)}.
+    * 
+    * @param commands
+    * @return The reply code of each command, in the same order
+    * @throws IllegalArgumentException If the commands are not specified
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the commands could not be sent, or 
+    *   their replies not read
+    */
+   int[] execute(List<FtpCommand> commands) throws IllegalArgumentException, IllegalStateException,
+         FileTransferException;
+
    /**
     * Changes into the named directory
     * 
     * @param directory
+    * @throws IllegalArgumentException If no directory was specified
     * @throws IllegalStateException If the client connection has not been initialized
     */
-   void cd(String directory) throws IllegalStateException;
+   void cd(String directory) throws IllegalArgumentException, IllegalStateException;
 
    /**
-    * Obtains the name of the current working directory
+    * Obtains the name of the current working directory.  Answered from the
+    * directory tracked through {@link #cd(String)}, so the server is asked 
+    * only if the session has not yet changed directory.
     * 
     * @return
     * @throws IllegalStateException If the client connection has not been initialized
     */
    String pwd() throws IllegalStateException;
 
+   /**
+    * Lists the contents of the specified directory (relative to the present
+    * working directory unless absolute), or of the present working directory
+    * if null.  The directory itself and its parent are not included.  Uses
+    * <code>MLSD</code> where the server supports it.
+    * 
+    * Listings are cached by this session for a short time, and dropped when 
+    * the directory is changed through this session (ie. by {@link #mkdir(String)}
+    * or an upload); changes made by others may not be seen until the cached
+    * listing expires.
+    * 
+    * @param directory
+    * @return
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the directory could not be listed
+    */
+   List<RemoteFile> list(String directory) throws IllegalStateException, FileTransferException;
+
+   /**
+    * Stores the contents of the specified stream, read until its end, at the 
+    * specified remote path (relative to the present working directory unless
+    * absolute).  Data is transferred in binary mode, through a buffer of 
+    * constant size; if the stream is upon a local file, the file is sent 
+    * directly from its present position.  The stream is not closed.
+    * 
+    * @param remotePath
+    * @param in
+    * @return The number of bytes transferred
+    * @throws IllegalArgumentException If either argument is not specified
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the transfer did not complete
+    */
+   long upload(String remotePath, InputStream in) throws IllegalArgumentException, IllegalStateException,
+         FileTransferException;
+
+   /**
+    * Stores the contents of the specified channel, read until its end, at the
+    * specified remote path.  Behaves as {@link #upload(String, InputStream)};
+    * a {@link FileChannel} is sent directly from its present position via 
+    * {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+    * The channel is not closed.
+    * 
+    * @param remotePath
+    * @param in
+    * @return The number of bytes transferred
+    * @throws IllegalArgumentException If either argument is not specified
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the transfer did not complete
+    */
+   long upload(String remotePath, ReadableByteChannel in) throws IllegalArgumentException, IllegalStateException,
+         FileTransferException;
+
+   /**
+    * Writes the contents of the file at the specified remote path (relative
+    * to the present working directory unless absolute) to the specified stream.
+    * Data is transferred in binary mode, through a buffer of constant size; if 
+    * the stream is upon a local file, the file is written directly
+    * from the data connection.  The stream is not closed.
+    * 
+    * @param remotePath
+    * @param out
+    * @return The number of bytes transferred
+    * @throws IllegalArgumentException If either argument is not specified
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the transfer did not complete
+    */
+   long download(String remotePath, OutputStream out) throws IllegalArgumentException, IllegalStateException,
+         FileTransferException;
+
+   /**
+    * Writes the contents of the file at the specified remote path to the 
+    * specified channel.  Behaves as {@link #download(String, OutputStream)}; a 
+    * {@link FileChannel} is written directly from its present position via
+    * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}.
+    * The channel is not closed.
+    * 
+    * @param remotePath
+    * @param out
+    * @return The number of bytes transferred
+    * @throws IllegalArgumentException If either argument is not specified
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the transfer did not complete
+    */
+   long download(String remotePath, WritableByteChannel out) throws IllegalArgumentException,
+         IllegalStateException, FileTransferException;
+
+   /**
+    * Starts transferring the files of the specified manifest, spread over 
+    * up to the specified number of connections in parallel, each used for
+    * one file at a time.  Remote paths are relative to the present working
+    * directory unless absolute.  Returns immediately; progress may be 
+    * followed per file or over the whole batch through the returned
+    * {@link BatchTransfer}, or through the specified listener.
+    * 
+    * @param manifest
+    * @param parallelism Maximum number of files in flight at once
+    * @param listener Notified as each file is done; may be null
+    * @return
+    * @throws IllegalArgumentException If the manifest is not specified or 
+    *   parallelism is not positive
+    * @throws IllegalStateException If the client connection has not been initialized
+    */
+   BatchTransfer transfer(List<TransferRequest> manifest, int parallelism, TransferListener listener)
+         throws IllegalArgumentException, IllegalStateException;
+
+   /**
+    * Transfers the file of the specified request, recording in the state of
+    * this session the number of bytes committed as data moves.  If the transfer 
+    * is interrupted (by a lost connection, or by passivation) it remains pending,
+    * and is resumed from its last committed offset rather than from the start:
+    * upon the next {@link #connect()}, or explicitly via {@link #resume()}.
+    * Remote paths are relative to the present working directory unless absolute.
+    * 
+    * @param request
+    * @return The number of bytes transferred
+    * @throws IllegalArgumentException If the request is not specified
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If the transfer did not complete; it remains pending
+    */
+   long transferResumable(TransferRequest request) throws IllegalArgumentException, IllegalStateException,
+         FileTransferException;
+
+   /**
+    * Resumes all pending transfers started via {@link #transferResumable(TransferRequest)},
+    * in the order requested, each from its last committed offset
+    * 
+    * @return The number of bytes transferred
+    * @throws IllegalStateException If the client connection has not been initialized
+    * @throws FileTransferException If a transfer did not complete; it and those
+    *   after it remain pending
+    */
+   long resume() throws IllegalStateException, FileTransferException;
+
+   /**
+    * Obtains the transfers started via {@link #transferResumable(TransferRequest)}
+    * which have not yet completed, in the order requested
+    * 
+    * @return
+    */
+   List<ResumableTransfer> getPendingTransfers();
+
    /**
     * Denotes that the client is done using this service; flushes
     * any pending operations and does all appropriate cleanup.  If 
@@ -69,7 +254,7 @@ public interface FileTransferCommonBusiness
    /**
     * Opens the underlying connections to the target FTP Server, 
     * performs any other tasks required before commands may be sent
-    * (ie. login, etc)
+    * (ie. login, etc).  Any pending resumable transfers are resumed.
     * 
     * @throws IllegalStateException If already initialized/connected
     */
@@ -42,4 +42,23 @@ public interface FileTransferLocalBusiness extends FileTransferCommonBusiness
     * {@link Remove}
     */
    void endSession();
+
+   /**
+    * Obtains a snapshot of the passivation and activation of all sessions of 
+    * this EJB upon this node: connections parked, reclaimed and reaped, and 
+    * the latency of each callback
+    * 
+    * @return
+    */
+   PassivationStatistics getPassivationStatistics();
+
+   /**
+    * Obtains a snapshot of the FTP traffic of all sessions of this EJB upon 
+    * this node: calls upon each operation and their latency, bytes moved, 
+    * sessions active, lost connections replaced, and reply codes received.
+    * The same is exposed to management clients via {@link FileTransferMetricsMXBean}.
+    * 
+    * @return
+    */
+   FileTransferStatistics getTransferStatistics();
 }
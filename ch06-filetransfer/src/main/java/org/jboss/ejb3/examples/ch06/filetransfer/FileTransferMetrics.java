@@ -0,0 +1,444 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.net.ProtocolCommandEvent;
+import org.apache.commons.net.ProtocolCommandListener;
+import org.jboss.ejb3.examples.ch06.filetransfer.OperationStatistics.Operation;
+
+/**
+ * Counters of the FTP traffic of all FileTransferEJB sessions upon this node,
+ * shared by all instances, and exposed both as {@link FileTransferStatistics}
+ * snapshots and as an MXBean registered under {@link #OBJECT_NAME} for so long
+ * as the application runs (see {@link FileTransferMetricsRegistrationBean}).  
+ * Recording costs a handful of uncontended atomic additions and no allocation:
+ * counters are striped by Thread, so concurrent callers seldom update the 
+ * same ones, and are only summed when a snapshot is taken.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FileTransferMetrics implements FileTransferMetricsMXBean
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FileTransferMetrics.class.getName());
+
+   /**
+    * Name under which the shared instance is registered with the platform MBeanServer
+    */
+   static final String OBJECT_NAME = "org.jboss.ejb3.examples.ch06:service=" + FileTransferBean.EJB_NAME
+         + ",type=Metrics";
+
+   /**
+    * Number of stripes of each counter; a power of two at least the number of processors
+    */
+   private static final int NUM_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+   /**
+    * Reply codes are of three digits; those outside are counted as 0
+    */
+   private static final int NUM_REPLY_CODES = 1000;
+
+   /**
+    * Shared instance
+    */
+   private static final FileTransferMetrics INSTANCE = new FileTransferMetrics();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Stripes of counters of each operation; never modified after construction
+    */
+   private final Map<Operation, Counters[]> counters = new EnumMap<Operation, Counters[]>(Operation.class);
+
+   /**
+    * Stripes of counts of replies received, indexed by reply code
+    */
+   private final AtomicLongArray[] replyCodes = new AtomicLongArray[NUM_STRIPES];
+
+   private final AtomicLong activeSessions = new AtomicLong();
+
+   private final AtomicLong reconnectCount = new AtomicLong();
+
+   /**
+    * Counts the replies received by any client it's added to
+    */
+   private final ProtocolCommandListener replyListener = new ProtocolCommandListener()
+   {
+      @Override
+      public void protocolCommandSent(final ProtocolCommandEvent event)
+      {
+         // Only replies are counted
+      }
+
+      @Override
+      public void protocolReplyReceived(final ProtocolCommandEvent event)
+      {
+         FileTransferMetrics.this.replied(event.getReplyCode());
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private FileTransferMetrics()
+   {
+      for (final Operation operation : Operation.values())
+      {
+         final Counters[] stripes = new Counters[NUM_STRIPES];
+         for (int i = 0; i < stripes.length; i++)
+         {
+            stripes[i] = new Counters();
+         }
+         counters.put(operation, stripes);
+      }
+      for (int i = 0; i < replyCodes.length; i++)
+      {
+         replyCodes[i] = new AtomicLongArray(NUM_REPLY_CODES);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory ----------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the shared instance
+    */
+   static FileTransferMetrics getInstance()
+   {
+      return INSTANCE;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records a successful call upon the specified operation
+    *
+    * @param operation
+    * @param bytes Number of bytes transferred
+    * @param startNanos Value of {@link System#nanoTime()} when the call began
+    */
+   void succeeded(final Operation operation, final long bytes, final long startNanos)
+   {
+      final Counters stripe = this.getStripe(operation);
+      stripe.bytes.addAndGet(bytes);
+      stripe.record(System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Records a failed call upon the specified operation
+    *
+    * @param operation
+    * @param startNanos Value of {@link System#nanoTime()} when the call began
+    */
+   void failed(final Operation operation, final long startNanos)
+   {
+      final Counters stripe = this.getStripe(operation);
+      stripe.failureCount.incrementAndGet();
+      stripe.record(System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Records the receipt of a reply bearing the specified code
+    */
+   void replied(final int replyCode)
+   {
+      final int index = (int) Thread.currentThread().getId() & (NUM_STRIPES - 1);
+      replyCodes[index].incrementAndGet(replyCode > 0 && replyCode < NUM_REPLY_CODES ? replyCode : 0);
+   }
+
+   /**
+    * Records that a session has connected
+    */
+   void sessionOpened()
+   {
+      activeSessions.incrementAndGet();
+   }
+
+   /**
+    * Records that a session has disconnected
+    */
+   void sessionClosed()
+   {
+      activeSessions.decrementAndGet();
+   }
+
+   /**
+    * Records that a session has replaced its lost connection
+    */
+   void reconnected()
+   {
+      reconnectCount.incrementAndGet();
+   }
+
+   /**
+    * Obtains a listener which, added to a client, counts the replies it receives
+    */
+   ProtocolCommandListener getReplyListener()
+   {
+      return replyListener;
+   }
+
+   /**
+    * Obtains a snapshot of all counters
+    */
+   FileTransferStatistics getStatistics()
+   {
+      // Operations
+      final Map<Operation, OperationStatistics> operations = new EnumMap<Operation, OperationStatistics>(
+            Operation.class);
+      for (final Map.Entry<Operation, Counters[]> entry : counters.entrySet())
+      {
+         long count = 0;
+         long failureCount = 0;
+         long bytes = 0;
+         long totalLatencyNanos = 0;
+         long maxLatencyNanos = 0;
+         final long[] latencyHistogram = new long[OperationStatistics.NUM_BUCKETS];
+         for (final Counters stripe : entry.getValue())
+         {
+            count += stripe.count.get();
+            failureCount += stripe.failureCount.get();
+            bytes += stripe.bytes.get();
+            totalLatencyNanos += stripe.totalLatencyNanos.get();
+            maxLatencyNanos = Math.max(maxLatencyNanos, stripe.maxLatencyNanos.get());
+            for (int i = 0; i < latencyHistogram.length; i++)
+            {
+               latencyHistogram[i] += stripe.latencyHistogram.get(i);
+            }
+         }
+         operations.put(entry.getKey(), new OperationStatistics(entry.getKey(), count, failureCount, bytes,
+               totalLatencyNanos, maxLatencyNanos, latencyHistogram));
+      }
+
+      // Reply codes received
+      final SortedMap<Integer, Long> replies = new TreeMap<Integer, Long>();
+      for (int code = 0; code < NUM_REPLY_CODES; code++)
+      {
+         long count = 0;
+         for (final AtomicLongArray stripe : replyCodes)
+         {
+            count += stripe.get(code);
+         }
+         if (count > 0)
+         {
+            replies.put(code, count);
+         }
+      }
+
+      return new FileTransferStatistics(Collections.unmodifiableMap(operations), activeSessions.get(),
+            reconnectCount.get(), Collections.unmodifiableSortedMap(replies));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferMetricsMXBean#getOperations()
+    */
+   @Override
+   public Map<String, OperationStatistics> getOperations()
+   {
+      final Map<String, OperationStatistics> operations = new LinkedHashMap<String, OperationStatistics>();
+      for (final OperationStatistics statistics : this.getStatistics().getOperations().values())
+      {
+         operations.put(statistics.getOperation().name(), statistics);
+      }
+      return operations;
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferMetricsMXBean#getBytesIn()
+    */
+   @Override
+   public long getBytesIn()
+   {
+      return this.getStatistics().getBytesIn();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferMetricsMXBean#getBytesOut()
+    */
+   @Override
+   public long getBytesOut()
+   {
+      return this.getStatistics().getBytesOut();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferMetricsMXBean#getActiveSessions()
+    */
+   @Override
+   public long getActiveSessions()
+   {
+      return activeSessions.get();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferMetricsMXBean#getReconnectCount()
+    */
+   @Override
+   public long getReconnectCount()
+   {
+      return reconnectCount.get();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch06.filetransfer.FileTransferMetricsMXBean#getReplyCodes()
+    */
+   @Override
+   public Map<Integer, Long> getReplyCodes()
+   {
+      return this.getStatistics().getReplyCodes();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the stripe of counters of the specified operation for the current Thread
+    */
+   private Counters getStripe(final Operation operation)
+   {
+      final int index = (int) Thread.currentThread().getId() & (NUM_STRIPES - 1);
+      return counters.get(operation)[index];
+   }
+
+   /**
+    * Registers with the platform MBeanServer, replacing any instance left 
+    * registered by an earlier deployment.  Failure is logged, as metrics
+    * remain available through {@link FileTransferLocalBusiness#getTransferStatistics()}.
+    */
+   void register()
+   {
+      try
+      {
+         final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         final ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(new StandardMBean(this, FileTransferMetricsMXBean.class, true), name);
+      }
+      catch (final JMException jme)
+      {
+         log.warning("Could not register " + OBJECT_NAME + ": " + jme);
+      }
+      catch (final SecurityException se)
+      {
+         log.warning("Could not register " + OBJECT_NAME + ": " + se);
+      }
+   }
+
+   /**
+    * Unregisters from the platform MBeanServer, if registered, so that it holds
+    * no reference to this instance (and its ClassLoader) once the application stops
+    */
+   void unregister()
+   {
+      try
+      {
+         final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         final ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+      }
+      catch (final JMException jme)
+      {
+         log.warning("Could not unregister " + OBJECT_NAME + ": " + jme);
+      }
+      catch (final SecurityException se)
+      {
+         log.warning("Could not unregister " + OBJECT_NAME + ": " + se);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * One stripe of the counters of an operation
+    */
+   private static final class Counters
+   {
+      private final AtomicLong count = new AtomicLong();
+
+      private final AtomicLong failureCount = new AtomicLong();
+
+      private final AtomicLong bytes = new AtomicLong();
+
+      private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+      private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+      private final AtomicLongArray latencyHistogram = new AtomicLongArray(OperationStatistics.NUM_BUCKETS);
+
+      /**
+       * Records the latency of a call
+       */
+      void record(final long latencyNanos)
+      {
+         count.incrementAndGet();
+         totalLatencyNanos.addAndGet(latencyNanos);
+         latencyHistogram.incrementAndGet(OperationStatistics.getBucket(latencyNanos));
+         long max = maxLatencyNanos.get();
+         while (latencyNanos > max && !maxLatencyNanos.compareAndSet(max, latencyNanos))
+         {
+            max = maxLatencyNanos.get();
+         }
+      }
+   }
+}
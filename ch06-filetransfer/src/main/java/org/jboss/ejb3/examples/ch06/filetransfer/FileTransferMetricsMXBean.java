@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.Map;
+
+/**
+ * Management view of the FTP traffic of all FileTransferEJB sessions upon
+ * this node, registered with the platform MBeanServer under
+ * {@link FileTransferMetrics#OBJECT_NAME}.  Each attribute is read from 
+ * a fresh {@link FileTransferStatistics} snapshot.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface FileTransferMetricsMXBean
+{
+   // ---------------------------------------------------------------------------||
+   // Contracts -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Statistics of each operation, keyed by name: calls, failures, bytes, 
+    * and latency (mean, max, median, 99th percentile and histogram)
+    */
+   Map<String, OperationStatistics> getOperations();
+
+   /**
+    * Number of bytes downloaded by successful transfers
+    */
+   long getBytesIn();
+
+   /**
+    * Number of bytes uploaded by successful transfers
+    */
+   long getBytesOut();
+
+   /**
+    * Number of sessions connected and not yet disconnected
+    */
+   long getActiveSessions();
+
+   /**
+    * Number of lost connections replaced by sessions
+    */
+   long getReconnectCount();
+
+   /**
+    * Number of replies received with each reply code
+    */
+   Map<Integer, Long> getReplyCodes();
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Registers the {@link FileTransferMetrics} of this node with the platform 
+ * MBeanServer when the application starts (@Startup), and unregisters them 
+ * when it stops, so the MBeanServer holds no reference to the application's
+ * ClassLoader once undeployed.
+ * 
+ * May also be used as a POJO, in which case {@link #register()} and 
+ * {@link #unregister()} are to be called manually.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@Singleton(name = FileTransferMetricsRegistrationBean.EJB_NAME)
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class FileTransferMetricsRegistrationBean
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FileTransferMetricsRegistrationBean.class.getName());
+
+   /**
+    * Name of the EJB
+    */
+   static final String EJB_NAME = "FileTransferMetricsRegistrationEJB";
+
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle Callbacks ----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Called by the container upon deployment; registers the metrics
+    */
+   @PostConstruct
+   public void register()
+   {
+      FileTransferMetrics.getInstance().register();
+      log.info("Registered " + FileTransferMetrics.OBJECT_NAME);
+   }
+
+   /**
+    * Called by the container upon undeployment; unregisters the metrics
+    */
+   @PreDestroy
+   public void unregister()
+   {
+      FileTransferMetrics.getInstance().unregister();
+      log.info("Unregistered " + FileTransferMetrics.OBJECT_NAME);
+   }
+}
@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.jboss.ejb3.examples.ch06.filetransfer.OperationStatistics.Operation;
+
+/**
+ * Snapshot of the FTP traffic of all FileTransferEJB sessions upon this 
+ * node: calls upon each {@link Operation} and their latency, bytes moved
+ * in each direction, sessions connected, connections replaced after being 
+ * lost, and the distribution of reply codes received from servers.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class FileTransferStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final Map<Operation, OperationStatistics> operations;
+
+   private final long activeSessions;
+
+   private final long reconnectCount;
+
+   private final SortedMap<Integer, Long> replyCodes;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   FileTransferStatistics(final Map<Operation, OperationStatistics> operations, final long activeSessions,
+         final long reconnectCount, final SortedMap<Integer, Long> replyCodes)
+   {
+      this.operations = operations;
+      this.activeSessions = activeSessions;
+      this.reconnectCount = reconnectCount;
+      this.replyCodes = replyCodes;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the statistics of each operation; unmodifiable
+    */
+   public Map<Operation, OperationStatistics> getOperations()
+   {
+      return operations;
+   }
+
+   /**
+    * @return the statistics of the specified operation
+    */
+   public OperationStatistics getOperation(final Operation operation)
+   {
+      return operations.get(operation);
+   }
+
+   /**
+    * @return the number of bytes downloaded by successful transfers
+    */
+   public long getBytesIn()
+   {
+      return operations.get(Operation.DOWNLOAD).getBytes();
+   }
+
+   /**
+    * @return the number of bytes uploaded by successful transfers
+    */
+   public long getBytesOut()
+   {
+      return operations.get(Operation.UPLOAD).getBytes();
+   }
+
+   /**
+    * @return the number of sessions connected and not yet disconnected,
+    *   including those passivated
+    */
+   public long getActiveSessions()
+   {
+      return activeSessions;
+   }
+
+   /**
+    * @return the number of times a session found its connection lost, 
+    *   and replaced it with another from the pool
+    */
+   public long getReconnectCount()
+   {
+      return reconnectCount;
+   }
+
+   /**
+    * @return the number of replies received with each reply code, in 
+    *   order of code; unmodifiable
+    */
+   public SortedMap<Integer, Long> getReplyCodes()
+   {
+      return replyCodes;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "FileTransferStatistics [operations=" + operations.values() + ", bytesIn=" + getBytesIn()
+            + ", bytesOut=" + getBytesOut() + ", activeSessions=" + activeSessions + ", reconnects="
+            + reconnectCount + ", replyCodes=" + replyCodes + "]";
+   }
+}
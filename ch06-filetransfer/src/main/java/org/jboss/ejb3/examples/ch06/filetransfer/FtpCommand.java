@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * A single command of a batch sent via 
+ * {@link FileTransferCommonBusiness#execute(java.util.List)}: its 
+ * name (ie. <code>MKD</code>) and an optional argument.  Paths given as
+ * arguments are relative to the present working directory at the time 
+ * the command is run, unless absolute.
+ * 
+ * Only commands whose effect is confined to the server's file system or
+ * the present working directory may be batched: <code>MKD</code>, 
+ * <code>RMD</code>, <code>CWD</code>, <code>CDUP</code>, <code>DELE</code>, 
+ * <code>NOOP</code> and <code>PWD</code>.  Others would open data connections,
+ * end the session, or change state of the (pooled) connection such as its
+ * transfer type or mode, which would leak to whichever session next uses it.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class FtpCommand implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The only commands which may be batched, as each is answered by a single
+    * reply and leaves no state upon the connection but its working directory,
+    * which is reset whenever the connection is borrowed
+    */
+   private static final String[] BATCHABLE = new String[]
+   {"MKD", "RMD", "CWD", "CDUP", "DELE", "NOOP", "PWD"};
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final String name;
+
+   private final String argument;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal constructor; use the static factory methods
+    */
+   private FtpCommand(final String name, final String argument) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (name == null || name.trim().length() == 0)
+      {
+         throw new IllegalArgumentException("Command name must be specified");
+      }
+      final String normalized = name.trim().toUpperCase(Locale.ENGLISH);
+      boolean batchable = false;
+      for (final String candidate : BATCHABLE)
+      {
+         if (candidate.equals(normalized))
+         {
+            batchable = true;
+            break;
+         }
+      }
+      if (!batchable)
+      {
+         throw new IllegalArgumentException("Command may not be batched: " + normalized);
+      }
+      if (normalized.indexOf(' ') >= 0 || normalized.indexOf('\r') >= 0 || normalized.indexOf('\n') >= 0
+            || (argument != null && (argument.indexOf('\r') >= 0 || argument.indexOf('\n') >= 0)))
+      {
+         throw new IllegalArgumentException("Command may not span lines or contain spaces in its name");
+      }
+
+      this.name = normalized;
+      this.argument = argument;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory Methods --------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a command of the specified name and argument, which may be null
+    * 
+    * @throws IllegalArgumentException If the name is not specified, or the 
+    *   command may not be batched
+    */
+   public static FtpCommand of(final String name, final String argument) throws IllegalArgumentException
+   {
+      return new FtpCommand(name, argument);
+   }
+
+   /**
+    * Creates a command to make the specified directory (<code>MKD</code>)
+    * 
+    * @throws IllegalArgumentException If the directory is not specified
+    */
+   public static FtpCommand mkdir(final String directory) throws IllegalArgumentException
+   {
+      return new FtpCommand("MKD", requirePath(directory));
+   }
+
+   /**
+    * Creates a command to change into the specified directory (<code>CWD</code>)
+    * 
+    * @throws IllegalArgumentException If the directory is not specified
+    */
+   public static FtpCommand cd(final String directory) throws IllegalArgumentException
+   {
+      return new FtpCommand("CWD", requirePath(directory));
+   }
+
+   /**
+    * Creates a command to remove the specified empty directory (<code>RMD</code>)
+    * 
+    * @throws IllegalArgumentException If the directory is not specified
+    */
+   public static FtpCommand rmdir(final String directory) throws IllegalArgumentException
+   {
+      return new FtpCommand("RMD", requirePath(directory));
+   }
+
+   /**
+    * Creates a command to delete the specified file (<code>DELE</code>)
+    * 
+    * @throws IllegalArgumentException If the path is not specified
+    */
+   public static FtpCommand delete(final String path) throws IllegalArgumentException
+   {
+      return new FtpCommand("DELE", requirePath(path));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return The name of the command, in upper case
+    */
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * @return The argument, or null if none
+    */
+   public String getArgument()
+   {
+      return argument;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return argument == null ? name : name + " " + argument;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static String requirePath(final String path) throws IllegalArgumentException
+   {
+      if (path == null || path.length() == 0)
+      {
+         throw new IllegalArgumentException("Path must be specified");
+      }
+      return path;
+   }
+}
@@ -0,0 +1,774 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.jboss.ejb3.examples.ch06.filetransfer.OperationStatistics.Operation;
+
+/**
+ * Bounded pool of connected, logged-in {@link FTPClient}s to a single
+ * FTP Server, in binary mode and opening data connections passively, shared by all FileTransferEJB sessions in this JVM.  Opening
+ * a connection costs a TCP handshake, the server greeting, and the
+ * USER/PASS exchange; borrowing a pooled connection costs a single CWD 
+ * into the working directory of the session, which also serves
+ * to validate the connection.
+ * 
+ * At most {@link #getMaxActive()} connections may be borrowed at once; 
+ * borrowers beyond that wait up to {@link #getMaxWaitMillis()} for one to be
+ * returned.  At most {@link #getMaxIdle()} connections are retained when
+ * returned; others are closed.  Idle connections are sent NOOP every 
+ * {@link #getKeepAliveIntervalMillis()} so the server does not time them out,
+ * and are closed once they've gone unused for {@link #getIdleTimeoutMillis()}.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FtpConnectionPool
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FtpConnectionPool.class.getName());
+
+   /**
+    * Counters of connections and logins, shared with the FileTransferEJB
+    */
+   private static final FileTransferMetrics metrics = FileTransferMetrics.getInstance();
+
+   /**
+    * Default maximum number of connections borrowed at once
+    */
+   static final int DEFAULT_MAX_ACTIVE = 32;
+
+   /**
+    * Default maximum number of idle connections retained
+    */
+   static final int DEFAULT_MAX_IDLE = 8;
+
+   /**
+    * Default time a borrower will wait for a connection when all are in use
+    */
+   static final long DEFAULT_MAX_WAIT_MILLIS = 10 * 1000;
+
+   /**
+    * Default time an idle connection is retained before being closed
+    */
+   static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+   /**
+    * Default interval at which idle connections are sent NOOP
+    */
+   static final long DEFAULT_KEEP_ALIVE_INTERVAL_MILLIS = 30 * 1000;
+
+   /**
+    * Shared pools, keyed by {@link #getKey(String, int, String)}
+    */
+   private static final ConcurrentMap<String, FtpConnectionPool> INSTANCES = new ConcurrentHashMap<String, FtpConnectionPool>();
+
+   /**
+    * Runs the eviction and keep-alive of all pools.  Its single Thread is a 
+    * daemon and times out while no pool holds idle connections, so an
+    * undeployed application does not leave it (and its ClassLoader) behind.
+    */
+   private static final ScheduledThreadPoolExecutor MAINTENANCE;
+   static
+   {
+      final AtomicInteger threadCount = new AtomicInteger();
+      MAINTENANCE = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            final Thread thread = new Thread(r, "FileTransferEJB-PoolMaintenance-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      MAINTENANCE.setKeepAliveTime(60, TimeUnit.SECONDS);
+      MAINTENANCE.allowCoreThreadTimeOut(true);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final String host;
+
+   private final int port;
+
+   private final String user;
+
+   private final String password;
+
+   private final int maxActive;
+
+   private final int maxIdle;
+
+   private final long maxWaitMillis;
+
+   private final long idleTimeoutMillis;
+
+   private final long keepAliveIntervalMillis;
+
+   /**
+    * Set once the server has been found not to answer commands sent back
+    * to back, and shared by all connections, so it's not asked again
+    */
+   private final AtomicBoolean pipeliningUnsupported = new AtomicBoolean();
+
+   /**
+    * Permits to borrow, one per connection which may be in use at once
+    */
+   private final Semaphore permits;
+
+   /**
+    * Idle connections, most recently returned first
+    */
+   private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+   /**
+    * Borrowed connections, keyed by client
+    */
+   private final Map<FTPClient, PooledConnection> active = new ConcurrentHashMap<FTPClient, PooledConnection>();
+
+   /**
+    * Whether a maintenance run is presently scheduled
+    */
+   private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+   /**
+    * Number of connections opened
+    */
+   private final AtomicLong createdCount = new AtomicLong();
+
+   /**
+    * Number of connections closed
+    */
+   private final AtomicLong destroyedCount = new AtomicLong();
+
+   /**
+    * Number of connections handed out, new or pooled
+    */
+   private final AtomicLong borrowedCount = new AtomicLong();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new pool of connections to the specified server, logged in 
+    * with the specified credentials
+    * 
+    * @throws IllegalArgumentException If any sizes or intervals are not positive 
+    */
+   FtpConnectionPool(final String host, final int port, final String user, final String password,
+         final int maxActive, final int maxIdle, final long maxWaitMillis, final long idleTimeoutMillis,
+         final long keepAliveIntervalMillis) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (maxActive <= 0 || maxIdle < 0 || maxWaitMillis < 0 || idleTimeoutMillis <= 0 || keepAliveIntervalMillis <= 0)
+      {
+         throw new IllegalArgumentException("Pool sizes and intervals must be positive");
+      }
+
+      this.host = host;
+      this.port = port;
+      this.user = user;
+      this.password = password;
+      this.maxActive = maxActive;
+      this.maxIdle = maxIdle;
+      this.maxWaitMillis = maxWaitMillis;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      this.keepAliveIntervalMillis = keepAliveIntervalMillis;
+      this.permits = new Semaphore(maxActive, true);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory ----------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the shared pool of connections to the specified server as the 
+    * specified user, creating it with the default settings if necessary
+    */
+   static FtpConnectionPool getInstance(final String host, final int port, final String user, final String password)
+   {
+      return getInstance(host, port, user, password, DEFAULT_MAX_ACTIVE, DEFAULT_MAX_WAIT_MILLIS);
+   }
+
+   /**
+    * Obtains the shared pool of connections to the specified server as the 
+    * specified user, creating it with the specified maximum number of 
+    * connections borrowed at once, and time a borrower will wait for one, if
+    * necessary.  The settings of a pool are those with which it was created;
+    * any others specified once it exists are ignored.
+    * 
+    * @throws IllegalArgumentException If the maximum is not positive, or the wait negative
+    */
+   static FtpConnectionPool getInstance(final String host, final int port, final String user,
+         final String password, final int maxActive, final long maxWaitMillis) throws IllegalArgumentException
+   {
+      final String key = getKey(host, port, user);
+      FtpConnectionPool pool = INSTANCES.get(key);
+      if (pool == null)
+      {
+         final FtpConnectionPool newPool = new FtpConnectionPool(host, port, user, password, maxActive,
+               Math.min(DEFAULT_MAX_IDLE, maxActive), maxWaitMillis, DEFAULT_IDLE_TIMEOUT_MILLIS,
+               DEFAULT_KEEP_ALIVE_INTERVAL_MILLIS);
+         pool = INSTANCES.putIfAbsent(key, newPool);
+         if (pool == null)
+         {
+            pool = newPool;
+         }
+      }
+      return pool;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Borrows a connection, changed into the specified working directory (or the
+    * home directory of the user if null).  Idle connections which fail to 
+    * respond are closed and another is tried; if there are none, a new 
+    * connection is opened.  The connection must be given back via 
+    * {@link #release(FTPClient)}.
+    * 
+    * @param workingDirectory
+    * @return
+    * @throws FileTransferException If no connection became available in time, 
+    *   a new connection could not be opened, or the working directory could not be changed
+    */
+   ChannelFtpClient borrow(final String workingDirectory) throws FileTransferException
+   {
+      // Wait for our turn
+      try
+      {
+         if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS))
+         {
+            throw new FileTransferException("No connection to " + this.getServerName() + " became available within "
+                  + maxWaitMillis + "ms; all " + maxActive + " are in use");
+         }
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new FileTransferException("Interrupted while waiting for a connection to " + this.getServerName(), ie);
+      }
+
+      // Take the most recently used connection which still responds, or open a new one
+      PooledConnection connection = null;
+      try
+      {
+         PooledConnection candidate;
+         while ((candidate = idle.pollFirst()) != null)
+         {
+            if (this.changeWorkingDirectory(candidate, workingDirectory))
+            {
+               connection = candidate;
+               break;
+            }
+         }
+         if (connection == null)
+         {
+            connection = this.create();
+            if (!this.changeWorkingDirectory(connection, workingDirectory))
+            {
+               this.destroy(connection);
+               throw new FileTransferException("Connection to " + this.getServerName() + " failed upon login");
+            }
+         }
+      }
+      catch (final RuntimeException re)
+      {
+         permits.release();
+         throw re;
+      }
+
+      // Hand out
+      active.put(connection.client, connection);
+      borrowedCount.incrementAndGet();
+      return connection.client;
+   }
+
+   /**
+    * Gives back a connection obtained from {@link #borrow(String)}.  Connections 
+    * no longer connected, or in excess of the maximum number of idle connections,
+    * are closed.  Connections not borrowed from this pool are ignored.
+    * 
+    * @param client
+    */
+   void release(final FTPClient client)
+   {
+      final PooledConnection connection = active.remove(client);
+      if (connection == null)
+      {
+         return;
+      }
+      try
+      {
+         if (!client.isConnected() || idle.size() >= maxIdle)
+         {
+            this.destroy(connection);
+            return;
+         }
+         connection.returnedNanos = System.nanoTime();
+         idle.offerFirst(connection);
+      }
+      finally
+      {
+         permits.release();
+      }
+      this.scheduleMaintenance();
+   }
+
+   /**
+    * Closes all idle connections
+    */
+   void clear()
+   {
+      PooledConnection connection;
+      while ((connection = idle.pollFirst()) != null)
+      {
+         this.destroy(connection);
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   int getMaxActive()
+   {
+      return maxActive;
+   }
+
+   int getMaxIdle()
+   {
+      return maxIdle;
+   }
+
+   long getMaxWaitMillis()
+   {
+      return maxWaitMillis;
+   }
+
+   long getIdleTimeoutMillis()
+   {
+      return idleTimeoutMillis;
+   }
+
+   long getKeepAliveIntervalMillis()
+   {
+      return keepAliveIntervalMillis;
+   }
+
+   /**
+    * @return the number of connections presently borrowed
+    */
+   int getActiveCount()
+   {
+      return active.size();
+   }
+
+   /**
+    * @return the number of connections which may presently be borrowed
+    *   without waiting
+    */
+   int getAvailableCount()
+   {
+      return permits.availablePermits();
+   }
+
+   /**
+    * @return the number of connections presently idle
+    */
+   int getIdleCount()
+   {
+      return idle.size();
+   }
+
+   /**
+    * @return the number of connections opened over the life of this pool
+    */
+   long getCreatedCount()
+   {
+      return createdCount.get();
+   }
+
+   /**
+    * @return the number of connections closed over the life of this pool
+    */
+   long getDestroyedCount()
+   {
+      return destroyedCount.get();
+   }
+
+   /**
+    * @return the number of connections handed out over the life of this pool
+    */
+   long getBorrowedCount()
+   {
+      return borrowedCount.get();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "FtpConnectionPool [" + this.getServerName() + ", active=" + this.getActiveCount() + ", idle="
+            + this.getIdleCount() + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static String getKey(final String host, final int port, final String user)
+   {
+      return user + "@" + host + ":" + port;
+   }
+
+   private String getServerName()
+   {
+      return host + ":" + port;
+   }
+
+   /**
+    * Opens and logs in a new connection
+    * 
+    * @throws FileTransferException If the connection could not be opened or the login was refused
+    */
+   private PooledConnection create() throws FileTransferException
+   {
+      final String serverName = this.getServerName();
+      final ChannelFtpClient client = new ChannelFtpClient(pipeliningUnsupported);
+      try
+      {
+         // Connect
+         log.fine("Connecting to FTP Server at " + serverName);
+         final long connectStart = System.nanoTime();
+         try
+         {
+            client.connect(host, port);
+         }
+         catch (final IOException ioe)
+         {
+            metrics.failed(Operation.CONNECT, connectStart);
+            throw ioe;
+         }
+         if (!FTPReply.isPositiveCompletion(client.getReplyCode()))
+         {
+            metrics.failed(Operation.CONNECT, connectStart);
+            throw new FileTransferException("Did not receive positive completion code from " + serverName
+                  + ", instead code was: " + client.getReplyCode());
+         }
+         metrics.succeeded(Operation.CONNECT, 0, connectStart);
+
+         // Login
+         final long loginStart = System.nanoTime();
+         final boolean loggedIn;
+         try
+         {
+            loggedIn = client.login(user, password);
+         }
+         catch (final IOException ioe)
+         {
+            metrics.failed(Operation.LOGIN, loginStart);
+            throw ioe;
+         }
+         if (!loggedIn)
+         {
+            metrics.failed(Operation.LOGIN, loginStart);
+            throw new FileTransferException("Could not log in to " + serverName + ", reply code was: "
+                  + client.getReplyCode());
+         }
+         metrics.succeeded(Operation.LOGIN, 0, loginStart);
+
+         // Transfer data as-is, over connections we open to the server
+         if (!client.setFileType(FTP.BINARY_FILE_TYPE))
+         {
+            throw new FileTransferException("Could not set binary mode at " + serverName + ", reply code was: "
+                  + client.getReplyCode());
+         }
+         client.enterLocalPassiveMode();
+
+         // Note where we start, so sessions with no working directory may be put back there
+         final String homeDirectory = client.printWorkingDirectory();
+         if (homeDirectory == null)
+         {
+            throw new FileTransferException("Could not obtain the home directory at " + serverName
+                  + ", reply code was: " + client.getReplyCode());
+         }
+
+         createdCount.incrementAndGet();
+         log.info("Connected to FTP Server at: " + serverName);
+         return new PooledConnection(client, homeDirectory);
+      }
+      catch (final IOException ioe)
+      {
+         this.close(client);
+         throw new FileTransferException("Error in connecting to " + serverName, ioe);
+      }
+      catch (final FileTransferException fte)
+      {
+         this.close(client);
+         throw fte;
+      }
+   }
+
+   /**
+    * Changes the specified connection into the specified working directory, or its
+    * home directory if null.  If the connection does not respond, it is closed.
+    * 
+    * @return Whether the connection responded
+    * @throws FileTransferException If the connection responded, but the directory
+    *   could not be changed; the connection is returned to the pool
+    */
+   private boolean changeWorkingDirectory(final PooledConnection connection, final String workingDirectory)
+         throws FileTransferException
+   {
+      final String directory = workingDirectory != null ? workingDirectory : connection.homeDirectory;
+      final FTPClient client = connection.client;
+      final boolean changed;
+      try
+      {
+         changed = client.changeWorkingDirectory(directory);
+      }
+      catch (final IOException ioe)
+      {
+         if (log.isLoggable(Level.FINE))
+         {
+            log.fine("Discarding unresponsive connection to " + this.getServerName() + ": " + ioe.getMessage());
+         }
+         this.destroy(connection);
+         return false;
+      }
+      if (!changed)
+      {
+         // Still good, just not for this directory
+         if (client.isConnected() && idle.size() < maxIdle)
+         {
+            connection.returnedNanos = System.nanoTime();
+            idle.offerFirst(connection);
+         }
+         else
+         {
+            this.destroy(connection);
+         }
+         throw new FileTransferException("Could not change working directory to \"" + directory
+               + "\", reply code was: " + client.getReplyCode());
+      }
+      connection.activeNanos = System.nanoTime();
+      return true;
+   }
+
+   /**
+    * Logs out and closes the specified connection
+    */
+   private void destroy(final PooledConnection connection)
+   {
+      destroyedCount.incrementAndGet();
+      this.close(connection.client);
+   }
+
+   private void close(final FTPClient client)
+   {
+      if (!client.isConnected())
+      {
+         return;
+      }
+      try
+      {
+         client.logout();
+      }
+      catch (final IOException ioe)
+      {
+         log.fine("Exception encountered in logging out of the FTP client: " + ioe.getMessage());
+      }
+      try
+      {
+         client.disconnect();
+         log.fine("Disconnected: " + client);
+      }
+      catch (final IOException ioe)
+      {
+         log.warning("Exception encountered in disconnecting the FTP client: " + ioe.getMessage());
+      }
+   }
+
+   /**
+    * Schedules a maintenance run, if one isn't already
+    */
+   private void scheduleMaintenance()
+   {
+      if (maintenanceScheduled.compareAndSet(false, true))
+      {
+         final long delayMillis = Math.max(1, Math.min(keepAliveIntervalMillis, idleTimeoutMillis) / 2);
+         MAINTENANCE.schedule(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               maintain();
+            }
+         }, delayMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Closes connections idle beyond the timeout, and sends NOOP on those which 
+    * have not talked to the server within the keep-alive interval.  Reschedules
+    * itself for so long as there are idle connections.
+    */
+   private void maintain()
+   {
+      final long now = System.nanoTime();
+      final long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+      final long keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveIntervalMillis);
+      try
+      {
+         final Iterator<PooledConnection> connections = idle.descendingIterator();
+         while (connections.hasNext())
+         {
+            final PooledConnection connection = connections.next();
+            if (now - connection.returnedNanos >= idleTimeoutNanos)
+            {
+               // Only if not borrowed in the meantime
+               if (idle.removeLastOccurrence(connection))
+               {
+                  log.fine("Evicting idle connection to " + this.getServerName());
+                  this.destroy(connection);
+               }
+            }
+            else if (now - connection.activeNanos >= keepAliveNanos)
+            {
+               if (idle.removeLastOccurrence(connection))
+               {
+                  this.keepAlive(connection);
+               }
+            }
+         }
+      }
+      catch (final RuntimeException re)
+      {
+         log.log(Level.WARNING, "Error in maintaining " + this, re);
+      }
+      finally
+      {
+         // Reset before checking, so a concurrent release can't be missed
+         maintenanceScheduled.set(false);
+         if (!idle.isEmpty())
+         {
+            this.scheduleMaintenance();
+         }
+      }
+   }
+
+   /**
+    * Sends NOOP on the specified connection (which must have been taken 
+    * from the idle connections), putting it back if it responds
+    */
+   private void keepAlive(final PooledConnection connection)
+   {
+      try
+      {
+         if (connection.client.sendNoOp())
+         {
+            connection.activeNanos = System.nanoTime();
+            idle.offerLast(connection);
+            return;
+         }
+      }
+      catch (final IOException ioe)
+      {
+         log.fine("Keep-alive failed for connection to " + this.getServerName() + ": " + ioe.getMessage());
+      }
+      this.destroy(connection);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A connection and its bookkeeping
+    */
+   private static final class PooledConnection
+   {
+      private final ChannelFtpClient client;
+
+      /**
+       * Working directory upon login
+       */
+      private final String homeDirectory;
+
+      /**
+       * When last returned to the pool, for eviction
+       */
+      private volatile long returnedNanos;
+
+      /**
+       * When the server last answered, for keep-alive
+       */
+      private volatile long activeNanos;
+
+      PooledConnection(final ChannelFtpClient client, final String homeDirectory)
+      {
+         this.client = client;
+         this.homeDirectory = homeDirectory;
+         this.returnedNanos = this.activeNanos = System.nanoTime();
+      }
+   }
+}
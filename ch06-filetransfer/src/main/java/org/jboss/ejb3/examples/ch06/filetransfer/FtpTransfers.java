@@ -0,0 +1,883 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.net.ftp.FTPCommand;
+
+/**
+ * Moves data over the data connections of a {@link ChannelFtpClient}; 
+ * shared by the transfer operations of the FileTransferEJB and 
+ * the workers of a {@link BatchTransfer}.  Local files are moved directly
+ * between channels, all else through a buffer of the specified size.
+ * Transfers which are compressed or verified by checksum are moved through
+ * the buffer, as their data must pass through the heap.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FtpTransfers
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FtpTransfers.class.getName());
+
+   /**
+    * Maximum number of bytes moved between a local file and the data 
+    * connection by a single call to {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+    * or {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}
+    */
+   private static final long MAX_CHANNEL_TRANSFER_SIZE = 8 * 1024 * 1024;
+
+   /**
+    * Number of bytes moved by a resumable transfer between recordings 
+    * of its committed offset
+    */
+   private static final long RESUME_CHECKPOINT_SIZE = 1024 * 1024;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * No instances
+    */
+   private FtpTransfers()
+   {
+      throw new UnsupportedOperationException("No instances permitted");
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Utility Methods --------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Stores the contents of the specified stream at the specified remote path
+    * 
+    * @return The number of bytes transferred
+    * @see FileTransferCommonBusiness#upload(String, InputStream)
+    */
+   static long upload(final ChannelFtpClient client, final String remotePath, final InputStream in,
+         final int bufferSize) throws IllegalArgumentException, IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (in == null)
+      {
+         throw new IllegalArgumentException("Input stream must be specified");
+      }
+
+      // Local files go directly to the data connection
+      if (in instanceof FileInputStream)
+      {
+         return upload(client, remotePath, ((FileInputStream) in).getChannel(), bufferSize);
+      }
+
+      // Open the data connection
+      final Socket socket = openDataSocket(client, FTPCommand.STOR, remotePath);
+
+      // Copy
+      long transferred = 0;
+      try
+      {
+         final OutputStream out = socket.getOutputStream();
+         final byte[] buffer = new byte[bufferSize];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+            transferred += read;
+         }
+         out.flush();
+      }
+      catch (final IOException ioe)
+      {
+         abortTransfer(client, socket);
+         throw new FileTransferException("Could not upload to \"" + remotePath + "\"", ioe);
+      }
+
+      // Close and check the server received it all
+      completeTransfer(client, socket, remotePath);
+      logTransfer("upload", remotePath, transferred);
+      return transferred;
+   }
+
+   /**
+    * Stores the contents of the specified channel at the specified remote path
+    * 
+    * @return The number of bytes transferred
+    * @see FileTransferCommonBusiness#upload(String, ReadableByteChannel)
+    */
+   static long upload(final ChannelFtpClient client, final String remotePath, final ReadableByteChannel in,
+         final int bufferSize) throws IllegalArgumentException, IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (in == null)
+      {
+         throw new IllegalArgumentException("Input channel must be specified");
+      }
+
+      // Open the data connection
+      final Socket socket = openDataSocket(client, FTPCommand.STOR, remotePath);
+
+      // Copy
+      long transferred = 0;
+      try
+      {
+         final WritableByteChannel out = socket.getChannel() != null ? socket.getChannel() : Channels
+               .newChannel(socket.getOutputStream());
+         if (in instanceof FileChannel)
+         {
+            // Let the OS send the file, from its present position
+            final FileChannel file = (FileChannel) in;
+            final long start = file.position();
+            final long end = file.size();
+            while (start + transferred < end)
+            {
+               transferred += file.transferTo(start + transferred, Math.min(end - start - transferred,
+                     MAX_CHANNEL_TRANSFER_SIZE), out);
+            }
+            file.position(end);
+         }
+         else
+         {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            while (in.read(buffer) != -1)
+            {
+               buffer.flip();
+               while (buffer.hasRemaining())
+               {
+                  transferred += out.write(buffer);
+               }
+               buffer.clear();
+            }
+         }
+      }
+      catch (final IOException ioe)
+      {
+         abortTransfer(client, socket);
+         throw new FileTransferException("Could not upload to \"" + remotePath + "\"", ioe);
+      }
+
+      // Close and check the server received it all
+      completeTransfer(client, socket, remotePath);
+      logTransfer("upload", remotePath, transferred);
+      return transferred;
+   }
+
+   /**
+    * Writes the contents of the file at the specified remote path to the specified stream
+    * 
+    * @return The number of bytes transferred
+    * @see FileTransferCommonBusiness#download(String, OutputStream)
+    */
+   static long download(final ChannelFtpClient client, final String remotePath, final OutputStream out,
+         final int bufferSize) throws IllegalArgumentException, IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (out == null)
+      {
+         throw new IllegalArgumentException("Output stream must be specified");
+      }
+
+      // Local files are written directly from the data connection
+      if (out instanceof FileOutputStream)
+      {
+         return download(client, remotePath, ((FileOutputStream) out).getChannel(), bufferSize);
+      }
+
+      // Open the data connection
+      final Socket socket = openDataSocket(client, FTPCommand.RETR, remotePath);
+
+      // Copy
+      long transferred = 0;
+      try
+      {
+         final InputStream in = socket.getInputStream();
+         final byte[] buffer = new byte[bufferSize];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+            transferred += read;
+         }
+         out.flush();
+      }
+      catch (final IOException ioe)
+      {
+         abortTransfer(client, socket);
+         throw new FileTransferException("Could not download \"" + remotePath + "\"", ioe);
+      }
+
+      // Close and check the server sent it all
+      completeTransfer(client, socket, remotePath);
+      logTransfer("download", remotePath, transferred);
+      return transferred;
+   }
+
+   /**
+    * Writes the contents of the file at the specified remote path to the specified channel
+    * 
+    * @return The number of bytes transferred
+    * @see FileTransferCommonBusiness#download(String, WritableByteChannel)
+    */
+   static long download(final ChannelFtpClient client, final String remotePath, final WritableByteChannel out,
+         final int bufferSize) throws IllegalArgumentException, IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (out == null)
+      {
+         throw new IllegalArgumentException("Output channel must be specified");
+      }
+
+      // Open the data connection
+      final Socket socket = openDataSocket(client, FTPCommand.RETR, remotePath);
+
+      // Copy
+      long transferred = 0;
+      try
+      {
+         final ReadableByteChannel in = socket.getChannel() != null ? socket.getChannel() : Channels
+               .newChannel(socket.getInputStream());
+         if (out instanceof FileChannel)
+         {
+            // Let the OS write the file, from its present position, until the server is done
+            final FileChannel file = (FileChannel) out;
+            final long start = file.position();
+            long written;
+            while ((written = file.transferFrom(in, start + transferred, MAX_CHANNEL_TRANSFER_SIZE)) > 0)
+            {
+               transferred += written;
+            }
+            file.position(start + transferred);
+         }
+         else
+         {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            while (in.read(buffer) != -1)
+            {
+               buffer.flip();
+               while (buffer.hasRemaining())
+               {
+                  transferred += out.write(buffer);
+               }
+               buffer.clear();
+            }
+         }
+      }
+      catch (final IOException ioe)
+      {
+         abortTransfer(client, socket);
+         throw new FileTransferException("Could not download \"" + remotePath + "\"", ioe);
+      }
+
+      // Close and check the server sent it all
+      completeTransfer(client, socket, remotePath);
+      logTransfer("download", remotePath, transferred);
+      return transferred;
+   }
+
+   /**
+    * Stores the contents of the specified stream at the specified remote path,
+    * compressed as specified, and verifies the stored file against a checksum
+    * computed with the specified algorithm as data is sent.  The checksum is
+    * of the file as stored by the server (so for {@link TransferCompression#GZIP},
+    * of the compressed data), and is compared with that reported by the server;
+    * if the server can't report one, it is instead recorded in a sidecar file
+    * beside the stored file, against which downloads may be verified.
+    * 
+    * @return The number of bytes read from the stream; fewer may have been 
+    *   sent if compressed
+    * @throws FileTransferException If the transfer did not complete, or the
+    *   checksum reported by the server differs
+    * @see FileTransferCommonBusiness#upload(String, InputStream)
+    */
+   static long upload(final ChannelFtpClient client, final String remotePath, final InputStream in,
+         final int bufferSize, final TransferCompression compression, final ChecksumAlgorithm checksumAlgorithm)
+         throws IllegalArgumentException, IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (in == null)
+      {
+         throw new IllegalArgumentException("Input stream must be specified");
+      }
+
+      // Open the data connection, deflated if we can
+      final boolean deflate = compression == TransferCompression.MODE_Z && setDeflateMode(client, true);
+      final TransferChecksum checksum = TransferChecksum.create(checksumAlgorithm);
+      long transferred = 0;
+      try
+      {
+         final Socket socket = openDataSocket(client, FTPCommand.STOR, remotePath);
+
+         // Copy through the checksum, and compression
+         try
+         {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), bufferSize);
+            if (deflate)
+            {
+               out = new DeflaterOutputStream(out);
+            }
+            if (checksum != null)
+            {
+               out = checksum.wrap(out);
+            }
+            if (compression == TransferCompression.GZIP)
+            {
+               out = new GZIPOutputStream(out, bufferSize);
+            }
+            final byte[] buffer = new byte[bufferSize];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+               out.write(buffer, 0, read);
+               transferred += read;
+            }
+
+            // Finish compressing, and flush
+            out.close();
+         }
+         catch (final IOException ioe)
+         {
+            abortTransfer(client, socket);
+            throw new FileTransferException("Could not upload to \"" + remotePath + "\"", ioe);
+         }
+
+         // Close and check the server received it all
+         completeTransfer(client, socket, remotePath);
+      }
+      finally
+      {
+         // Leave the connection as we found it, before any sidecar file is moved
+         if (deflate)
+         {
+            resetDeflateMode(client);
+         }
+      }
+      logTransfer(deflate ? "deflated upload" : "upload", remotePath, transferred);
+
+      // Check it was stored intact
+      verify(client, remotePath, checksum, true, bufferSize);
+      return transferred;
+   }
+
+   /**
+    * Writes the contents of the file at the specified remote path to the 
+    * specified stream, decompressed as specified, and verifies the received
+    * data against the checksum reported by the server or, if the server can't
+    * report one, recorded in a sidecar file beside the remote file; if neither
+    * is available the data is not verified.  As the checksum is known only 
+    * once all data has been written, callers should discard the data if
+    * verification fails.
+    * 
+    * @return The number of bytes written to the stream; fewer may have been 
+    *   received if compressed
+    * @throws FileTransferException If the transfer did not complete, or the
+    *   checksum of the data received differs
+    * @see FileTransferCommonBusiness#download(String, OutputStream)
+    */
+   static long download(final ChannelFtpClient client, final String remotePath, final OutputStream out,
+         final int bufferSize, final TransferCompression compression, final ChecksumAlgorithm checksumAlgorithm)
+         throws IllegalArgumentException, IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (out == null)
+      {
+         throw new IllegalArgumentException("Output stream must be specified");
+      }
+
+      // Open the data connection, deflated if we can
+      final boolean deflate = compression == TransferCompression.MODE_Z && setDeflateMode(client, true);
+      final TransferChecksum checksum = TransferChecksum.create(checksumAlgorithm);
+      long transferred = 0;
+      try
+      {
+         final Socket socket = openDataSocket(client, FTPCommand.RETR, remotePath);
+
+         // Copy through the decompression, and checksum
+         try
+         {
+            InputStream in = new BufferedInputStream(socket.getInputStream(), bufferSize);
+            if (deflate)
+            {
+               in = new InflaterInputStream(in);
+            }
+            if (checksum != null)
+            {
+               in = checksum.wrap(in);
+            }
+            if (compression == TransferCompression.GZIP)
+            {
+               in = new GZIPInputStream(in, bufferSize);
+            }
+            final byte[] buffer = new byte[bufferSize];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+               out.write(buffer, 0, read);
+               transferred += read;
+            }
+            out.flush();
+
+            // Release the inflater
+            in.close();
+         }
+         catch (final IOException ioe)
+         {
+            abortTransfer(client, socket);
+            throw new FileTransferException("Could not download \"" + remotePath + "\"", ioe);
+         }
+
+         // Close and check the server sent it all
+         completeTransfer(client, socket, remotePath);
+      }
+      finally
+      {
+         // Leave the connection as we found it, before any sidecar file is moved
+         if (deflate)
+         {
+            resetDeflateMode(client);
+         }
+      }
+      logTransfer(deflate ? "deflated download" : "download", remotePath, transferred);
+
+      // Check it arrived intact
+      verify(client, remotePath, checksum, false, bufferSize);
+      return transferred;
+   }
+
+   /**
+    * Transfers the file of the specified resumable transfer from its committed 
+    * offset, asking the server to restart there via <code>REST</code>, and 
+    * recording the offset as data is committed so that an interrupted transfer
+    * may be resumed again.  For uploads the offset is first reconciled with
+    * the size of the remote file, as bytes sent may not all have been stored; 
+    * for downloads the local file is truncated to the offset, discarding any
+    * bytes written beyond it.
+    * 
+    * @return The number of bytes transferred by this call
+    * @throws FileTransferException If the transfer did not complete; the committed 
+    *   offset reflects the data moved before the failure
+    */
+   static long resume(final ChannelFtpClient client, final ResumableTransfer transfer)
+         throws IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (client == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+
+      final TransferRequest request = transfer.getRequest();
+      final String remotePath = request.getRemotePath();
+      final boolean upload = request.getDirection() == TransferRequest.Direction.UPLOAD;
+      final RandomAccessFile local;
+      try
+      {
+         local = new RandomAccessFile(request.getLocalFile(), upload ? "r" : "rw");
+      }
+      catch (final IOException ioe)
+      {
+         throw new FileTransferException("Could not access local file of " + request, ioe);
+      }
+
+      try
+      {
+         // Determine where to start
+         final FileChannel file = local.getChannel();
+         long offset = transfer.getCommittedOffset();
+         try
+         {
+            if (upload)
+            {
+               final long remoteSize = offset > 0 ? client.size(remotePath) : -1;
+               offset = Math.min(remoteSize >= 0 ? remoteSize : offset, file.size());
+            }
+            else
+            {
+               offset = Math.min(offset, file.size());
+               file.truncate(offset);
+            }
+         }
+         catch (final IOException ioe)
+         {
+            throw new FileTransferException("Could not determine offset from which to resume " + request, ioe);
+         }
+         transfer.setCommittedOffset(offset);
+
+         // Open the data connection, restarting at the offset
+         final Socket socket;
+         client.setRestartOffset(offset);
+         try
+         {
+            socket = openDataSocket(client, upload ? FTPCommand.STOR : FTPCommand.RETR, remotePath);
+         }
+         finally
+         {
+            // Don't leave the offset to be applied to the next transfer if never sent
+            client.setRestartOffset(0);
+         }
+
+         // Copy, recording progress at each checkpoint
+         long transferred = 0;
+         try
+         {
+            if (upload)
+            {
+               final WritableByteChannel out = socket.getChannel() != null ? socket.getChannel() : Channels
+                     .newChannel(socket.getOutputStream());
+               final long end = file.size();
+               while (offset + transferred < end)
+               {
+                  transferred += file.transferTo(offset + transferred, Math.min(end - offset - transferred,
+                        RESUME_CHECKPOINT_SIZE), out);
+                  transfer.setCommittedOffset(offset + transferred);
+               }
+            }
+            else
+            {
+               final ReadableByteChannel in = socket.getChannel() != null ? socket.getChannel() : Channels
+                     .newChannel(socket.getInputStream());
+               long written;
+               while ((written = file.transferFrom(in, offset + transferred, RESUME_CHECKPOINT_SIZE)) > 0)
+               {
+                  transferred += written;
+                  transfer.setCommittedOffset(offset + transferred);
+               }
+            }
+         }
+         catch (final IOException ioe)
+         {
+            abortTransfer(client, socket);
+            throw new FileTransferException("Could not transfer " + request + " from offset " + offset + ", "
+                  + transferred + " bytes moved", ioe);
+         }
+
+         // Close and check the server is done
+         completeTransfer(client, socket, remotePath);
+         logTransfer(upload ? "resumed upload" : "resumed download", remotePath, transferred);
+         return transferred;
+      }
+      finally
+      {
+         try
+         {
+            local.close();
+         }
+         catch (final IOException ioe)
+         {
+            log.warning("Exception encountered in closing local file of " + request + ": " + ioe.getMessage());
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Sends the specified transfer command for the specified remote path,
+    * and opens the data connection upon which it will take place
+    * 
+    * @throws FileTransferException If the server refused the command, or the 
+    *   data connection could not be opened
+    */
+   private static Socket openDataSocket(final ChannelFtpClient client, final int command, final String remotePath)
+         throws IllegalArgumentException, IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (client == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+      if (remotePath == null || remotePath.length() == 0)
+      {
+         throw new IllegalArgumentException("Remote path must be specified");
+      }
+
+      final Socket socket;
+      try
+      {
+         socket = client.openDataSocket(command, remotePath);
+      }
+      catch (final IOException ioe)
+      {
+         throw new FileTransferException("Could not open data connection for \"" + remotePath + "\"", ioe);
+      }
+      if (socket == null)
+      {
+         throw new FileTransferException("Server refused transfer of \"" + remotePath + "\", reply code was: "
+               + client.getReplyCode());
+      }
+      return socket;
+   }
+
+   /**
+    * Closes the specified data connection and ensures that the server
+    * reports the transfer as complete
+    * 
+    * @throws FileTransferException If the server reports the transfer as failed
+    */
+   private static void completeTransfer(final ChannelFtpClient client, final Socket socket, final String remotePath)
+         throws FileTransferException
+   {
+      try
+      {
+         socket.close();
+         if (!client.completePendingCommand())
+         {
+            throw new FileTransferException("Transfer of \"" + remotePath + "\" did not complete, reply code was: "
+                  + client.getReplyCode());
+         }
+      }
+      catch (final IOException ioe)
+      {
+         throw new FileTransferException("Could not complete transfer of \"" + remotePath + "\"", ioe);
+      }
+   }
+
+   /**
+    * Closes the specified data connection after a failed transfer, consuming
+    * the server's reply so the control connection remains usable.  If the
+    * reply can't be read, the client is disconnected so that it's closed
+    * rather than reused.
+    */
+   private static void abortTransfer(final ChannelFtpClient client, final Socket socket)
+   {
+      try
+      {
+         socket.close();
+      }
+      catch (final IOException ioe)
+      {
+         log.warning("Exception encountered in closing data connection: " + ioe.getMessage());
+      }
+      try
+      {
+         client.completePendingCommand();
+      }
+      catch (final IOException ioe)
+      {
+         log.warning("Exception encountered in aborting transfer: " + ioe.getMessage());
+         disconnect(client);
+      }
+   }
+
+   /**
+    * Compares the specified checksum of a completed transfer with that 
+    * reported by the server or, failing that, recorded in the sidecar file
+    * of the remote path; uploads record it in the sidecar file instead
+    * 
+    * @param checksum May be null, in which case there's nothing to verify
+    * @throws FileTransferException If the checksums differ, or the sidecar 
+    *   file could not be written
+    */
+   private static void verify(final ChannelFtpClient client, final String remotePath,
+         final TransferChecksum checksum, final boolean upload, final int bufferSize) throws FileTransferException
+   {
+      if (checksum == null)
+      {
+         return;
+      }
+      final String local = checksum.getValue();
+      final ChecksumAlgorithm algorithm = checksum.getAlgorithm();
+      final String sidecarPath = remotePath + algorithm.getSidecarSuffix();
+
+      // Ask the server
+      String remote;
+      try
+      {
+         remote = client.checksum(algorithm, remotePath);
+      }
+      catch (final IOException ioe)
+      {
+         throw new FileTransferException("Could not obtain " + algorithm + " of \"" + remotePath + "\"", ioe);
+      }
+
+      // Else record ours for later downloads, or look for one recorded
+      if (remote == null)
+      {
+         if (upload)
+         {
+            final int lastSeparator = remotePath.lastIndexOf('/');
+            final String line = local + "  " + remotePath.substring(lastSeparator + 1) + "\n";
+            upload(client, sidecarPath, new ByteArrayInputStream(getAsciiBytes(line)), bufferSize);
+            return;
+         }
+         remote = readSidecar(client, sidecarPath, algorithm, bufferSize);
+         if (remote == null)
+         {
+            if (log.isLoggable(Level.FINE))
+            {
+               log.fine("No " + algorithm + " available for \"" + remotePath + "\"; not verified");
+            }
+            return;
+         }
+      }
+
+      if (!local.equals(remote))
+      {
+         throw new FileTransferException(algorithm + " of " + (upload ? "data sent to" : "data received from")
+               + " \"" + remotePath + "\" was " + local + ", expected " + remote);
+      }
+   }
+
+   /**
+    * Reads the checksum recorded in the sidecar file at the specified path
+    * 
+    * @return The checksum, or null if there's no such file, or it doesn't hold one
+    */
+   private static String readSidecar(final ChannelFtpClient client, final String sidecarPath,
+         final ChecksumAlgorithm algorithm, final int bufferSize)
+   {
+      final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+      try
+      {
+         download(client, sidecarPath, contents, bufferSize);
+      }
+      catch (final FileTransferException fte)
+      {
+         return null;
+      }
+      try
+      {
+         // Format is that of sha256sum and the like: "<checksum>  <name>"; prefix a reply code to parse as such
+         return ChannelFtpClient.parseChecksum("000 " + contents.toString("US-ASCII"), algorithm.getHexLength());
+      }
+      catch (final IOException ioe)
+      {
+         // US-ASCII is required of every JRE
+         throw new IllegalStateException(ioe);
+      }
+   }
+
+   private static byte[] getAsciiBytes(final String string)
+   {
+      try
+      {
+         return string.getBytes("US-ASCII");
+      }
+      catch (final IOException ioe)
+      {
+         // US-ASCII is required of every JRE
+         throw new IllegalStateException(ioe);
+      }
+   }
+
+   /**
+    * Switches the transfer mode of the specified client
+    * 
+    * @return Whether the server accepted the mode
+    * @throws FileTransferException If the command could not be sent
+    */
+   private static boolean setDeflateMode(final ChannelFtpClient client, final boolean deflate)
+         throws IllegalStateException, FileTransferException
+   {
+      // Precondition checks
+      if (client == null)
+      {
+         throw new IllegalStateException("FTP Client is not connected");
+      }
+
+      try
+      {
+         return client.setDeflateMode(deflate);
+      }
+      catch (final IOException ioe)
+      {
+         throw new FileTransferException("Could not change transfer mode", ioe);
+      }
+   }
+
+   /**
+    * Returns the specified client to <code>MODE S</code> after a deflated
+    * transfer, so the connection remains usable by others.  If the mode 
+    * can't be reset, the client is disconnected so that it's closed rather
+    * than reused in the wrong mode.
+    */
+   private static void resetDeflateMode(final ChannelFtpClient client)
+   {
+      try
+      {
+         if (client.setDeflateMode(false))
+         {
+            return;
+         }
+         log.warning("Server refused to reset transfer mode, reply code was: " + client.getReplyCode());
+      }
+      catch (final IOException ioe)
+      {
+         log.warning("Exception encountered in resetting transfer mode: " + ioe.getMessage());
+      }
+      disconnect(client);
+   }
+
+   /**
+    * Disconnects the specified client, whose connection is no longer fit
+    * for use, so that it's closed upon release rather than pooled
+    */
+   private static void disconnect(final ChannelFtpClient client)
+   {
+      try
+      {
+         client.disconnect();
+      }
+      catch (final IOException ioe)
+      {
+         log.fine("Exception encountered in disconnecting: " + ioe.getMessage());
+      }
+   }
+
+   private static void logTransfer(final String operation, final String remotePath, final long transferred)
+   {
+      if (log.isLoggable(Level.FINE))
+      {
+         log.fine(operation + " \"" + remotePath + "\": " + transferred + " bytes");
+      }
+   }
+}
@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Point-in-time snapshot of the calls upon one {@link Operation} of the 
+ * FileTransferEJB: how many, how many failed, how many bytes were
+ * transferred, and the distribution of their latency.
+ *
+ * Latency is recorded in a histogram of power-of-two buckets of microseconds;
+ * bucket <code>i</code> counts calls which took less than <code>2^i</code>
+ * microseconds and at least <code>2^(i-1)</code>.  The last bucket is 
+ * unbounded.  Percentiles are answered as the upper bound of the bucket in
+ * which they fall.
+ *
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class OperationStatistics implements Serializable
+{
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * To satisfy explicit serialization hints to the JVM
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Number of buckets in the latency histogram; the bounded buckets
+    * cover calls of up to about a minute
+    */
+   static final int NUM_BUCKETS = 28;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final Operation operation;
+
+   private final long count;
+
+   private final long failureCount;
+
+   private final long bytes;
+
+   private final long totalLatencyNanos;
+
+   private final long maxLatencyNanos;
+
+   private final long[] latencyHistogram;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   OperationStatistics(final Operation operation, final long count, final long failureCount, final long bytes,
+         final long totalLatencyNanos, final long maxLatencyNanos, final long[] latencyHistogram)
+   {
+      this.operation = operation;
+      this.count = count;
+      this.failureCount = failureCount;
+      this.bytes = bytes;
+      this.totalLatencyNanos = totalLatencyNanos;
+      this.maxLatencyNanos = maxLatencyNanos;
+      this.latencyHistogram = latencyHistogram;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Utility Methods --------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the bucket of the histogram in which the specified latency is counted
+    */
+   static int getBucket(final long latencyNanos)
+   {
+      final long micros = latencyNanos / 1000;
+      return Math.min(Long.SIZE - Long.numberOfLeadingZeros(micros), NUM_BUCKETS - 1);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The operation to which these statistics apply
+    */
+   public Operation getOperation()
+   {
+      return operation;
+   }
+
+   /**
+    * Number of calls, successful or otherwise
+    */
+   public long getCount()
+   {
+      return count;
+   }
+
+   /**
+    * Number of calls which failed
+    */
+   public long getFailureCount()
+   {
+      return failureCount;
+   }
+
+   /**
+    * Number of bytes transferred by successful calls; for compressed 
+    * transfers, those before compression
+    */
+   public long getBytes()
+   {
+      return bytes;
+   }
+
+   /**
+    * Mean latency of all calls in nanoseconds; 0 if there have been none
+    */
+   public long getMeanLatencyNanos()
+   {
+      return count == 0 ? 0 : totalLatencyNanos / count;
+   }
+
+   /**
+    * Greatest latency of any call in nanoseconds
+    */
+   public long getMaxLatencyNanos()
+   {
+      return maxLatencyNanos;
+   }
+
+   /**
+    * Number of calls counted in each bucket of the latency histogram
+    */
+   public long[] getLatencyHistogram()
+   {
+      return latencyHistogram.clone();
+   }
+
+   /**
+    * Upper bound, in microseconds, of the median latency; 0 if there have been no calls
+    */
+   public long getMedianLatencyMicros()
+   {
+      return this.latencyPercentileMicros(50);
+   }
+
+   /**
+    * Upper bound, in microseconds, of the 99th percentile of latency; 0 if 
+    * there have been no calls
+    */
+   public long getP99LatencyMicros()
+   {
+      return this.latencyPercentileMicros(99);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "OperationStatistics [operation=" + operation + ", count=" + count + ", failures=" + failureCount
+            + ", bytes=" + bytes + ", meanLatencyNanos=" + getMeanLatencyNanos() + ", maxLatencyNanos="
+            + maxLatencyNanos + ", latencyHistogram=" + Arrays.toString(latencyHistogram) + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the upper bound, in microseconds, of the bucket in which the 
+    * specified percentile of latency falls
+    */
+   private long latencyPercentileMicros(final int percentile)
+   {
+      // Walk the buckets until we've passed the requested rank
+      long total = 0;
+      for (final long bucketCount : latencyHistogram)
+      {
+         total += bucketCount;
+      }
+      final double rank = total * percentile / 100.0;
+      long seen = 0;
+      for (int i = 0; i < latencyHistogram.length; i++)
+      {
+         seen += latencyHistogram[i];
+         if (seen > 0 && seen >= rank)
+         {
+            return i == NUM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+         }
+      }
+      return 0;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Operations of the FileTransferEJB for which statistics are kept
+    */
+   public enum Operation
+   {
+      /**
+       * Opening a connection to the server, until its greeting
+       */
+      CONNECT,
+
+      /**
+       * Logging in upon a new connection
+       */
+      LOGIN,
+
+      /**
+       * Changing directory
+       */
+      CD,
+
+      /**
+       * Making a directory, or a path of them
+       */
+      MKDIR,
+
+      /**
+       * Obtaining the working directory, whether from the server or as tracked
+       */
+      PWD,
+
+      /**
+       * Listing a directory, whether from the server or as cached
+       */
+      LIST,
+
+      /**
+       * Storing a file; single, batched or resumed
+       */
+      UPLOAD,
+
+      /**
+       * Retrieving a file; single, batched or resumed
+       */
+      DOWNLOAD
+   }
+}
@@ -0,0 +1,413 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Node-local registry of the connections of passivated FileTransferEJB 
+ * sessions, keyed by session ID.  Rather than give its connection back to the
+ * {@link FtpConnectionPool} upon passivation, a session parks it here, still 
+ * logged in and in its working directory, so that activation is a lookup 
+ * rather than a borrow (and change of directory).  Connections whose sessions
+ * are not activated within the park timeout (ie. have been removed while 
+ * passivated, or are activated upon another node) are reaped: given back to 
+ * their pool.  Parked connections remain borrowed from their pool, so no more
+ * than a fixed number may be parked at once.
+ * 
+ * Also records the latency of passivation and activation.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class ParkedConnections
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ParkedConnections.class.getName());
+
+   /**
+    * Default maximum number of connections parked at once
+    */
+   static final int DEFAULT_MAX_PARKED = FtpConnectionPool.DEFAULT_MAX_ACTIVE / 2;
+
+   /**
+    * Default time a connection stays parked before being reaped
+    */
+   static final long DEFAULT_PARK_TIMEOUT_MILLIS = 60 * 1000;
+
+   /**
+    * The registry of this node
+    */
+   private static final ParkedConnections INSTANCE = new ParkedConnections(DEFAULT_MAX_PARKED,
+         DEFAULT_PARK_TIMEOUT_MILLIS);
+
+   /**
+    * Runs the reaping of all registries.  Its single Thread is a daemon and 
+    * times out while nothing is parked, so an undeployed application does not
+    * leave it (and its ClassLoader) behind.
+    */
+   private static final ScheduledThreadPoolExecutor REAPER;
+   static
+   {
+      final AtomicInteger threadCount = new AtomicInteger();
+      REAPER = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            final Thread thread = new Thread(r, "FileTransferEJB-ParkedConnectionReaper-"
+                  + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      REAPER.setKeepAliveTime(60, TimeUnit.SECONDS);
+      REAPER.allowCoreThreadTimeOut(true);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private volatile int maxParked;
+
+   private volatile long parkTimeoutMillis;
+
+   /**
+    * Parked connections by session ID
+    */
+   private final ConcurrentMap<String, ParkedConnection> parked = new ConcurrentHashMap<String, ParkedConnection>();
+
+   /**
+    * Number of connections parked; reserved before adding to {@link #parked}
+    * so the maximum holds under concurrent parking
+    */
+   private final AtomicInteger parkedSize = new AtomicInteger();
+
+   private final AtomicBoolean reapScheduled = new AtomicBoolean();
+
+   private final LatencyCounter passivations = new LatencyCounter();
+
+   private final LatencyCounter activations = new LatencyCounter();
+
+   private final AtomicLong parkedCount = new AtomicLong();
+
+   private final AtomicLong rejectedCount = new AtomicLong();
+
+   private final AtomicLong reclaimedCount = new AtomicLong();
+
+   private final AtomicLong reapedCount = new AtomicLong();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new registry; sessions should use that of this node, from {@link #getInstance()}
+    * 
+    * @throws IllegalArgumentException If either argument is not positive
+    */
+   ParkedConnections(final int maxParked, final long parkTimeoutMillis) throws IllegalArgumentException
+   {
+      this.setLimits(maxParked, parkTimeoutMillis);
+   }
+
+   /**
+    * Obtains the registry of this node
+    */
+   static ParkedConnections getInstance()
+   {
+      return INSTANCE;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Parks the specified connection, borrowed from the specified pool, for 
+    * the session of the specified ID.  Any connection already parked for 
+    * the session is given back to its pool.
+    * 
+    * @return Whether parked; if not, the maximum are already parked and the 
+    *   caller remains responsible for the connection
+    */
+   boolean park(final String sessionId, final ChannelFtpClient client, final FtpConnectionPool pool)
+   {
+      // Reserve room
+      int size;
+      do
+      {
+         size = parkedSize.get();
+         if (size >= maxParked)
+         {
+            rejectedCount.incrementAndGet();
+            return false;
+         }
+      }
+      while (!parkedSize.compareAndSet(size, size + 1));
+
+      // Park
+      final ParkedConnection previous = parked.put(sessionId, new ParkedConnection(client, pool));
+      if (previous != null)
+      {
+         parkedSize.decrementAndGet();
+         previous.pool.release(previous.client);
+      }
+      parkedCount.incrementAndGet();
+      this.scheduleReap();
+      return true;
+   }
+
+   /**
+    * Takes back the connection parked for the session of the specified ID
+    * 
+    * @return The connection, or null if none is parked
+    */
+   ChannelFtpClient reclaim(final String sessionId)
+   {
+      final ParkedConnection connection = parked.remove(sessionId);
+      if (connection == null)
+      {
+         return null;
+      }
+      parkedSize.decrementAndGet();
+      reclaimedCount.incrementAndGet();
+      return connection.client;
+   }
+
+   /**
+    * Gives back to its pool the connection parked for the session of
+    * the specified ID, if any
+    */
+   void discard(final String sessionId)
+   {
+      final ParkedConnection connection = parked.remove(sessionId);
+      if (connection != null)
+      {
+         parkedSize.decrementAndGet();
+         connection.pool.release(connection.client);
+      }
+   }
+
+   /**
+    * Gives back all parked connections to their pools
+    */
+   void clear()
+   {
+      for (final String sessionId : parked.keySet())
+      {
+         this.discard(sessionId);
+      }
+   }
+
+   /**
+    * Records a passivation which took the specified time
+    */
+   void recordPassivation(final long nanos)
+   {
+      passivations.record(nanos);
+   }
+
+   /**
+    * Records an activation which took the specified time
+    */
+   void recordActivation(final long nanos)
+   {
+      activations.record(nanos);
+   }
+
+   /**
+    * Obtains a snapshot of the passivations and activations recorded,
+    * and the connections parked
+    */
+   PassivationStatistics getStatistics()
+   {
+      return new PassivationStatistics(passivations.count.get(), passivations.totalNanos.get(),
+            passivations.maxNanos.get(), activations.count.get(), activations.totalNanos.get(), activations.maxNanos
+                  .get(), parkedCount.get(), rejectedCount.get(), reclaimedCount.get(), reapedCount.get(), parkedSize
+                  .get());
+   }
+
+   /**
+    * Sets the maximum number of connections parked at once, and the time a
+    * connection stays parked before being reaped.  Connections already parked
+    * beyond a lowered maximum stay so until reclaimed or reaped.
+    * 
+    * @throws IllegalArgumentException If either argument is not positive
+    */
+   void setLimits(final int maxParked, final long parkTimeoutMillis) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (maxParked <= 0)
+      {
+         throw new IllegalArgumentException("Maximum parked must be positive");
+      }
+      if (parkTimeoutMillis <= 0)
+      {
+         throw new IllegalArgumentException("Park timeout must be positive");
+      }
+
+      this.maxParked = maxParked;
+      this.parkTimeoutMillis = parkTimeoutMillis;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "ParkedConnections [parked=" + parkedSize.get() + "/" + maxParked + ", timeoutMillis="
+            + parkTimeoutMillis + "]";
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Schedules a reaping run, if one isn't already
+    */
+   private void scheduleReap()
+   {
+      if (reapScheduled.compareAndSet(false, true))
+      {
+         REAPER.schedule(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               reap();
+            }
+         }, Math.max(1, parkTimeoutMillis / 2), TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Gives back connections parked beyond the timeout.  Reschedules itself
+    * for so long as any are parked.
+    */
+   private void reap()
+   {
+      final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(parkTimeoutMillis);
+      final long now = System.nanoTime();
+      try
+      {
+         for (final Map.Entry<String, ParkedConnection> entry : parked.entrySet())
+         {
+            final ParkedConnection connection = entry.getValue();
+            // Only if not reclaimed in the meantime
+            if (now - connection.parkedNanos >= timeoutNanos && parked.remove(entry.getKey(), connection))
+            {
+               parkedSize.decrementAndGet();
+               reapedCount.incrementAndGet();
+               connection.pool.release(connection.client);
+               if (log.isLoggable(Level.FINE))
+               {
+                  log.fine("Reaped connection parked for session " + entry.getKey());
+               }
+            }
+         }
+      }
+      catch (final RuntimeException re)
+      {
+         log.log(Level.WARNING, "Error in reaping " + this, re);
+      }
+      finally
+      {
+         // Reset before checking, so a concurrent park can't be missed
+         reapScheduled.set(false);
+         if (!parked.isEmpty())
+         {
+            this.scheduleReap();
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A parked connection, the pool to which it belongs, and when it was parked
+    */
+   private static final class ParkedConnection
+   {
+      private final ChannelFtpClient client;
+
+      private final FtpConnectionPool pool;
+
+      private final long parkedNanos = System.nanoTime();
+
+      ParkedConnection(final ChannelFtpClient client, final FtpConnectionPool pool)
+      {
+         this.client = client;
+         this.pool = pool;
+      }
+   }
+
+   /**
+    * Count, total and greatest of recorded latencies
+    */
+   private static final class LatencyCounter
+   {
+      private final AtomicLong count = new AtomicLong();
+
+      private final AtomicLong totalNanos = new AtomicLong();
+
+      private final AtomicLong maxNanos = new AtomicLong();
+
+      void record(final long nanos)
+      {
+         count.incrementAndGet();
+         totalNanos.addAndGet(nanos);
+         long max;
+         while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos))
+         {
+            // Retry
+         }
+      }
+   }
+}
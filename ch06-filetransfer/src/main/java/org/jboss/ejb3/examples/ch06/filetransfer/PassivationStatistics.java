@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the passivation and activation of FileTransferEJB sessions
+ * upon this node: how often connections were parked rather than given back
+ * to the pool, how often activation found its connection still parked, how
+ * many were reaped after waiting too long, and the latency of each callback.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class PassivationStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final long passivationCount;
+
+   private final long totalPassivationNanos;
+
+   private final long maxPassivationNanos;
+
+   private final long activationCount;
+
+   private final long totalActivationNanos;
+
+   private final long maxActivationNanos;
+
+   private final long parkedCount;
+
+   private final long rejectedCount;
+
+   private final long reclaimedCount;
+
+   private final long reapedCount;
+
+   private final int currentlyParked;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   PassivationStatistics(final long passivationCount, final long totalPassivationNanos,
+         final long maxPassivationNanos, final long activationCount, final long totalActivationNanos,
+         final long maxActivationNanos, final long parkedCount, final long rejectedCount, final long reclaimedCount,
+         final long reapedCount, final int currentlyParked)
+   {
+      this.passivationCount = passivationCount;
+      this.totalPassivationNanos = totalPassivationNanos;
+      this.maxPassivationNanos = maxPassivationNanos;
+      this.activationCount = activationCount;
+      this.totalActivationNanos = totalActivationNanos;
+      this.maxActivationNanos = maxActivationNanos;
+      this.parkedCount = parkedCount;
+      this.rejectedCount = rejectedCount;
+      this.reclaimedCount = reclaimedCount;
+      this.reapedCount = reapedCount;
+      this.currentlyParked = currentlyParked;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the number of sessions passivated
+    */
+   public long getPassivationCount()
+   {
+      return passivationCount;
+   }
+
+   /**
+    * @return the mean time taken to give up the connection upon passivation; 0 if none
+    */
+   public long getMeanPassivationNanos()
+   {
+      return passivationCount == 0 ? 0 : totalPassivationNanos / passivationCount;
+   }
+
+   /**
+    * @return the greatest time taken to give up the connection upon passivation
+    */
+   public long getMaxPassivationNanos()
+   {
+      return maxPassivationNanos;
+   }
+
+   /**
+    * @return the number of sessions activated
+    */
+   public long getActivationCount()
+   {
+      return activationCount;
+   }
+
+   /**
+    * @return the mean time taken to obtain a connection upon activation; 0 if none
+    */
+   public long getMeanActivationNanos()
+   {
+      return activationCount == 0 ? 0 : totalActivationNanos / activationCount;
+   }
+
+   /**
+    * @return the greatest time taken to obtain a connection upon activation
+    */
+   public long getMaxActivationNanos()
+   {
+      return maxActivationNanos;
+   }
+
+   /**
+    * @return the number of connections parked upon passivation
+    */
+   public long getParkedCount()
+   {
+      return parkedCount;
+   }
+
+   /**
+    * @return the number of connections given back to the pool upon passivation
+    *   because the maximum were already parked
+    */
+   public long getRejectedCount()
+   {
+      return rejectedCount;
+   }
+
+   /**
+    * @return the number of activations which found their connection still parked
+    */
+   public long getReclaimedCount()
+   {
+      return reclaimedCount;
+   }
+
+   /**
+    * @return the number of activations which had to borrow a connection from the
+    *   pool, their own having been reaped, given back, or parked upon another node
+    */
+   public long getMissedCount()
+   {
+      return activationCount - reclaimedCount;
+   }
+
+   /**
+    * @return the number of parked connections given back to the pool after
+    *   waiting beyond the timeout for their session to be activated
+    */
+   public long getReapedCount()
+   {
+      return reapedCount;
+   }
+
+   /**
+    * @return the number of connections parked at present
+    */
+   public int getCurrentlyParked()
+   {
+      return currentlyParked;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "PassivationStatistics [passivations=" + passivationCount + ", meanPassivationNanos="
+            + getMeanPassivationNanos() + ", maxPassivationNanos=" + maxPassivationNanos + ", activations="
+            + activationCount + ", meanActivationNanos=" + getMeanActivationNanos() + ", maxActivationNanos="
+            + maxActivationNanos + ", parked=" + parkedCount + ", rejected=" + rejectedCount + ", reclaimed="
+            + reclaimedCount + ", reaped=" + reapedCount + ", currentlyParked=" + currentlyParked + "]";
+   }
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+
+/**
+ * An entry in the listing of a remote directory, as obtained 
+ * from {@link FileTransferCommonBusiness#list(String)}.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class RemoteFile implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Denotes that a size or modification time was not reported by the server
+    */
+   public static final long UNKNOWN = -1;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final String name;
+
+   private final boolean directory;
+
+   private final long size;
+
+   private final long lastModified;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new entry
+    * 
+    * @param name Name within its directory
+    * @param directory Whether the entry is a directory
+    * @param size Size in bytes, or {@link #UNKNOWN}
+    * @param lastModified Time of last modification in milliseconds since the epoch, or {@link #UNKNOWN}
+    * @throws IllegalArgumentException If the name is not specified
+    */
+   RemoteFile(final String name, final boolean directory, final long size, final long lastModified)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (name == null || name.length() == 0)
+      {
+         throw new IllegalArgumentException("Name must be specified");
+      }
+
+      this.name = name;
+      this.directory = directory;
+      this.size = size;
+      this.lastModified = lastModified;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public boolean isDirectory()
+   {
+      return directory;
+   }
+
+   /**
+    * @return the size in bytes, or {@link #UNKNOWN}
+    */
+   public long getSize()
+   {
+      return size;
+   }
+
+   /**
+    * @return the time of last modification in milliseconds since the epoch, or {@link #UNKNOWN}
+    */
+   public long getLastModified()
+   {
+      return lastModified;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return name + (directory ? "/" : " (" + size + " bytes)");
+   }
+}
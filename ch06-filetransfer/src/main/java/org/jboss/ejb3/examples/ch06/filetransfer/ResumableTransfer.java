@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.Serializable;
+
+/**
+ * A single-file transfer which may be resumed from where it left off, 
+ * recording the number of bytes committed so far.  Held in the conversational
+ * state of the FileTransferEJB until complete, so a transfer interrupted by 
+ * a lost connection or by passivation is picked up again from its last 
+ * committed offset (via FTP <code>REST</code>) rather than from the start.
+ * 
+ * The remote path is resolved against the working directory in effect
+ * when the transfer was requested, so may be resumed from any other.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class ResumableTransfer implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * What's to be transferred, with its remote path absolute
+    */
+   private final TransferRequest request;
+
+   /**
+    * Number of bytes known to have been written to the destination.  For downloads
+    * this is exact; for uploads the server is asked for the size it has received
+    * before resuming, as bytes sent may not have been stored.
+    */
+   private volatile long committedOffset;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new transfer of the specified request, starting at the specified offset
+    * 
+    * @throws IllegalArgumentException If the request is not specified or the offset is negative
+    */
+   ResumableTransfer(final TransferRequest request, final long committedOffset) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (request == null)
+      {
+         throw new IllegalArgumentException("Request must be specified");
+      }
+      if (committedOffset < 0)
+      {
+         throw new IllegalArgumentException("Committed offset must not be negative");
+      }
+
+      this.request = request;
+      this.committedOffset = committedOffset;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   public TransferRequest getRequest()
+   {
+      return request;
+   }
+
+   /**
+    * @return the number of bytes committed so far, from which the transfer will resume
+    */
+   public long getCommittedOffset()
+   {
+      return committedOffset;
+   }
+
+   void setCommittedOffset(final long committedOffset)
+   {
+      this.committedOffset = committedOffset;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return request + " @ " + committedOffset;
+   }
+}
@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Checksum of a transfer, updated incrementally by streams through 
+ * which its data passes.  Not thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class TransferChecksum
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final ChecksumAlgorithm algorithm;
+
+   /**
+    * Used for {@link ChecksumAlgorithm#CRC32}, null otherwise
+    */
+   private final CRC32 crc;
+
+   /**
+    * Used for {@link ChecksumAlgorithm#SHA_256}, null otherwise
+    */
+   private final MessageDigest digest;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private TransferChecksum(final ChecksumAlgorithm algorithm)
+   {
+      this.algorithm = algorithm;
+      if (algorithm == ChecksumAlgorithm.CRC32)
+      {
+         this.crc = new CRC32();
+         this.digest = null;
+      }
+      else
+      {
+         this.crc = null;
+         try
+         {
+            this.digest = MessageDigest.getInstance(algorithm.getServerName());
+         }
+         catch (final NoSuchAlgorithmException nsae)
+         {
+            // Required of every JRE
+            throw new IllegalStateException("No implementation of " + algorithm, nsae);
+         }
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory Methods --------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a checksum computed with the specified algorithm
+    * 
+    * @return The checksum, or null if the algorithm is {@link ChecksumAlgorithm#NONE}
+    */
+   static TransferChecksum create(final ChecksumAlgorithm algorithm)
+   {
+      return algorithm == ChecksumAlgorithm.NONE ? null : new TransferChecksum(algorithm);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   void update(final byte[] bytes, final int offset, final int length)
+   {
+      if (crc != null)
+      {
+         crc.update(bytes, offset, length);
+      }
+      else
+      {
+         digest.update(bytes, offset, length);
+      }
+   }
+
+   /**
+    * Obtains the checksum of all data passed, in lower case hexadecimal; 
+    * may be called only once
+    */
+   String getValue()
+   {
+      if (crc != null)
+      {
+         final String hex = Long.toHexString(crc.getValue());
+         return "00000000".substring(hex.length()) + hex;
+      }
+      final byte[] hash = digest.digest();
+      final char[] hex = new char[hash.length * 2];
+      for (int i = 0; i < hash.length; i++)
+      {
+         hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+         hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+      }
+      return new String(hex);
+   }
+
+   /**
+    * Wraps the specified stream, updating this checksum with all data written
+    */
+   OutputStream wrap(final OutputStream out)
+   {
+      return new FilterOutputStream(out)
+      {
+         @Override
+         public void write(final int b) throws IOException
+         {
+            out.write(b);
+            update(new byte[]
+            {(byte) b}, 0, 1);
+         }
+
+         @Override
+         public void write(final byte[] b, final int off, final int len) throws IOException
+         {
+            out.write(b, off, len);
+            update(b, off, len);
+         }
+      };
+   }
+
+   /**
+    * Wraps the specified stream, updating this checksum with all data read
+    */
+   InputStream wrap(final InputStream in)
+   {
+      return new FilterInputStream(in)
+      {
+         @Override
+         public int read() throws IOException
+         {
+            final int b = in.read();
+            if (b != -1)
+            {
+               update(new byte[]
+               {(byte) b}, 0, 1);
+            }
+            return b;
+         }
+
+         @Override
+         public int read(final byte[] b, final int off, final int len) throws IOException
+         {
+            final int read = in.read(b, off, len);
+            if (read > 0)
+            {
+               update(b, off, read);
+            }
+            return read;
+         }
+
+         @Override
+         public long skip(final long n) throws IOException
+         {
+            // Skipped bytes would go unchecked
+            throw new IOException("Skipping is not supported");
+         }
+
+         @Override
+         public boolean markSupported()
+         {
+            return false;
+         }
+      };
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   ChecksumAlgorithm getAlgorithm()
+   {
+      return algorithm;
+   }
+}
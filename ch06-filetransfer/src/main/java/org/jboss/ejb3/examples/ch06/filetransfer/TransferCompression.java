@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+/**
+ * How the data of a transfer is compressed on its way between the 
+ * FileTransferEJB and the server
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public enum TransferCompression {
+
+   /**
+    * Sent as-is
+    */
+   NONE,
+
+   /**
+    * Deflated on the data connection via <code>MODE Z</code>, and stored 
+    * by the server as-is; sent uncompressed if the server does not 
+    * support the mode
+    */
+   MODE_Z,
+
+   /**
+    * Compressed into GZIP format by the client, and so stored by the 
+    * server; downloads are decompressed by the client.  Supported by
+    * any server, and suited to files which are to be kept compressed 
+    * (ie. archived logs).
+    */
+   GZIP
+}
@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+/**
+ * Receives notice of the progress of a batch transfer, one file at a time.
+ * Called from the Threads carrying out the transfer, possibly many at 
+ * once, so implementations must be thread-safe and should return quickly.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface TransferListener
+{
+   // ---------------------------------------------------------------------------||
+   // Contracts -----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Called when the specified file has been transferred
+    * 
+    * @param request
+    * @param bytesTransferred
+    * @param elapsedNanos Time taken to transfer this file
+    */
+   void transferCompleted(TransferRequest request, long bytesTransferred, long elapsedNanos);
+
+   /**
+    * Called when the specified file could not be transferred
+    * 
+    * @param request
+    * @param failure
+    */
+   void transferFailed(TransferRequest request, FileTransferException failure);
+}
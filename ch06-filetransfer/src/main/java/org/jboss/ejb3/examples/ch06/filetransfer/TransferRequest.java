@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch06.filetransfer;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * A single entry in the manifest of a batch transfer: a local file, a
+ * remote path, and the direction in which the data is to move between them.
+ * Remote paths are relative to the present working directory of the 
+ * session starting the batch, unless absolute.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class TransferRequest implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final Direction direction;
+
+   private final File localFile;
+
+   private final String remotePath;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Internal constructor; use the static factory methods
+    */
+   private TransferRequest(final Direction direction, final File localFile, final String remotePath)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (localFile == null)
+      {
+         throw new IllegalArgumentException("Local file must be specified");
+      }
+      if (remotePath == null || remotePath.length() == 0)
+      {
+         throw new IllegalArgumentException("Remote path must be specified");
+      }
+
+      this.direction = direction;
+      this.localFile = localFile;
+      this.remotePath = remotePath;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Factory Methods --------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a request to store the specified local file at the specified remote path
+    * 
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static TransferRequest upload(final File localFile, final String remotePath)
+         throws IllegalArgumentException
+   {
+      return new TransferRequest(Direction.UPLOAD, localFile, remotePath);
+   }
+
+   /**
+    * Creates a request to write the file at the specified remote path to the 
+    * specified local file, replacing any present contents
+    * 
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static TransferRequest download(final String remotePath, final File localFile)
+         throws IllegalArgumentException
+   {
+      return new TransferRequest(Direction.DOWNLOAD, localFile, remotePath);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   public Direction getDirection()
+   {
+      return direction;
+   }
+
+   public File getLocalFile()
+   {
+      return localFile;
+   }
+
+   public String getRemotePath()
+   {
+      return remotePath;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return direction == Direction.UPLOAD ? localFile + " > " + remotePath : remotePath + " > " + localFile;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The direction in which data moves
+    */
+   public enum Direction {
+      /**
+       * From the local file to the server
+       */
+      UPLOAD,
+
+      /**
+       * From the server to the local file
+       */
+      DOWNLOAD
+   }
+}
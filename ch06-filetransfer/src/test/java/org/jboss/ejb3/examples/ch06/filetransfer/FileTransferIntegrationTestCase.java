@@ -22,6 +22,8 @@
 package org.jboss.ejb3.examples.ch06.filetransfer;
 
 import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.logging.Logger;
 
 import javax.ejb.EJB;
@@ -84,10 +86,12 @@ public class FileTransferIntegrationTestCase extends FileTransferTestCaseBase
     * @return
     */
    @Deployment
-   public static JavaArchive createDeployment()
+   public static JavaArchive createDeployment() throws MalformedURLException
    {
       final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "ftpclient.jar").addPackages(true,
-            FileTransferBean.class.getPackage(),SocketClient.class.getPackage());
+            FileTransferBean.class.getPackage(),SocketClient.class.getPackage()).addAsManifestResource(
+            new URL(FileTransferIntegrationTestCase.class.getProtectionDomain().getCodeSource().getLocation(),
+                  "../classes/META-INF/ejb-jar.xml"), "ejb-jar.xml");
       log.info(archive.toString(true));
       return archive;
    }
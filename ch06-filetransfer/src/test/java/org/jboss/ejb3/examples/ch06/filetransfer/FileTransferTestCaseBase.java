@@ -21,11 +21,25 @@
  */
 package org.jboss.ejb3.examples.ch06.filetransfer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.net.ftp.FTPReply;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -60,12 +74,33 @@ public abstract class FileTransferTestCaseBase
     */
    private static final String SYS_PROP_NAME_IO_TMP_DIR = "java.io.tmpdir";
 
+   /**
+    * Size of the data transferred in tests; several times the size of the
+    * transfer buffer
+    */
+   private static final int TRANSFER_SIZE = 3 * 1024 * 1024 + 17;
+
    /**
     * The File we'll use as the writeable home for FTP operations.  Created and
     * destroyed alongside test lifecycle.
     */
    private static File ftpHome;
 
+   /**
+    * Number of files transferred in batch tests
+    */
+   private static final int BATCH_SIZE = 24;
+
+   /**
+    * Number of connections over which batches are transferred in tests
+    */
+   private static final int BATCH_PARALLELISM = 4;
+
+   /**
+    * Time to wait for a batch to complete
+    */
+   private static final long BATCH_TIMEOUT_SECONDS = 60;
+
    //-------------------------------------------------------------------------------------||
    // Lifecycle --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -153,6 +188,317 @@ public abstract class FileTransferTestCaseBase
             pwdAfter);
    }
 
+   /**
+    * Tests that data uploaded from a stream arrives intact, and may be 
+    * downloaded intact to a stream
+    */
+   @Test
+   public void testUploadAndDownloadStream() throws Exception
+   {
+      // Log
+      log.info("testUploadAndDownloadStream");
+
+      // Get the client
+      final FileTransferCommonBusiness client = this.getClient();
+      client.cd(getFtpHome().getAbsolutePath());
+
+      // Upload
+      final byte[] contents = createContents(TRANSFER_SIZE);
+      final String fileName = "uploadedStream.bin";
+      final long uploaded = client.upload(fileName, new ByteArrayInputStream(contents));
+      TestCase.assertEquals("All bytes should have been uploaded", contents.length, uploaded);
+      assertContents(contents, new File(getFtpHome(), fileName));
+
+      // Download
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final long downloaded = client.download(fileName, out);
+      TestCase.assertEquals("All bytes should have been downloaded", contents.length, downloaded);
+      TestCase.assertTrue("Downloaded contents differ from those uploaded", Arrays.equals(contents, out
+            .toByteArray()));
+   }
+
+   /**
+    * Tests that local files may be uploaded from and downloaded to 
+    * {@link FileChannel}s intact
+    */
+   @Test
+   public void testUploadAndDownloadFileChannel() throws Exception
+   {
+      // Log
+      log.info("testUploadAndDownloadFileChannel");
+
+      // Get the client
+      final FileTransferCommonBusiness client = this.getClient();
+      client.cd(getFtpHome().getAbsolutePath());
+
+      // Write a local file
+      final byte[] contents = createContents(TRANSFER_SIZE);
+      final File local = File.createTempFile("ejb31_ch06-upload", ".bin");
+      try
+      {
+         final FileOutputStream localOut = new FileOutputStream(local);
+         try
+         {
+            localOut.write(contents);
+         }
+         finally
+         {
+            localOut.close();
+         }
+
+         // Upload
+         final String fileName = "uploadedChannel.bin";
+         final FileInputStream localIn = new FileInputStream(local);
+         try
+         {
+            final long uploaded = client.upload(fileName, localIn.getChannel());
+            TestCase.assertEquals("All bytes should have been uploaded", contents.length, uploaded);
+         }
+         finally
+         {
+            localIn.close();
+         }
+         assertContents(contents, new File(getFtpHome(), fileName));
+
+         // Download over the local file
+         final FileOutputStream downloadOut = new FileOutputStream(local);
+         try
+         {
+            final long downloaded = client.download(fileName, downloadOut.getChannel());
+            TestCase.assertEquals("All bytes should have been downloaded", contents.length, downloaded);
+         }
+         finally
+         {
+            downloadOut.close();
+         }
+         assertContents(contents, local);
+      }
+      finally
+      {
+         local.delete();
+      }
+   }
+
+   /**
+    * Tests that a batch of files may be uploaded and downloaded intact over 
+    * several connections in parallel, with each file reported as done, and 
+    * that a file which cannot be transferred fails alone
+    */
+   @Test
+   public void testBatchTransfer() throws Exception
+   {
+      // Log
+      log.info("testBatchTransfer");
+
+      // Get the client
+      final FileTransferCommonBusiness client = this.getClient();
+      client.cd(getFtpHome().getAbsolutePath());
+
+      // Write the local files and the manifest to upload them
+      final File localDir = new File(getFtpHome(), "local");
+      TestCase.assertTrue("Could not make local directory", localDir.mkdir());
+      final List<byte[]> contents = new ArrayList<byte[]>();
+      final List<TransferRequest> uploads = new ArrayList<TransferRequest>();
+      long totalSize = 0;
+      for (int i = 0; i < BATCH_SIZE; i++)
+      {
+         final byte[] fileContents = createContents(i * 1024 + i);
+         final File local = new File(localDir, "file" + i);
+         final FileOutputStream out = new FileOutputStream(local);
+         try
+         {
+            out.write(fileContents);
+         }
+         finally
+         {
+            out.close();
+         }
+         contents.add(fileContents);
+         uploads.add(TransferRequest.upload(local, "uploaded" + i));
+         totalSize += fileContents.length;
+      }
+
+      // Upload
+      final RecordingTransferListener uploadListener = new RecordingTransferListener();
+      final BatchTransfer upload = client.transfer(uploads, BATCH_PARALLELISM, uploadListener);
+      final BatchTransferStatistics uploadStats = upload.awaitStatistics(BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      log.info("Uploaded: " + uploadStats);
+      TestCase.assertEquals("All files should have been uploaded", BATCH_SIZE, uploadStats.getCompletedCount());
+      TestCase.assertEquals("No uploads should have failed", 0, uploadStats.getFailedCount());
+      TestCase.assertEquals("All bytes should have been uploaded", totalSize, uploadStats.getBytesTransferred());
+      TestCase.assertEquals("Listener should have been notified of each upload", BATCH_SIZE, uploadListener
+            .getCompletedCount());
+      for (int i = 0; i < BATCH_SIZE; i++)
+      {
+         TestCase.assertEquals("Unexpected bytes uploaded for file " + i, Long.valueOf(contents.get(i).length),
+               upload.getTransfers().get(i).get());
+         assertContents(contents.get(i), new File(getFtpHome(), "uploaded" + i));
+      }
+
+      // Download, along with a file which does not exist
+      final File downloadDir = new File(getFtpHome(), "downloaded");
+      TestCase.assertTrue("Could not make download directory", downloadDir.mkdir());
+      final List<TransferRequest> downloads = new ArrayList<TransferRequest>();
+      for (int i = 0; i < BATCH_SIZE; i++)
+      {
+         downloads.add(TransferRequest.download("uploaded" + i, new File(downloadDir, "file" + i)));
+      }
+      downloads.add(TransferRequest.download("nonexistent", new File(downloadDir, "nonexistent")));
+      final RecordingTransferListener downloadListener = new RecordingTransferListener();
+      final BatchTransferStatistics downloadStats = client.transfer(downloads, BATCH_PARALLELISM,
+            downloadListener).awaitStatistics(BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      log.info("Downloaded: " + downloadStats);
+      TestCase.assertEquals("All existing files should have been downloaded", BATCH_SIZE, downloadStats
+            .getCompletedCount());
+      TestCase.assertEquals("Nonexistent file should have failed", 1, downloadStats.getFailedCount());
+      TestCase.assertEquals("Listener should have been notified of the failure", 1, downloadListener
+            .getFailedCount());
+      for (int i = 0; i < BATCH_SIZE; i++)
+      {
+         assertContents(contents.get(i), new File(downloadDir, "file" + i));
+      }
+   }
+
+   /**
+    * Tests that files may be uploaded and downloaded intact as resumable
+    * transfers, which are no longer pending once complete, and that a transfer
+    * which fails remains pending until resumed
+    */
+   @Test
+   public void testTransferResumable() throws Exception
+   {
+      // Log
+      log.info("testTransferResumable");
+
+      // Get the client
+      final FileTransferCommonBusiness client = this.getClient();
+      client.cd(getFtpHome().getAbsolutePath());
+
+      // Upload
+      final byte[] contents = createContents(TRANSFER_SIZE);
+      final File local = new File(getFtpHome(), "local.bin");
+      writeContents(contents, local);
+      final long uploaded = client.transferResumable(TransferRequest.upload(local, "resumable.bin"));
+      TestCase.assertEquals("All bytes should have been uploaded", contents.length, uploaded);
+      assertContents(contents, new File(getFtpHome(), "resumable.bin"));
+      TestCase.assertTrue("Completed upload should not be pending", client.getPendingTransfers().isEmpty());
+
+      // Download
+      final File downloaded = new File(getFtpHome(), "downloaded.bin");
+      TestCase.assertEquals("All bytes should have been downloaded", contents.length, client
+            .transferResumable(TransferRequest.download("resumable.bin", downloaded)));
+      assertContents(contents, downloaded);
+      TestCase.assertTrue("Completed download should not be pending", client.getPendingTransfers().isEmpty());
+
+      // A download of a file not yet there fails, and is pending
+      final File later = new File(getFtpHome(), "later.bin");
+      boolean gotExpectedException = false;
+      try
+      {
+         client.transferResumable(TransferRequest.download("later.bin", later));
+      }
+      catch (final FileTransferException fte)
+      {
+         gotExpectedException = true;
+      }
+      TestCase.assertTrue("Download of nonexistent file should have failed", gotExpectedException);
+      TestCase.assertEquals("Failed download should be pending", 1, client.getPendingTransfers().size());
+
+      // Once there, it may be resumed
+      client.upload("later.bin", new ByteArrayInputStream(contents));
+      TestCase.assertEquals("All bytes should have been resumed", contents.length, client.resume());
+      assertContents(contents, later);
+      TestCase.assertTrue("Resumed download should not be pending", client.getPendingTransfers().isEmpty());
+   }
+
+   /**
+    * Tests that the contents of directories may be listed, and that 
+    * listings reflect changes made through the session
+    */
+   @Test
+   public void testList() throws Exception
+   {
+      // Log
+      log.info("testList");
+
+      // Get the client
+      final FileTransferCommonBusiness client = this.getClient();
+      client.cd(getFtpHome().getAbsolutePath());
+      TestCase.assertTrue("New directory should be empty", client.list(null).isEmpty());
+
+      // Make a directory and a file
+      final byte[] contents = createContents(1024);
+      client.mkdir("subdirectory");
+      client.upload("file.bin", new ByteArrayInputStream(contents));
+
+      // List
+      final List<RemoteFile> files = client.list(null);
+      TestCase.assertEquals("Directory and file should be listed: " + files, 2, files.size());
+      for (final RemoteFile file : files)
+      {
+         if ("subdirectory".equals(file.getName()))
+         {
+            TestCase.assertTrue("Should be listed as a directory: " + file, file.isDirectory());
+         }
+         else
+         {
+            TestCase.assertEquals("Unexpected file listed", "file.bin", file.getName());
+            TestCase.assertFalse("Should not be listed as a directory: " + file, file.isDirectory());
+            TestCase.assertEquals("Unexpected size listed", contents.length, file.getSize());
+         }
+      }
+
+      // Another upload is seen, as is the subdirectory by relative path
+      client.upload("subdirectory/another.bin", new ByteArrayInputStream(contents));
+      final List<RemoteFile> subdirectoryFiles = client.list("subdirectory");
+      TestCase.assertEquals("Upload should be listed", 1, subdirectoryFiles.size());
+      TestCase.assertEquals("Unexpected file listed", "another.bin", subdirectoryFiles.get(0).getName());
+      client.upload("third.bin", new ByteArrayInputStream(contents));
+      TestCase.assertEquals("Upload should be listed", 3, client.list(null).size());
+   }
+
+   /**
+    * Tests that a nested path may be made in one call, along with its 
+    * missing parents, and that making it again is a no-op
+    */
+   @Test
+   public void testMkdirs() throws Exception
+   {
+      // Log
+      log.info("testMkdirs");
+
+      // Get the client
+      final FileTransferCommonBusiness client = this.getClient();
+      final String home = getFtpHome().getAbsolutePath();
+      client.cd(home);
+      client.mkdir("a");
+
+      // Make a path below an existing directory
+      client.mkdirs("a/b/c/d");
+      TestCase.assertTrue("Nested directory should have been made", new File(getFtpHome(), "a/b/c/d")
+            .isDirectory());
+      TestCase.assertEquals("Present working directory should not have changed", home, client.pwd());
+
+      // Again
+      client.mkdirs("a/b/c/d");
+      TestCase.assertEquals("Present working directory should not have changed", home, client.pwd());
+
+      // Batched commands are answered in order, and changes of directory followed
+      final List<FtpCommand> commands = new ArrayList<FtpCommand>();
+      commands.add(FtpCommand.cd("a/b"));
+      commands.add(FtpCommand.mkdir("e"));
+      commands.add(FtpCommand.mkdir("e"));
+      commands.add(FtpCommand.cd("e"));
+      final int[] replies = client.execute(commands);
+      TestCase.assertEquals("Each command should have a reply", commands.size(), replies.length);
+      TestCase.assertTrue("cd should have succeeded", FTPReply.isPositiveCompletion(replies[0]));
+      TestCase.assertTrue("mkdir should have succeeded", FTPReply.isPositiveCompletion(replies[1]));
+      TestCase.assertFalse("Repeated mkdir should have failed", FTPReply.isPositiveCompletion(replies[2]));
+      TestCase.assertTrue("cd should have succeeded", FTPReply.isPositiveCompletion(replies[3]));
+      TestCase.assertEquals("Changes of directory should have been followed", new File(getFtpHome(), "a/b/e")
+            .getAbsolutePath(), client.pwd());
+   }
+
    //-------------------------------------------------------------------------------------||
    // Contracts --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -166,6 +512,51 @@ public abstract class FileTransferTestCaseBase
    // Internal Helper Methods ------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
+   /**
+    * Creates contents of the specified size which are not all the same byte
+    */
+   protected static byte[] createContents(final int size)
+   {
+      final byte[] contents = new byte[size];
+      new Random(size).nextBytes(contents);
+      return contents;
+   }
+
+   /**
+    * Writes the specified contents to the specified file, replacing any present
+    */
+   protected static void writeContents(final byte[] contents, final File file) throws IOException
+   {
+      final FileOutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(contents);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Ensures that the specified file has the specified contents
+    */
+   protected static void assertContents(final byte[] expected, final File file) throws IOException
+   {
+      TestCase.assertEquals("File is of unexpected size: " + file, expected.length, file.length());
+      final byte[] actual = new byte[expected.length];
+      final DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try
+      {
+         in.readFully(actual);
+      }
+      finally
+      {
+         in.close();
+      }
+      TestCase.assertTrue("File has unexpected contents: " + file, Arrays.equals(expected, actual));
+   }
+
    /**
     * Recursively deletes all contents of the specified root, 
     * including the root itself.  If the specified root does not exist, 
@@ -233,4 +624,41 @@ public abstract class FileTransferTestCaseBase
       // Return
       return ftpHome;
    }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Counts the files reported done
+    */
+   private static final class RecordingTransferListener implements TransferListener
+   {
+      private final AtomicInteger completedCount = new AtomicInteger();
+
+      private final AtomicInteger failedCount = new AtomicInteger();
+
+      @Override
+      public void transferCompleted(final TransferRequest request, final long bytesTransferred,
+            final long elapsedNanos)
+      {
+         completedCount.incrementAndGet();
+      }
+
+      @Override
+      public void transferFailed(final TransferRequest request, final FileTransferException failure)
+      {
+         failedCount.incrementAndGet();
+      }
+
+      int getCompletedCount()
+      {
+         return completedCount.get();
+      }
+
+      int getFailedCount()
+      {
+         return failedCount.get();
+      }
+   }
 }
@@ -23,18 +23,42 @@ package org.jboss.ejb3.examples.ch06.filetransfer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 import javax.ejb.PostActivate;
 import javax.ejb.PrePassivate;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.net.ftp.FTPClient;
+import org.jboss.ejb3.examples.ch06.filetransfer.OperationStatistics.Operation;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -68,6 +92,11 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
     */
    private static FtpServerPojo ftpService;
 
+   /**
+    * Size of the data transferred in resume tests
+    */
+   private static final int RESUME_TRANSFER_SIZE = 2 * 1024 * 1024 + 31;
+
    /**
     * Port to which the FTP Service will bind
     */
@@ -132,7 +161,8 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
          return;
       }
 
-      // Stop the server
+      // Close pooled connections, then stop the server
+      new FileTransferBean().getConnectionPool().clear();
       ftpService.stopServer();
 
       // Reset
@@ -187,8 +217,8 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
     * Mocks the passivation/activation process by manually invoking
     * upon the {@link PrePassivate} and {@link PostActivate} lifecycle
     * callbacks.  The client should function properly after these calls are made,
-    * reconnecting as expected, and resuming into the correct present working 
-    * directory
+    * reclaiming the connection it parked, and resuming into the correct present 
+    * working directory
     * 
     * @throws Exception
     */
@@ -199,7 +229,9 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
       log.info("testPassivationAndActivation");
 
       // Get the client
-      final FileTransferCommonBusiness client = this.getClient();
+      final FileTransferBean client = this.ftpClient;
+      final ChannelFtpClient connection = client.getClient();
+      final long reclaimedBefore = client.getPassivationStatistics().getReclaimedCount();
 
       // Switch to home
       final String home = getFtpHome().getAbsolutePath();
@@ -211,7 +243,7 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
 
       // Mock @PrePassivate
       log.info("Mock @" + PrePassivate.class.getName());
-      client.disconnect();
+      client.passivate();
 
       // Mock passivation 
       log.info("Mock passivation");
@@ -226,17 +258,821 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
       final ObjectInput objectIn = new ObjectInputStream(inStream);
 
       // Get a new client from passivation/activation roundtrip
-      final FileTransferCommonBusiness serializedClient = (FileTransferCommonBusiness) objectIn.readObject();
+      final FileTransferBean serializedClient = (FileTransferBean) objectIn.readObject();
       objectIn.close();
 
       // Mock @PostActivate
       log.info("Mock @" + PostActivate.class.getName());
+      serializedClient.activate();
+      try
+      {
+         // Test the pwd
+         final String pwdAfter = serializedClient.pwd();
+         TestCase.assertEquals("Present working directory should be the same as before passivation/activation",
+               home, pwdAfter);
+
+         // Test the connection was reclaimed
+         TestCase.assertSame("Parked connection should have been reclaimed", connection, serializedClient
+               .getClient());
+         final PassivationStatistics stats = serializedClient.getPassivationStatistics();
+         log.info(stats.toString());
+         TestCase.assertEquals("Activation should have been counted as reclaimed", reclaimedBefore + 1, stats
+               .getReclaimedCount());
+      }
+      finally
+      {
+         serializedClient.disconnect();
+      }
+   }
+
+   /**
+    * Ensures that a session passivated in {@link FileTransferBean.PassivationMode#RELEASE} 
+    * mode gives its connection back to the pool, and upon activation borrows 
+    * one restored to its working directory
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testPassivationAndActivationReleasingConnection() throws Exception
+   {
+      // Log
+      log.info("testPassivationAndActivationReleasingConnection");
+
+      // Get the client and its pool
+      final FileTransferBean client = this.ftpClient;
+      client.setPassivationMode(FileTransferBean.PassivationMode.RELEASE);
+      final FtpConnectionPool pool = client.getConnectionPool();
+      final String home = getFtpHome().getAbsolutePath();
+      client.cd(home);
+
+      // Passivate
+      final int activeBefore = pool.getActiveCount();
+      client.passivate();
+      TestCase.assertEquals("Connection should have been given back to the pool", activeBefore - 1, pool
+            .getActiveCount());
+
+      // Activate
+      final FileTransferBean serializedClient = this.passivateAndActivate(client);
+      serializedClient.activate();
+      try
+      {
+         TestCase.assertEquals("Connection should have been borrowed", activeBefore, pool.getActiveCount());
+         TestCase.assertTrue("Connection should have been restored to the working directory", serializedClient
+               .getClient().printWorkingDirectory().endsWith(getFtpHome().getName()));
+      }
+      finally
+      {
+         serializedClient.disconnect();
+      }
+   }
+
+   /**
+    * Ensures that no more than the maximum connections may be parked, and
+    * that those not reclaimed within the timeout are given back to their pool
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testParkedConnectionReaping() throws Exception
+   {
+      // Log
+      log.info("testParkedConnectionReaping");
+
+      // Make a pool, and a registry of one connection with a short timeout
+      final FtpConnectionPool pool = new FtpConnectionPool("localhost", FTP_SERVICE_BIND_PORT, "user", "password",
+            2, 2, 100, 60 * 1000, 60 * 1000);
+      final long parkTimeoutMillis = 300;
+      final ParkedConnections parkedConnections = new ParkedConnections(1, parkTimeoutMillis);
+      try
+      {
+         // Park one; no room for another
+         final ChannelFtpClient first = pool.borrow(null);
+         final ChannelFtpClient second = pool.borrow(null);
+         TestCase.assertTrue("Connection should have been parked", parkedConnections.park("first", first, pool));
+         TestCase.assertFalse("Connection beyond the maximum should not have been parked", parkedConnections.park(
+               "second", second, pool));
+         pool.release(second);
+
+         // Not there for another session
+         TestCase.assertNull("No connection should be parked for another session", parkedConnections
+               .reclaim("second"));
+
+         // Reaped after the timeout
+         final long deadline = System.currentTimeMillis() + parkTimeoutMillis * 10;
+         while (parkedConnections.getStatistics().getCurrentlyParked() > 0 && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(50);
+         }
+         final PassivationStatistics stats = parkedConnections.getStatistics();
+         TestCase.assertEquals("Connection should have been reaped", 1, stats.getReapedCount());
+         TestCase.assertEquals("Parking beyond the maximum should have been counted", 1, stats.getRejectedCount());
+         TestCase.assertNull("Reaped connection should not be reclaimed", parkedConnections.reclaim("first"));
+         TestCase.assertEquals("Reaped connection should have been given back to the pool", 0, pool
+               .getActiveCount());
+      }
+      finally
+      {
+         parkedConnections.clear();
+         pool.clear();
+      }
+   }
+
+   /**
+    * Ensures that a resumable transfer which failed before passivation 
+    * is still pending afterward, and is resumed upon activation
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testResumeUponActivation() throws Exception
+   {
+      // Log
+      log.info("testResumeUponActivation");
+
+      // Get the client
+      final FileTransferBean client = this.ftpClient;
+      client.cd(getFtpHome().getAbsolutePath());
+
+      // Request a download of a file not yet there
+      final File local = new File(getFtpHome(), "activated.bin");
+      try
+      {
+         client.transferResumable(TransferRequest.download("remote.bin", local));
+         TestCase.fail("Download of nonexistent file should have failed");
+      }
+      catch (final FileTransferException fte)
+      {
+         // Expected
+      }
+
+      // Passivate, and put the file in place meanwhile
+      client.disconnect();
+      final FileTransferBean serializedClient = this.passivateAndActivate(client);
+      final byte[] contents = createContents(RESUME_TRANSFER_SIZE);
+      writeContents(contents, new File(getFtpHome(), "remote.bin"));
+      TestCase.assertEquals("Download should be pending after passivation", 1, serializedClient
+            .getPendingTransfers().size());
+
+      // Activate
       serializedClient.connect();
+      try
+      {
+         TestCase.assertTrue("Download should have been resumed upon activation", serializedClient
+               .getPendingTransfers().isEmpty());
+         assertContents(contents, local);
+      }
+      finally
+      {
+         serializedClient.disconnect();
+      }
+   }
 
-      // Test the pwd
-      final String pwdAfter = serializedClient.pwd();
-      TestCase.assertEquals("Present working directory should be the same as before passivation/activation", home,
-            pwdAfter);
+   /**
+    * Ensures that transfers resumed from a committed offset send only the remainder:
+    * uploads from the size the server actually has (even if more was recorded 
+    * as sent), and downloads from the offset, discarding local bytes beyond it
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testResumeFromOffset() throws Exception
+   {
+      // Log
+      log.info("testResumeFromOffset");
+
+      // Get the client
+      final FileTransferBean client = this.ftpClient;
+      final String home = getFtpHome().getAbsolutePath();
+      client.cd(home);
+
+      // Store only the first half remotely
+      final byte[] contents = createContents(RESUME_TRANSFER_SIZE);
+      final int half = contents.length / 2;
+      final File local = new File(getFtpHome(), "local.bin");
+      writeContents(contents, local);
+      client.upload("remote.bin", new ByteArrayInputStream(contents, 0, half));
+
+      // Resume the upload, with more recorded than the server has
+      final ResumableTransfer upload = new ResumableTransfer(TransferRequest.upload(local, home + "/remote.bin"),
+            half + 1000);
+      TestCase.assertEquals("Only the remainder should have been uploaded", contents.length - half, FtpTransfers
+            .resume(client.getClient(), upload));
+      TestCase.assertEquals("Upload should be committed in full", contents.length, upload.getCommittedOffset());
+      assertContents(contents, new File(getFtpHome(), "remote.bin"));
+
+      // Resume a download whose local file has the first half, and some garbage
+      final File downloaded = new File(getFtpHome(), "downloaded.bin");
+      final FileOutputStream out = new FileOutputStream(downloaded);
+      try
+      {
+         out.write(contents, 0, half);
+         out.write(new byte[1000]);
+      }
+      finally
+      {
+         out.close();
+      }
+      final ResumableTransfer download = new ResumableTransfer(TransferRequest.download(home + "/remote.bin",
+            downloaded), half);
+      TestCase.assertEquals("Only the remainder should have been downloaded", contents.length - half, FtpTransfers
+            .resume(client.getClient(), download));
+      TestCase.assertEquals("Download should be committed in full", contents.length, download.getCommittedOffset());
+      assertContents(contents, downloaded);
+   }
+
+   /**
+    * Ensures that directory listings are answered from the cache until 
+    * changed through the session or expired, and that pwd() is answered
+    * from the tracked directory, including through relative changes
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testListingCacheAndTrackedPwd() throws Exception
+   {
+      // Log
+      log.info("testListingCacheAndTrackedPwd");
+
+      // Get the client
+      final FileTransferBean client = this.ftpClient;
+      final String home = getFtpHome().getAbsolutePath();
+      client.cd(home);
+      client.mkdir("a");
+      client.cd("a");
+      client.cd("../a/./");
+      TestCase.assertEquals("Relative changes should be tracked", home + File.separator + "a", client.pwd());
+      client.cd("..");
+      TestCase.assertEquals("Relative changes should be tracked", home, client.pwd());
+
+      // No directory is rejected, leaving the tracked directory as it was
+      try
+      {
+         client.cd(null);
+         TestCase.fail("cd without a directory should have been rejected");
+      }
+      catch (final IllegalArgumentException expected)
+      {
+         // Good
+      }
+      TestCase.assertEquals("Rejected change should not be tracked", home, client.pwd());
+
+      // A file made behind the session's back isn't seen while the listing is cached
+      TestCase.assertEquals("Only the directory should be listed", 1, client.list(null).size());
+      writeContents(createContents(10), new File(getFtpHome(), "unseen.bin"));
+      TestCase.assertEquals("Cached listing should have been used", 1, client.list(home).size());
+
+      // Until the session changes the directory
+      client.mkdir("b");
+      TestCase.assertEquals("Listing should have been dropped upon mkdir", 3, client.list(null).size());
+
+      // Or the listing expires
+      client.setListingCacheTtlMillis(0);
+      writeContents(createContents(10), new File(getFtpHome(), "seen.bin"));
+      TestCase.assertEquals("Listing should not have been cached", 4, client.list(null).size());
+   }
+
+   /**
+    * Ensures that nested paths are made, and batches answered, by sending
+    * commands one at a time where the server isn't taken to support pipelining
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testMkdirsWithoutPipelining() throws Exception
+   {
+      // Log
+      log.info("testMkdirsWithoutPipelining");
+
+      // Get the client, and have it fall back
+      final FileTransferBean client = this.ftpClient;
+      final ChannelFtpClient connection = client.getClient();
+      connection.setPipeliningSupported(false);
+      try
+      {
+         final String home = getFtpHome().getAbsolutePath();
+         client.cd(home);
+         client.mkdirs("x/y/z");
+         TestCase.assertTrue("Nested directory should have been made", new File(getFtpHome(), "x/y/z")
+               .isDirectory());
+         client.mkdirs("x/y");
+         TestCase.assertEquals("Present working directory should not have changed", home, client.pwd());
+      }
+      finally
+      {
+         connection.setPipeliningSupported(null);
+      }
+   }
+
+   /**
+    * Ensures that, against a server which reads only one command per packet
+    * and so drops those pipelined, a batch is sent one command at a time 
+    * over the connection replacing that lost in finding out, and that the
+    * pool remembers not to try again
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testPipeliningProbeTimeoutFallsBack() throws Exception
+   {
+      // Log
+      log.info("testPipeliningProbeTimeoutFallsBack");
+
+      // Serve one command per packet, and pool connections to it
+      final SingleCommandFtpServer server = new SingleCommandFtpServer();
+      server.start();
+      final FtpConnectionPool pool = new FtpConnectionPool("localhost", server.getPort(), "user", "password", 2,
+            2, 1000, 60 * 1000, 60 * 1000);
+      final FileTransferBean client = new FileTransferBean()
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         FtpConnectionPool getConnectionPool()
+         {
+            return pool;
+         }
+      };
+      try
+      {
+         // The probe times out, so the path is made over a replacement
+         client.connect();
+         final ChannelFtpClient probed = client.getClient();
+         client.mkdirs("a/b");
+         TestCase.assertTrue("Nested directory should have been made", server.isDirectory("/a/b"));
+         TestCase.assertNotSame("Connection lost to the probe should have been replaced", probed, client
+               .getClient());
+         TestCase.assertEquals("One connection should have replaced that lost", 2, pool.getCreatedCount());
+
+         // Which, like any other to the server, doesn't probe again
+         final long start = System.nanoTime();
+         final List<FtpCommand> commands = new ArrayList<FtpCommand>();
+         commands.add(FtpCommand.cd("a"));
+         commands.add(FtpCommand.mkdir("c"));
+         final int[] replies = client.execute(commands);
+         TestCase.assertEquals("Each command should have a reply", 2, replies.length);
+         TestCase.assertTrue("Directory should have been made", server.isDirectory("/a/c"));
+         final ChannelFtpClient other = pool.borrow(null);
+         try
+         {
+            TestCase.assertFalse("Pool should remember the server doesn't pipeline", other
+                  .isPipeliningSupported());
+         }
+         finally
+         {
+            pool.release(other);
+         }
+         TestCase.assertTrue("Commands should not have waited upon a probe", System.nanoTime() - start < TimeUnit.MILLISECONDS
+               .toNanos(ChannelFtpClient.PIPELINE_REPLY_TIMEOUT_MILLIS));
+         TestCase.assertEquals("No more connections should have been lost", 3, pool.getCreatedCount());
+      }
+      finally
+      {
+         client.disconnect();
+         pool.clear();
+         server.stop();
+      }
+   }
+
+   /**
+    * Ensures that data compressed into GZIP format is stored so, and 
+    * decompressed upon download, and that the checksum computed as it moves
+    * is recorded in a sidecar file (as our server can't report one) against 
+    * which downloads are verified
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testGzipTransferVerifiedBySidecar() throws Exception
+   {
+      // Log
+      log.info("testGzipTransferVerifiedBySidecar");
+
+      // Get the client
+      final FileTransferBean client = this.ftpClient;
+      client.cd(getFtpHome().getAbsolutePath());
+      client.setTransferCompression(TransferCompression.GZIP);
+      client.setChecksumAlgorithm(ChecksumAlgorithm.SHA_256);
+
+      // Upload something which compresses, as logs do
+      final StringBuilder lines = new StringBuilder();
+      for (int i = 0; i < 10000; i++)
+      {
+         lines.append("INFO [FileTransferBean] Line ").append(i).append(" of the log\n");
+      }
+      final byte[] contents = lines.toString().getBytes("US-ASCII");
+      TestCase.assertEquals("All bytes should have been read", contents.length, client.upload("server.log.gz",
+            new ByteArrayInputStream(contents)));
+
+      // Stored compressed
+      final File stored = new File(getFtpHome(), "server.log.gz");
+      TestCase.assertTrue("Data should have been compressed", stored.length() < contents.length / 4);
+      final ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+      final InputStream in = new GZIPInputStream(new FileInputStream(stored));
+      try
+      {
+         final byte[] buffer = new byte[4096];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            decompressed.write(buffer, 0, read);
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      TestCase.assertTrue("Stored data should decompress intact", Arrays.equals(contents, decompressed
+            .toByteArray()));
+
+      // With its checksum beside it
+      final File sidecar = new File(getFtpHome(), "server.log.gz" + ChecksumAlgorithm.SHA_256.getSidecarSuffix());
+      TestCase.assertTrue("Sidecar file should have been written", sidecar.isFile());
+
+      // Downloaded decompressed, and verified
+      final ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+      TestCase.assertEquals("All bytes should have been written", contents.length, client.download(
+            "server.log.gz", downloaded));
+      TestCase.assertTrue("Downloaded data should be intact", Arrays.equals(contents, downloaded
+            .toByteArray()));
+
+      // Corruption is detected
+      writeContents(("0000000000000000000000000000000000000000000000000000000000000000  server.log.gz\n")
+            .getBytes("US-ASCII"), sidecar);
+      try
+      {
+         client.download("server.log.gz", new ByteArrayOutputStream());
+         TestCase.fail("Download not matching the recorded checksum should have failed");
+      }
+      catch (final FileTransferException expected)
+      {
+         // Good
+      }
+   }
+
+   /**
+    * Ensures that data sent in <code>MODE Z</code>, where supported, is stored 
+    * and downloaded as-is, and that the connection is left usable for 
+    * uncompressed transfers
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testModeZTransfer() throws Exception
+   {
+      // Log
+      log.info("testModeZTransfer");
+
+      // Get the client
+      final FileTransferBean client = this.ftpClient;
+      client.cd(getFtpHome().getAbsolutePath());
+      client.setTransferCompression(TransferCompression.MODE_Z);
+      client.setChecksumAlgorithm(ChecksumAlgorithm.CRC32);
+
+      // Round trip
+      final byte[] contents = createContents(1024 * 1024 + 17);
+      client.upload("deflated.bin", new ByteArrayInputStream(contents));
+      assertContents(contents, new File(getFtpHome(), "deflated.bin"));
+      final ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+      client.download("deflated.bin", downloaded);
+      TestCase.assertTrue("Downloaded data should be intact", Arrays.equals(contents, downloaded
+            .toByteArray()));
+
+      // Uncompressed transfers still work
+      client.setTransferCompression(TransferCompression.NONE);
+      client.setChecksumAlgorithm(ChecksumAlgorithm.NONE);
+      client.upload("plain.bin", new ByteArrayInputStream(contents));
+      assertContents(contents, new File(getFtpHome(), "plain.bin"));
+   }
+
+   /**
+    * Ensures that checksums are found in the replies of various servers
+    */
+   @Test
+   public void testParseChecksum() throws Exception
+   {
+      // Log
+      log.info("testParseChecksum");
+
+      TestCase.assertEquals("Unexpected XCRC", "1a2b3c4d", ChannelFtpClient.parseChecksum("250 1A2B3C4D", 8));
+      final String sha = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+      TestCase.assertEquals("Unexpected HASH", sha, ChannelFtpClient.parseChecksum("213 SHA-256 0-1023 " + sha
+            + " file.bin", 64));
+      TestCase.assertNull("No checksum should have been found", ChannelFtpClient.parseChecksum(
+            "250 Checksum unavailable", 8));
+   }
+
+   /**
+    * Ensures that calls upon each operation, bytes moved and reply codes 
+    * received are counted, and exposed via the MXBean
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testTransferStatistics() throws Exception
+   {
+      // Log
+      log.info("testTransferStatistics");
+
+      // Get the client
+      final FileTransferBean client = this.ftpClient;
+      final FileTransferStatistics before = client.getTransferStatistics();
+      TestCase.assertTrue("Our session should be active", before.getActiveSessions() >= 1);
+
+      // Do one of each
+      final byte[] contents = createContents(4096);
+      client.cd(getFtpHome().getAbsolutePath());
+      client.mkdir("stats");
+      client.pwd();
+      client.list(null);
+      client.upload("stats.bin", new ByteArrayInputStream(contents));
+      client.download("stats.bin", new ByteArrayOutputStream());
+      try
+      {
+         client.cd("nonexistent");
+         TestCase.fail("Changing into a nonexistent directory should have failed");
+      }
+      catch (final FileTransferException expected)
+      {
+         // Good
+      }
+
+      // Each is counted
+      final FileTransferStatistics after = client.getTransferStatistics();
+      for (final Operation operation : new Operation[]
+      {Operation.CD, Operation.MKDIR, Operation.PWD, Operation.LIST, Operation.UPLOAD, Operation.DOWNLOAD})
+      {
+         TestCase.assertTrue(operation + " should have been counted", after.getOperation(operation).getCount() > before
+               .getOperation(operation).getCount());
+      }
+      TestCase.assertEquals("Failed cd should have been counted", before.getOperation(Operation.CD)
+            .getFailureCount() + 1, after.getOperation(Operation.CD).getFailureCount());
+      TestCase.assertTrue("Bytes uploaded should have been counted",
+            after.getBytesOut() - before.getBytesOut() >= contents.length);
+      TestCase.assertTrue("Bytes downloaded should have been counted",
+            after.getBytesIn() - before.getBytesIn() >= contents.length);
+      final Long completions = after.getReplyCodes().get(226);
+      TestCase.assertTrue("Transfer completions should have been counted", completions != null
+            && completions >= 2);
+
+      // And exposed while the application runs
+      final FileTransferMetricsRegistrationBean registration = new FileTransferMetricsRegistrationBean();
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(FileTransferMetrics.OBJECT_NAME);
+      registration.register();
+      try
+      {
+         TestCase.assertTrue("Metrics should be registered", server.isRegistered(name));
+         TestCase.assertTrue("Bytes uploaded should be exposed", (Long) server.getAttribute(name, "BytesOut") >= after
+               .getBytesOut());
+         TestCase.assertNotNull("Operations should be exposed", server.getAttribute(name, "Operations"));
+      }
+      finally
+      {
+         registration.unregister();
+      }
+      TestCase.assertFalse("Metrics should have been unregistered", server.isRegistered(name));
+   }
+
+   /**
+    * Ensures that lines of MLSD output are parsed
+    */
+   @Test
+   public void testParseMachineListing() throws Exception
+   {
+      // Log
+      log.info("testParseMachineListing");
+
+      final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ENGLISH);
+      final RemoteFile file = ChannelFtpClient.parseMachineListing(
+            "Size=1234;Modify=20100102030405.5;Type=file;Perm=rw; name with spaces.txt", calendar);
+      TestCase.assertEquals("Unexpected name", "name with spaces.txt", file.getName());
+      TestCase.assertFalse("Should not be a directory", file.isDirectory());
+      TestCase.assertEquals("Unexpected size", 1234, file.getSize());
+      calendar.clear();
+      calendar.set(2010, Calendar.JANUARY, 2, 3, 4, 5);
+      TestCase.assertEquals("Unexpected modification time", calendar.getTimeInMillis() + 500, file
+            .getLastModified());
+
+      final RemoteFile directory = ChannelFtpClient.parseMachineListing("type=dir;modify=bad; dir", calendar);
+      TestCase.assertTrue("Should be a directory", directory.isDirectory());
+      TestCase.assertEquals("Unparsable time should be unknown", RemoteFile.UNKNOWN, directory.getLastModified());
+      TestCase.assertNull("Current directory should be skipped", ChannelFtpClient.parseMachineListing(
+            "type=cdir; .", calendar));
+      TestCase.assertNull("Parent directory should be skipped", ChannelFtpClient.parseMachineListing(
+            "type=pdir; ..", calendar));
+   }
+
+   /**
+    * Ensures that a session which has disconnected gives its connection back
+    * to the shared pool, and that a new session reuses it rather than opening 
+    * another, starting in the home directory rather than the working directory
+    * of the previous session
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testConnectionReuse() throws Exception
+   {
+      // Log
+      log.info("testConnectionReuse");
+
+      // Get the client and its pool
+      final FileTransferBean client = this.ftpClient;
+      final FtpConnectionPool pool = client.getConnectionPool();
+      final String initialPwd = client.pwd();
+
+      // Switch to home, then disconnect
+      final String home = getFtpHome().getAbsolutePath();
+      client.cd(home);
+      client.disconnect();
+      final long createdBefore = pool.getCreatedCount();
+
+      // Start a new session
+      final FileTransferBean newClient = new FileTransferBean();
+      newClient.connect();
+      try
+      {
+         TestCase.assertEquals("New session should have reused the pooled connection", createdBefore, pool
+               .getCreatedCount());
+         TestCase.assertEquals("New session should not inherit the working directory of the previous", initialPwd,
+               newClient.pwd());
+      }
+      finally
+      {
+         newClient.disconnect();
+      }
+   }
+
+   /**
+    * Ensures that no more than the maximum number of connections may be borrowed
+    * at once, that connections given back are reused, and that those no longer 
+    * connected are not
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testConnectionPoolBounds() throws Exception
+   {
+      // Log
+      log.info("testConnectionPoolBounds");
+
+      // Make a pool of one connection
+      final FtpConnectionPool pool = new FtpConnectionPool("localhost", FTP_SERVICE_BIND_PORT, "user", "password",
+            1, 1, 100, 60 * 1000, 60 * 1000);
+      try
+      {
+         // Borrow the only connection
+         final String home = getFtpHome().getAbsolutePath();
+         final FTPClient borrowed = pool.borrow(home);
+         TestCase.assertTrue("Connection should be in the requested directory", borrowed.printWorkingDirectory()
+               .endsWith(getFtpHome().getName()));
+
+         // No more may be borrowed
+         boolean gotExpectedException = false;
+         try
+         {
+            pool.borrow(null);
+         }
+         catch (final FileTransferException fte)
+         {
+            gotExpectedException = true;
+         }
+         TestCase.assertTrue("Borrowing beyond the maximum should have timed out", gotExpectedException);
+
+         // Give back and borrow again
+         pool.release(borrowed);
+         final FTPClient reborrowed = pool.borrow(null);
+         TestCase.assertSame("Returned connection should have been reused", borrowed, reborrowed);
+         TestCase.assertEquals("Only one connection should have been opened", 1, pool.getCreatedCount());
+
+         // A connection lost while borrowed is not pooled
+         reborrowed.disconnect();
+         pool.release(reborrowed);
+         TestCase.assertEquals("Disconnected connection should not have been pooled", 0, pool.getIdleCount());
+         pool.release(pool.borrow(null));
+         TestCase.assertEquals("A new connection should have been opened", 2, pool.getCreatedCount());
+      }
+      finally
+      {
+         pool.clear();
+      }
+   }
+
+   /**
+    * Ensures that idle connections are kept alive within the idle timeout,
+    * and closed once beyond it
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testConnectionPoolIdleEviction() throws Exception
+   {
+      // Log
+      log.info("testConnectionPoolIdleEviction");
+
+      // Make a pool with short intervals
+      final long idleTimeoutMillis = 600;
+      final FtpConnectionPool pool = new FtpConnectionPool("localhost", FTP_SERVICE_BIND_PORT, "user",
+            "password", 1, 1, 100, idleTimeoutMillis, 100);
+      try
+      {
+         // Borrow and give back
+         pool.release(pool.borrow(null));
+
+         // Kept within the timeout
+         Thread.sleep(idleTimeoutMillis / 2);
+         TestCase.assertEquals("Connection should still be idle", 1, pool.getIdleCount());
+
+         // Evicted after the timeout
+         final long deadline = System.currentTimeMillis() + idleTimeoutMillis * 10;
+         while (pool.getIdleCount() > 0 && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(50);
+         }
+         TestCase.assertEquals("Connection should have been evicted", 0, pool.getIdleCount());
+         TestCase.assertEquals("Connection should have been closed", 1, pool.getDestroyedCount());
+      }
+      finally
+      {
+         pool.clear();
+      }
+   }
+
+   /**
+    * Ensures that workers of a batch which can't borrow a connection leave 
+    * their files to those which could, and that files fail only once no 
+    * worker has a connection
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testBatchTransferWithoutSpareConnections() throws Exception
+   {
+      // Log
+      log.info("testBatchTransferWithoutSpareConnections");
+
+      // Make a pool of two connections, one of which is held elsewhere
+      final FtpConnectionPool pool = new FtpConnectionPool("localhost", FTP_SERVICE_BIND_PORT, "user", "password",
+            2, 2, 100, 60 * 1000, 60 * 1000);
+      try
+      {
+         final String home = getFtpHome().getAbsolutePath();
+         final FTPClient held = pool.borrow(home);
+         final List<TransferRequest> manifest = new ArrayList<TransferRequest>();
+         for (int i = 0; i < 4; i++)
+         {
+            final File local = new File(getFtpHome(), "local" + i);
+            writeContents(createContents(1024), local);
+            manifest.add(TransferRequest.upload(local, "remote" + i));
+         }
+
+         // All files are sent over the one connection to be had
+         final BatchTransfer batch = new BatchTransfer(manifest, 2, null);
+         batch.start(pool, home, 8192);
+         final BatchTransferStatistics stats = batch.awaitStatistics(60, TimeUnit.SECONDS);
+         TestCase.assertEquals("All files should have been sent by the worker with a connection", manifest.size(),
+               stats.getCompletedCount());
+         TestCase.assertEquals("No files should have failed", 0, stats.getFailedCount());
+
+         // With none to be had, all fail
+         final FTPClient alsoHeld = pool.borrow(home);
+         final BatchTransfer starved = new BatchTransfer(manifest, 2, null);
+         starved.start(pool, home, 8192);
+         final BatchTransferStatistics starvedStats = starved.awaitStatistics(60, TimeUnit.SECONDS);
+         TestCase.assertEquals("All files should have failed without a connection", manifest.size(), starvedStats
+               .getFailedCount());
+         pool.release(alsoHeld);
+         pool.release(held);
+      }
+      finally
+      {
+         pool.clear();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Mocks passivation and activation of the specified (disconnected)
+    * client by a Serialization roundtrip
+    */
+   private FileTransferBean passivateAndActivate(final FileTransferBean client) throws Exception
+   {
+      final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+      final ObjectOutput objectOut = new ObjectOutputStream(outStream);
+      objectOut.writeObject(client);
+      objectOut.close();
+      final ObjectInput objectIn = new ObjectInputStream(new ByteArrayInputStream(outStream.toByteArray()));
+      try
+      {
+         return (FileTransferBean) objectIn.readObject();
+      }
+      finally
+      {
+         objectIn.close();
+      }
    }
 
    //-------------------------------------------------------------------------------------||
@@ -252,4 +1088,169 @@ public class FileTransferUnitTestCase extends FileTransferTestCaseBase
       return this.ftpClient;
    }
 
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Minimal FTP server which, like some embedded servers, reads only the 
+    * first command of each packet and drops the rest.  Knows just enough
+    * commands to log in, track directories made, and answer NOOP.
+    */
+   private static final class SingleCommandFtpServer implements Runnable
+   {
+      private final ServerSocket serverSocket;
+
+      private final Set<String> directories = Collections.synchronizedSet(new HashSet<String>());
+
+      private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+      SingleCommandFtpServer() throws IOException
+      {
+         serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+         directories.add("/");
+      }
+
+      int getPort()
+      {
+         return serverSocket.getLocalPort();
+      }
+
+      boolean isDirectory(final String path)
+      {
+         return directories.contains(path);
+      }
+
+      void start()
+      {
+         final Thread thread = new Thread(this, "SingleCommandFtpServer");
+         thread.setDaemon(true);
+         thread.start();
+      }
+
+      void stop() throws IOException
+      {
+         serverSocket.close();
+         synchronized (sockets)
+         {
+            for (final Socket socket : sockets)
+            {
+               socket.close();
+            }
+         }
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            while (true)
+            {
+               final Socket socket = serverSocket.accept();
+               sockets.add(socket);
+               final Thread thread = new Thread(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     serve(socket);
+                  }
+               }, "SingleCommandFtpServer-Connection");
+               thread.setDaemon(true);
+               thread.start();
+            }
+         }
+         catch (final IOException ioe)
+         {
+            // Stopped
+         }
+      }
+
+      private void serve(final Socket socket)
+      {
+         try
+         {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            reply(out, "220 Ready");
+            String cwd = "/";
+            final byte[] buffer = new byte[8192];
+            final StringBuilder packet = new StringBuilder();
+            int read;
+            while ((read = in.read(buffer)) >= 0)
+            {
+               // Take the first line of what's arrived, dropping the rest
+               packet.append(new String(buffer, 0, read, "US-ASCII"));
+               final int end = packet.indexOf("\r\n");
+               if (end < 0)
+               {
+                  continue;
+               }
+               final String line = packet.substring(0, end);
+               packet.setLength(0);
+               final int space = line.indexOf(' ');
+               final String command = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ENGLISH);
+               final String argument = space < 0 ? null : line.substring(space + 1);
+               final String path = argument == null ? cwd : argument.startsWith("/") ? argument : ("/"
+                     .equals(cwd) ? "" : cwd) + "/" + argument;
+               if ("USER".equals(command))
+               {
+                  reply(out, "331 Password required");
+               }
+               else if ("PASS".equals(command))
+               {
+                  reply(out, "230 Logged in");
+               }
+               else if ("TYPE".equals(command) || "NOOP".equals(command))
+               {
+                  reply(out, "200 OK");
+               }
+               else if ("PWD".equals(command))
+               {
+                  reply(out, "257 \"" + cwd + "\" is the current directory");
+               }
+               else if ("CWD".equals(command) && directories.contains(path))
+               {
+                  cwd = path;
+                  reply(out, "250 OK");
+               }
+               else if ("MKD".equals(command) && directories.add(path))
+               {
+                  reply(out, "257 \"" + path + "\" created");
+               }
+               else if ("QUIT".equals(command))
+               {
+                  reply(out, "221 Bye");
+                  break;
+               }
+               else
+               {
+                  reply(out, "550 Refused");
+               }
+            }
+         }
+         catch (final IOException ioe)
+         {
+            // Connection closed
+         }
+         finally
+         {
+            try
+            {
+               socket.close();
+            }
+            catch (final IOException ioe)
+            {
+               // Already closing
+            }
+         }
+      }
+
+      private static void reply(final OutputStream out, final String reply) throws IOException
+      {
+         out.write((reply + "\r\n").getBytes("US-ASCII"));
+         out.flush();
+      }
+   }
 }
@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jboss.ejb3.examples.ch07.rsscache.impl.rome.TestRssCacheBean;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of reads of the RssCacheEJB, run as a POJO, while 
+ * one Thread continually refreshes the same feed from a slow upstream
+ * (an embedded HTTP Server delaying each response).  Reads should take 
+ * no longer during a refresh than without one (<code>readIdle</code>), 
+ * whatever the upstream delay, as they never wait upon the fetch; the
+ * percentiles of each read method are reported, ie.
+ * <code>java -jar target/benchmarks.jar RssCacheRead -p upstreamDelayMillis=200</code>
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RssCacheReadBenchmark
+{
+   // ---------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Port to which the HTTP Server binds
+    */
+   private static final int HTTP_BIND_PORT = 12345;
+
+   /**
+    * Content type of an RSS feed 
+    */
+   private static final String CONTENT_TYPE_RSS = "text/rss";
+
+   /**
+    * Number of Threads reading while another refreshes
+    */
+   private static final int READERS = 7;
+
+   // ---------------------------------------------------------------------------||
+   // State ---------------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Time for which the upstream delays each response, in milliseconds
+    */
+   @Param(
+   {"0", "100"})
+   int upstreamDelayMillis;
+
+   /**
+    * Number of entries in the feed
+    */
+   @Param(
+   {"15", "500"})
+   int entryCount;
+
+   /**
+    * The bean under test, used as a POJO
+    */
+   TestRssCacheBean bean;
+
+   Server httpServer;
+
+   /**
+    * URL of the feed, cached both as the bean's feed and by URL
+    */
+   URL url;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      // Start the server
+      httpServer = new Server(HTTP_BIND_PORT);
+      httpServer.setHandler(new SlowFeedHandler(createFeed(entryCount), upstreamDelayMillis));
+      httpServer.start();
+
+      // Cache the feed
+      url = new URL("http://localhost:" + HTTP_BIND_PORT + "/feed.rss");
+      bean = new TestRssCacheBean();
+      bean.setUrl(url);
+      bean.getEntries(url);
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      httpServer.stop();
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Benchmarks ----------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Reads the feed with no refresh in progress, as a baseline
+    */
+   @Benchmark
+   public List<RssEntry> readIdle()
+   {
+      return bean.getEntries();
+   }
+
+   @Benchmark
+   @Group("feed")
+   @GroupThreads(READERS)
+   public List<RssEntry> read()
+   {
+      return bean.getEntries();
+   }
+
+   @Benchmark
+   @Group("feed")
+   @GroupThreads(1)
+   public void refresh()
+   {
+      bean.refresh();
+   }
+
+   @Benchmark
+   @Group("feedByUrl")
+   @GroupThreads(READERS)
+   public List<RssEntry> readByUrl()
+   {
+      return bean.getEntries(url);
+   }
+
+   @Benchmark
+   @Group("feedByUrl")
+   @GroupThreads(1)
+   public void refreshByUrl()
+   {
+      bean.refresh(url);
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Creates an RSS feed of the specified number of entries
+    */
+   private static byte[] createFeed(final int entryCount) throws IOException
+   {
+      final StringBuilder feed = new StringBuilder();
+      feed.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      feed.append("<rss version=\"2.0\"><channel>");
+      feed.append("<title>Benchmark</title><link>http://localhost/</link><description>Benchmark</description>");
+      for (int i = 0; i < entryCount; i++)
+      {
+         feed.append("<item><title>Entry ").append(i).append("</title>");
+         feed.append("<link>http://localhost/entry/").append(i).append("</link>");
+         feed.append("<description>Description of entry ").append(i).append("</description>");
+         feed.append("<author>author@localhost</author></item>");
+      }
+      feed.append("</channel></rss>");
+      return feed.toString().getBytes("UTF-8");
+   }
+
+   // ---------------------------------------------------------------------------||
+   // Inner Classes -------------------------------------------------------------||
+   // ---------------------------------------------------------------------------||
+
+   /**
+    * Jetty Handler serving the same feed to any request after a delay, 
+    * as would a slow upstream
+    */
+   private static class SlowFeedHandler extends AbstractHandler implements Handler
+   {
+      private final byte[] feed;
+
+      private final long delayMillis;
+
+      SlowFeedHandler(final byte[] feed, final long delayMillis)
+      {
+         this.feed = feed;
+         this.delayMillis = delayMillis;
+      }
+
+      /*
+       * (non-Javadoc)
+       * @see org.mortbay.jetty.Handler#handle(java.lang.String, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, int)
+       */
+      public void handle(final String target, final HttpServletRequest request, final HttpServletResponse response,
+            final int dispatch) throws IOException, ServletException
+      {
+         try
+         {
+            Thread.sleep(delayMillis);
+         }
+         catch (final InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new ServletException("Interrupted while delaying the response");
+         }
+         response.setContentType(CONTENT_TYPE_RSS);
+         response.setStatus(HttpServletResponse.SC_OK);
+         response.setContentLength(feed.length);
+         final OutputStream out = response.getOutputStream();
+         out.write(feed);
+         out.close();
+      }
+   }
+}
@@ -0,0 +1,418 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FeedChange;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+
+import com.sun.syndication.feed.synd.SyndEntry;
+
+/**
+ * The cached entries of a single feed held in a {@link FeedCache}, 
+ * along with the state of its refreshes.  Refreshes of the feed are
+ * made while holding its monitor, so that only one is in progress
+ * at a time; the entries themselves may be read without locking.
+ * Refreshes are applied as a diff against the entries held, keyed by
+ * GUID (or link), such that unchanged entries are reused and only 
+ * those added or changed are made anew.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class CachedFeed
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * URL pointing to the feed
+    */
+   private final URL url;
+
+   /**
+    * Key of the feed within the cache, the external form of its URL (as
+    * {@link URL#equals(Object)} and {@link URL#hashCode()} resolve the host)
+    */
+   private final String key;
+
+   /**
+    * Maximum number of entries kept, those beyond being dropped
+    */
+   private final int maxEntries;
+
+   /**
+    * The entries, or null if the feed has yet to be obtained
+    */
+   private volatile List<RssEntry> entries;
+
+   /**
+    * The entries as last refreshed, empty if the feed has yet to be obtained; 
+    * guarded by the monitor of the feed
+    */
+   private List<RomeRssEntry> current = Collections.emptyList();
+
+   /**
+    * The entries as last refreshed, by key; guarded by the monitor of the feed
+    */
+   private Map<String, RomeRssEntry> index = Collections.emptyMap();
+
+   /**
+    * Time of the last successful refresh, in milliseconds since the epoch
+    */
+   private volatile long lastRefreshed;
+
+   /**
+    * Time of the last failed refresh, in milliseconds since the epoch
+    */
+   private volatile long lastFailed;
+
+   /**
+    * Number of refreshes failed since the last success
+    */
+   private volatile int consecutiveFailures;
+
+   /**
+    * Time for which the feed may be cached as last stated by the upstream, 
+    * in milliseconds, or 0 if not stated
+    */
+   private volatile long ttlMillis;
+
+   /**
+    * Time for which the feed may be cached as stated by the ttl of the RSS feed
+    * last obtained in full, in milliseconds, or 0 if not stated; guarded by the 
+    * monitor of the feed
+    */
+   private long rssTtlMillis;
+
+   /**
+    * ETag of the last full response, or null if none; guarded by the monitor of the feed
+    */
+   private String eTag;
+
+   /**
+    * Last-Modified of the last full response, or null if none; guarded by the monitor of the feed
+    */
+   private String lastModified;
+
+   /**
+    * Length of the last full response as received; guarded by the monitor of the feed
+    */
+   private long contentLength;
+
+   /**
+    * Number of times the feed has been requested; guarded by the owning {@link FeedCache}
+    */
+   int hits;
+
+   /**
+    * Whether the feed is held by a {@link FeedCache}, not yet evicted or removed
+    */
+   private volatile boolean cached;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates the state of a feed not yet obtained
+    * 
+    * @param url
+    * @param maxEntries
+    */
+   CachedFeed(final URL url, final int maxEntries)
+   {
+      this.url = ProtectExportUtil.copyUrl(url);
+      this.key = url.toExternalForm();
+      this.maxEntries = maxEntries;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Records a successful refresh, replacing the entries with those 
+    * specified, less any beyond the maximum kept (and any repeating the
+    * key of one before), and the validators of the response against which 
+    * the next refresh is made.  Entries unchanged since the last refresh 
+    * are reused; if none were added, removed or moved, the entries are
+    * kept as they are and nothing is allocated.  Must be called while
+    * holding the monitor of the feed.
+    * 
+    * @param incoming
+    * @param eTag
+    * @param lastModified
+    * @param contentLength
+    * @return The entries added and removed, or null if none 
+    */
+   FeedChange refreshed(final List<SyndEntry> incoming, final String eTag, final String lastModified,
+         final long contentLength)
+   {
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+      this.contentLength = contentLength;
+      this.lastRefreshed = System.currentTimeMillis();
+      this.consecutiveFailures = 0;
+
+      // Unchanged, the usual case if the upstream does not support conditional requests
+      final int size = Math.min(incoming.size(), maxEntries);
+      if (entries != null && this.isUnchanged(incoming, size))
+      {
+         return null;
+      }
+
+      // Reuse the entries unchanged, making anew those added or changed
+      final List<RomeRssEntry> refreshed = new ArrayList<RomeRssEntry>(size);
+      final Map<String, RomeRssEntry> refreshedIndex = new HashMap<String, RomeRssEntry>(size * 4 / 3 + 1);
+      final List<RssEntry> added = new ArrayList<RssEntry>();
+      for (int i = 0; i < size; i++)
+      {
+         final SyndEntry syndEntry = incoming.get(i);
+         final String entryKey = RomeRssEntry.keyOf(syndEntry);
+         if (refreshedIndex.containsKey(entryKey))
+         {
+            continue;
+         }
+         RomeRssEntry entry = index.get(entryKey);
+         if (entry == null || !entry.matches(syndEntry))
+         {
+            entry = new RomeRssEntry(syndEntry);
+            added.add(entry);
+         }
+         refreshed.add(entry);
+         refreshedIndex.put(entryKey, entry);
+      }
+      final List<RssEntry> removed = new ArrayList<RssEntry>();
+      for (final RomeRssEntry entry : current)
+      {
+         if (refreshedIndex.get(entry.getKey()) != entry)
+         {
+            removed.add(entry);
+         }
+      }
+
+      // Publish
+      final boolean first = entries == null;
+      this.current = refreshed;
+      this.index = refreshedIndex;
+      this.entries = Collections.<RssEntry> unmodifiableList(refreshed);
+      if (!first && added.isEmpty() && removed.isEmpty())
+      {
+         // Only moved
+         return null;
+      }
+      return new FeedChange(url, Collections.unmodifiableList(added), Collections.unmodifiableList(removed));
+   }
+
+   /**
+    * Records a successful refresh which found the feed unchanged; the entries are kept
+    */
+   void notModified()
+   {
+      this.lastRefreshed = System.currentTimeMillis();
+      this.consecutiveFailures = 0;
+   }
+
+   /**
+    * Records a failed refresh; the entries, if any, are kept
+    */
+   void failed()
+   {
+      this.lastFailed = System.currentTimeMillis();
+      this.consecutiveFailures++;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains whether the first specified number of incoming entries 
+    * are those held, unchanged and in the same order
+    * 
+    * @param incoming
+    * @param size
+    * @return
+    */
+   private boolean isUnchanged(final List<SyndEntry> incoming, final int size)
+   {
+      if (current.size() != size)
+      {
+         return false;
+      }
+      for (int i = 0; i < size; i++)
+      {
+         if (!current.get(i).matches(incoming.get(i)))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return The URL of the feed; callers must not mutate it
+    */
+   URL getUrl()
+   {
+      return url;
+   }
+
+   /**
+    * @return The key of the feed within the cache
+    */
+   String getKey()
+   {
+      return key;
+   }
+
+   /**
+    * @return The read-only entries, or null if the feed has yet to be obtained
+    */
+   List<RssEntry> getEntries()
+   {
+      return entries;
+   }
+
+   /**
+    * @return The ETag of the last full response, or null if none
+    */
+   String getETag()
+   {
+      return eTag;
+   }
+
+   /**
+    * @return The Last-Modified of the last full response, or null if none
+    */
+   String getLastModified()
+   {
+      return lastModified;
+   }
+
+   /**
+    * @return The length of the last full response as received
+    */
+   long getContentLength()
+   {
+      return contentLength;
+   }
+
+   /**
+    * @return The time for which the feed may be cached as last stated by the upstream, or 0 if not stated
+    */
+   long getTtlMillis()
+   {
+      return ttlMillis;
+   }
+
+   /**
+    * @param ttlMillis The time for which the feed may be cached as stated by the upstream, or 0 if not stated
+    */
+   void setTtlMillis(final long ttlMillis)
+   {
+      this.ttlMillis = ttlMillis;
+   }
+
+   /**
+    * @return The time for which the feed may be cached as stated by the ttl of the 
+    * RSS feed last obtained in full, or 0 if not stated; callers must hold the monitor of the feed
+    */
+   long getRssTtlMillis()
+   {
+      return rssTtlMillis;
+   }
+
+   /**
+    * @param rssTtlMillis The time for which the feed may be cached as stated by the ttl of 
+    * the RSS feed obtained in full, or 0 if not stated; callers must hold the monitor of the feed
+    */
+   void setRssTtlMillis(final long rssTtlMillis)
+   {
+      this.rssTtlMillis = rssTtlMillis;
+   }
+
+   /**
+    * @return Whether the feed is held by a {@link FeedCache}, not yet evicted or removed
+    */
+   boolean isCached()
+   {
+      return cached;
+   }
+
+   /**
+    * @param cached Whether the feed is held by a {@link FeedCache}
+    */
+   void setCached(final boolean cached)
+   {
+      this.cached = cached;
+   }
+
+   /**
+    * @return The time of the last successful refresh, or 0 if none
+    */
+   long getLastRefreshed()
+   {
+      return lastRefreshed;
+   }
+
+   /**
+    * @return The time of the last failed refresh, or 0 if none
+    */
+   long getLastFailed()
+   {
+      return lastFailed;
+   }
+
+   /**
+    * @return The number of refreshes failed since the last success
+    */
+   int getConsecutiveFailures()
+   {
+      return consecutiveFailures;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return key;
+   }
+}
@@ -0,0 +1,323 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Bounded cache of many feeds keyed by URL.  At most {@link FeedCache#getMaxFeeds()}
+ * feeds of at most {@link FeedCache#getMaxEntriesPerFeed()} entries each are held,
+ * so that the memory used is predictable however many feeds are requested;
+ * past that, a feed is evicted according to the {@link FeedEvictionPolicy}.
+ * Fetching of the feeds is left to the caller, and made outside of the cache's 
+ * lock, which guards only the bookkeeping.  Only feeds already obtained are 
+ * admitted, so requests for feeds which can't be obtained never evict others.
+ * Under {@link FeedEvictionPolicy#LFU} the request counts are halved once
+ * every {@link FeedCache#AGING_REQUESTS_PER_FEED} requests per feed held, so 
+ * feeds once popular but no longer requested don't stay forever.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FeedCache
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FeedCache.class.getName());
+
+   /**
+    * Number of requests, per feed which may be held, after which the 
+    * request counts are halved under {@link FeedEvictionPolicy#LFU}
+    */
+   static final int AGING_REQUESTS_PER_FEED = 16;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of feeds held
+    */
+   private final int maxFeeds;
+
+   /**
+    * Maximum number of entries held of each feed
+    */
+   private final int maxEntriesPerFeed;
+
+   /**
+    * Policy choosing the feed to evict
+    */
+   private final FeedEvictionPolicy policy;
+
+   /**
+    * Feeds by key, in order of least to most recently requested
+    */
+   private final LinkedHashMap<String, CachedFeed> feeds;
+
+   /**
+    * Requests counted since the request counts were last halved
+    */
+   private int requestsSinceAging;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates an empty cache
+    * 
+    * @param maxFeeds
+    * @param maxEntriesPerFeed
+    * @param policy
+    * @throws IllegalArgumentException If either maximum is not positive or the policy is not specified
+    */
+   FeedCache(final int maxFeeds, final int maxEntriesPerFeed, final FeedEvictionPolicy policy)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (maxFeeds <= 0 || maxEntriesPerFeed <= 0)
+      {
+         throw new IllegalArgumentException("Maximum feeds and entries per feed must be positive");
+      }
+      if (policy == null)
+      {
+         throw new IllegalArgumentException("Eviction policy must be specified");
+      }
+
+      // Set
+      this.maxFeeds = maxFeeds;
+      this.maxEntriesPerFeed = maxEntriesPerFeed;
+      this.policy = policy;
+      this.feeds = new LinkedHashMap<String, CachedFeed>(16, 0.75f, true);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the feed at the specified URL, counting the request, if cached
+    * 
+    * @param url
+    * @return The feed, or null if not cached; once obtained, it is to be {@link FeedCache#add(CachedFeed)}ed
+    */
+   synchronized CachedFeed get(final URL url)
+   {
+      final CachedFeed feed = feeds.get(url.toExternalForm());
+      if (feed != null)
+      {
+         this.hit(feed);
+      }
+      return feed;
+   }
+
+   /**
+    * Admits the specified feed, once obtained, counting the request that 
+    * obtained it and evicting another if at capacity.  If a feed of the 
+    * same URL was admitted meanwhile, that is kept and returned instead.
+    * 
+    * @param feed
+    * @return The feed cached at its URL
+    * @throws IllegalArgumentException If the feed is not specified or has not been obtained
+    */
+   synchronized CachedFeed add(final CachedFeed feed) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (feed == null)
+      {
+         throw new IllegalArgumentException("Feed must be specified");
+      }
+      if (feed.getEntries() == null)
+      {
+         throw new IllegalArgumentException("Feed must be obtained before it is cached: " + feed);
+      }
+
+      // Keep any obtained meanwhile
+      final CachedFeed existing = feeds.get(feed.getKey());
+      if (existing != null)
+      {
+         this.hit(existing);
+         return existing;
+      }
+
+      // Admit
+      feeds.put(feed.getKey(), feed);
+      feed.setCached(true);
+      if (feeds.size() > maxFeeds)
+      {
+         this.evict(feed);
+      }
+      this.hit(feed);
+      return feed;
+   }
+
+   /**
+    * Obtains whether the feed at the specified URL is cached,
+    * without counting a request
+    * 
+    * @param url
+    * @return
+    */
+   synchronized boolean contains(final URL url)
+   {
+      return feeds.containsKey(url.toExternalForm());
+   }
+
+   /**
+    * Obtains whether the specified feed is still cached, and not 
+    * evicted or replaced, without counting a request
+    * 
+    * @param feed
+    * @return
+    */
+   boolean isCached(final CachedFeed feed)
+   {
+      return feed.isCached();
+   }
+
+   /**
+    * Obtains all feeds cached, in order of least to most recently requested
+    * 
+    * @return
+    */
+   synchronized List<CachedFeed> getFeeds()
+   {
+      return new ArrayList<CachedFeed>(feeds.values());
+   }
+
+   /**
+    * Removes all feeds
+    */
+   synchronized void clear()
+   {
+      for (final CachedFeed feed : feeds.values())
+      {
+         feed.setCached(false);
+      }
+      feeds.clear();
+      requestsSinceAging = 0;
+   }
+
+   /**
+    * @return The number of feeds cached
+    */
+   synchronized int size()
+   {
+      return feeds.size();
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors / Mutators ---------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return The maximum number of feeds held
+    */
+   int getMaxFeeds()
+   {
+      return maxFeeds;
+   }
+
+   /**
+    * @return The maximum number of entries held of each feed
+    */
+   int getMaxEntriesPerFeed()
+   {
+      return maxEntriesPerFeed;
+   }
+
+   /**
+    * @return The policy choosing the feed to evict
+    */
+   FeedEvictionPolicy getPolicy()
+   {
+      return policy;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Counts a request of the specified feed; under {@link FeedEvictionPolicy#LFU},
+    * halves the counts of all feeds once enough requests have been made since
+    * last halved, so recent requests weigh more than those long past
+    * 
+    * @param feed
+    */
+   private void hit(final CachedFeed feed)
+   {
+      feed.hits++;
+      if (policy == FeedEvictionPolicy.LFU && ++requestsSinceAging >= (long) maxFeeds * AGING_REQUESTS_PER_FEED)
+      {
+         for (final CachedFeed cached : feeds.values())
+         {
+            cached.hits >>>= 1;
+         }
+         requestsSinceAging = 0;
+         log.fine("Aged request counts of " + feeds.size() + " feeds");
+      }
+   }
+
+   /**
+    * Evicts a feed other than that just added; under {@link FeedEvictionPolicy#LFU},
+    * found by a scan, which costs little against the fetch of the feed being added
+    * 
+    * @param added
+    */
+   private void evict(final CachedFeed added)
+   {
+      CachedFeed victim = null;
+      final Iterator<CachedFeed> feeds = this.feeds.values().iterator();
+      while (feeds.hasNext())
+      {
+         final CachedFeed feed = feeds.next();
+         if (feed == added)
+         {
+            continue;
+         }
+         if (policy == FeedEvictionPolicy.LRU)
+         {
+            victim = feed;
+            break;
+         }
+         if (victim == null || feed.hits < victim.hits)
+         {
+            victim = feed;
+         }
+      }
+      this.feeds.remove(victim.getKey());
+      victim.setCached(false);
+      log.fine("Evicted feed: " + victim);
+   }
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded record of the feeds which could not be obtained, keyed by URL,
+ * so that a feed whose upstream is failing is not fetched again upon every 
+ * request for it.  After each consecutive failure the feed is not to be 
+ * fetched again for an interval which doubles, up to the maximum.  At most 
+ * {@link FeedFailures#getMaxFeeds()} feeds are recorded; past that, the feed 
+ * failed least recently is forgotten.  Feeds obtained are no longer recorded.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FeedFailures
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of feeds recorded
+    */
+   private final int maxFeeds;
+
+   /**
+    * Interval after the first failure
+    */
+   private final long minBackoffMillis;
+
+   /**
+    * Longest interval, however many the failures
+    */
+   private final long maxBackoffMillis;
+
+   /**
+    * Failures by key, in order of least to most recently failed; guarded by its own monitor
+    */
+   private final Map<String, Failure> failures;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates an empty record
+    * 
+    * @param maxFeeds
+    * @param minBackoffMillis
+    * @param maxBackoffMillis
+    * @throws IllegalArgumentException If any is not positive, or the minimum exceeds the maximum
+    */
+   FeedFailures(final int maxFeeds, final long minBackoffMillis, final long maxBackoffMillis)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (maxFeeds <= 0)
+      {
+         throw new IllegalArgumentException("Maximum feeds must be positive");
+      }
+      if (minBackoffMillis <= 0 || minBackoffMillis > maxBackoffMillis)
+      {
+         throw new IllegalArgumentException("Minimum backoff must be positive and no greater than the maximum");
+      }
+
+      // Set
+      this.maxFeeds = maxFeeds;
+      this.minBackoffMillis = minBackoffMillis;
+      this.maxBackoffMillis = maxBackoffMillis;
+      this.failures = new LinkedHashMap<String, Failure>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(final Map.Entry<String, Failure> eldest)
+         {
+            return this.size() > FeedFailures.this.maxFeeds;
+         }
+      };
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains whether the feed at the specified URL failed too recently to be fetched again
+    * 
+    * @param url
+    * @param nowMillis The current time
+    * @return
+    */
+   boolean isBackingOff(final URL url, final long nowMillis)
+   {
+      synchronized (failures)
+      {
+         final Failure failure = failures.get(url.toExternalForm());
+         return failure != null
+               && nowMillis - failure.lastFailedMillis < this.getBackoffMillis(failure.consecutiveFailures);
+      }
+   }
+
+   /**
+    * Records a failure to obtain the feed at the specified URL
+    * 
+    * @param url
+    * @param nowMillis The time of the failure
+    */
+   void failed(final URL url, final long nowMillis)
+   {
+      synchronized (failures)
+      {
+         final String key = url.toExternalForm();
+         Failure failure = failures.get(key);
+         if (failure == null)
+         {
+            failure = new Failure();
+            failures.put(key, failure);
+         }
+         failure.consecutiveFailures++;
+         failure.lastFailedMillis = nowMillis;
+      }
+   }
+
+   /**
+    * Forgets any failures of the feed at the specified URL, now obtained
+    * 
+    * @param url
+    */
+   void obtained(final URL url)
+   {
+      synchronized (failures)
+      {
+         failures.remove(url.toExternalForm());
+      }
+   }
+
+   /**
+    * Obtains the interval after the specified number of consecutive failures
+    * during which a feed is not fetched again
+    * 
+    * @param consecutiveFailures
+    * @return
+    */
+   long getBackoffMillis(final int consecutiveFailures)
+   {
+      long backoff = minBackoffMillis;
+      for (int i = 1; i < consecutiveFailures && backoff < maxBackoffMillis; i++)
+      {
+         backoff *= 2;
+      }
+      return Math.min(backoff, maxBackoffMillis);
+   }
+
+   /**
+    * @return The number of feeds recorded
+    */
+   int size()
+   {
+      synchronized (failures)
+      {
+         return failures.size();
+      }
+   }
+
+   /**
+    * @return The maximum number of feeds recorded
+    */
+   int getMaxFeeds()
+   {
+      return maxFeeds;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * The failures of a feed since it was last obtained; guarded by the monitor of the record
+    */
+   private static final class Failure
+   {
+      private int consecutiveFailures;
+
+      private long lastFailedMillis;
+   }
+}
@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refreshes feeds in the background, each upon its own timer, over a 
+ * bounded pool of worker Threads.  The interval of each feed is that
+ * stated by the upstream (ttl or Cache-Control), within bounds, or else 
+ * the default; it doubles with each consecutive failure, so a failing
+ * upstream is asked less often.  Every interval is randomly lengthened or 
+ * shortened a little, so that feeds obtained together do not stay
+ * in step and all hit their upstreams at once.
+ * 
+ * A feed is refreshed until the {@link Refresher} reports it no longer
+ * cached.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class FeedRefreshScheduler
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FeedRefreshScheduler.class.getName());
+
+   /**
+    * Number of Threads created by all schedulers, for naming
+    */
+   private static final AtomicInteger threadCount = new AtomicInteger();
+
+   /**
+    * Maximum number of doublings of the interval upon failure
+    */
+   private static final int MAX_BACKOFF_DOUBLINGS = 20;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Refreshes the feeds
+    */
+   private final Refresher refresher;
+
+   /**
+    * Interval of a feed whose upstream states none
+    */
+   private final long defaultIntervalMillis;
+
+   /**
+    * Shortest interval, whatever the upstream states
+    */
+   private final long minIntervalMillis;
+
+   /**
+    * Longest interval, including upon backoff
+    */
+   private final long maxIntervalMillis;
+
+   /**
+    * Greatest fraction by which an interval is lengthened or shortened
+    */
+   private final double jitter;
+
+   /**
+    * Workers running the refreshes when due
+    */
+   private final ScheduledThreadPoolExecutor workers;
+
+   /**
+    * Source of the jitter
+    */
+   private final Random random = new Random();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a scheduler; its worker Threads are daemons, created as needed
+    * and timing out while no refresh is due
+    * 
+    * @param refresher
+    * @param workers Maximum number of feeds refreshed at once
+    * @param defaultIntervalMillis
+    * @param minIntervalMillis
+    * @param maxIntervalMillis
+    * @param jitter
+    * @throws IllegalArgumentException If the refresher is not specified, the number of 
+    *   workers or intervals are not positive or out of order, or the jitter is not within [0,1)
+    */
+   FeedRefreshScheduler(final Refresher refresher, final int workers, final long defaultIntervalMillis,
+         final long minIntervalMillis, final long maxIntervalMillis, final double jitter)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (refresher == null)
+      {
+         throw new IllegalArgumentException("Refresher must be specified");
+      }
+      if (workers <= 0 || minIntervalMillis <= 0 || minIntervalMillis > defaultIntervalMillis
+            || defaultIntervalMillis > maxIntervalMillis)
+      {
+         throw new IllegalArgumentException("Workers and intervals must be positive, with the default "
+               + "within the minimum and maximum");
+      }
+      if (jitter < 0 || jitter >= 1)
+      {
+         throw new IllegalArgumentException("Jitter must be within [0,1): " + jitter);
+      }
+
+      // Set
+      this.refresher = refresher;
+      this.defaultIntervalMillis = defaultIntervalMillis;
+      this.minIntervalMillis = minIntervalMillis;
+      this.maxIntervalMillis = maxIntervalMillis;
+      this.jitter = jitter;
+      this.workers = new ScheduledThreadPoolExecutor(workers, new ThreadFactory()
+      {
+         @Override
+         public Thread newThread(final Runnable r)
+         {
+            final Thread thread = new Thread(r, "RssCacheEJB-Refresh-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      this.workers.setKeepAliveTime(60, TimeUnit.SECONDS);
+      this.workers.allowCoreThreadTimeOut(true);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Schedules the next refresh of the specified feed, by its 
+    * stated interval and consecutive failures
+    * 
+    * @param feed
+    */
+   void schedule(final CachedFeed feed)
+   {
+      final long delay = this.getDelayMillis(feed.getTtlMillis(), feed.getConsecutiveFailures(), random
+            .nextDouble());
+      try
+      {
+         workers.schedule(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               FeedRefreshScheduler.this.refresh(feed);
+            }
+         }, delay, TimeUnit.MILLISECONDS);
+         log.fine("Scheduled refresh of " + feed + " in " + delay + "ms");
+      }
+      catch (final RejectedExecutionException ree)
+      {
+         // Shut down
+         log.fine("Not scheduling refresh of " + feed + "; scheduler is shut down");
+      }
+   }
+
+   /**
+    * Stops all refreshes; those in progress are allowed to finish
+    */
+   void shutdown()
+   {
+      workers.shutdownNow();
+   }
+
+   /**
+    * Obtains the delay before the next refresh of a feed
+    * 
+    * @param ttlMillis Interval stated by the upstream, or 0 if none
+    * @param consecutiveFailures Number of refreshes failed since the last success
+    * @param random Uniformly distributed within [0,1), choosing the jitter 
+    * @return
+    */
+   long getDelayMillis(final long ttlMillis, final int consecutiveFailures, final double random)
+   {
+      // The interval, as stated within bounds
+      long interval = ttlMillis > 0
+            ? Math.min(Math.max(ttlMillis, minIntervalMillis), maxIntervalMillis)
+            : defaultIntervalMillis;
+
+      // Back off upon failure
+      final int doublings = Math.min(consecutiveFailures, MAX_BACKOFF_DOUBLINGS);
+      for (int i = 0; i < doublings && interval < maxIntervalMillis; i++)
+      {
+         interval *= 2;
+      }
+      interval = Math.min(interval, maxIntervalMillis);
+
+      // Jitter
+      return Math.max(1, interval + (long) (interval * jitter * (2 * random - 1)));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Refreshes the specified feed, and unless no longer cached 
+    * schedules the next refresh
+    */
+   private void refresh(final CachedFeed feed)
+   {
+      try
+      {
+         if (!refresher.refresh(feed))
+         {
+            log.fine("No longer refreshing " + feed + "; no longer cached");
+            return;
+         }
+      }
+      catch (final RuntimeException re)
+      {
+         // Recorded upon the feed, so back off
+         log.log(Level.WARNING, "Scheduled refresh of " + feed + " failed " + feed.getConsecutiveFailures()
+               + " time(s) in a row", re);
+      }
+      this.schedule(feed);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Refreshes a feed upon the schedule
+    */
+   interface Refresher
+   {
+      /**
+       * Refreshes the specified feed, recording the outcome upon it
+       * 
+       * @param feed
+       * @return false if the feed is no longer cached, and was not refreshed
+       */
+      boolean refresh(CachedFeed feed);
+   }
+}
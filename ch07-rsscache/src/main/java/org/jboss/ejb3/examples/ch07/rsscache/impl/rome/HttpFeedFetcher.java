@@ -0,0 +1,424 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FetchStatistics;
+
+import com.sun.syndication.feed.WireFeed;
+import com.sun.syndication.feed.rss.Channel;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+import com.sun.syndication.fetcher.FetcherException;
+import com.sun.syndication.io.FeedException;
+import com.sun.syndication.io.WireFeedInput;
+import com.sun.syndication.io.XmlReader;
+
+/**
+ * Fetches RSS Feeds over HTTP through a shared pool of keep-alive 
+ * connections, asking for a compressed response, and conditionally
+ * upon the validators (ETag and Last-Modified) of the last full 
+ * response, so that a feed found unchanged is neither received 
+ * nor parsed again.  Reports how long the feed may be cached, by the
+ * Cache-Control max-age of the response and, of a full response, the ttl
+ * of an RSS feed.  Keeps count of the responses and bytes received.
+ * 
+ * Thread-safe.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+final class HttpFeedFetcher
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of connections kept open to any one host
+    */
+   private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+   /**
+    * Maximum number of connections kept open in all
+    */
+   private static final int MAX_CONNECTIONS = 64;
+
+   /**
+    * Time allowed to connect, in milliseconds
+    */
+   private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+   /**
+    * Time allowed between reads of the response, in milliseconds
+    */
+   private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+   private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+   private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+   private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+   private static final String HEADER_ETAG = "ETag";
+
+   private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+   private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+   private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+   private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+
+   private static final String CACHE_CONTROL_MAX_AGE = "max-age=";
+
+   private static final String ENCODING_GZIP = "gzip";
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Pool of the connections, reused between requests
+    */
+   private final MultiThreadedHttpConnectionManager connectionManager;
+
+   /**
+    * Client issuing the requests over the pooled connections
+    */
+   private final HttpClient client;
+
+   private final AtomicLong fetchedCount = new AtomicLong();
+
+   private final AtomicLong notModifiedCount = new AtomicLong();
+
+   private final AtomicLong failedCount = new AtomicLong();
+
+   private final AtomicLong bytesReceived = new AtomicLong();
+
+   private final AtomicLong bytesSaved = new AtomicLong();
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   HttpFeedFetcher()
+   {
+      connectionManager = new MultiThreadedHttpConnectionManager();
+      final HttpConnectionManagerParams params = connectionManager.getParams();
+      params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+      params.setMaxTotalConnections(MAX_CONNECTIONS);
+      params.setConnectionTimeout(CONNECT_TIMEOUT_MILLIS);
+      params.setSoTimeout(READ_TIMEOUT_MILLIS);
+      client = new HttpClient(connectionManager);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Fetches the feed at the specified URL, unless unchanged since the 
+    * response of the specified validators
+    * 
+    * @param url
+    * @param eTag ETag of the last full response, or null if none
+    * @param lastModified Last-Modified of the last full response, or null if none
+    * @param contentLength Length of the last full response as received, counted as saved if unchanged
+    * @return The response, without a feed if unchanged
+    * @throws IOException If the feed could not be received
+    * @throws FetcherException If the response is neither the feed nor unchanged
+    * @throws FeedException If the feed could not be parsed
+    */
+   Response fetch(final URL url, final String eTag, final String lastModified, final long contentLength)
+         throws IOException, FetcherException, FeedException
+   {
+      // Ask for a compressed response, and only if changed
+      final GetMethod method = new GetMethod(url.toExternalForm());
+      method.setFollowRedirects(true);
+      method.setRequestHeader(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+      if (eTag != null)
+      {
+         method.setRequestHeader(HEADER_IF_NONE_MATCH, eTag);
+      }
+      if (lastModified != null)
+      {
+         method.setRequestHeader(HEADER_IF_MODIFIED_SINCE, lastModified);
+      }
+
+      boolean succeeded = false;
+      try
+      {
+         // Unchanged, so we're done
+         final int status = client.executeMethod(method);
+         final long maxAgeMillis = getMaxAgeMillis(method);
+         if (status == HttpStatus.SC_NOT_MODIFIED)
+         {
+            notModifiedCount.incrementAndGet();
+            bytesSaved.addAndGet(contentLength);
+            succeeded = true;
+            return new Response(null, eTag, lastModified, contentLength, maxAgeMillis, 0);
+         }
+         if (status != HttpStatus.SC_OK)
+         {
+            throw new FetcherException(status, "Unexpected response from " + url + ": " + status);
+         }
+         final InputStream body = method.getResponseBodyAsStream();
+         if (body == null)
+         {
+            throw new IOException("No feed in the response from " + url);
+         }
+
+         // Parse, counting the bytes both as received and decompressed
+         final CountingInputStream received = new CountingInputStream(body);
+         final boolean compressed = ENCODING_GZIP.equalsIgnoreCase(getHeader(method, HEADER_CONTENT_ENCODING));
+         final CountingInputStream decoded = new CountingInputStream(compressed
+               ? new GZIPInputStream(received)
+               : received);
+         final WireFeed wireFeed = new WireFeedInput().build(new XmlReader(decoded, getHeader(method,
+               HEADER_CONTENT_TYPE), true));
+         final long ttlMillis = wireFeed instanceof Channel && ((Channel) wireFeed).getTtl() > 0
+               ? ((Channel) wireFeed).getTtl() * 60L * 1000L
+               : 0;
+
+         // Account
+         fetchedCount.incrementAndGet();
+         bytesReceived.addAndGet(received.count);
+         if (compressed)
+         {
+            bytesSaved.addAndGet(Math.max(0, decoded.count - received.count));
+         }
+         succeeded = true;
+         return new Response(new SyndFeedImpl(wireFeed), getHeader(method, HEADER_ETAG), getHeader(method,
+               HEADER_LAST_MODIFIED), received.count, maxAgeMillis, ttlMillis);
+      }
+      finally
+      {
+         if (!succeeded)
+         {
+            failedCount.incrementAndGet();
+         }
+
+         // Give the connection back to the pool to be kept alive
+         method.releaseConnection();
+      }
+   }
+
+   /**
+    * Closes all pooled connections; no further feeds may be fetched
+    */
+   void shutdown()
+   {
+      connectionManager.shutdown();
+   }
+
+   /**
+    * @return A snapshot of the counts of responses and bytes received
+    */
+   FetchStatistics getStatistics()
+   {
+      return new FetchStatistics(fetchedCount.get(), notModifiedCount.get(), failedCount.get(), bytesReceived
+            .get(), bytesSaved.get());
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the value of the specified response header, or null if not present
+    */
+   private static String getHeader(final HttpMethod method, final String name)
+   {
+      final Header header = method.getResponseHeader(name);
+      return header == null ? null : header.getValue();
+   }
+
+   /**
+    * Obtains the max-age of the Cache-Control response header in milliseconds, or 0 if none
+    */
+   private static long getMaxAgeMillis(final HttpMethod method)
+   {
+      final String cacheControl = getHeader(method, HEADER_CACHE_CONTROL);
+      if (cacheControl == null)
+      {
+         return 0;
+      }
+      for (final String directive : cacheControl.split(","))
+      {
+         final String trimmed = directive.trim().toLowerCase(Locale.ENGLISH);
+         if (trimmed.startsWith(CACHE_CONTROL_MAX_AGE))
+         {
+            try
+            {
+               return Math.max(0, Long.parseLong(trimmed.substring(CACHE_CONTROL_MAX_AGE.length())) * 1000L);
+            }
+            catch (final NumberFormatException nfe)
+            {
+               return 0;
+            }
+         }
+      }
+      return 0;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * A response: the feed if changed, along with the validators of the last
+    * full response and how long the feed may be cached
+    */
+   static final class Response
+   {
+      private final SyndFeed feed;
+
+      private final String eTag;
+
+      private final String lastModified;
+
+      private final long contentLength;
+
+      private final long maxAgeMillis;
+
+      private final long ttlMillis;
+
+      private Response(final SyndFeed feed, final String eTag, final String lastModified, final long contentLength,
+            final long maxAgeMillis, final long ttlMillis)
+      {
+         this.feed = feed;
+         this.eTag = eTag;
+         this.lastModified = lastModified;
+         this.contentLength = contentLength;
+         this.maxAgeMillis = maxAgeMillis;
+         this.ttlMillis = ttlMillis;
+      }
+
+      /**
+       * @return The feed, or null if unchanged
+       */
+      SyndFeed getFeed()
+      {
+         return feed;
+      }
+
+      String getETag()
+      {
+         return eTag;
+      }
+
+      String getLastModified()
+      {
+         return lastModified;
+      }
+
+      long getContentLength()
+      {
+         return contentLength;
+      }
+
+      /**
+       * @return The time for which the feed may be cached as stated by the Cache-Control
+       * max-age of the response, or 0 if not stated
+       */
+      long getMaxAgeMillis()
+      {
+         return maxAgeMillis;
+      }
+
+      /**
+       * @return The time for which the feed may be cached as stated by the ttl of 
+       * the RSS feed, or 0 if not stated or the feed is unchanged
+       */
+      long getTtlMillis()
+      {
+         return ttlMillis;
+      }
+   }
+
+   /**
+    * Counts the bytes read through it
+    */
+   private static final class CountingInputStream extends FilterInputStream
+   {
+      private long count;
+
+      CountingInputStream(final InputStream in)
+      {
+         super(in);
+      }
+
+      /* (non-Javadoc)
+       * @see java.io.FilterInputStream#read()
+       */
+      @Override
+      public int read() throws IOException
+      {
+         final int b = super.read();
+         if (b != -1)
+         {
+            count++;
+         }
+         return b;
+      }
+
+      /* (non-Javadoc)
+       * @see java.io.FilterInputStream#read(byte[], int, int)
+       */
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException
+      {
+         final int read = super.read(b, off, len);
+         if (read > 0)
+         {
+            count += read;
+         }
+         return read;
+      }
+
+      /* (non-Javadoc)
+       * @see java.io.FilterInputStream#skip(long)
+       */
+      @Override
+      public long skip(final long n) throws IOException
+      {
+         final long skipped = super.skip(n);
+         count += skipped;
+         return skipped;
+      }
+   }
+}
@@ -61,6 +61,17 @@ public class RomeRssEntry implements RssEntry
     */
    private URL url;
 
+   /**
+    * The link to the entry as given by the feed, against which refreshed
+    * entries are compared
+    */
+   private final String link;
+
+   /**
+    * Identity of the entry within its feed: its GUID, or else its link
+    */
+   private final String key;
+
    //-------------------------------------------------------------------------------------||
    // Constructor ------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -89,6 +100,48 @@ public class RomeRssEntry implements RssEntry
          throw new RuntimeException("Obtained invalid URL from Rome RSS entry: " + entry, murle);
       }
       this.url = url;
+      this.link = urlString;
+      this.key = keyOf(entry);
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the identity of the specified entry within its feed: its GUID 
+    * (which Rome exposes as the URI), or else its link
+    * 
+    * @param entry
+    * @return
+    */
+   static String keyOf(final SyndEntry entry)
+   {
+      final String uri = entry.getUri();
+      return uri != null ? uri : entry.getLink();
+   }
+
+   /**
+    * Obtains whether the specified Rome entry is this one unchanged, so 
+    * that this may be reused rather than made anew
+    * 
+    * @param entry
+    * @return
+    */
+   boolean matches(final SyndEntry entry)
+   {
+      final SyndContent content = entry.getDescription();
+      return equals(key, keyOf(entry)) && equals(title, entry.getTitle()) && equals(author, entry.getAuthor())
+            && equals(description, content == null ? null : content.getValue())
+            && equals(link, entry.getLink());
+   }
+
+   /**
+    * @return The identity of the entry within its feed
+    */
+   String getKey()
+   {
+      return key;
    }
 
    //-------------------------------------------------------------------------------------||
@@ -144,7 +197,16 @@ public class RomeRssEntry implements RssEntry
       final StringBuilder sb = new StringBuilder();
       sb.append(this.getTitle());
       sb.append(" - ");
-      sb.append(this.url.toExternalForm());
+      sb.append(this.link);
       return sb.toString();
    }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static boolean equals(final String a, final String b)
+   {
+      return a == null ? b == null : a.equals(b);
+   }
 }
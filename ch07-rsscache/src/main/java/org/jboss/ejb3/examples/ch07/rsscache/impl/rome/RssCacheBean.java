@@ -3,40 +3,57 @@ package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
-import javax.ejb.Lock;
-import javax.ejb.LockType;
 import javax.ejb.Remote;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FeedChange;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FeedChangeListener;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FetchStatistics;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
 
 import com.sun.syndication.feed.synd.SyndEntry;
-import com.sun.syndication.feed.synd.SyndFeed;
-import com.sun.syndication.fetcher.FeedFetcher;
 import com.sun.syndication.fetcher.FetcherException;
-import com.sun.syndication.fetcher.impl.HttpClientFeedFetcher;
 import com.sun.syndication.io.FeedException;
 
 /**
  * Singleton EJB, to be eagerly instantiated upon application deployment,
- * exposing a cached view of an RSS Feed
+ * exposing a cached view of an RSS Feed, and of any number of further
+ * feeds requested by URL held in a bounded {@link FeedCache}.
+ * 
+ * Readers never wait upon a refresh: the entries of each feed are an
+ * immutable snapshot, replaced whole through a volatile reference once
+ * a refresh has fetched and parsed the feed outside of any lock.  Refreshes
+ * of the same feed are serialized upon the feed alone, so concurrency is
+ * managed by the bean rather than the container.  Feeds are fetched 
+ * through the {@link HttpFeedFetcher}, which reuses connections and 
+ * asks only for feeds changed since they were last fetched.  Once obtained,
+ * each feed is refreshed in the background by the {@link FeedRefreshScheduler},
+ * so clients need not call {@link RssCacheBean#refresh()} themselves.
+ * Each refresh reuses the entries unchanged since the last, and the 
+ * entries added and removed are published to any {@link FeedChangeListener}s.
+ * Feeds requested by URL which can't be obtained are recorded in the
+ * {@link FeedFailures}, and not fetched again until backed off.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
 @Singleton
 @Startup
 @Remote(RssCacheCommonBusiness.class)
-// Explicitly declare Container Managed Concurrency, which is unnecessary; it's the default
-@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+// Readers must not be serialized behind a refresh by the container
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class RssCacheBean implements RssCacheCommonBusiness
 {
 
@@ -49,19 +66,106 @@ public class RssCacheBean implements RssCacheCommonBusiness
     */
    private static final Logger log = Logger.getLogger(RssCacheBean.class.getName());
 
+   /**
+    * Default maximum number of feeds requested by URL to be cached
+    */
+   private static final int DEFAULT_MAX_FEEDS = 1000;
+
+   /**
+    * Default maximum number of entries cached of each feed requested by URL
+    */
+   private static final int DEFAULT_MAX_ENTRIES_PER_FEED = 100;
+
+   /**
+    * Maximum number of feeds refreshed in the background at once
+    */
+   private static final int REFRESH_WORKERS = 4;
+
+   /**
+    * Interval between refreshes of a feed stating none
+    */
+   private static final long REFRESH_INTERVAL_DEFAULT_MILLIS = 15 * 60 * 1000L;
+
+   /**
+    * Shortest interval between refreshes, whatever the feed states
+    */
+   private static final long REFRESH_INTERVAL_MIN_MILLIS = 60 * 1000L;
+
+   /**
+    * Longest interval between refreshes, including upon backoff after failures
+    */
+   private static final long REFRESH_INTERVAL_MAX_MILLIS = 24 * 60 * 60 * 1000L;
+
+   /**
+    * Greatest fraction by which an interval between refreshes is randomly lengthened or shortened
+    */
+   private static final double REFRESH_INTERVAL_JITTER = 0.1;
+
+   /**
+    * Maximum number of feeds which could not be obtained to be remembered
+    */
+   private static final int MAX_FAILED_FEEDS = 256;
+
+   /**
+    * Interval after a first failure to obtain a feed during which it is not fetched again
+    */
+   private static final long FAILED_FEED_BACKOFF_MIN_MILLIS = 30 * 1000L;
+
+   /**
+    * Longest interval after failures to obtain a feed during which it is not fetched again
+    */
+   private static final long FAILED_FEED_BACKOFF_MAX_MILLIS = 60 * 60 * 1000L;
+
    //-------------------------------------------------------------------------------------||
    // Instance Members -------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
 
    /**
-    * URL pointing to the RSS Feed
+    * The RSS Feed, holding its URL and cached entries
+    */
+   private volatile CachedFeed feed;
+
+   /**
+    * Cache of the feeds requested by URL
+    */
+   private volatile FeedCache feeds = new FeedCache(DEFAULT_MAX_FEEDS, DEFAULT_MAX_ENTRIES_PER_FEED, FeedEvictionPolicy.LRU);
+
+   /**
+    * Observers of the changes made to feeds by refreshes
     */
-   private URL url;
+   private final List<FeedChangeListener> listeners = new CopyOnWriteArrayList<FeedChangeListener>();
 
    /**
-    * Cached RSS Entries for the feed
+    * Fetches all feeds over shared connections
     */
-   private List<RssEntry> entries;
+   private final HttpFeedFetcher fetcher = new HttpFeedFetcher();
+
+   /**
+    * Feeds requested by URL which could not be obtained, and are not fetched again until backed off
+    */
+   private final FeedFailures failures = new FeedFailures(MAX_FAILED_FEEDS, FAILED_FEED_BACKOFF_MIN_MILLIS,
+         FAILED_FEED_BACKOFF_MAX_MILLIS);
+
+   /**
+    * Refreshes the feed and those cached by URL in the background, until replaced or evicted
+    */
+   private final FeedRefreshScheduler scheduler = new FeedRefreshScheduler(new FeedRefreshScheduler.Refresher()
+   {
+      @Override
+      public boolean refresh(final CachedFeed feed)
+      {
+         if (feed != RssCacheBean.this.feed && !feeds.isCached(feed))
+         {
+            return false;
+         }
+         synchronized (feed)
+         {
+            RssCacheBean.this.refresh(feed);
+         }
+         return true;
+      }
+   }, REFRESH_WORKERS, REFRESH_INTERVAL_DEFAULT_MILLIS, REFRESH_INTERVAL_MIN_MILLIS, REFRESH_INTERVAL_MAX_MILLIS,
+         REFRESH_INTERVAL_JITTER);
 
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
@@ -71,21 +175,70 @@ public class RssCacheBean implements RssCacheCommonBusiness
     * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getEntries()
     */
    @Override
-   @Lock(LockType.READ)
    public List<RssEntry> getEntries()
    {
-      return entries;
+      final CachedFeed feed = this.feed;
+      return feed == null ? null : feed.getEntries();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getEntries(java.net.URL)
+    */
+   @Override
+   public List<RssEntry> getEntries(final URL url) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (url == null)
+      {
+         throw new IllegalArgumentException("URL must be specified");
+      }
+
+      // Cached feeds have always been obtained
+      return this.getFeed(url).getEntries();
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getEntries(java.util.Collection)
+    */
+   @Override
+   public List<RssEntry> getEntries(final Collection<URL> urls) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (urls == null)
+      {
+         throw new IllegalArgumentException("URLs must be specified");
+      }
+
+      // Aggregate the entries of each feed
+      final List<RssEntry> entries = new ArrayList<RssEntry>();
+      for (final URL url : urls)
+      {
+         if (url != null && failures.isBackingOff(url, System.currentTimeMillis()))
+         {
+            log.fine("Feed failed recently, skipping: " + url);
+            continue;
+         }
+         try
+         {
+            entries.addAll(this.getEntries(url));
+         }
+         catch (final RuntimeException re)
+         {
+            log.log(Level.WARNING, "Could not obtain feed, skipping: " + url, re);
+         }
+      }
+      return Collections.unmodifiableList(entries);
    }
 
    /* (non-Javadoc)
     * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getUrl()
     */
-   @Lock(LockType.READ)
    @Override
    public URL getUrl()
    {
       // Return a copy so we don't export mutable state to the client
-      return ProtectExportUtil.copyUrl(this.url);
+      final CachedFeed feed = this.feed;
+      return feed == null ? null : ProtectExportUtil.copyUrl(feed.getUrl());
    }
 
    /**
@@ -94,61 +247,102 @@ public class RssCacheBean implements RssCacheCommonBusiness
     */
    @PostConstruct
    @Override
-   // Block all readers and writers until we're done here; Optional metadata, WRITE is the default
-   @Lock(LockType.WRITE)
    public void refresh() throws IllegalStateException
    {
 
-      // Obtain the URL
-      final URL url = this.url;
-      if (url == null)
+      // Obtain the feed
+      final CachedFeed feed = this.feed;
+      if (feed == null)
       {
          throw new IllegalStateException("The Feed URL has not been set");
       }
-      log.info("Requested: " + url);
 
-      // Obtain the feed
-      final FeedFetcher feedFetcher = new HttpClientFeedFetcher();
-      SyndFeed feed = null;
-      try
+      // Fetch and publish the entries; readers continue to see the old until done
+      synchronized (feed)
       {
-         feed = feedFetcher.retrieveFeed(url);
+         this.refresh(feed);
       }
-      catch (final FeedException fe)
+   }
+
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#refresh(java.net.URL)
+    */
+   @Override
+   public void refresh(final URL url) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (url == null)
       {
-         throw new RuntimeException(fe);
+         throw new IllegalArgumentException("URL must be specified");
       }
-      catch (final FetcherException fe)
+
+      // Refresh, unless just obtained
+      final FeedCache feeds = this.feeds;
+      final CachedFeed feed = feeds.get(url);
+      if (feed == null)
       {
-         throw new RuntimeException(fe);
+         this.obtain(feeds, url);
+         return;
       }
-      catch (final IOException ioe)
+      synchronized (feed)
       {
-         throw new RuntimeException(ioe);
+         this.refresh(feed);
       }
+   }
 
-      // Make a new list for the entries
-      final List<RssEntry> rssEntries = new ArrayList<RssEntry>();
+   /* (non-Javadoc)
+    * @see org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness#getFetchStatistics()
+    */
+   @Override
+   public FetchStatistics getFetchStatistics()
+   {
+      return fetcher.getStatistics();
+   }
 
-      // For each entry
-      @SuppressWarnings("unchecked")
-      // The Rome API doesn't provide for generics, so suppress the warning
-      final List<SyndEntry> list = (List<SyndEntry>) feed.getEntries();
-      for (final SyndEntry entry : list)
-      {
-         // Make a new entry
-         final RssEntry rssEntry = new RomeRssEntry(entry);
+   //-------------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
 
-         // Place in the list
-         rssEntries.add(rssEntry);
-         log.fine("Found new RSS Entry: " + rssEntry);
+   /**
+    * Registers the specified listener to be notified of the entries added to
+    * and removed from any cached feed by a refresh.  Not part of the remote
+    * business view; for use within the same JVM.
+    * 
+    * @param listener
+    * @throws IllegalArgumentException If the listener is not specified
+    */
+   public void addFeedChangeListener(final FeedChangeListener listener) throws IllegalArgumentException
+   {
+      // Precondition check
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("listener must be specified");
       }
+      listeners.add(listener);
+   }
+
+   /**
+    * Unregisters the specified listener, if registered
+    * 
+    * @param listener
+    */
+   public void removeFeedChangeListener(final FeedChangeListener listener)
+   {
+      listeners.remove(listener);
+   }
 
-      // Protect the entries from mutation from exporting the client view
-      final List<RssEntry> protectedEntries = Collections.unmodifiableList(rssEntries);
+   //-------------------------------------------------------------------------------------||
+   // Lifecycle --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
 
-      // Set the entries in the cache
-      this.entries = protectedEntries;
+   /**
+    * Stops the background refreshes, and closes the connections kept alive to the feeds
+    */
+   @PreDestroy
+   public void shutdown()
+   {
+      scheduler.shutdown();
+      fetcher.shutdown();
    }
 
    //-------------------------------------------------------------------------------------||
@@ -156,17 +350,187 @@ public class RssCacheBean implements RssCacheCommonBusiness
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Sets the URL pointing to the feed
+    * Sets the URL pointing to the feed, once the feed there has been obtained;
+    * if it can't be, the feed previously set (if any) remains
     * 
     * @param url
     * @throws IllegalArgumentException If the URL is null
     */
    void setUrl(final URL url) throws IllegalArgumentException
    {
-      // Set the URL
-      this.url = url;
+      // Precondition check
+      if (url == null)
+      {
+         throw new IllegalArgumentException("URL must be specified");
+      }
+
+      // Refresh, then set the feed only if obtained, so readers never see it without entries
+      final CachedFeed feed = new CachedFeed(url, Integer.MAX_VALUE);
+      synchronized (feed)
+      {
+         this.refresh(feed);
+      }
+      this.feed = feed;
+   }
+
+   /**
+    * Replaces the cache of feeds requested by URL with an empty one
+    * of the specified bounds; the feeds of the old are no longer refreshed
+    * 
+    * @param maxFeeds
+    * @param maxEntriesPerFeed
+    * @param policy
+    * @throws IllegalArgumentException If either maximum is not positive or the policy is not specified
+    */
+   void setFeedCache(final int maxFeeds, final int maxEntriesPerFeed, final FeedEvictionPolicy policy)
+         throws IllegalArgumentException
+   {
+      final FeedCache previous = this.feeds;
+      this.feeds = new FeedCache(maxFeeds, maxEntriesPerFeed, policy);
+      previous.clear();
+   }
+
+   /**
+    * Obtains the cached feed at the specified URL, obtaining and caching it if
+    * not yet cached
+    * 
+    * @param url
+    * @return
+    */
+   private CachedFeed getFeed(final URL url)
+   {
+      final FeedCache feeds = this.feeds;
+      final CachedFeed feed = feeds.get(url);
+      return feed != null ? feed : this.obtain(feeds, url);
+   }
+
+   /**
+    * Obtains the feed at the specified URL for the first time and only then
+    * admits it to the specified cache, so that feeds which can't be obtained
+    * never take the place of others.  Concurrent first requests of the same 
+    * feed may each fetch it; the first admitted is kept.  A feed which could 
+    * not be obtained is not fetched again until backed off.
+    * 
+    * @param feeds
+    * @param url
+    * @return The feed cached at the URL
+    * @throws IllegalStateException If the feed failed too recently to be fetched again
+    */
+   private CachedFeed obtain(final FeedCache feeds, final URL url) throws IllegalStateException
+   {
+      // Don't ask a failing upstream again upon every request
+      if (failures.isBackingOff(url, System.currentTimeMillis()))
+      {
+         throw new IllegalStateException("Feed failed recently, so not fetched again yet: " + url);
+      }
+
+      final CachedFeed feed = new CachedFeed(url, feeds.getMaxEntriesPerFeed());
+      try
+      {
+         synchronized (feed)
+         {
+            this.refresh(feed);
+         }
+      }
+      catch (final RuntimeException re)
+      {
+         failures.failed(url, System.currentTimeMillis());
+         throw re;
+      }
+      failures.obtained(url);
+      return feeds.add(feed);
+   }
+
+   /**
+    * Refreshes the specified feed, recording the outcome; callers 
+    * must hold the monitor of the feed.  A feed obtained for the first 
+    * time is scheduled to be refreshed in the background from then on.
+    * 
+    * @param feed
+    */
+   private void refresh(final CachedFeed feed)
+   {
+      log.info("Requested: " + feed);
+      final boolean first = feed.getEntries() == null;
+      try
+      {
+         // Obtain the feed, if changed since last obtained
+         HttpFeedFetcher.Response response = null;
+         try
+         {
+            response = fetcher.fetch(feed.getUrl(), feed.getETag(), feed.getLastModified(), feed.getContentLength());
+         }
+         catch (final FeedException fe)
+         {
+            throw new RuntimeException(fe);
+         }
+         catch (final FetcherException fe)
+         {
+            throw new RuntimeException(fe);
+         }
+         catch (final IOException ioe)
+         {
+            throw new RuntimeException(ioe);
+         }
+
+         // Refresh next as stated by the upstream; the ttl of the RSS feed stands until it's obtained again
+         if (response.getFeed() != null)
+         {
+            feed.setRssTtlMillis(response.getTtlMillis());
+         }
+         feed.setTtlMillis(Math.max(response.getMaxAgeMillis(), feed.getRssTtlMillis()));
+
+         // Unchanged, so keep the entries we have
+         if (response.getFeed() == null)
+         {
+            log.fine("Feed not modified: " + feed);
+            feed.notModified();
+         }
+         else
+         {
+            @SuppressWarnings("unchecked")
+            // The Rome API doesn't provide for generics, so suppress the warning
+            final List<SyndEntry> entries = (List<SyndEntry>) response.getFeed().getEntries();
+            final FeedChange change = feed.refreshed(entries, response.getETag(), response.getLastModified(),
+                  response.getContentLength());
+            if (change != null)
+            {
+               this.fireFeedChanged(change);
+            }
+         }
+      }
+      catch (final RuntimeException re)
+      {
+         feed.failed();
+         throw re;
+      }
 
-      // Refresh
-      this.refresh();
+      // Keep it fresh from now on
+      if (first)
+      {
+         scheduler.schedule(feed);
+      }
+   }
+
+   /**
+    * Notifies all listeners of the specified change; callers must hold
+    * the monitor of the feed, so changes of each feed are delivered in order
+    * 
+    * @param change
+    */
+   private void fireFeedChanged(final FeedChange change)
+   {
+      log.fine("Changed: " + change);
+      for (final FeedChangeListener listener : listeners)
+      {
+         try
+         {
+            listener.feedChanged(change);
+         }
+         catch (final RuntimeException re)
+         {
+            log.log(Level.WARNING, "Listener " + listener + " failed upon " + change, re);
+         }
+      }
    }
 }
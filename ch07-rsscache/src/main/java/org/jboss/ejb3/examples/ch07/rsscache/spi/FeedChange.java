@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.spi;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * The entries added to and removed from an RSS Feed by a refresh.  An entry
+ * whose content changed under the same GUID (or link) is both removed, in
+ * its old form, and added, in its new.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class FeedChange
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final String url;
+
+   private final List<RssEntry> added;
+
+   private final List<RssEntry> removed;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Creates a change of the feed at the specified URL
+    * 
+    * @param url
+    * @param added Read-only entries added, in the order of the feed
+    * @param removed Read-only entries removed, in the order previously in the feed
+    */
+   public FeedChange(final URL url, final List<RssEntry> added, final List<RssEntry> removed)
+   {
+      this.url = url.toExternalForm();
+      this.added = added;
+      this.removed = removed;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the URL of the feed
+    */
+   public URL getUrl()
+   {
+      try
+      {
+         return new URL(url);
+      }
+      catch (final MalformedURLException murle)
+      {
+         throw new RuntimeException("Error in copying URL", murle);
+      }
+   }
+
+   /**
+    * @return the read-only entries added, in the order of the feed
+    */
+   public List<RssEntry> getAdded()
+   {
+      return added;
+   }
+
+   /**
+    * @return the read-only entries removed, in the order previously in the feed
+    */
+   public List<RssEntry> getRemoved()
+   {
+      return removed;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "FeedChange [url=" + url + ", added=" + added.size() + ", removed=" + removed.size() + "]";
+   }
+}
@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.spi;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the requests made of the upstream RSS Feeds: how many
+ * returned the full feed (200) and how many found it unchanged (304),
+ * and the bytes received and saved by conditional requests and compression.
+ * 
+ * Immutable.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class FetchStatistics implements Serializable
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static final long serialVersionUID = 1L;
+
+   //-------------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private final long fetchedCount;
+
+   private final long notModifiedCount;
+
+   private final long failedCount;
+
+   private final long bytesReceived;
+
+   private final long bytesSaved;
+
+   //-------------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   public FetchStatistics(final long fetchedCount, final long notModifiedCount, final long failedCount,
+         final long bytesReceived, final long bytesSaved)
+   {
+      this.fetchedCount = fetchedCount;
+      this.notModifiedCount = notModifiedCount;
+      this.failedCount = failedCount;
+      this.bytesReceived = bytesReceived;
+      this.bytesSaved = bytesSaved;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Accessors --------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * @return the number of requests returning the full feed (200)
+    */
+   public long getFetchedCount()
+   {
+      return fetchedCount;
+   }
+
+   /**
+    * @return the number of requests finding the feed unchanged (304)
+    */
+   public long getNotModifiedCount()
+   {
+      return notModifiedCount;
+   }
+
+   /**
+    * @return the fraction of successful requests finding the feed unchanged; 0 if none
+    */
+   public double getNotModifiedRatio()
+   {
+      final long succeeded = fetchedCount + notModifiedCount;
+      return succeeded == 0 ? 0 : (double) notModifiedCount / succeeded;
+   }
+
+   /**
+    * @return the number of requests failed, by error status or otherwise
+    */
+   public long getFailedCount()
+   {
+      return failedCount;
+   }
+
+   /**
+    * @return the number of bytes of feeds received, as sent (ie. compressed)
+    */
+   public long getBytesReceived()
+   {
+      return bytesReceived;
+   }
+
+   /**
+    * @return the number of bytes not received: those of the last full response of 
+    *   each feed found unchanged, and those saved by compression
+    */
+   public long getBytesSaved()
+   {
+      return bytesSaved;
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Overridden Implementations ---------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /* (non-Javadoc)
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "FetchStatistics [fetched=" + fetchedCount + ", notModified=" + notModifiedCount + ", failed="
+            + failedCount + ", bytesReceived=" + bytesReceived + ", bytesSaved=" + bytesSaved + "]";
+   }
+}
@@ -22,6 +22,7 @@
 package org.jboss.ejb3.examples.ch07.rsscache.spi;
 
 import java.net.URL;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -42,6 +43,29 @@ public interface RssCacheCommonBusiness
     */
    List<RssEntry> getEntries();
 
+   /**
+    * Returns all entries in the RSS Feed at the specified URL, obtaining
+    * and caching the feed if not already cached.  This list will not support 
+    * mutation and is read-only.
+    * 
+    * @param url
+    * @return
+    * @throws IllegalArgumentException If the URL is not specified
+    */
+   List<RssEntry> getEntries(URL url) throws IllegalArgumentException;
+
+   /**
+    * Returns all entries in the RSS Feeds at the specified URLs, in the order
+    * of the feeds, obtaining and caching any feeds not already cached.  Feeds
+    * which cannot be obtained contribute no entries.  This list will not support 
+    * mutation and is read-only.
+    * 
+    * @param urls
+    * @return
+    * @throws IllegalArgumentException If the URLs are not specified
+    */
+   List<RssEntry> getEntries(Collection<URL> urls) throws IllegalArgumentException;
+
    /**
     * Returns the URL of the RSS Feed
     * 
@@ -54,4 +78,21 @@ public interface RssCacheCommonBusiness
     */
    void refresh();
 
+   /**
+    * Refreshes the entries from the RSS Feed at the specified URL, 
+    * caching the feed if not already cached
+    * 
+    * @param url
+    * @throws IllegalArgumentException If the URL is not specified
+    */
+   void refresh(URL url) throws IllegalArgumentException;
+
+   /**
+    * Returns the counts of requests made of the feeds, and of the 
+    * bytes received and saved by conditional requests and compression
+    * 
+    * @return
+    */
+   FetchStatistics getFetchStatistics();
+
 }
@@ -6,13 +6,18 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -20,6 +25,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import junit.framework.Assert;
 
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FetchStatistics;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
 import org.junit.AfterClass;
@@ -48,12 +54,12 @@ public abstract class RssCacheTestCaseBase
    /**
     * The number of expected RSS entries from the default RSS Feed
     */
-   private static final int EXPECTED_15_RSS_ENTRIES = 15;
+   static final int EXPECTED_15_RSS_ENTRIES = 15;
 
    /**
     * The number of expected RSS entries from the RSS Feed with 5 entries
     */
-   private static final int EXPECTED_5_RSS_ENTRIES = 5;
+   static final int EXPECTED_5_RSS_ENTRIES = 5;
 
    /**
     * Filename containing a mock RSS feed for use in testing
@@ -80,6 +86,20 @@ public abstract class RssCacheTestCaseBase
     */
    private static final String CONTENT_TYPE_RSS = "text/rss";
 
+   private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+   private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+   private static final String HEADER_ETAG = "ETag";
+
+   private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+   private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+   private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+   private static final String ENCODING_GZIP = "gzip";
+
    /**
     * The HTTP Server used to serve out the mock RSS file
     */
@@ -212,6 +232,75 @@ public abstract class RssCacheTestCaseBase
 
    }
 
+   /**
+    * Ensures that many feeds may be cached at once by URL, alone 
+    * and aggregated, and that feeds which cannot be obtained
+    * are skipped from the aggregate
+    */
+   @Test
+   public void testMultipleFeeds() throws Exception
+   {
+      // Log
+      log.info("testMultipleFeeds");
+
+      // Get the RSS Cache Bean
+      final RssCacheCommonBusiness rssCache = this.getRssCacheBean();
+
+      // Get the entries of each feed
+      final URL url15 = getFeedUrl(FILENAME_RSS_MOCK_FEED_15_ENTRIES);
+      final URL url5 = getFeedUrl(FILENAME_RSS_MOCK_FEED_5_ENTRIES);
+      this.ensureExpectedEntries(rssCache.getEntries(url15), EXPECTED_15_RSS_ENTRIES);
+      this.ensureExpectedEntries(rssCache.getEntries(url5), EXPECTED_5_RSS_ENTRIES);
+
+      // Get them aggregated, along with a feed which doesn't exist
+      final URL urlMissing = getFeedUrl("missing.rss");
+      final List<RssEntry> aggregated = rssCache.getEntries(Arrays.asList(url15, urlMissing, url5));
+      log.info("Got aggregated entries: " + aggregated);
+      this.ensureExpectedEntries(aggregated, EXPECTED_15_RSS_ENTRIES + EXPECTED_5_RSS_ENTRIES);
+
+      // The default feed is unaffected
+      this.ensureExpectedEntries(rssCache.getEntries(), EXPECTED_15_RSS_ENTRIES);
+   }
+
+   /**
+    * Ensures that a feed is received compressed, and that a refresh of a feed
+    * unchanged since is answered without the feed being sent again
+    */
+   @Test
+   public void testConditionalRefresh() throws Exception
+   {
+      // Log
+      log.info("testConditionalRefresh");
+
+      // Get the RSS Cache Bean
+      final RssCacheCommonBusiness rssCache = this.getRssCacheBean();
+
+      // Get a feed not yet cached (the query keeps it apart from that of other tests), so in full
+      final URL url = getFeedUrl(FILENAME_RSS_MOCK_FEED_15_ENTRIES + "?conditional");
+      final FetchStatistics before = rssCache.getFetchStatistics();
+      this.ensureExpectedEntries(rssCache.getEntries(url), EXPECTED_15_RSS_ENTRIES);
+      final FetchStatistics fetched = rssCache.getFetchStatistics();
+      log.info("Statistics after fetch: " + fetched);
+      Assert.assertEquals("Feed not fetched in full", before.getFetchedCount() + 1, fetched.getFetchedCount());
+      final long received = fetched.getBytesReceived() - before.getBytesReceived();
+      Assert.assertTrue("Feed not received compressed", received > 0
+            && received < getMock15EntriesRssFile().length());
+
+      // Refresh the unchanged feed
+      rssCache.refresh(url);
+      final FetchStatistics refreshed = rssCache.getFetchStatistics();
+      log.info("Statistics after refresh: " + refreshed);
+      Assert.assertEquals("Unchanged feed was fetched again", fetched.getFetchedCount(), refreshed.getFetchedCount());
+      Assert.assertEquals("Unchanged feed was not found to be so", fetched.getNotModifiedCount() + 1, refreshed
+            .getNotModifiedCount());
+      Assert.assertEquals("Unchanged feed not counted as saved", received, refreshed.getBytesSaved()
+            - fetched.getBytesSaved());
+      Assert.assertTrue("No requests found an unchanged feed", refreshed.getNotModifiedRatio() > 0);
+
+      // The entries are kept
+      this.ensureExpectedEntries(rssCache.getEntries(url), EXPECTED_15_RSS_ENTRIES);
+   }
+
    //-------------------------------------------------------------------------------------||
    // Contracts --------------------------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -239,6 +328,24 @@ public abstract class RssCacheTestCaseBase
       log.info("Got expected " + expectedSize + " RSS entries");
    }
 
+   /**
+    * Obtains the URL at which the test HTTP Server serves the specified file
+    * 
+    * @param filename
+    * @return
+    */
+   static URL getFeedUrl(final String filename)
+   {
+      try
+      {
+         return new URL("http://localhost:" + HTTP_TEST_BIND_PORT + "/" + filename);
+      }
+      catch (final MalformedURLException murle)
+      {
+         throw new RuntimeException("Error in constructing the URL of a mock RSS feed", murle);
+      }
+   }
+
    /**
     * Obtains the base of the code source
     */
@@ -253,7 +360,7 @@ public abstract class RssCacheTestCaseBase
     * @param templateFile
     * @throws Exception
     */
-   private static void writeToRssFeedFile(final File templateFile) throws Exception
+   static void writeToRssFeedFile(final File templateFile) throws Exception
    {
       // Get a writer to the target file
       final File rssFile = getRssFeedFile();
@@ -293,7 +400,7 @@ public abstract class RssCacheTestCaseBase
     * @return
     * @throws Exception
     */
-   private static File getMock15EntriesRssFile() throws Exception
+   static File getMock15EntriesRssFile() throws Exception
    {
       return getFileFromBase(FILENAME_RSS_MOCK_FEED_15_ENTRIES);
    }
@@ -303,7 +410,7 @@ public abstract class RssCacheTestCaseBase
     * @return
     * @throws Exception
     */
-   private static File getMock5EntriesRssFile() throws Exception
+   static File getMock5EntriesRssFile() throws Exception
    {
       return getFileFromBase(FILENAME_RSS_MOCK_FEED_5_ENTRIES);
    }
@@ -339,7 +446,9 @@ public abstract class RssCacheTestCaseBase
    //-------------------------------------------------------------------------------------||
 
    /**
-    * Jetty Handler to serve a static character file from the web root
+    * Jetty Handler to serve a static character file from the web root,
+    * compressed if the client accepts, and answering conditional requests
+    * for a file unchanged since with 304
     */
    private static class StaticFileHandler extends AbstractHandler implements Handler
    {
@@ -376,9 +485,32 @@ public abstract class RssCacheTestCaseBase
             return;
          }
 
+         // Unchanged since the client's copy, so 304
+         final String eTag = "\"" + file.length() + "-" + file.lastModified() + "\"";
+         final long lastModified = file.lastModified();
+         response.setHeader(HEADER_ETAG, eTag);
+         response.setDateHeader(HEADER_LAST_MODIFIED, lastModified);
+         final String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+         final long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+         if (ifNoneMatch != null ? ifNoneMatch.equals(eTag) : ifModifiedSince >= 0
+               && lastModified / 1000 <= ifModifiedSince / 1000)
+         {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+         }
+
+         // Compress if accepted
+         OutputStream out = response.getOutputStream();
+         final String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+         if (acceptEncoding != null && acceptEncoding.contains(ENCODING_GZIP))
+         {
+            response.setHeader(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+            out = new GZIPOutputStream(out);
+         }
+
          // Write out each line
          final BufferedReader reader = new BufferedReader(new FileReader(file));
-         final PrintWriter writer = response.getWriter();
+         final PrintWriter writer = new PrintWriter(new OutputStreamWriter(out));
          String line = null;
          while ((line = reader.readLine()) != null)
          {
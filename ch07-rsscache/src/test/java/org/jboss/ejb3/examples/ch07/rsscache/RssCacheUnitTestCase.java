@@ -23,12 +23,20 @@ package org.jboss.ejb3.examples.ch07.rsscache;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
+import junit.framework.Assert;
+
 import org.jboss.ejb3.examples.ch07.rsscache.impl.rome.TestRssCacheBean;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FeedChange;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FeedChangeListener;
 import org.jboss.ejb3.examples.ch07.rsscache.spi.RssCacheCommonBusiness;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 /**
  * Unit Tests for the RssCache classes, 
@@ -51,7 +59,7 @@ public class RssCacheUnitTestCase extends RssCacheTestCaseBase
    /**
     * The bean (POJO) instance to test, mocking a @Singleton EJB
     */
-   private static RssCacheCommonBusiness bean;
+   private static TestRssCacheBean bean;
 
    //-------------------------------------------------------------------------------------||
    // Lifecycle --------------------------------------------------------------------------||
@@ -95,6 +103,67 @@ public class RssCacheUnitTestCase extends RssCacheTestCaseBase
       bean = null;
    }
 
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a refresh reuses the entries unchanged, and publishes 
+    * those added and removed to registered listeners.  Listeners are
+    * registered only within the same JVM, so are tested upon the POJO alone.
+    */
+   @Test
+   public void testFeedChangeListener() throws Exception
+   {
+      // Log
+      log.info("testFeedChangeListener");
+
+      // Record the changes
+      final List<FeedChange> changes = new CopyOnWriteArrayList<FeedChange>();
+      final FeedChangeListener listener = new FeedChangeListener()
+      {
+         @Override
+         public void feedChanged(final FeedChange change)
+         {
+            changes.add(change);
+         }
+      };
+      bean.addFeedChangeListener(listener);
+      try
+      {
+         // Swap out the contents of the RSS Feed File for the first 5 entries alone, and refresh
+         final List<RssEntry> before = bean.getEntries();
+         writeToRssFeedFile(getMock5EntriesRssFile());
+         bean.refresh();
+         Assert.assertEquals("Change not published", 1, changes.size());
+         FeedChange change = changes.get(0);
+         log.info("Got change: " + change);
+         Assert.assertEquals("Change not of the feed", bean.getUrl(), change.getUrl());
+         Assert.assertEquals("No entries should have been added", 0, change.getAdded().size());
+         Assert.assertEquals("Dropped entries should have been removed", EXPECTED_15_RSS_ENTRIES
+               - EXPECTED_5_RSS_ENTRIES, change.getRemoved().size());
+         final List<RssEntry> after = bean.getEntries();
+         for (int i = 0; i < EXPECTED_5_RSS_ENTRIES; i++)
+         {
+            Assert.assertSame("Unchanged entry not reused", before.get(i), after.get(i));
+         }
+
+         // Put back the original 15 mock entries
+         writeToRssFeedFile(getMock15EntriesRssFile());
+         bean.refresh();
+         Assert.assertEquals("Change not published", 2, changes.size());
+         change = changes.get(1);
+         log.info("Got change: " + change);
+         Assert.assertEquals("Restored entries should have been added", EXPECTED_15_RSS_ENTRIES
+               - EXPECTED_5_RSS_ENTRIES, change.getAdded().size());
+         Assert.assertEquals("No entries should have been removed", 0, change.getRemoved().size());
+      }
+      finally
+      {
+         bean.removeFeedChangeListener(listener);
+      }
+   }
+
    //-------------------------------------------------------------------------------------||
    // Required Implementations -----------------------------------------------------------||
    //-------------------------------------------------------------------------------------||
@@ -0,0 +1,319 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.examples.ch07.rsscache.spi.FeedChange;
+import org.jboss.ejb3.examples.ch07.rsscache.spi.RssEntry;
+import org.junit.Test;
+
+import com.sun.syndication.feed.synd.SyndContent;
+import com.sun.syndication.feed.synd.SyndContentImpl;
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndEntryImpl;
+
+/**
+ * Unit Tests of the bounds, admission and eviction of the {@link FeedCache}, 
+ * and of the diffing of entries upon refresh of a {@link CachedFeed}, 
+ * which need no feeds to be fetched
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FeedCacheUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FeedCacheUnitTestCase.class.getName());
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that at capacity the least recently requested feed is evicted under LRU
+    */
+   @Test
+   public void testLruEviction() throws Exception
+   {
+      // Log
+      log.info("testLruEviction");
+
+      // Fill, then request the first again
+      final FeedCache cache = new FeedCache(2, 10, FeedEvictionPolicy.LRU);
+      cache.add(obtainedFeed(1));
+      cache.add(obtainedFeed(2));
+      cache.get(feedUrl(1));
+
+      // Add another, so the second is evicted
+      cache.add(obtainedFeed(3));
+      Assert.assertEquals("Cache not bounded", 2, cache.size());
+      Assert.assertTrue("Recently requested feed was evicted", cache.contains(feedUrl(1)));
+      Assert.assertFalse("Least recently requested feed was not evicted", cache.contains(feedUrl(2)));
+      Assert.assertTrue("Added feed was evicted", cache.contains(feedUrl(3)));
+   }
+
+   /**
+    * Ensures that at capacity the least often requested feed is evicted under LFU, 
+    * and never the one being added
+    */
+   @Test
+   public void testLfuEviction() throws Exception
+   {
+      // Log
+      log.info("testLfuEviction");
+
+      // Fill, requesting the first often and the second once more
+      final FeedCache cache = new FeedCache(2, 10, FeedEvictionPolicy.LFU);
+      cache.add(obtainedFeed(1));
+      for (int i = 0; i < 2; i++)
+      {
+         cache.get(feedUrl(1));
+      }
+      cache.add(obtainedFeed(2));
+      cache.get(feedUrl(2));
+
+      // Add another, so the second is evicted even though more recently requested
+      cache.add(obtainedFeed(3));
+      Assert.assertEquals("Cache not bounded", 2, cache.size());
+      Assert.assertTrue("Most often requested feed was evicted", cache.contains(feedUrl(1)));
+      Assert.assertFalse("Least often requested feed was not evicted", cache.contains(feedUrl(2)));
+      Assert.assertTrue("Added feed was evicted", cache.contains(feedUrl(3)));
+
+      // And another, so the third (requested once) goes rather than the new one
+      cache.add(obtainedFeed(4));
+      Assert.assertFalse("Least often requested feed was not evicted", cache.contains(feedUrl(3)));
+      Assert.assertTrue("Added feed was evicted", cache.contains(feedUrl(4)));
+   }
+
+   /**
+    * Ensures that under LFU the request counts age, so a feed once requested 
+    * often but no longer is evicted before one requested often of late
+    */
+   @Test
+   public void testLfuAging() throws Exception
+   {
+      // Log
+      log.info("testLfuAging");
+
+      // Request the first often, then the second somewhat less but more recently
+      final int maxFeeds = 2;
+      final int agingInterval = maxFeeds * FeedCache.AGING_REQUESTS_PER_FEED;
+      final FeedCache cache = new FeedCache(maxFeeds, 10, FeedEvictionPolicy.LFU);
+      cache.add(obtainedFeed(1));
+      for (int i = 0; i < agingInterval * 3; i++)
+      {
+         cache.get(feedUrl(1));
+      }
+      cache.add(obtainedFeed(2));
+      for (int i = 0; i < agingInterval * 2; i++)
+      {
+         cache.get(feedUrl(2));
+      }
+
+      // Add another, so the first is evicted despite more requests in all
+      cache.add(obtainedFeed(3));
+      Assert.assertFalse("Feed no longer requested was not evicted", cache.contains(feedUrl(1)));
+      Assert.assertTrue("Feed requested of late was evicted", cache.contains(feedUrl(2)));
+      Assert.assertTrue("Added feed was evicted", cache.contains(feedUrl(3)));
+   }
+
+   /**
+    * Ensures that feeds are admitted only once obtained, so requests of
+    * those not cached (or never obtainable) evict nothing
+    */
+   @Test
+   public void testAdmission() throws Exception
+   {
+      // Log
+      log.info("testAdmission");
+
+      // Fill
+      final FeedCache cache = new FeedCache(1, 10, FeedEvictionPolicy.LRU);
+      final CachedFeed first = cache.add(obtainedFeed(1));
+
+      // Requests of another feed, not yet obtained, leave the cache be
+      for (int i = 0; i < 3; i++)
+      {
+         Assert.assertNull("Feed not yet obtained should not be cached", cache.get(feedUrl(2)));
+      }
+      Assert.assertTrue("Cached feed was evicted by requests of another", cache.contains(feedUrl(1)));
+      Assert.assertTrue("Cached feed was evicted by requests of another", cache.isCached(first));
+
+      // Nor may it be added until obtained
+      try
+      {
+         cache.add(new CachedFeed(feedUrl(2), cache.getMaxEntriesPerFeed()));
+         Assert.fail("Feed not yet obtained should not have been admitted");
+      }
+      catch (final IllegalArgumentException expected)
+      {
+         // Good
+      }
+      Assert.assertTrue("Cached feed was evicted by a feed not obtained", cache.isCached(first));
+
+      // The same feed obtained twice is cached once
+      Assert.assertSame("Feed obtained meanwhile should have been kept", first, cache.add(obtainedFeed(1)));
+      Assert.assertEquals("Feed cached twice", 1, cache.size());
+   }
+
+   /**
+    * Ensures that entries beyond the maximum per feed are dropped
+    */
+   @Test
+   public void testEntriesBounded() throws Exception
+   {
+      // Log
+      log.info("testEntriesBounded");
+
+      // Refresh a feed with more entries than held
+      final FeedCache cache = new FeedCache(1, 10, FeedEvictionPolicy.LRU);
+      final CachedFeed feed = new CachedFeed(feedUrl(1), cache.getMaxEntriesPerFeed());
+      Assert.assertNull("Feed not yet obtained should have no entries", feed.getEntries());
+      feed.refreshed(syndEntries(0, 15), null, null, 0);
+      Assert.assertEquals("Entries not bounded", 10, feed.getEntries().size());
+      Assert.assertEquals("Refresh not recorded", 0, feed.getConsecutiveFailures());
+      Assert.assertTrue("Refresh time not recorded", feed.getLastRefreshed() > 0);
+
+      // Failures keep the entries
+      feed.failed();
+      Assert.assertEquals("Failure not recorded", 1, feed.getConsecutiveFailures());
+      Assert.assertEquals("Entries lost upon failure", 10, feed.getEntries().size());
+   }
+
+   /**
+    * Ensures that a refresh finding the same entries reports no change
+    * and keeps the entries held
+    */
+   @Test
+   public void testRefreshUnchanged() throws Exception
+   {
+      // Log
+      log.info("testRefreshUnchanged");
+
+      // First load reports all entries as added
+      final CachedFeed feed = new CachedFeed(feedUrl(1), 10);
+      final FeedChange first = feed.refreshed(syndEntries(0, 5), null, null, 0);
+      Assert.assertEquals("First load should add all entries", 5, first.getAdded().size());
+      Assert.assertEquals("First load should remove no entries", 0, first.getRemoved().size());
+      final List<RssEntry> entries = feed.getEntries();
+
+      // Refresh with equal entries, parsed anew
+      Assert.assertNull("Unchanged refresh should report no change", feed.refreshed(syndEntries(0, 5), null, null,
+            0));
+      Assert.assertSame("Unchanged refresh should keep the entries held", entries, feed.getEntries());
+   }
+
+   /**
+    * Ensures that a refresh reuses the entries unchanged, and reports those
+    * added, removed, and changed under the same key
+    */
+   @Test
+   public void testRefreshDiff() throws Exception
+   {
+      // Log
+      log.info("testRefreshDiff");
+
+      // Load, then drop all but the first five
+      final CachedFeed feed = new CachedFeed(feedUrl(1), 10);
+      feed.refreshed(syndEntries(0, 10), null, null, 0);
+      final List<RssEntry> before = feed.getEntries();
+      FeedChange change = feed.refreshed(syndEntries(0, 5), null, null, 0);
+      Assert.assertEquals("No entries should have been added", 0, change.getAdded().size());
+      Assert.assertEquals("Dropped entries should have been removed", 5, change.getRemoved().size());
+      Assert.assertSame("Removed entry not reported", before.get(5), change.getRemoved().get(0));
+      for (int i = 0; i < 5; i++)
+      {
+         Assert.assertSame("Unchanged entry not reused", before.get(i), feed.getEntries().get(i));
+      }
+
+      // Add one ahead, and change the content of another under the same key
+      final List<SyndEntry> incoming = new ArrayList<SyndEntry>();
+      incoming.addAll(syndEntries(20, 21));
+      incoming.addAll(syndEntries(0, 5));
+      incoming.get(3).setTitle("Changed");
+      change = feed.refreshed(incoming, null, null, 0);
+      Assert.assertEquals("New and changed entries should have been added", 2, change.getAdded().size());
+      Assert.assertEquals("Changed entry should have been removed", 1, change.getRemoved().size());
+      Assert.assertSame("Removed entry not reported", before.get(2), change.getRemoved().get(0));
+      Assert.assertEquals("Changed entry not reported", "Changed", change.getAdded().get(1).getTitle());
+      final List<RssEntry> after = feed.getEntries();
+      Assert.assertEquals("Entries not in order of the feed", 6, after.size());
+      Assert.assertSame("New entry not in order of the feed", change.getAdded().get(0), after.get(0));
+      Assert.assertSame("Unchanged entry not reused", before.get(0), after.get(1));
+      Assert.assertSame("Changed entry not replaced", change.getAdded().get(1), after.get(3));
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the URL of a feed distinguished by the specified index
+    */
+   private static URL feedUrl(final int index) throws Exception
+   {
+      return new URL("http://localhost/feed" + index + ".rss");
+   }
+
+   /**
+    * Obtains a feed distinguished by the specified index, as if fetched
+    */
+   private static CachedFeed obtainedFeed(final int index) throws Exception
+   {
+      final CachedFeed feed = new CachedFeed(feedUrl(index), 10);
+      feed.refreshed(syndEntries(0, 1), null, null, 0);
+      return feed;
+   }
+
+   /**
+    * Obtains newly-made Rome entries distinguished by the specified range of indexes
+    */
+   private static List<SyndEntry> syndEntries(final int from, final int to)
+   {
+      final List<SyndEntry> entries = new ArrayList<SyndEntry>();
+      for (int i = from; i < to; i++)
+      {
+         final SyndContent description = new SyndContentImpl();
+         description.setValue("Description " + i);
+         final SyndEntry entry = new SyndEntryImpl();
+         entry.setUri("urn:entry:" + i);
+         entry.setLink("http://localhost/entry" + i);
+         entry.setTitle("Entry " + i);
+         entry.setAuthor("ALR");
+         entry.setDescription(description);
+         entries.add(entry);
+      }
+      return entries;
+   }
+}
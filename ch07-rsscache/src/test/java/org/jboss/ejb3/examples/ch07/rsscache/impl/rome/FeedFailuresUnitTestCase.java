@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.net.URL;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit Tests of the backoff of feeds recorded by the {@link FeedFailures},
+ * and of the bound upon the feeds recorded
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FeedFailuresUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FeedFailuresUnitTestCase.class.getName());
+
+   private static final int MAX_FEEDS = 2;
+
+   private static final long MIN_BACKOFF = 100;
+
+   private static final long MAX_BACKOFF = 1000;
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a failed feed is backed off for an interval doubling with 
+    * each consecutive failure, up to the maximum, and no longer once obtained
+    */
+   @Test
+   public void testBackoff() throws Exception
+   {
+      // Log
+      log.info("testBackoff");
+
+      final FeedFailures failures = new FeedFailures(MAX_FEEDS, MIN_BACKOFF, MAX_BACKOFF);
+      final URL url = new URL("http://localhost/failing.rss");
+      Assert.assertFalse("Feed never failed backed off", failures.isBackingOff(url, 0));
+
+      // First failure
+      failures.failed(url, 0);
+      Assert.assertTrue("Failed feed not backed off", failures.isBackingOff(url, MIN_BACKOFF - 1));
+      Assert.assertFalse("Failed feed backed off too long", failures.isBackingOff(url, MIN_BACKOFF));
+
+      // Consecutive failures
+      failures.failed(url, MIN_BACKOFF);
+      Assert.assertTrue("Not backed off exponentially", failures.isBackingOff(url, MIN_BACKOFF * 3 - 1));
+      Assert.assertFalse("Backed off too long", failures.isBackingOff(url, MIN_BACKOFF * 3));
+      Assert.assertEquals("Backoff not bounded", MAX_BACKOFF, failures.getBackoffMillis(10));
+      Assert.assertEquals("Backoff not bounded", MAX_BACKOFF, failures.getBackoffMillis(Integer.MAX_VALUE));
+
+      // Obtained
+      failures.obtained(url);
+      Assert.assertFalse("Obtained feed backed off", failures.isBackingOff(url, MIN_BACKOFF));
+      Assert.assertEquals("Obtained feed still recorded", 0, failures.size());
+   }
+
+   /**
+    * Ensures that no more than the maximum feeds are recorded, the feed 
+    * failed least recently being forgotten
+    */
+   @Test
+   public void testBounded() throws Exception
+   {
+      // Log
+      log.info("testBounded");
+
+      final FeedFailures failures = new FeedFailures(MAX_FEEDS, MIN_BACKOFF, MAX_BACKOFF);
+      final URL first = new URL("http://localhost/first.rss");
+      final URL second = new URL("http://localhost/second.rss");
+      final URL third = new URL("http://localhost/third.rss");
+      failures.failed(first, 0);
+      failures.failed(second, 0);
+      failures.failed(third, 0);
+      Assert.assertEquals("Record not bounded", MAX_FEEDS, failures.size());
+      Assert.assertFalse("Feed failed least recently not forgotten", failures.isBackingOff(first, 0));
+      Assert.assertTrue("Feed failed recently forgotten", failures.isBackingOff(second, 0));
+      Assert.assertTrue("Feed failed recently forgotten", failures.isBackingOff(third, 0));
+   }
+
+   /**
+    * Ensures that bounds not making sense are rejected
+    */
+   @Test
+   public void testInvalidBounds() throws Exception
+   {
+      // Log
+      log.info("testInvalidBounds");
+
+      try
+      {
+         new FeedFailures(0, MIN_BACKOFF, MAX_BACKOFF);
+         Assert.fail("Maximum feeds of 0 should not have been accepted");
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         // Good
+      }
+      try
+      {
+         new FeedFailures(MAX_FEEDS, MAX_BACKOFF, MIN_BACKOFF);
+         Assert.fail("Minimum backoff above the maximum should not have been accepted");
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         // Good
+      }
+   }
+}
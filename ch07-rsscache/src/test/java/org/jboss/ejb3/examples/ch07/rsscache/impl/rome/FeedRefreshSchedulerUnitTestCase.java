@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.examples.ch07.rsscache.impl.rome;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit Tests of the intervals chosen by the {@link FeedRefreshScheduler},
+ * and of its refreshing feeds until no longer cached
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class FeedRefreshSchedulerUnitTestCase
+{
+
+   //-------------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(FeedRefreshSchedulerUnitTestCase.class.getName());
+
+   private static final long DEFAULT_INTERVAL = 1000;
+
+   private static final long MIN_INTERVAL = 100;
+
+   private static final long MAX_INTERVAL = 10000;
+
+   private static final double JITTER = 0.1;
+
+   /**
+    * A random number choosing no jitter
+    */
+   private static final double NO_JITTER = 0.5;
+
+   /**
+    * Refresher of no feeds, for tests of the intervals alone
+    */
+   private static final FeedRefreshScheduler.Refresher NEVER = new FeedRefreshScheduler.Refresher()
+   {
+      @Override
+      public boolean refresh(final CachedFeed feed)
+      {
+         return false;
+      }
+   };
+
+   //-------------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that the interval stated by the upstream is honoured within 
+    * bounds, and the default used otherwise
+    */
+   @Test
+   public void testStatedInterval() throws Exception
+   {
+      // Log
+      log.info("testStatedInterval");
+
+      final FeedRefreshScheduler scheduler = createScheduler(NEVER);
+      try
+      {
+         Assert.assertEquals("Default not used", DEFAULT_INTERVAL, scheduler.getDelayMillis(0, 0, NO_JITTER));
+         Assert.assertEquals("Stated interval not honoured", 5000, scheduler.getDelayMillis(5000, 0, NO_JITTER));
+         Assert.assertEquals("Minimum not enforced", MIN_INTERVAL, scheduler.getDelayMillis(1, 0, NO_JITTER));
+         Assert.assertEquals("Maximum not enforced", MAX_INTERVAL, scheduler.getDelayMillis(MAX_INTERVAL * 2, 0,
+               NO_JITTER));
+      }
+      finally
+      {
+         scheduler.shutdown();
+      }
+   }
+
+   /**
+    * Ensures that the interval doubles with each consecutive failure, up to the maximum
+    */
+   @Test
+   public void testBackoff() throws Exception
+   {
+      // Log
+      log.info("testBackoff");
+
+      final FeedRefreshScheduler scheduler = createScheduler(NEVER);
+      try
+      {
+         Assert.assertEquals("Not backed off", DEFAULT_INTERVAL * 2, scheduler.getDelayMillis(0, 1, NO_JITTER));
+         Assert.assertEquals("Not backed off exponentially", DEFAULT_INTERVAL * 8, scheduler.getDelayMillis(0, 3,
+               NO_JITTER));
+         Assert.assertEquals("Backoff not bounded", MAX_INTERVAL, scheduler.getDelayMillis(0, 10, NO_JITTER));
+         Assert.assertEquals("Backoff not bounded", MAX_INTERVAL, scheduler.getDelayMillis(0, Integer.MAX_VALUE,
+               NO_JITTER));
+      }
+      finally
+      {
+         scheduler.shutdown();
+      }
+   }
+
+   /**
+    * Ensures that intervals are randomly lengthened or shortened within the jitter
+    */
+   @Test
+   public void testJitter() throws Exception
+   {
+      // Log
+      log.info("testJitter");
+
+      final FeedRefreshScheduler scheduler = createScheduler(NEVER);
+      try
+      {
+         Assert.assertEquals("Not shortened by the jitter", (long) (DEFAULT_INTERVAL * (1 - JITTER)), scheduler
+               .getDelayMillis(0, 0, 0));
+         final long longest = scheduler.getDelayMillis(0, 0, 0.9999);
+         Assert.assertTrue("Not lengthened within the jitter: " + longest, longest > DEFAULT_INTERVAL
+               && longest <= DEFAULT_INTERVAL * (1 + JITTER));
+      }
+      finally
+      {
+         scheduler.shutdown();
+      }
+   }
+
+   /**
+    * Ensures that a feed is refreshed upon its schedule until no longer cached
+    */
+   @Test
+   public void testRefreshedUntilNoLongerCached() throws Exception
+   {
+      // Log
+      log.info("testRefreshedUntilNoLongerCached");
+
+      // Refresh a few times, then report the feed no longer cached
+      final CountDownLatch refreshes = new CountDownLatch(3);
+      final FeedRefreshScheduler scheduler = createScheduler(new FeedRefreshScheduler.Refresher()
+      {
+         @Override
+         public boolean refresh(final CachedFeed feed)
+         {
+            refreshes.countDown();
+            return refreshes.getCount() > 0;
+         }
+      });
+      try
+      {
+         final CachedFeed feed = new CachedFeed(new URL("http://localhost/feed.rss"), 10);
+         feed.setTtlMillis(MIN_INTERVAL);
+         scheduler.schedule(feed);
+         Assert.assertTrue("Feed not refreshed upon its schedule", refreshes.await(MIN_INTERVAL * 30,
+               TimeUnit.MILLISECONDS));
+      }
+      finally
+      {
+         scheduler.shutdown();
+      }
+   }
+
+   //-------------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------------||
+   //-------------------------------------------------------------------------------------||
+
+   private static FeedRefreshScheduler createScheduler(final FeedRefreshScheduler.Refresher refresher)
+   {
+      return new FeedRefreshScheduler(refresher, 2, DEFAULT_INTERVAL, MIN_INTERVAL, MAX_INTERVAL, JITTER);
+   }
+}